@@ -45,11 +45,21 @@ public class MockSDAPlotter implements ISDAPlotter {
 		throw newShouldNotBeCalled();
 	}
 
+	@Override
+	public void appendPlot(String plotName, int line, IDataset[] xValues, IDataset[] yValues) throws Exception {
+		throw newShouldNotBeCalled();
+	}
+
 	@Override
 	public void imagePlot(String plotName, String imageFileName) throws Exception {
 		throw newShouldNotBeCalled();
 	}
 
+	@Override
+	public void updateImageRegion(String plotName, IDataset region, int startRow, int startColumn) throws Exception {
+		throw newShouldNotBeCalled();
+	}
+
 	@Override
 	public void imagePlot(String plotName, IDataset xValues, IDataset yValues, IDataset image, String xName, String yName) throws Exception {
 		throw newShouldNotBeCalled();
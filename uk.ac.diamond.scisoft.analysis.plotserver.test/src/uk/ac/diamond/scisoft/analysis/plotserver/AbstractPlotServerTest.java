@@ -0,0 +1,252 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.plotserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.MockPlotServer;
+
+public class AbstractPlotServerTest {
+
+	private static final String VIEW = "Plot 1";
+
+	private static DataBean createBean(int i, boolean add) throws DataBeanException {
+		DataBean bean = new DataBean(GuiPlotMode.ONED);
+		String xid = "x" + i;
+		bean.addAxis(xid, DatasetFactory.createRange(DoubleDataset.class, i, i + 10, 1));
+		DoubleDataset y = DatasetFactory.createRange(DoubleDataset.class, 10);
+		y.setName("y" + i);
+		bean.addData(DatasetWithAxisInformation.createAxisDataSet(y, xid));
+		if (add) {
+			bean.putGuiParameter(GuiParameters.PLOTOPERATION, GuiParameters.PLOTOP_ADD);
+		}
+		return bean;
+	}
+
+	@Test
+	public void testAddIsBounded() throws Exception {
+		MockPlotServer server = new MockPlotServer();
+		server.setMaximumDatasets(3);
+		server.setData(VIEW, createBean(0, false));
+		DataBean first = server.getData(VIEW);
+		for (int i = 1; i < 6; i++) {
+			server.setData(VIEW, createBean(i, true));
+		}
+
+		Assert.assertEquals("Fetched bean must not change", 1, first.getData().size());
+		DataBean bean = server.getData(VIEW);
+		List<DatasetWithAxisInformation> data = bean.getData();
+		Assert.assertEquals(3, data.size());
+		Assert.assertEquals("y5", data.get(2).getData().getName());
+		Assert.assertEquals("y3", data.get(0).getData().getName());
+		Assert.assertEquals(3, bean.getAxisData().size());
+		for (DatasetWithAxisInformation d : data) {
+			Assert.assertNotNull(bean.getAxis(d.getAxisMap().getAxisID()[0]));
+		}
+		Assert.assertEquals(GuiPlotMode.ONED, server.getGuiState(VIEW).get(GuiParameters.PLOTMODE));
+	}
+
+	@Test
+	public void testUpdatesCoalesced() throws Exception {
+		MockPlotServer server = new MockPlotServer();
+		Assert.assertTrue(server.storeData(VIEW, createBean(0, false)));
+		Assert.assertFalse(server.storeData(VIEW, createBean(1, false)));
+		Assert.assertFalse(server.storeData(VIEW, createBean(2, false)));
+		Assert.assertTrue(server.storeData("Plot 2", createBean(2, false)));
+		Assert.assertEquals("y2", server.getData(VIEW).getData().get(0).getData().getName());
+		Assert.assertTrue(server.storeData(VIEW, createBean(3, false)));
+
+		Thread.sleep(AbstractPlotServer.RENOTIFY_INTERVAL + 50);
+		Assert.assertTrue("Should notify again after interval", server.storeData(VIEW, createBean(4, false)));
+	}
+
+	@Test
+	public void testConcurrentAdds() throws Exception {
+		final MockPlotServer server = new MockPlotServer();
+		server.setMaximumDatasets(1000);
+		server.setData(VIEW, createBean(-1, false));
+		final int threads = 4;
+		final int adds = 50;
+		List<Thread> workers = new ArrayList<Thread>();
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		for (int t = 0; t < threads; t++) {
+			final int offset = t * adds;
+			Thread w = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < adds; i++) {
+							server.storeData(VIEW, createBean(offset + i, true));
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			workers.add(w);
+			w.start();
+		}
+		for (Thread w : workers) {
+			w.join();
+		}
+
+		Assert.assertTrue(errors.isEmpty());
+		Assert.assertEquals(threads * adds + 1, server.getData(VIEW).getData().size());
+	}
+
+	@Test
+	public void testAppend() throws Exception {
+		MockPlotServer server = new MockPlotServer();
+		server.setData(VIEW, createBean(0, false));
+		DataBean first = server.getData(VIEW);
+
+		DataBean delta = new DataBean(GuiPlotMode.ONED);
+		delta.addAxis("x", DatasetFactory.createRange(DoubleDataset.class, 10, 15, 1));
+		delta.addData(DatasetWithAxisInformation.createAxisDataSet(DatasetFactory.createRange(DoubleDataset.class, 10, 15, 1), "x"));
+		delta.putGuiParameter(GuiParameters.PLOTOPERATION, GuiParameters.PLOTOP_APPEND);
+		server.setData(VIEW, delta);
+
+		Assert.assertEquals("Fetched bean must not change", 10, first.getData().get(0).getData().getSize());
+		DataBean bean = server.getData(VIEW);
+		Assert.assertEquals(GuiParameters.PLOTOP_UPDATE, bean.getGuiParameters().get(GuiParameters.PLOTOPERATION));
+		DatasetWithAxisInformation line = bean.getData().get(0);
+		Assert.assertEquals("y0", line.getData().getName());
+		Assert.assertEquals(15, line.getData().getSize());
+		Assert.assertEquals(14, line.getData().getDouble(14), 0);
+		Dataset x = bean.getAxis(line.getAxisMap().getAxisID()[0]);
+		Assert.assertEquals(15, x.getSize());
+		Assert.assertEquals(14, x.getDouble(14), 0);
+	}
+
+	@Test
+	public void testRegion() throws Exception {
+		MockPlotServer server = new MockPlotServer();
+		DataBean bean = new DataBean(GuiPlotMode.TWOD);
+		DatasetWithAxisInformation image = new DatasetWithAxisInformation();
+		image.setAxisMap(new AxisMapBean());
+		image.setData(DatasetFactory.zeros(DoubleDataset.class, 10, 10));
+		bean.addData(image);
+		server.setData(VIEW, bean);
+
+		DataBean delta = new DataBean(GuiPlotMode.TWOD);
+		DatasetWithAxisInformation region = new DatasetWithAxisInformation();
+		region.setAxisMap(new AxisMapBean());
+		region.setData(DatasetFactory.ones(DoubleDataset.class, 2, 3));
+		delta.addData(region);
+		delta.putGuiParameter(GuiParameters.PLOTOPERATION, GuiParameters.PLOTOP_REGION);
+		delta.putGuiParameter(GuiParameters.REGIONSTART, new Integer[] {4, 5});
+		server.setData(VIEW, delta);
+
+		Dataset d = server.getData(VIEW).getData().get(0).getData();
+		Assert.assertEquals(6, ((Number) d.sum()).doubleValue(), 0);
+		Assert.assertEquals(1, d.getDouble(5, 7), 0);
+		Assert.assertEquals(0, d.getDouble(5, 8), 0);
+		Assert.assertEquals("Original must not change", 0, ((Number) image.getData().sum()).doubleValue(), 0);
+
+		delta.putGuiParameter(GuiParameters.REGIONSTART, new Integer[] {9, 5});
+		try {
+			server.setData(VIEW, delta);
+			Assert.fail("Region outside image should fail");
+		} catch (DataBeanException e) {
+			// expected
+		}
+	}
+
+	private static DataBean createAppend(int start, int size) throws DataBeanException {
+		DataBean delta = new DataBean(GuiPlotMode.ONED);
+		delta.addData(DatasetWithAxisInformation.createAxisDataSet(DatasetFactory.createRange(DoubleDataset.class, start, start + size, 1)));
+		delta.putGuiParameter(GuiParameters.PLOTOPERATION, GuiParameters.PLOTOP_APPEND);
+		return delta;
+	}
+
+	@Test
+	public void testRepeatedAppends() throws Exception {
+		MockPlotServer server = new MockPlotServer();
+		server.setData(VIEW, createBean(0, false));
+
+		List<DataBean> fetched = new ArrayList<DataBean>();
+		List<Integer> sizes = new ArrayList<Integer>();
+		int size = 10;
+		for (int i = 0; i < 20; i++) {
+			server.setData(VIEW, createAppend(size, i + 1));
+			size += i + 1;
+			if (i % 3 == 0) {
+				fetched.add(server.getData(VIEW));
+				sizes.add(size);
+			}
+		}
+
+		DataBean bean = server.getData(VIEW);
+		Dataset y = bean.getData().get(0).getData();
+		Assert.assertEquals(size, y.getSize());
+		Dataset x = bean.getAxis(bean.getData().get(0).getAxisMap().getAxisID()[0]);
+		Assert.assertEquals(size, x.getSize());
+		for (int j = 0; j < size; j++) {
+			Assert.assertEquals(j, y.getDouble(j), 0);
+		}
+		Assert.assertEquals(size - 1, x.getDouble(size - 1), 0);
+
+		for (int i = 0; i < fetched.size(); i++) {
+			Dataset f = fetched.get(i).getData().get(0).getData();
+			Assert.assertEquals("Fetched bean must not change", sizes.get(i).intValue(), f.getSize());
+			for (int j = 0; j < f.getSize(); j++) {
+				Assert.assertEquals(j, f.getDouble(j), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testRepeatedRegions() throws Exception {
+		MockPlotServer server = new MockPlotServer();
+		DataBean bean = new DataBean(GuiPlotMode.TWOD);
+		DatasetWithAxisInformation image = new DatasetWithAxisInformation();
+		image.setAxisMap(new AxisMapBean());
+		image.setData(DatasetFactory.zeros(DoubleDataset.class, 10, 10));
+		bean.addData(image);
+		server.setData(VIEW, bean);
+
+		DataBean delta = new DataBean(GuiPlotMode.TWOD);
+		DatasetWithAxisInformation region = new DatasetWithAxisInformation();
+		region.setAxisMap(new AxisMapBean());
+		region.setData(DatasetFactory.ones(DoubleDataset.class, 1, 10));
+		delta.addData(region);
+		delta.putGuiParameter(GuiParameters.PLOTOPERATION, GuiParameters.PLOTOP_REGION);
+
+		Dataset first = null;
+		for (int i = 0; i < 10; i++) {
+			delta.putGuiParameter(GuiParameters.REGIONSTART, new Integer[] {i, 0});
+			server.setData(VIEW, delta);
+			if (i == 4) {
+				first = server.getData(VIEW).getData().get(0).getData();
+			}
+		}
+
+		Dataset d = server.getData(VIEW).getData().get(0).getData();
+		Assert.assertSame("Image must be updated in place after fetch", first, d);
+		Assert.assertEquals(100, ((Number) d.sum()).doubleValue(), 0);
+		Assert.assertEquals("Original must not change", 0, ((Number) image.getData().sum()).doubleValue(), 0);
+	}
+
+	@Test(expected = DataBeanException.class)
+	public void testDeltaWithoutData() throws Exception {
+		DataBean delta = createBean(0, false);
+		delta.putGuiParameter(GuiParameters.PLOTOPERATION, GuiParameters.PLOTOP_APPEND);
+		new MockPlotServer().setData(VIEW, delta);
+	}
+}
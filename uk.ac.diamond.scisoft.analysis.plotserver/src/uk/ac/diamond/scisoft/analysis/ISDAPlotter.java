@@ -110,6 +110,21 @@ public interface ISDAPlotter {
 	 */
 	public void updatePlot(String plotName, String title, IDataset[] xValues, IDataset[] yValues, final String xAxisName, final String yAxisName) throws Exception;
 
+	/**
+	 * Append points to existing lines so only the new points are sent to the plot server
+	 * 
+	 * @param plotName
+	 *            The name of the view to plot to
+	 * @param line
+	 *            The index of the first line to append to
+	 * @param xValues
+	 *            The new x values, null if none. Use one dataset for lines that share an x axis
+	 * @param yValues
+	 *            The new y values for each line from the given index
+	 * @throws Exception
+	 */
+	public void appendPlot(String plotName, int line, IDataset[] xValues, IDataset[] yValues) throws Exception;
+
 	/**
 	 * Allows the plotting of an image to the defined view
 	 * 
@@ -134,6 +149,19 @@ public interface ISDAPlotter {
 	 */
 	public void imagePlot(String plotName, IDataset xAxis, IDataset yAxis, IDataset image, String xAxisName, String yAxisName) throws Exception;
 
+	/**
+	 * Replace a region of an existing image so only the region is sent to the plot server
+	 * 
+	 * @param plotName
+	 * @param region
+	 * @param startRow
+	 *            The row of the image where the region starts
+	 * @param startColumn
+	 *            The column of the image where the region starts
+	 * @throws Exception
+	 */
+	public void updateImageRegion(String plotName, IDataset region, int startRow, int startColumn) throws Exception;
+
 	/**
 	 * Allows the plotting of an image to the defined view
 	 * 
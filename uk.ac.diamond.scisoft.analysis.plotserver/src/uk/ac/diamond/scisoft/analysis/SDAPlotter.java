@@ -454,6 +454,45 @@ public class SDAPlotter {
 		getPlotterImpl().updatePlot(plotName, title, xValues, yValues, xAxisName, yAxisName);
 	}
 
+	/**
+	 * Append points to the end of the first line of an existing plot. Only the new points are sent
+	 * 
+	 * @param plotName
+	 * @param yValues
+	 * @throws Exception
+	 */
+	public static void appendPlot(String plotName, final IDataset yValues) throws Exception {
+		getPlotterImpl().appendPlot(plotName, 0, null, new IDataset[] { yValues });
+	}
+
+	/**
+	 * Append points to the end of the first line of an existing plot. Only the new points are sent
+	 * 
+	 * @param plotName
+	 * @param xValues
+	 *            can be null
+	 * @param yValues
+	 * @throws Exception
+	 */
+	public static void appendPlot(String plotName, final IDataset xValues, final IDataset yValues) throws Exception {
+		getPlotterImpl().appendPlot(plotName, 0, xValues == null ? null : new IDataset[] { xValues }, new IDataset[] { yValues });
+	}
+
+	/**
+	 * Append points to the ends of lines of an existing plot. Only the new points are sent
+	 * 
+	 * @param plotName
+	 * @param line
+	 *            index of first line to append to
+	 * @param xValues
+	 *            can be null
+	 * @param yValues
+	 * @throws Exception
+	 */
+	public static void appendPlot(String plotName, int line, IDataset[] xValues, IDataset[] yValues) throws Exception {
+		getPlotterImpl().appendPlot(plotName, line, xValues, yValues);
+	}
+
 	/**
 	 * Allows the plotting of an image to the defined view
 	 * 
@@ -508,6 +547,19 @@ public class SDAPlotter {
 		getPlotterImpl().imagePlot(plotName, xValues, yValues, image, xAxisName, yAxisName);
 	}
 
+	/**
+	 * Replace a region of the image in an existing image plot. Only the region is sent
+	 * 
+	 * @param plotName
+	 * @param region
+	 * @param startRow
+	 * @param startColumn
+	 * @throws Exception
+	 */
+	public static void updateImageRegion(String plotName, IDataset region, int startRow, int startColumn) throws Exception {
+		getPlotterImpl().updateImageRegion(plotName, region, startRow, startColumn);
+	}
+
 	/**
 	 * Allows the plotting of images to the defined view
 	 * 
@@ -131,6 +131,51 @@ public class SDAPlotterImpl implements ISDAPlotter {
 		lplot(plotName, title, validateAllXValues(xValues, yValues), yValues, null, new String[] {xAxisName}, new String[] {yAxisName}, GuiParameters.PLOTOP_UPDATE);
 	}
 
+	@Override
+	public void appendPlot(String plotName, int line, IDataset[] xValues, IDataset[] yValues) throws Exception {
+		if (yValues == null || yValues.length == 0) {
+			return;
+		}
+		if (xValues != null && xValues.length != 1 && xValues.length != yValues.length) {
+			throw new IllegalArgumentException("# xValues does not match # yValues");
+		}
+		if (xValues != null) {
+			for (IDataset x : xValues) {
+				if (!isDataND(x, 1)) {
+					logger.error("Input x dataset has incorrect rank: it has {} dimensions when it should be 1",
+							x.getRank());
+					throw new Exception("Input x dataset has incorrect rank: it should be 1");
+				}
+			}
+		}
+		for (IDataset y : yValues) {
+			if (!isDataND(y, 1)) {
+				logger.error("Input y dataset has incorrect rank: it has {} dimensions when it should be 1",
+						y.getRank());
+				throw new Exception("Input y dataset has incorrect rank: it should be 1");
+			}
+		}
+
+		// only the new points are put in the bean
+		DataBean dataBean = new DataBean(GuiPlotMode.ONED);
+		for (int i = 0; i < yValues.length; i++) {
+			String[] xids = new String[0];
+			if (xValues != null) {
+				int j = xValues.length == 1 ? 0 : i;
+				String xid = j == 0 ? AxisMapBean.XAXIS : AxisMapBean.XAXIS + j;
+				if (dataBean.getAxis(xid) == null) {
+					dataBean.addAxis(xid, xValues[j]);
+				}
+				xids = new String[] {xid};
+			}
+			dataBean.addData(DatasetWithAxisInformation.createAxisDataSet(yValues[i], xids, null));
+		}
+		dataBean.putGuiParameter(GuiParameters.PLOTOPERATION, GuiParameters.PLOTOP_APPEND);
+		dataBean.putGuiParameter(GuiParameters.DATAINDEX, line);
+
+		setDataBean(plotName, dataBean);
+	}
+
 	private final static String EMPTY = "";
 
 	/**
@@ -328,6 +373,26 @@ public class SDAPlotterImpl implements ISDAPlotter {
 		setDataBean(plotName, dataBean);
 	}
 
+	@Override
+	public void updateImageRegion(String plotName, IDataset region, int startRow, int startColumn) throws Exception {
+		if (!isDataND(region, 2)) {
+			logger.error("Input dataset has incorrect rank: it has {} dimensions when it should be 2", region.getRank());
+			throw new Exception("Input dataset has incorrect rank: it should be 2");
+		}
+
+		// only the region is put in the bean
+		DataBean dataBean = new DataBean(GuiPlotMode.TWOD);
+		DatasetWithAxisInformation axisData = new DatasetWithAxisInformation();
+		axisData.setAxisMap(new AxisMapBean());
+		axisData.setData(region);
+		dataBean.addData(axisData);
+		dataBean.putGuiParameter(GuiParameters.PLOTOPERATION, GuiParameters.PLOTOP_REGION);
+		dataBean.putGuiParameter(GuiParameters.DATAINDEX, 0);
+		dataBean.putGuiParameter(GuiParameters.REGIONSTART, new Integer[] {startRow, startColumn});
+
+		setDataBean(plotName, dataBean);
+	}
+
 	@Override
 	public void imagesPlot(String plotName, IDataset xValues, IDataset yValues, IDataset[] images) throws Exception {
 		if (!isDataND(images[0], 2)) {
@@ -10,18 +10,53 @@
 package uk.ac.diamond.scisoft.analysis.plotserver;
 
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import uk.ac.diamond.scisoft.analysis.PlotServer;
 
+/**
+ * Plot server that holds the latest data and GUI state of each view.
+ * <p>
+ * The stores can be used by several threads at once. Stored beans are replaced rather than modified once
+ * fetched so a bean passed to a client is not changed afterwards, except that images in it are updated in
+ * place by later {@link GuiParameters#PLOTOP_REGION} beans. Data added to a view with
+ * {@link GuiParameters#PLOTOP_ADD} is limited to the latest {@link #getMaximumDatasets()} datasets.
+ * Beans with {@link GuiParameters#PLOTOP_APPEND} or {@link GuiParameters#PLOTOP_REGION} are applied
+ * to the latest data of the view, see {@link DataBean#applyDelta(DataBean)}. Until it is fetched, the
+ * bean made by applying deltas holds the only references to its data so further deltas are applied to
+ * it directly.
+ * <p>
+ * Updates to a view whose data has not been fetched since the last notification are coalesced: the
+ * stored data is replaced (or merged) and clients are not told again unless the earlier notification
+ * is older than {@link #RENOTIFY_INTERVAL} milliseconds.
+ */
 abstract public class AbstractPlotServer implements PlotServer {
 
-	private Map<String, GuiBean> guiStore;
-	private Map<String, DataBean> dataStore;
+	/**
+	 * System property to set default maximum number of datasets held for each view
+	 */
+	public static final String MAXIMUM_DATASETS_PROPERTY = "uk.ac.diamond.scisoft.analysis.plotserver.maxdatasets";
+
+	private static final int DEFAULT_MAXIMUM_DATASETS = 256;
+
+	/**
+	 * Time in milliseconds after which clients are told of an update even if they have not fetched
+	 * the data since they were last told
+	 */
+	public static final long RENOTIFY_INTERVAL = 250;
+
+	private ConcurrentMap<String, GuiBean> guiStore;
+	private ConcurrentMap<String, DataBean> dataStore;
+	private final ConcurrentMap<String, DataBean> latest; // last data stored, kept when removed on get
+	private final ConcurrentMap<String, Object> locks;
+	private final ConcurrentMap<String, Long> unfetched; // time of notification of data not yet fetched
+	private final ConcurrentMap<String, DataBean> pending; // bean made by applying deltas, not yet fetched
 	private final boolean removeOnGet;
+	private volatile int maxDatasets;
 
 	public AbstractPlotServer() {
 		this(false);
@@ -29,40 +64,132 @@ abstract public class AbstractPlotServer implements PlotServer {
 
 	public AbstractPlotServer(boolean removeOnGet) {
 		super();
-		guiStore = new HashMap<String, GuiBean>();
-		dataStore = new HashMap<String, DataBean>();
+		guiStore = new ConcurrentHashMap<String, GuiBean>();
+		dataStore = new ConcurrentHashMap<String, DataBean>();
+		latest = new ConcurrentHashMap<String, DataBean>();
+		locks = new ConcurrentHashMap<String, Object>();
+		unfetched = new ConcurrentHashMap<String, Long>();
+		pending = new ConcurrentHashMap<String, DataBean>();
 		this.removeOnGet = removeOnGet;
+		maxDatasets = Integer.getInteger(MAXIMUM_DATASETS_PROPERTY, DEFAULT_MAXIMUM_DATASETS);
+	}
+
+	/**
+	 * @return maximum number of datasets held for each view
+	 */
+	public int getMaximumDatasets() {
+		return maxDatasets;
+	}
+
+	/**
+	 * Set maximum number of datasets held for each view. When more are added, the oldest are dropped
+	 * @param maxDatasets
+	 */
+	public void setMaximumDatasets(int maxDatasets) {
+		if (maxDatasets < 1) {
+			throw new IllegalArgumentException("Maximum number of datasets must be positive");
+		}
+		this.maxDatasets = maxDatasets;
+	}
+
+	private Object getLock(String guiName) {
+		Object lock = locks.get(guiName);
+		if (lock == null) {
+			Object l = new Object();
+			lock = locks.putIfAbsent(guiName, l);
+			if (lock == null) {
+				lock = l;
+			}
+		}
+		return lock;
 	}
 
 	@Override
 	public DataBean getData(String guiName) throws Exception {
-		return removeOnGet ? dataStore.remove(guiName):  dataStore.get(guiName);
+		synchronized (getLock(guiName)) {
+			unfetched.remove(guiName);
+			pending.remove(guiName);
+			return removeOnGet ? dataStore.remove(guiName):  dataStore.get(guiName);
+		}
 	}
 
 	@Override
 	public void setData(String guiName, DataBean data) throws Exception {
+		storeData(guiName, data);
+	}
+
+	/**
+	 * Store data for view. Successive calls before the data is fetched replace or, when adding,
+	 * merge into the stored data
+	 * @param guiName
+	 * @param data
+	 * @return true if clients need to be told of the update
+	 * @throws DataBeanException if data is a delta that cannot be applied
+	 */
+	protected boolean storeData(String guiName, DataBean data) throws DataBeanException {
 		if (data == null) {
-			dataStore.remove(guiName);
-			return;
+			synchronized (getLock(guiName)) {
+				dataStore.remove(guiName);
+				latest.remove(guiName);
+				unfetched.remove(guiName);
+				pending.remove(guiName);
+			}
+			return true;
 		}
 		GuiBean gb = data.getGuiParameters();
 		Serializable value = gb == null ? null : gb.get(GuiParameters.PLOTOPERATION);
 
-		// if it's a duplicate key and a PLOTOP_ADD we need to add the datasets to the old bean
-		if (GuiParameters.PLOTOP_ADD.equals(value) && dataStore.containsKey(guiName)) {
-			dataStore.get(guiName).addData(data);
-		} else {
-			dataStore.put(guiName, data);
+		synchronized (getLock(guiName)) {
+			if (data.isDelta()) {
+				DataBean old = latest.get(guiName);
+				if (old == null) {
+					throw new DataBeanException("No data in " + guiName + " to apply " + value + " to");
+				}
+				DataBean merged = pending.get(guiName) == old ? old : old.copy();
+				merged.applyDelta(data);
+				merged.putGuiParameter(GuiParameters.PLOTOPERATION, GuiParameters.PLOTOP_UPDATE);
+				dataStore.put(guiName, merged);
+				latest.put(guiName, merged);
+				pending.put(guiName, merged);
+				return notifyUpdate(guiName);
+			}
+
+			pending.remove(guiName);
+
+			// if it's a duplicate key and a PLOTOP_ADD we need to add the datasets to a copy of the old bean
+			DataBean old = GuiParameters.PLOTOP_ADD.equals(value) ? dataStore.get(guiName) : null;
+			if (old != null) {
+				DataBean merged = old.copy();
+				merged.addData(data);
+				merged.retainLatest(maxDatasets);
+				dataStore.put(guiName, merged);
+				latest.put(guiName, merged);
+			} else {
+				dataStore.put(guiName, data);
+				latest.put(guiName, data);
+			}
+
+			// update plot mode
+			GuiPlotMode mode = data.getGuiPlotMode();
+			GuiBean bean = guiStore.get(guiName);
+			bean = bean == null ? new GuiBean() : bean.copy();
+			bean.put(GuiParameters.PLOTMODE, mode);
+			guiStore.put(guiName, bean);
 		}
 
-		// update plot mode
-		GuiPlotMode mode = data.getGuiPlotMode();
-		GuiBean bean = guiStore.get(guiName);
-		if (bean == null) {
-			bean = new GuiBean();
-			guiStore.put(guiName, bean);
+		return notifyUpdate(guiName);
+	}
+
+	/**
+	 * @return true if clients need to be told of update to view
+	 */
+	private boolean notifyUpdate(String guiName) {
+		long now = System.nanoTime();
+		Long last = unfetched.putIfAbsent(guiName, now);
+		if (last == null) {
+			return true;
 		}
-		bean.put(GuiParameters.PLOTMODE, mode);
+		return now - last > RENOTIFY_INTERVAL * 1000000L && unfetched.replace(guiName, last, now);
 	}
 
 	@Override
@@ -73,8 +200,11 @@ abstract public class AbstractPlotServer implements PlotServer {
 
 		GuiBean bean = guiStore.get(guiName);
 		if (bean == null) {
-			bean = new GuiBean();
-			guiStore.put(guiName, bean);
+			GuiBean b = new GuiBean();
+			bean = guiStore.putIfAbsent(guiName, b);
+			if (bean == null) {
+				bean = b;
+			}
 		}
 		return bean;
 	}
@@ -82,7 +212,9 @@ abstract public class AbstractPlotServer implements PlotServer {
 	@Override
 	public void updateGui(String guiName, GuiBean guiData) throws Exception {
 		guiData.remove(GuiParameters.QUIET_UPDATE);
-		guiStore.put(guiName, guiData);
+		synchronized (getLock(guiName)) {
+			guiStore.put(guiName, guiData);
+		}
 	}
 
 	@Override
@@ -92,7 +224,7 @@ abstract public class AbstractPlotServer implements PlotServer {
 		names.addAll(dataStore.keySet());
 		return names.toArray(new String[names.size()]);
 	}
-	
+
 	/**
 	 * Retrieve the Gui Store. Use with caution and understanding.
 	 * @return guiStore
@@ -43,8 +43,9 @@ public class SimplePlotServer extends AbstractPlotServer {
 
 	@Override
 	public void setData(String guiName, DataBean data) throws Exception {
-		super.setData(guiName, data);
-		notifyIObservers(this, guiName);
+		if (storeData(guiName, data)) {
+			notifyIObservers(this, guiName);
+		}
 	}
 	
 	@Override
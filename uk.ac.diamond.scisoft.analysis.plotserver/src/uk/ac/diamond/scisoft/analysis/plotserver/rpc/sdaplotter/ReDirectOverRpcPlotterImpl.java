@@ -64,11 +64,21 @@ public class ReDirectOverRpcPlotterImpl implements ISDAPlotter {
 		request("updateline", xValues, yValues, title, plotName);
 	}
 
+	@Override
+	public void appendPlot(String plotName, int line, IDataset[] xValues, IDataset[] yValues) throws Exception {
+		throw new UnsupportedOperationException("Method unsupported in python as there are no partial updates");
+	}
+
 	@Override
 	public void imagePlot(String plotName, String imageFileName) throws Exception {
 		throw new UnsupportedOperationException("Method unsupported in python due to imageFileName argument");
 	}
 
+	@Override
+	public void updateImageRegion(String plotName, IDataset region, int startRow, int startColumn) throws Exception {
+		throw new UnsupportedOperationException("Method unsupported in python as there are no partial updates");
+	}
+
 	@Override
 	public void imagePlot(String plotName, IDataset xValues, IDataset yValues, IDataset image, String xName, String yName) throws Exception {
 		request("image", image, xValues, yValues, plotName);
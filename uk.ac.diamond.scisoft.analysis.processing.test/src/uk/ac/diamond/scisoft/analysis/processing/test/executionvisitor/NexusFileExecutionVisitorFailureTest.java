@@ -0,0 +1,76 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.test.executionvisitor;
+
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.eclipse.dawnsci.analysis.api.processing.IOperation;
+import org.eclipse.dawnsci.analysis.api.processing.OperationData;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceInformation;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SourceInformation;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.Slice;
+import org.eclipse.january.dataset.SliceND;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.processing.visitor.NexusFileExecutionVisitor;
+
+public class NexusFileExecutionVisitorFailureTest {
+
+	private static OperationData createResult(Dataset input, int index, int size) {
+		int[] shape = input.getShape();
+		SliceND slice = new SliceND(shape, new Slice(index, index + 1), null);
+		SliceInformation sl = new SliceInformation(slice, slice, new SliceND(shape), new int[]{1}, shape[0], index);
+		SourceInformation so = new SourceInformation("path", "name", input);
+
+		Dataset d = DatasetFactory.zeros(DoubleDataset.class, 1, size);
+		d.setMetadata(new SliceFromSeriesMetadata(so, sl));
+		return new OperationData(d);
+	}
+
+	@Test(timeout = 30000)
+	public void testFailedWriteDoesNotBlock() throws Exception {
+		final File tmp = File.createTempFile("Test", ".h5");
+		tmp.deleteOnExit();
+		tmp.createNewFile();
+
+		NexusFileExecutionVisitor nfev = new NexusFileExecutionVisitor(tmp.getAbsolutePath());
+
+		Junk2Dto2DOperation op22 = new Junk2Dto2DOperation();
+		op22.setModel(new Junk2Dto2Dmodel());
+		IOperation<?, ?>[] series = {op22};
+
+		Dataset input = DatasetFactory.zeros(DoubleDataset.class, 2, 5);
+		nfev.init(series, input);
+
+		nfev.executed(createResult(input, 0, 5), null);
+		// second result does not fit in the output dataset created for the first
+		nfev.executed(createResult(input, 1, 7), null);
+
+		try {
+			nfev.waitForWrites();
+			fail("Write of mismatched result should have failed");
+		} catch (Exception e) {
+			// expected
+		}
+
+		try {
+			nfev.close();
+			fail("Close should report the failed write");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+}
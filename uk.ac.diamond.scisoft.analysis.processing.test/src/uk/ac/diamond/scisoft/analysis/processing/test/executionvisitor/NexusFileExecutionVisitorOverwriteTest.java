@@ -62,6 +62,7 @@ public class NexusFileExecutionVisitorOverwriteTest {
 	    OperationData opd = new OperationData(d);
 	    nfev.notify(series[0], opd);
 	    nfev.executed(opd, null);
+	    nfev.waitForWrites();
 	    
 	    
 	    IDataHolder dh = LoaderFactory.getData(tmp.getAbsolutePath());
@@ -79,6 +80,7 @@ public class NexusFileExecutionVisitorOverwriteTest {
 	    
 	    nfev.notify(series[0], opd);
 	    nfev.executed(opd, null);
+	    nfev.waitForWrites();
 	    
 	    slice = dd.getSlice();
 	    
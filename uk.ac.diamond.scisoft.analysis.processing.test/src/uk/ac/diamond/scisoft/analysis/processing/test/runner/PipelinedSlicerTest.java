@@ -0,0 +1,109 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.test.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceViewIterator;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.ILazyDataset;
+import org.eclipse.january.dataset.IntegerDataset;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.processing.runner.PipelinedSlicer;
+import uk.ac.diamond.scisoft.analysis.processing.runner.PipelinedSlicer.SliceStages;
+
+public class PipelinedSlicerTest {
+
+	private static final int FRAMES = 200;
+
+	private static SliceViewIterator createIterator() {
+		ILazyDataset lazy = DatasetFactory.createRange(IntegerDataset.class, FRAMES * 4).reshape(FRAMES, 2, 2);
+		return new SliceViewIterator(lazy, null, new int[] {1, 2});
+	}
+
+	private static class RecordingStages implements SliceStages<Integer> {
+		final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+
+		@Override
+		public Integer process(IDataset slice) throws Exception {
+			int n = inFlight.incrementAndGet();
+			maxInFlight.accumulateAndGet(n, Math::max);
+			Thread.sleep((long) (Math.random() * 2));
+			return (int) (DatasetUtils.convertToDataset(slice).getElementLongAbs(0) / 4);
+		}
+
+		@Override
+		public void write(Integer result) throws Exception {
+			written.add(result.intValue());
+			inFlight.decrementAndGet();
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+	}
+
+	@Test
+	public void testOrdered() throws Exception {
+		RecordingStages stages = new RecordingStages();
+		new PipelinedSlicer(4, 6, true).visit(createIterator(), stages);
+
+		assertEquals(FRAMES, stages.written.size());
+		for (int i = 0; i < FRAMES; i++) {
+			assertEquals(i, stages.written.get(i).intValue());
+		}
+		assertTrue(stages.maxInFlight.get() <= 6);
+	}
+
+	@Test
+	public void testUnordered() throws Exception {
+		RecordingStages stages = new RecordingStages();
+		new PipelinedSlicer(4, 3, false).visit(createIterator(), stages);
+
+		assertEquals(FRAMES, stages.written.size());
+		List<Integer> sorted = new ArrayList<Integer>(stages.written);
+		Collections.sort(sorted);
+		for (int i = 0; i < FRAMES; i++) {
+			assertEquals(i, sorted.get(i).intValue());
+		}
+		assertTrue(stages.maxInFlight.get() <= 3);
+	}
+
+	@Test
+	public void testFailureIsRethrown() throws Exception {
+		RecordingStages stages = new RecordingStages() {
+			@Override
+			public void write(Integer result) throws Exception {
+				if (result == 10) throw new IllegalStateException("Cannot write");
+				super.write(result);
+			}
+		};
+		try {
+			new PipelinedSlicer(4, 6, true).visit(createIterator(), stages);
+			fail("Exception should have been thrown");
+		} catch (IllegalStateException e) {
+			assertEquals("Cannot write", e.getMessage());
+		}
+		assertEquals(10, stages.written.size());
+	}
+}
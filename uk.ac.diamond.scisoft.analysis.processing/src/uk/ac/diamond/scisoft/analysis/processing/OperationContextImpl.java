@@ -60,6 +60,17 @@ public class OperationContextImpl implements IOperationContext {
 	 */
 	private ExecutionType executionType = ExecutionType.SERIES;
 	private int numberOfCores = 1;
+
+	/**
+	 * The maximum number of frames read but not yet written in PARALLEL mode.
+	 * By default (-1) this is twice the number of cores.
+	 */
+	private int maxFramesInFlight = -1;
+
+	/**
+	 * If true, the results are passed to the visitor in slice order in PARALLEL mode
+	 */
+	private boolean orderedOutput = false;
 	
 	/* (non-Javadoc)
 	 * @see uk.ac.diamond.scisoft.analysis.processing.IOperationContext#getSeries()
@@ -234,6 +245,18 @@ public class OperationContextImpl implements IOperationContext {
 			this.numberOfCores = numberOfCores;
 		}
 	}
+	public int getMaxFramesInFlight() {
+		return maxFramesInFlight;
+	}
+	public void setMaxFramesInFlight(int maxFramesInFlight) {
+		this.maxFramesInFlight = maxFramesInFlight;
+	}
+	public boolean isOrderedOutput() {
+		return orderedOutput;
+	}
+	public void setOrderedOutput(boolean orderedOutput) {
+		this.orderedOutput = orderedOutput;
+	}
 	public long getParallelTimeout() {
 		return parallelTimeout;
 	}
@@ -34,6 +34,7 @@ import org.eclipse.january.metadata.MaskMetadata;
 import org.eclipse.january.metadata.MetadataFactory;
 
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.IPixelIntegrationCache;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelBinMatrix;
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegration;
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.SurfacePixelIntegrationCache;
 import uk.ac.diamond.scisoft.analysis.processing.operations.MetadataUtils;
@@ -147,6 +148,8 @@ public class IntegrateImageMatchedAxesOperation extends AbstractOperation<Integr
 		
 		private int nBinsX;
 		
+		private final PixelBinMatrix.Holder matrix = new PixelBinMatrix.Holder();
+		
 		public ImageIntegrationCache(int nBinsX, double[] xRange, IDataset x, IDataset y) {
 			
 			this.xRange = xRange;
@@ -298,6 +301,11 @@ public class IntegrateImageMatchedAxesOperation extends AbstractOperation<Integr
 		public boolean provideLookup() {
 			return false;
 		}
+
+		@Override
+		public PixelBinMatrix getPixelBinMatrix(IDataset mask) {
+			return matrix.get(this, mask);
+		}
 		
 	}
 
@@ -0,0 +1,215 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.runner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.dawnsci.analysis.dataset.slicer.ISliceViewIterator;
+import org.eclipse.january.dataset.IDataset;
+
+/**
+ * Visits the slices of an iterator in three stages:
+ * <ol>
+ * <li>the calling thread reads slices from the (lazy) data ahead of the workers</li>
+ * <li>a pool of workers processes the slices</li>
+ * <li>a single writer thread consumes the processed results, either in slice order or as they complete</li>
+ * </ol>
+ * The number of frames that have been read but not yet written is capped so memory
+ * use stays bounded however slow the writer is.
+ */
+public class PipelinedSlicer {
+
+	/**
+	 * Work done on each slice
+	 * @param <T> type of processed result
+	 */
+	public interface SliceStages<T> {
+		/**
+		 * Called concurrently by the worker threads
+		 * @param slice
+		 * @return result (can be null)
+		 * @throws Exception
+		 */
+		T process(IDataset slice) throws Exception;
+
+		/**
+		 * Called by the single writer thread
+		 * @param result
+		 * @throws Exception
+		 */
+		void write(T result) throws Exception;
+
+		/**
+		 * @return true if remaining slices should be skipped
+		 */
+		boolean isCancelled();
+	}
+
+	private static class Result<T> {
+		private final int index;
+		private final T value;
+		private final boolean skip;
+
+		public Result(int index, T value, boolean skip) {
+			this.index = index;
+			this.value = value;
+			this.skip = skip;
+		}
+	}
+
+	private static final long POLL_MS = 100;
+
+	private final int threads;
+	private final int maxInFlight;
+	private final boolean ordered;
+
+	/**
+	 * @param threads number of worker threads
+	 * @param maxInFlight maximum number of frames read but not yet written
+	 * @param ordered if true, results are written in slice order
+	 */
+	public PipelinedSlicer(int threads, int maxInFlight, boolean ordered) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("Maximum number of frames in flight must be positive");
+		}
+		this.threads = threads;
+		this.maxInFlight = maxInFlight;
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Visit all slices, returning when all results are written
+	 * @param iterator
+	 * @param stages
+	 * @throws Exception first exception thrown by any stage
+	 */
+	public <T> void visit(final ISliceViewIterator iterator, final SliceStages<T> stages) throws Exception {
+
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+		final BlockingQueue<Result<T>> processed = new LinkedBlockingQueue<Result<T>>();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicInteger total = new AtomicInteger(-1);
+
+		final ExecutorService workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("Slice worker"));
+		final Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final Map<Integer, Result<T>> pending = new HashMap<Integer, Result<T>>();
+				int written = 0;
+				try {
+					while (total.get() < 0 || written < total.get()) {
+						if (failure.get() != null) return;
+						Result<T> r = processed.poll(POLL_MS, TimeUnit.MILLISECONDS);
+						if (r == null) continue;
+						if (!ordered) {
+							write(r);
+							written++;
+							continue;
+						}
+						pending.put(r.index, r);
+						while ((r = pending.remove(written)) != null) {
+							write(r);
+							written++;
+						}
+					}
+				} catch (InterruptedException e) {
+					// finished early due to failure
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				}
+			}
+
+			private void write(Result<T> r) throws Exception {
+				try {
+					if (!r.skip) stages.write(r.value);
+				} finally {
+					inFlight.release();
+				}
+			}
+		}, "Slice writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		int n = 0;
+		try {
+			while (failure.get() == null && !stages.isCancelled() && iterator.hasNext()) {
+				while (!inFlight.tryAcquire(POLL_MS, TimeUnit.MILLISECONDS)) {
+					if (failure.get() != null) break;
+				}
+				if (failure.get() != null) break;
+
+				final IDataset slice = iterator.next().getSlice();
+				final int index = n++;
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						Result<T> r = null;
+						try {
+							if (failure.get() == null && !stages.isCancelled()) {
+								r = new Result<T>(index, stages.process(slice), false);
+							}
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						} finally {
+							processed.add(r == null ? new Result<T>(index, null, true) : r);
+						}
+					}
+				});
+			}
+		} catch (Throwable t) {
+			failure.compareAndSet(null, t);
+		} finally {
+			total.set(n);
+			workers.shutdown();
+			if (failure.get() != null) {
+				workers.shutdownNow();
+				writer.interrupt();
+			}
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			writer.join();
+		}
+
+		Throwable t = failure.get();
+		if (t instanceof Exception) {
+			throw (Exception) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		}
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		public NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + " " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -23,11 +23,17 @@ import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.IDynamicDataset;
 import org.eclipse.january.dataset.Slice;
 
+import uk.ac.diamond.scisoft.analysis.processing.OperationContextImpl;
 import uk.ac.diamond.scisoft.analysis.processing.metadata.OperationMetadataImpl;
+import uk.ac.diamond.scisoft.analysis.processing.runner.PipelinedSlicer.SliceStages;
 
 /**
  * Runs a pipeline by looping the services of operations.
  * 
+ * In PARALLEL mode, slices are read ahead by one thread, processed by a pool of
+ * workers and their results written by a single thread with a cap on the number
+ * of frames in flight (see {@link PipelinedSlicer}).
+ * 
  * This will not work unless the pipeline is a linear series of operations 
  * with one slug running the length.
  * 
@@ -61,11 +67,11 @@ public class SeriesRunner implements IOperationRunner {
 		
 		final SourceInformation finalSource = ssource;
 		
-		// Create the slice visitor
-		SliceVisitor sv = new SliceVisitor() {
+		// Create the work done on each slice
+		final SliceStages<OperationData> stages = new SliceStages<OperationData>() {
 
 			@Override
-			public void visit(IDataset slice) throws Exception {
+			public OperationData process(IDataset slice) throws Exception {
 
 				List<SliceFromSeriesMetadata> meta = slice.getMetadata(SliceFromSeriesMetadata.class);
 				SliceFromSeriesMetadata ssm = meta!=null && meta.size()>0 ? meta.get(0) : null;
@@ -75,8 +81,6 @@ public class SeriesRunner implements IOperationRunner {
 					slice.setMetadata(fullssm);
 				}
 
-				if (context.getMonitor() != null && context.getMonitor().isCancelled()) return;
-
 				SourceInformation si = fullssm!=null ? fullssm.getSourceInfo() : null;
 				String path = si == null ? "" : si.getFilePath();
 				if (path == null) path = "";
@@ -139,6 +143,11 @@ public class SeriesRunner implements IOperationRunner {
 				}
 				logger.debug("Slice " + current + " ran in: " +(System.currentTimeMillis()-start)/1000. + " s : Thread" +Thread.currentThread().toString());
 				if (context.getMonitor() != null) context.getMonitor().worked(1);
+				return data;
+			}
+
+			@Override
+			public void write(OperationData data) throws Exception {
 				visitor.executed(data, context.getMonitor()); // Send result.
 			}
 
@@ -148,6 +157,21 @@ public class SeriesRunner implements IOperationRunner {
 			}
 		};
 
+		// Create the slice visitor
+		SliceVisitor sv = new SliceVisitor() {
+
+			@Override
+			public void visit(IDataset slice) throws Exception {
+				if (stages.isCancelled()) return;
+				stages.write(stages.process(slice));
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return stages.isCancelled();
+			}
+		};
+
 		visitor.init(context.getSeries(), context.getData());
 		long start = System.currentTimeMillis();
 		
@@ -164,7 +188,15 @@ public class SeriesRunner implements IOperationRunner {
 		if (context.getExecutionType()==ExecutionType.SERIES) {
 			Slicer.visit(iterator,sv);
 		} else if (context.getExecutionType()==ExecutionType.PARALLEL) {
-			Slicer.visitParallel(iterator,sv,context.getNumberOfCores());
+			int cores = context.getNumberOfCores();
+			int maxInFlight = 2 * cores;
+			boolean ordered = false;
+			if (context instanceof OperationContextImpl) {
+				OperationContextImpl c = (OperationContextImpl) context;
+				if (c.getMaxFramesInFlight() > 0) maxInFlight = c.getMaxFramesInFlight();
+				ordered = c.isOrderedOutput();
+			}
+			new PipelinedSlicer(cores, maxInFlight, ordered).visit(iterator, stages);
 		} else {
 			throw new OperationException(context.getSeries()[0], "The edges are needed to execute a graph using ptolemy!");
 		}
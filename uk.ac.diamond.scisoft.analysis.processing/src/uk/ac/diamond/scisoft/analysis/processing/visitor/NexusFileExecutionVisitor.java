@@ -14,13 +14,18 @@ import java.io.Serializable;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
@@ -94,6 +99,63 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 	private String filePath;
 	private NexusFile nexusFile;
 	private long lastFlush = 0;
+	private int framesSinceFlush = 0;
+
+	/**
+	 * Maximum time in ms between flushes of the file
+	 */
+	private long flushInterval = 2000;
+
+	/**
+	 * Number of results after which the file is flushed (non-positive to only flush by time)
+	 */
+	private int flushFrames = 0;
+
+	/**
+	 * Writes to the file are queued for a single writer thread so that the
+	 * threads running the operations do not wait on HDF5
+	 */
+	private abstract static class WriteTask {
+		private IMonitor monitor;
+
+		abstract void write() throws Exception;
+
+		/**
+		 * Called instead of {@link #write()} when the task is dropped after a failed write
+		 */
+		void discard() {
+		}
+	}
+
+	private class ResultWrite extends WriteTask {
+		private final Dataset data;
+		private final Slice[] slices;
+		private final int[] shape;
+		private final int[] dataDims;
+
+		public ResultWrite(Dataset data, Slice[] slices, int[] shape, int[] dataDims) {
+			this.data = data;
+			this.slices = slices;
+			this.shape = shape;
+			this.dataDims = dataDims;
+		}
+
+		@Override
+		void write() throws Exception {
+			writeResults(Collections.singletonList(this));
+		}
+	}
+
+	private static final WriteTask STOP = new WriteTask() {
+		@Override
+		void write() throws Exception {
+		}
+	};
+
+	private int writeQueueSize = 64;
+	private BlockingQueue<WriteTask> writeQueue;
+	private Thread writer;
+	private volatile Throwable writeFailure;
 	
 	private String originalFilePath;
 	
@@ -165,6 +227,141 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 		}
 		
 		lastFlush = System.currentTimeMillis();
+
+		writeQueue = new ArrayBlockingQueue<WriteTask>(writeQueueSize);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runWriter();
+			}
+		}, "Nexus file writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Set the maximum number of writes which may be queued before the threads
+	 * running the operations block. Must be called before init
+	 * @param size
+	 */
+	public void setWriteQueueSize(int size) {
+		if (size < 1) throw new IllegalArgumentException("Queue size must be positive");
+		writeQueueSize = size;
+	}
+
+	/**
+	 * @param interval maximum time in ms between flushes of the file
+	 */
+	public void setFlushInterval(long interval) {
+		flushInterval = interval;
+	}
+
+	/**
+	 * @param frames number of results after which the file is flushed (non-positive to only flush by time)
+	 */
+	public void setFlushFrames(int frames) {
+		flushFrames = frames;
+	}
+
+	private void submit(WriteTask task, IMonitor monitor) throws InterruptedException {
+		task.monitor = monitor;
+		while (!writeQueue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+			if (!writer.isAlive()) {
+				throw new IllegalStateException("Nexus file writer has stopped");
+			}
+		}
+	}
+
+	private void checkWriter() throws Exception {
+		Throwable t = writeFailure;
+		if (t != null) {
+			throw new Exception("Cannot write to " + filePath, t);
+		}
+	}
+
+	/**
+	 * Block until all queued writes are in the file and it has been flushed
+	 * @throws Exception if a write failed
+	 */
+	public void waitForWrites() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		submit(new WriteTask() {
+			@Override
+			void write() throws Exception {
+				try {
+					flushDatasets(null, true);
+				} finally {
+					latch.countDown();
+				}
+			}
+
+			@Override
+			void discard() {
+				latch.countDown();
+			}
+		}, null);
+		while (!latch.await(100, TimeUnit.MILLISECONDS)) {
+			if (!writer.isAlive()) break;
+		}
+		checkWriter();
+	}
+
+	/**
+	 * Loop of writer thread: take all queued writes, write them (coalescing runs
+	 * of results) then flush according to policy
+	 */
+	private void runWriter() {
+		final List<WriteTask> batch = new ArrayList<WriteTask>();
+		final List<ResultWrite> run = new ArrayList<ResultWrite>();
+		boolean stop = false;
+		while (!stop) {
+			try {
+				batch.add(writeQueue.take());
+				writeQueue.drainTo(batch);
+			} catch (InterruptedException e) {
+				break;
+			}
+			IMonitor monitor = null;
+			for (WriteTask t : batch) {
+				if (t.monitor != null) monitor = t.monitor;
+				if (t == STOP) {
+					stop = true;
+					continue;
+				}
+				if (writeFailure != null) {
+					t.discard();
+					continue;
+				}
+				try {
+					if (t instanceof ResultWrite) {
+						run.add((ResultWrite) t);
+						framesSinceFlush++;
+						continue;
+					}
+					if (!run.isEmpty()) {
+						writeResults(run);
+						run.clear();
+					}
+					t.write();
+				} catch (Throwable e) {
+					logger.error("Cannot write to {}", filePath, e);
+					writeFailure = e;
+				}
+			}
+			try {
+				if (writeFailure == null && !run.isEmpty()) {
+					writeResults(run);
+				}
+				if (writeFailure == null && !stop) {
+					flushDatasets(monitor, false);
+				}
+			} catch (Throwable e) {
+				logger.error("Cannot write to {}", filePath, e);
+				writeFailure = e;
+			}
+			run.clear();
+			batch.clear();
+		}
 	}
 
 	private GroupNode requireNXclass(String name, String NXclass) throws NexusException {
@@ -238,50 +435,146 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 		
 		if (result == null && !swmring) return;
 		
+		checkWriter();
+		
 		if (result == null && swmring && !nullReturnSWMRMode.get()) {
 			nullReturnSWMRMode.set(true);
-			synchronized (nexusFile) {
-				if (swmring) {
+			submit(new WriteTask() {
+				@Override
+				void write() throws Exception {
 					nexusFile.activateSwmrMode();
 					logger.debug("SWMR-ING");
 				}
-			}
+			}, monitor);
 		}
 		
 		if (nullReturnSWMRMode.get()) {
-			flushDatasets(monitor);
+			submit(new WriteTask() {
+				@Override
+				void write() throws Exception {
+					// nothing to write, but flush according to policy
+				}
+			}, monitor);
 			return;
 		}
 		
-		//not threadsafe but closer
-		boolean fNNE = firstNonNullExecution.getAndSet(false);
-		
-		//Write data to file
-		final Dataset integrated = DatasetUtils.convertToDataset(result.getData());
+		// copy as the result may be modified in place by the caller while it is queued for writing
+		final Dataset integrated = DatasetUtils.convertToDataset(result.getData()).clone();
 		SliceFromSeriesMetadata metadata = integrated.getMetadata(SliceFromSeriesMetadata.class).get(0);
-		int[] dataDims = metadata.getDataDimensions();
-		int[] shape = metadata.getSubSampledShape();
-		Slice[] slices = metadata.getSliceInOutput();
-		updateAxes(integrated, slices, shape, dataDims, results,fNNE);
-		integrated.setName("data");
-		synchronized (nexusFile) {
-			appendData(integrated,nexusFile.getGroup(results,false), slices,shape, nexusFile,dataDims);
-			if (fNNE){
-				GroupNode group = nexusFile.getGroup(results,false);
-				nexusFile.addAttribute(group, TreeFactory.createAttribute(NexusConstants.DATA_SIGNAL,integrated.getName()));
-				if (swmring) {
-					nexusFile.activateSwmrMode();
-					logger.debug("SWMR-ING");
+		submit(new ResultWrite(integrated, metadata.getSliceInOutput(), metadata.getSubSampledShape(), metadata.getDataDimensions()), monitor);
+	}
+
+	/**
+	 * Write a result on its own (called by writer thread)
+	 */
+	private void writeResult(ResultWrite r) throws Exception {
+		boolean fNNE = firstNonNullExecution.getAndSet(false);
+
+		updateAxes(r.data, r.slices, r.shape, r.dataDims, results,fNNE);
+		r.data.setName("data");
+		appendData(r.data,nexusFile.getGroup(results,false), r.slices,r.shape, nexusFile,r.dataDims);
+		if (fNNE){
+			GroupNode group = nexusFile.getGroup(results,false);
+			nexusFile.addAttribute(group, TreeFactory.createAttribute(NexusConstants.DATA_SIGNAL,r.data.getName()));
+			if (swmring) {
+				nexusFile.activateSwmrMode();
+				logger.debug("SWMR-ING");
+			}
+		}
+	}
+
+	/**
+	 * Write a run of results, coalescing those which are neighbours in the output
+	 * into one hyperslab write (called by writer thread)
+	 */
+	private void writeResults(List<ResultWrite> run) throws Exception {
+		int i = 0;
+		if (firstNonNullExecution.get()) {
+			writeResult(run.get(i++));
+		}
+		GroupNode group = nexusFile.getGroup(results,false);
+		while (i < run.size()) {
+			ResultWrite r = run.get(i);
+			r.data.setName("data");
+			if (!group.containsDataNode(r.data.getName())) {
+				writeResult(r);
+				i++;
+				continue;
+			}
+
+			List<Dataset> datasets = new ArrayList<Dataset>();
+			Slice[] first = null;
+			Slice[] last = null;
+			int dim = -1;
+			for (; i < run.size(); i++) {
+				r = run.get(i);
+				r.data.setName("data");
+				Dataset d = prepareAppend(r.data, r.shape, r.dataDims);
+				if (d.getErrors() != null) {
+					if (datasets.isEmpty()) {
+						writeResult(r);
+						i++;
+					}
+					break;
+				}
+				Slice[] sliceOut = getUpdatedSliceArray(r.shape, d.getShape(), r.slices, sortedDims(r.dataDims));
+				if (first == null) {
+					first = sliceOut;
+				} else {
+					int nd = findNeighbourDimension(last, sliceOut, dim, datasets.get(0), d);
+					if (nd < 0) break;
+					dim = nd;
 				}
+				updateAxes(r.data, r.slices, r.shape, r.dataDims, results, false);
+				datasets.add(d);
+				last = sliceOut;
+			}
+			if (datasets.isEmpty()) continue;
+
+			if (datasets.size() == 1) {
+				writeSlice(datasets.get(0), group, first, nexusFile);
+			} else {
+				Dataset stack = DatasetUtils.concatenate(datasets.toArray(new IDataset[datasets.size()]), dim);
+				stack.setName("data");
+				Slice[] sliceOut = first.clone();
+				sliceOut[dim] = new Slice(first[dim].getStart(), last[dim].getStop(), 1);
+				writeSlice(stack, group, sliceOut, determineMaxShape(datasets.get(0)), nexusFile);
 			}
-			flushDatasets(monitor);
 		}
 	}
-	
-	private void flushDatasets(IMonitor monitor) {
+
+	/**
+	 * @return dimension in which the second slice follows on from the first (or -1 if the slices are not neighbours)
+	 */
+	private static int findNeighbourDimension(Slice[] previous, Slice[] next, int dim, Dataset firstData, Dataset nextData) {
+		if (previous.length != next.length || firstData.getRank() != next.length
+				|| !Arrays.equals(firstData.getShapeRef(), nextData.getShapeRef())) {
+			return -1;
+		}
+		int found = -1;
+		for (int i = 0; i < next.length; i++) {
+			Slice p = previous[i];
+			Slice n = next[i];
+			if (p.getStart() == null || p.getStop() == null || n.getStart() == null || n.getStop() == null) {
+				return -1;
+			}
+			if (p.getStart().equals(n.getStart()) && p.getStop().equals(n.getStop()) && p.getStep() == n.getStep()) {
+				continue;
+			}
+			if (found >= 0 || p.getStep() != 1 || n.getStep() != 1 || !p.getStop().equals(n.getStart())
+					|| firstData.getShapeRef()[i] != 1) {
+				return -1;
+			}
+			found = i;
+		}
+		return dim < 0 || found == dim ? found : -1;
+	}
+
+	private void flushDatasets(IMonitor monitor, boolean force) {
 		long time = System.currentTimeMillis();
-		if (time - lastFlush > 2000) {
+		if (force || time - lastFlush > flushInterval || (flushFrames > 0 && framesSinceFlush >= flushFrames)) {
 			lastFlush = time;
+			framesSinceFlush = 0;
 			((NexusFileHDF5)nexusFile).flushAllCachedDatasets();
 			logger.debug("Flushing");
 			if (monitor instanceof IFlushMonitor) {
@@ -295,18 +588,13 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 	}
 
 	@Override
-	public void notify(IOperation<? extends IOperationModel, ? extends OperationData> intermediateData, OperationData data) {
-		//make groups on first pass
+	public void notify(final IOperation<? extends IOperationModel, ? extends OperationData> intermediateData, OperationData data) {
 
-		Serializable[] auxData = data.getAuxData();
-		Serializable[] summaryData = data.getSummaryData();
+		final Serializable[] auxData = data.getAuxData();
+		final Serializable[] summaryData = data.getSummaryData();
 		if (!intermediateData.isStoreOutput() && isEmpty(auxData) && isEmpty(summaryData)) return;
 
-		boolean first = firstNotifyMap.get(intermediateData).getAndSet(false);
-
-		String position = String.valueOf(positionMap.get(intermediateData));
-
-		SliceFromSeriesMetadata metadata;
+		final SliceFromSeriesMetadata metadata;
 		try {
 			metadata = data.getData().getMetadata(SliceFromSeriesMetadata.class).get(0);
 		} catch (Exception e) {
@@ -314,6 +602,44 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 			return;
 		}
 
+		// take copies of what is written as the data carries on down the pipeline (and
+		// may be modified in place by later operations) while it is queued for writing
+		final IDataset copy = intermediateData.isStoreOutput() ? DatasetUtils.convertToDataset(data.getData()).clone() : null;
+		final Serializable[] auxCopy = copies(auxData);
+		final Serializable[] summaryCopy = copies(summaryData);
+		try {
+			checkWriter();
+			submit(new WriteTask() {
+				@Override
+				void write() throws Exception {
+					writeIntermediate(intermediateData, metadata, copy, auxCopy, summaryCopy);
+				}
+			}, null);
+		} catch (Exception e) {
+			logger.error("Cannot queue intermediate data for writing", e);
+		}
+	}
+
+	private static Serializable[] copies(Serializable[] data) {
+		if (isEmpty(data)) return data;
+		Serializable[] copies = data.clone();
+		for (int i = 0; i < copies.length; i++) {
+			if (copies[i] instanceof IDataset) {
+				copies[i] = DatasetUtils.convertToDataset((IDataset) copies[i]).clone();
+			}
+		}
+		return copies;
+	}
+
+	/**
+	 * Write intermediate, auxiliary and summary data (called by writer thread)
+	 * @param data null unless output of operation is stored
+	 */
+	private void writeIntermediate(IOperation<? extends IOperationModel, ? extends OperationData> intermediateData, SliceFromSeriesMetadata metadata, IDataset data, Serializable[] auxData, Serializable[] summaryData) {
+		//make groups on first pass
+		boolean first = firstNotifyMap.get(intermediateData).getAndSet(false);
+
+		String position = String.valueOf(positionMap.get(intermediateData));
 
 		int[] dataDims = metadata.getDataDimensions();
 		int[] shape = metadata.getSubSampledShape();
@@ -324,19 +650,13 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 			try {
 				String intermediatePosData = intermediate + Node.SEPARATOR + position + "-" + intermediateData.getName();
 				GroupNode group;
-				synchronized (nexusFile) {
-					group = nexusFile.getGroup(intermediatePosData, true);	
-				}
-				Dataset d = DatasetUtils.convertToDataset(data.getData());
+				group = nexusFile.getGroup(intermediatePosData, true);	
+				Dataset d = DatasetUtils.convertToDataset(data);
 				
-				synchronized (nexusFile) {
-					d.setName("data");
-					appendData(d,group, slices,shape, nexusFile, dataDims);
-				}
+				d.setName("data");
+				appendData(d,group, slices,shape, nexusFile, dataDims);
 				if (first){
-					synchronized (nexusFile) {
-						nexusFile.addAttribute(group, TreeFactory.createAttribute(NexusConstants.DATA_SIGNAL, d.getName()));
-					}
+					nexusFile.addAttribute(group, TreeFactory.createAttribute(NexusConstants.DATA_SIGNAL, d.getName()));
 				}
 				updateAxes(d, slices, shape, dataDims, intermediatePosData,first);
 
@@ -356,15 +676,13 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 						String dsName = ds.getName();
 						GroupNode group;
 						String currentGroup = Tree.ROOT + ENTRY + Node.SEPARATOR + AUX_GROUP;
-						synchronized (nexusFile) {
-							GroupNode auxG = requireNXclass(currentGroup, NexusConstants.SUBENTRY);
-							group = requireNXclass(auxG, position + "-" + intermediateData.getName() + Node.SEPARATOR + dsName, NexusConstants.DATA);
-							currentGroup += Node.SEPARATOR + position + "-" + intermediateData.getName();
-							ds.setName("data");
-							appendData(ds, group, slices, shape, nexusFile, dataDims);
-							if (first) {
-								nexusFile.addAttribute(group, TreeFactory.createAttribute(NexusConstants.DATA_SIGNAL, ds.getName()));
-							}
+						GroupNode auxG = requireNXclass(currentGroup, NexusConstants.SUBENTRY);
+						group = requireNXclass(auxG, position + "-" + intermediateData.getName() + Node.SEPARATOR + dsName, NexusConstants.DATA);
+						currentGroup += Node.SEPARATOR + position + "-" + intermediateData.getName();
+						ds.setName("data");
+						appendData(ds, group, slices, shape, nexusFile, dataDims);
+						if (first) {
+							nexusFile.addAttribute(group, TreeFactory.createAttribute(NexusConstants.DATA_SIGNAL, ds.getName()));
 						}
 						
 						updateAxes(ds, slices, shape, dataDims, currentGroup + Node.SEPARATOR + dsName, first);
@@ -381,19 +699,17 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 				if (summaryData[i] instanceof IDataset) {
 					
 					try {
-						Dataset ds = DatasetUtils.convertToDataset((IDataset) summaryData[i]).getView(false);
+						Dataset ds = DatasetUtils.convertToDataset((IDataset) summaryData[i]);
 						String dsName = ds.getName();
 						GroupNode group;
 						String currentPath = Tree.ROOT + ENTRY + Node.SEPARATOR + SUM_GROUP;
-						synchronized (nexusFile) {
-							group = requireNXclass(currentPath, NexusConstants.SUBENTRY);
-							String gName = position + "-" + intermediateData.getName();
-							currentPath += Node.SEPARATOR + gName + Node.SEPARATOR + dsName;
-							group = requireNXclass(currentPath, NexusConstants.DATA);
-							ds.setName("data");
-							writeData(ds, group, nexusFile);
-							nexusFile.addAttribute(group,  TreeFactory.createAttribute(NexusConstants.DATA_SIGNAL, ds.getName()));
-						}
+						group = requireNXclass(currentPath, NexusConstants.SUBENTRY);
+						String gName = position + "-" + intermediateData.getName();
+						currentPath += Node.SEPARATOR + gName + Node.SEPARATOR + dsName;
+						group = requireNXclass(currentPath, NexusConstants.DATA);
+						ds.setName("data");
+						writeData(ds, group, nexusFile);
+						nexusFile.addAttribute(group,  TreeFactory.createAttribute(NexusConstants.DATA_SIGNAL, ds.getName()));
 						
 						writeAxes(ds, currentPath, true);
 					} catch (Exception e) {
@@ -490,54 +806,48 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 									e.setName(axDataset.getName() + "_errors");
 								}
 								
-								synchronized (nexusFile) {
-									DataNode dn = nexusFile.createData(nexusFile.getGroup(groupName, true), axDataset.squeeze());
-									dn.addAttribute( TreeFactory.createAttribute("axis", String.valueOf(i+1)));
-									nexusFile.addAttribute(nexusFile.getGroup(groupName, true),  TreeFactory.createAttribute(names[j]+NexusConstants.DATA_INDICES_SUFFIX, DatasetFactory.createFromObject(i)));
-									UnitMetadata unit = axDataset.getFirstMetadata(UnitMetadata.class);
-									if (unit != null) {
-										nexusFile.addAttribute(dn, TreeFactory.createAttribute(NexusConstants.UNITS,unit.toString()));
-									}
-									if (e != null) {
-										nexusFile.createData(nexusFile.getGroup(groupName, true), e);
-										nexusFile.addAttribute(groupName,  TreeFactory.createAttribute(axDataset.getName() + NexusConstants.DATA_UNCERTAINTY_SUFFIX, e.getName()));
-									}
+								DataNode dn = nexusFile.createData(nexusFile.getGroup(groupName, true), axDataset.squeeze());
+								dn.addAttribute( TreeFactory.createAttribute("axis", String.valueOf(i+1)));
+								nexusFile.addAttribute(nexusFile.getGroup(groupName, true),  TreeFactory.createAttribute(names[j]+NexusConstants.DATA_INDICES_SUFFIX, DatasetFactory.createFromObject(i)));
+								UnitMetadata unit = axDataset.getFirstMetadata(UnitMetadata.class);
+								if (unit != null) {
+									nexusFile.addAttribute(dn, TreeFactory.createAttribute(NexusConstants.UNITS,unit.toString()));
+								}
+								if (e != null) {
+									nexusFile.createData(nexusFile.getGroup(groupName, true), e);
+									nexusFile.addAttribute(groupName,  TreeFactory.createAttribute(axDataset.getName() + NexusConstants.DATA_UNCERTAINTY_SUFFIX, e.getName()));
 								}
 							}
 						} else {
-							synchronized (nexusFile) {
-								appendSingleValueAxis(axDataset,groupName, oSlice,oShape, nexusFile,i);
+							appendSingleValueAxis(axDataset,groupName, oSlice,oShape, nexusFile,i);
 
-								if (first) {
+							if (first) {
 
-									nexusFile.getData(groupName + Node.SEPARATOR +axDataset.getName()).addAttribute( TreeFactory.createAttribute("axis", String.valueOf(i+1)));
+								nexusFile.getData(groupName + Node.SEPARATOR +axDataset.getName()).addAttribute( TreeFactory.createAttribute("axis", String.valueOf(i+1)));
 
-								}
+							}
 
-								ILazyDataset error = axDataset.getErrors();
+							ILazyDataset error = axDataset.getErrors();
 
-								if (error != null) {
-									Dataset e = DatasetUtils.sliceAndConvertLazyDataset(error);
-									e.setName(axDataset.getName() + "_errors");
+							if (error != null) {
+								Dataset e = DatasetUtils.sliceAndConvertLazyDataset(error);
+								e.setName(axDataset.getName() + "_errors");
 
-									appendSingleValueAxis(e,groupName, oSlice,oShape, nexusFile,i);
-								}
-								
+								appendSingleValueAxis(e,groupName, oSlice,oShape, nexusFile,i);
 							}
+							
 						}
 
 					}
 				}
 				
 				if (first && axNames != null) {
-					synchronized (nexusFile) {
-						GroupNode group = nexusFile.getGroup(groupName, false);
-						nexusFile.addAttribute(group,  TreeFactory.createAttribute("axes", DatasetFactory.createFromObject(axNames)));
+					GroupNode group = nexusFile.getGroup(groupName, false);
+					nexusFile.addAttribute(group,  TreeFactory.createAttribute("axes", DatasetFactory.createFromObject(axNames)));
 //						for (int i = 0; i < axNames.length; i++) {
 //							if (axNames[i] != null && !axNames[i].equals(NexusTreeUtils.NX_AXES_EMPTY)) nexusFile.addAttribute(group,  TreeFactory.createAttribute(axNames[i]+NexusTreeUtils.NX_INDICES_SUFFIX, DatasetFactory.createFromObject(i)));
 //						}
-						axNames = null;
-					}
+					axNames = null;
 				}
 
 			}
@@ -602,30 +912,28 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 								e.setName(axDataset.getName() + "_errors");
 							}
 
-							synchronized (nexusFile) {
-								GroupNode gn = nexusFile.getGroup(groupName, true);
-								if (gn.containsDataNode(name)) { // final check as there is a race condition
-									continue;
-								}
-								axDataset.squeeze();
-								if (axDataset.getRank() == 0) {
-									axDataset.setShape(1);
-								}
-								DataNode dn = nexusFile.createData(gn, axDataset);
-								dn.addAttribute( TreeFactory.createAttribute("axis", String.valueOf(i + 1))); // FIXME needed???
-								nexusFile.addAttribute(nexusFile.getGroup(groupName, true),
-										 TreeFactory.createAttribute(names[j] + NexusConstants.DATA_INDICES_SUFFIX,
-												DatasetFactory.createFromObject(i)));
-								UnitMetadata unit = axDataset.getFirstMetadata(UnitMetadata.class);
-								if (unit != null) {
-									nexusFile.addAttribute(dn,
-											 TreeFactory.createAttribute(NexusConstants.UNITS, unit.toString()));
-								}
-								if (e != null) {
-									nexusFile.createData(nexusFile.getGroup(groupName, true), e);
-									nexusFile.addAttribute(groupName,  TreeFactory.createAttribute(
-											axDataset.getName() + NexusConstants.DATA_UNCERTAINTY_SUFFIX, e.getName()));
-								}
+							GroupNode gn = nexusFile.getGroup(groupName, true);
+							if (gn.containsDataNode(name)) { // final check as there is a race condition
+								continue;
+							}
+							axDataset.squeeze();
+							if (axDataset.getRank() == 0) {
+								axDataset.setShape(1);
+							}
+							DataNode dn = nexusFile.createData(gn, axDataset);
+							dn.addAttribute( TreeFactory.createAttribute("axis", String.valueOf(i + 1))); // FIXME needed???
+							nexusFile.addAttribute(nexusFile.getGroup(groupName, true),
+									 TreeFactory.createAttribute(names[j] + NexusConstants.DATA_INDICES_SUFFIX,
+											DatasetFactory.createFromObject(i)));
+							UnitMetadata unit = axDataset.getFirstMetadata(UnitMetadata.class);
+							if (unit != null) {
+								nexusFile.addAttribute(dn,
+										 TreeFactory.createAttribute(NexusConstants.UNITS, unit.toString()));
+							}
+							if (e != null) {
+								nexusFile.createData(nexusFile.getGroup(groupName, true), e);
+								nexusFile.addAttribute(groupName,  TreeFactory.createAttribute(
+										axDataset.getName() + NexusConstants.DATA_UNCERTAINTY_SUFFIX, e.getName()));
 							}
 						}
 
@@ -633,14 +941,12 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 				}
 				
 				if (first && axNames != null) {
-					synchronized (nexusFile) {
-						GroupNode group = nexusFile.getGroup(groupName, false);
-						nexusFile.addAttribute(group,  TreeFactory.createAttribute("axes", DatasetFactory.createFromObject(axNames)));
+					GroupNode group = nexusFile.getGroup(groupName, false);
+					nexusFile.addAttribute(group,  TreeFactory.createAttribute("axes", DatasetFactory.createFromObject(axNames)));
 //						for (int i = 0; i < axNames.length; i++) {
 //							if (axNames[i] != null && !axNames[i].equals(NexusTreeUtils.NX_AXES_EMPTY)) nexusFile.addAttribute(group,  TreeFactory.createAttribute(axNames[i]+NexusTreeUtils.NX_INDICES_SUFFIX, DatasetFactory.createFromObject(i)));
 //						}
-						axNames = null;
-					}
+					axNames = null;
 				}
 
 			}
@@ -717,27 +1023,63 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 	 */
 	private void appendData(Dataset dataset, GroupNode group, Slice[] oSlice, int[] oShape, NexusFile file, int[] dataDims) throws Exception {
 		
+		dataset = prepareAppend(dataset, oShape, dataDims);
+		//update the slice to reflect the new data shape/rank
+		Slice[] sliceOut = getUpdatedSliceArray( oShape, dataset.getShape(), oSlice, sortedDims(dataDims));
+		writeSlice(dataset, group, sliceOut, file);
+	}
+
+	/**
+	 * @param dataDims
+	 * @return sorted copy of the dimensions of the original data
+	 */
+	private static int[] sortedDims(int[] dataDims) {
+		int[] dd = dataDims.clone();
+		Arrays.sort(dd);
+		return dd;
+	}
+
+	/**
+	 * Reshape the dataset so it can be written into the full output dataset
+	 * @param dataset
+	 * @param oShape
+	 * @param dataDims
+	 * @return dataset to write
+	 */
+	private Dataset prepareAppend(Dataset dataset, int[] oShape, int[] dataDims) {
+
 		if (ShapeUtils.squeezeShape(dataset.getShape(), false).length == 0) {
 			//padding slice and shape does not play nice with single values of rank != 0
 			dataset = dataset.getSliceView().squeeze();
 //			dataset.setShape(new int[]{1});
 		}
 		
-		//determine the dimensions of the original data
-		int[] dd = dataDims.clone();
-		Arrays.sort(dd);
-		//update the slice to reflect the new data shape/rank
-		Slice[] sliceOut = getUpdatedSliceArray( oShape, dataset.getShape(), oSlice, dd);
-		//determine shape of full output dataset
-		long[] newShape = getNewShape(oShape, dataset.getShape(), dd);
-		
 		if (dataset.getRank() == 0) {
+			//determine shape of full output dataset
+			long[] newShape = getNewShape(oShape, dataset.getShape(), sortedDims(dataDims));
 //			int[] shape = new int[newShape.length];
 			int[] shape = newShape.length == 0 ? new int[1] : new int[newShape.length];
 			Arrays.fill(shape, 1);
 			dataset.setShape(shape);
 		}
-		
+		return dataset;
+	}
+
+	private void writeSlice(Dataset dataset, GroupNode group, Slice[] sliceOut, NexusFile file) throws Exception {
+		writeSlice(dataset, group, sliceOut, determineMaxShape(dataset), file);
+	}
+
+	/**
+	 * Write the data (and its errors) into the given region of the output dataset
+	 * @param dataset
+	 * @param group
+	 * @param sliceOut
+	 * @param maxShape
+	 * @param file
+	 * @throws Exception
+	 */
+	private void writeSlice(Dataset dataset, GroupNode group, Slice[] sliceOut, int[] maxShape, NexusFile file) throws Exception {
+
 		//write
 		DataNode dn = null;
 		if (group.containsDataNode(dataset.getName())){
@@ -748,7 +1090,7 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 		}
 
 		ILazyWriteableDataset wds = dn.getWriteableDataset();
-		SliceND s = new SliceND(dataset.getShape(),determineMaxShape(dataset),sliceOut);
+		SliceND s = new SliceND(dataset.getShape(),maxShape,sliceOut);
 		wds.setSlice(null, dataset, s);
 
 
@@ -835,6 +1177,12 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 	@Override
 	public void close() throws Exception {
 		
+		if (writer != null) {
+			submit(STOP, null);
+			writer.join();
+			writer = null;
+		}
+
 		if (nexusFile != null) {
 			
 			if (swmring) {
@@ -846,6 +1194,8 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor, ISavesToFil
 			nexusFile.close();
 		}
 
+		checkWriter();
+
 	}
 
 	/**
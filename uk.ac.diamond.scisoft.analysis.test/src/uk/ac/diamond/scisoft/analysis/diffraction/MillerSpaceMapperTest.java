@@ -0,0 +1,161 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Vector3d;
+
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
+import org.eclipse.january.DatasetException;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.diffraction.MillerSpaceMapper.Frame;
+import uk.ac.diamond.scisoft.analysis.diffraction.MillerSpaceMapper.FrameSource;
+import uk.ac.diamond.scisoft.analysis.diffraction.MillerSpaceMapper.MillerSpaceMapperBean;
+
+public class MillerSpaceMapperTest {
+	private static final int[] ISHAPE = new int[] {30, 40};
+	private static final int FRAMES = 24;
+
+	private static final int[] VSHAPE = new int[] {18, 18, 10};
+	private static double[] vStart;
+	private static double[] vStop;
+	private static double[] vDelta;
+
+	private static final List<QSpace> qspaces = new ArrayList<>();
+	private static final List<DoubleDataset> images = new ArrayList<>();
+
+	static {
+		Matrix3d orientation = new Matrix3d();
+		orientation.setIdentity();
+		DiffractionCrystalEnvironment env = new DiffractionCrystalEnvironment(1.4);
+
+		Random r = new Random(4321);
+		double[] min = new double[3];
+		double[] max = new double[3];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		Vector3d q = new Vector3d();
+		for (int i = 0; i < FRAMES; i++) {
+			// move detector a little so frames overlap in q space
+			DetectorProperties dp = new DetectorProperties(new Vector3d(60 + 0.7 * i, 40 + 0.3 * i, 234),
+					ISHAPE[1], ISHAPE[0], 0.3, 0.2, orientation);
+			QSpace qspace = new QSpace(dp, env);
+			qspaces.add(qspace);
+
+			double[] values = new double[ISHAPE[0] * ISHAPE[1]];
+			for (int j = 0; j < values.length; j++) {
+				values[j] = r.nextInt(5) == 0 ? 0 : 100 * r.nextDouble(); // leave some pixels empty
+			}
+			images.add(DatasetFactory.createFromObject(DoubleDataset.class, values, ISHAPE));
+
+			for (int y = 0; y < ISHAPE[0]; y++) {
+				for (int x = 0; x < ISHAPE[1]; x++) {
+					qspace.qFromPixelPosition(x + 0.5, y + 0.5, q);
+					MillerSpaceMapper.minMax(min, max, q);
+				}
+			}
+		}
+
+		vStart = new double[3];
+		vStop = new double[3];
+		vDelta = new double[3];
+		for (int i = 0; i < 3; i++) {
+			vDelta[i] = (max[i] - min[i]) / (VSHAPE[i] - 2);
+			vStart[i] = min[i] - vDelta[i];
+			vStop[i] = vStart[i] + VSHAPE[i] * vDelta[i];
+		}
+	}
+
+	private static FrameSource createSource() {
+		final Iterator<QSpace> qit = qspaces.iterator();
+		final Iterator<DoubleDataset> iit = images.iterator();
+		return new FrameSource() {
+			@Override
+			public Frame next() {
+				return qit.hasNext() ? new Frame(ISHAPE, qit.next(), null, iit.next().clone()) : null;
+			}
+		};
+	}
+
+	private static void map(PixelSplitter splitter, int threads, VoxelVolume volume) throws DatasetException {
+		MillerSpaceMapper mapper = new MillerSpaceMapper(new MillerSpaceMapperBean());
+		mapper.setQSpaceBoundingBox(VSHAPE, vStart, vStop, vDelta);
+		mapper.copyParameters(true);
+		mapper.setSplitter(splitter);
+		mapper.setNumberOfThreads(threads);
+		mapper.mapFrames(createSource(), volume, ISHAPE, null);
+	}
+
+	private static void checkSame(String message, DoubleDataset expected, DoubleDataset actual) {
+		double tolerance = 1e-10 * Math.max(1, expected.max().doubleValue());
+		for (int i = 0; i < expected.getSize(); i++) {
+			assertEquals(message, expected.getAbs(i), actual.getAbs(i), tolerance);
+		}
+	}
+
+	private static PixelSplitter[] createSplitters() {
+		return new PixelSplitter[] {new MillerSpaceMapper.NonSplitter(),
+				new MillerSpaceMapper.InverseSplitter(), new MillerSpaceMapper.GaussianSplitter(0.5 * vDelta[0]),
+				new MillerSpaceMapper.ExponentialSplitter(0.5 * vDelta[0])};
+	}
+
+	@Test
+	public void testThreadsMatchSerial() throws DatasetException {
+		for (PixelSplitter s : createSplitters()) {
+			String name = s.getClass().getSimpleName();
+			DoubleDataset serialMap = DatasetFactory.zeros(VSHAPE);
+			DoubleDataset serialWeight = DatasetFactory.zeros(VSHAPE);
+			map(s.copy(), 1, new DenseVoxelVolume(serialMap, serialWeight));
+			assertTrue(name + " mapped nothing", serialWeight.max().doubleValue() > 0);
+
+			DoubleDataset map = DatasetFactory.zeros(VSHAPE);
+			DoubleDataset weight = DatasetFactory.zeros(VSHAPE);
+			map(s.copy(), 4, new DenseVoxelVolume(map, weight));
+
+			checkSame(name + " map", serialMap, map);
+			checkSame(name + " weight", serialWeight, weight);
+		}
+	}
+
+	@Test
+	public void testSparseThreadsMatchSerial() throws DatasetException {
+		for (PixelSplitter s : createSplitters()) {
+			String name = s.getClass().getSimpleName();
+			DenseVoxelVolume serial = new DenseVoxelVolume(VSHAPE);
+			map(s.copy(), 1, serial);
+			DoubleDataset expected = serial.normalize();
+
+			SparseVoxelVolume sparse = new SparseVoxelVolume(VSHAPE);
+			map(s.copy(), 4, sparse);
+
+			double tolerance = 1e-10 * Math.max(1, expected.max().doubleValue());
+			for (int x = 0; x < VSHAPE[0]; x++) {
+				for (int y = 0; y < VSHAPE[1]; y++) {
+					for (int z = 0; z < VSHAPE[2]; z++) {
+						assertEquals(name, expected.getDouble(x, y, z), sparse.getNormalizedValue(x, y, z), tolerance);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import javax.vecmath.Vector3d;
+
+import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.Test;
+
+public class SparseVoxelVolumeTest {
+	private static final int[] SHAPE = new int[] {70, 40, 36};
+
+	private static void splitRandomPixels(PixelSplitter splitter, int n, VoxelVolume... volumes) {
+		splitRandomPixels(1234, splitter, n, volumes);
+	}
+
+	private static void splitRandomPixels(long seed, PixelSplitter splitter, int n, VoxelVolume... volumes) {
+		Random r = new Random(seed);
+		double[] vsize = new double[] {1, 1, 1};
+		Vector3d dh = new Vector3d();
+		int[] pos = new int[3];
+		for (int i = 0; i < n; i++) {
+			// keep to corner of volume so most blocks remain untouched
+			pos[0] = r.nextInt(SHAPE[0] / 2);
+			pos[1] = r.nextInt(SHAPE[1] / 2);
+			pos[2] = r.nextInt(SHAPE[2] / 2);
+			dh.set(r.nextDouble(), r.nextDouble(), r.nextDouble());
+			double value = 10 * r.nextDouble();
+			for (VoxelVolume v : volumes) {
+				splitter.splitValue(v, vsize, dh, pos, value);
+			}
+		}
+	}
+
+	private static void checkSame(DenseVoxelVolume dense, SparseVoxelVolume sparse) {
+		checkSame(dense, sparse, 1e-12);
+	}
+
+	private static void checkSame(DenseVoxelVolume dense, SparseVoxelVolume sparse, double tolerance) {
+		DoubleDataset d = dense.normalize();
+		for (int x = 0; x < SHAPE[0]; x++) {
+			for (int y = 0; y < SHAPE[1]; y++) {
+				for (int z = 0; z < SHAPE[2]; z++) {
+					assertEquals(d.getDouble(x, y, z), sparse.getNormalizedValue(x, y, z), tolerance);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSplittersMatchDenseVolume() {
+		PixelSplitter[] splitters = new PixelSplitter[] {new MillerSpaceMapper.NonSplitter(),
+				new MillerSpaceMapper.InverseSplitter(), new MillerSpaceMapper.GaussianSplitter(0.5),
+				new MillerSpaceMapper.ExponentialSplitter(0.5)};
+
+		for (PixelSplitter s : splitters) {
+			DenseVoxelVolume dense = new DenseVoxelVolume(SHAPE);
+			SparseVoxelVolume sparse = new SparseVoxelVolume(SHAPE);
+			splitRandomPixels(s, 2000, dense, sparse);
+			checkSame(dense, sparse);
+			assertTrue(sparse.getNumberOfBlocks() <= 3 * 2 * 2);
+			assertTrue(sparse.getBytes() < dense.getBytes());
+		}
+	}
+
+	@Test
+	public void testAccumulate() {
+		PixelSplitter splitter = new MillerSpaceMapper.InverseSplitter();
+		DenseVoxelVolume dense = new DenseVoxelVolume(SHAPE);
+		SparseVoxelVolume sparse = new SparseVoxelVolume(SHAPE);
+		splitRandomPixels(splitter, 500, dense, sparse);
+
+		DenseVoxelVolume denseOther = (DenseVoxelVolume) dense.createEmpty();
+		SparseVoxelVolume sparseOther = (SparseVoxelVolume) sparse.createEmpty();
+		assertEquals(0, sparseOther.getNumberOfBlocks());
+		splitRandomPixels(splitter.copy(), 700, denseOther, sparseOther);
+
+		dense.accumulate(denseOther);
+		sparse.accumulate(sparseOther);
+		checkSame(dense, sparse);
+	}
+
+	@Test
+	public void testPartialsShareBlocks() throws InterruptedException {
+		final PixelSplitter splitter = new MillerSpaceMapper.GaussianSplitter(0.5);
+		final int nt = 4;
+		DenseVoxelVolume dense = new DenseVoxelVolume(SHAPE);
+		for (int i = 0; i < nt; i++) {
+			splitRandomPixels(i, splitter, 2000, dense);
+		}
+
+		SparseVoxelVolume sparse = new SparseVoxelVolume(SHAPE);
+		VoxelVolume[] partials = new VoxelVolume[nt];
+		Thread[] threads = new Thread[nt];
+		for (int i = 0; i < nt; i++) {
+			final long seed = i;
+			final VoxelVolume partial = partials[i] = sparse.createPartial();
+			final PixelSplitter s = splitter.copy();
+			threads[i] = new Thread(() -> splitRandomPixels(seed, s, 2000, partial));
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		int blocks = sparse.getNumberOfBlocks();
+		for (VoxelVolume p : partials) {
+			sparse.accumulate(p);
+		}
+		assertEquals(blocks, sparse.getNumberOfBlocks());
+		assertEquals(0, sparse.getPartialBytes());
+		checkSame(dense, sparse, 1e-10);
+	}
+}
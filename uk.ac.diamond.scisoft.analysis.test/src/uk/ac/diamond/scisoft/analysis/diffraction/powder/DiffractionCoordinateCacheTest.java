@@ -0,0 +1,109 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.io.DiffractionMetadata;
+import uk.ac.diamond.scisoft.analysis.roi.XAxis;
+
+public class DiffractionCoordinateCacheTest {
+
+	private static final long BYTES = 100 * 100 * 8;
+
+	private DiffractionCoordinateCache cache;
+	private long maxBytes;
+
+	private static IDiffractionMetadata createMetadata(double distance) {
+		DetectorProperties dp = new DetectorProperties(distance, 0, 0, 100, 100, 1, 1);
+		return new DiffractionMetadata("", dp, new DiffractionCrystalEnvironment(1));
+	}
+
+	@Before
+	public void setUp() {
+		cache = DiffractionCoordinateCache.getInstance();
+		maxBytes = cache.getMaxBytes();
+		cache.clear();
+	}
+
+	@After
+	public void tearDown() {
+		cache.clear();
+		cache.setMaxBytes(maxBytes);
+		cache.setSinglePrecision(false);
+	}
+
+	@Test
+	public void testEntriesHeldUntilBudgetExceeded() {
+		cache.setMaxBytes(2 * BYTES);
+		IDiffractionMetadata a = createMetadata(100);
+		IDiffractionMetadata b = createMetadata(200);
+		IDiffractionMetadata c = createMetadata(300);
+
+		Dataset d = DatasetFactory.zeros(DoubleDataset.class, 100, 100);
+		cache.put(a, XAxis.Q, true, false, d);
+		System.gc();
+		assertSame(d, cache.get(createMetadata(100), XAxis.Q, true, false));
+		assertNull(cache.get(a, XAxis.ANGLE, true, false));
+
+		cache.put(b, XAxis.Q, true, false, DatasetFactory.zeros(DoubleDataset.class, 100, 100));
+		assertEquals(2 * BYTES, cache.getBytes());
+
+		// least recently used is evicted
+		cache.get(a, XAxis.Q, true, false);
+		cache.put(c, XAxis.Q, true, false, DatasetFactory.zeros(DoubleDataset.class, 100, 100));
+		assertNotNull(cache.get(a, XAxis.Q, true, false));
+		assertNull(cache.get(b, XAxis.Q, true, false));
+		assertNotNull(cache.get(c, XAxis.Q, true, false));
+		assertEquals(2 * BYTES, cache.getBytes());
+	}
+
+	@Test
+	public void testReplacedEntry() {
+		cache.setMaxBytes(BYTES);
+		IDiffractionMetadata a = createMetadata(100);
+
+		cache.put(a, XAxis.Q, false, false, new Dataset[] {DatasetFactory.zeros(DoubleDataset.class, 100, 50),
+				DatasetFactory.zeros(DoubleDataset.class, 100, 50)});
+		Dataset d = DatasetFactory.zeros(DoubleDataset.class, 100, 100);
+		cache.put(a, XAxis.Q, false, false, d);
+		assertSame(d, cache.get(a, XAxis.Q, false, false));
+		assertEquals(BYTES, cache.getBytes());
+
+		cache.setMaxBytes(BYTES / 2);
+		assertNull(cache.get(a, XAxis.Q, false, false));
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void testSinglePrecision() {
+		cache.setSinglePrecision(true);
+		IDiffractionMetadata a = createMetadata(100);
+		Object stored = cache.put(a, XAxis.ANGLE, true, true, DatasetFactory.createRange(DoubleDataset.class, 10));
+		assertTrue(stored instanceof FloatDataset);
+		assertSame(stored, cache.get(a, XAxis.ANGLE, true, true));
+		assertEquals(10 * 4, cache.getBytes());
+	}
+}
@@ -0,0 +1,237 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import java.util.List;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.Maths;
+import org.eclipse.january.dataset.Slice;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PixelBinMatrixTest extends AbstractPixelIntegrationTestBase {
+
+	/**
+	 * Cache that does not supply a matrix so integration goes pixel by pixel
+	 */
+	private static class PixelByPixelCache implements IPixelIntegrationCache {
+		private final IPixelIntegrationCache c;
+
+		public PixelByPixelCache(IPixelIntegrationCache c) {
+			this.c = c;
+		}
+
+		@Override
+		public Dataset[] getXAxisArray() {
+			return c.getXAxisArray();
+		}
+
+		@Override
+		public Dataset[] getYAxisArray() {
+			return c.getYAxisArray();
+		}
+
+		@Override
+		public double getXBinEdgeMax() {
+			return c.getXBinEdgeMax();
+		}
+
+		@Override
+		public double getXBinEdgeMin() {
+			return c.getXBinEdgeMin();
+		}
+
+		@Override
+		public double getYBinEdgeMax() {
+			return c.getYBinEdgeMax();
+		}
+
+		@Override
+		public double getYBinEdgeMin() {
+			return c.getYBinEdgeMin();
+		}
+
+		@Override
+		public int getNumberOfBinsXAxis() {
+			return c.getNumberOfBinsXAxis();
+		}
+
+		@Override
+		public int getNumberOfBinsYAxis() {
+			return c.getNumberOfBinsYAxis();
+		}
+
+		@Override
+		public double[] getYAxisRange() {
+			return c.getYAxisRange();
+		}
+
+		@Override
+		public double[] getXAxisRange() {
+			return c.getXAxisRange();
+		}
+
+		@Override
+		public Dataset getXAxis() {
+			return c.getXAxis();
+		}
+
+		@Override
+		public Dataset getYAxis() {
+			return c.getYAxis();
+		}
+
+		@Override
+		public boolean isPixelSplitting() {
+			return c.isPixelSplitting();
+		}
+
+		@Override
+		public boolean isTo1D() {
+			return c.isTo1D();
+		}
+
+		@Override
+		public boolean sanitise() {
+			return c.sanitise();
+		}
+
+		@Override
+		public boolean provideLookup() {
+			return c.provideLookup();
+		}
+
+		@Override
+		public PixelBinMatrix getPixelBinMatrix(IDataset mask) {
+			return null;
+		}
+	}
+
+	private void checkAgainstPixelByPixel(PixelIntegrationBean bean, Dataset data, Dataset mask) {
+		PixelIntegrationCache cache = new PixelIntegrationCache(getDiffractionMetadata(), bean);
+		List<Dataset> expected = PixelIntegration.integrate(data, mask, new PixelByPixelCache(cache));
+		List<Dataset> actual = PixelIntegration.integrate(data, mask, cache);
+		Assert.assertNotNull(cache.getPixelBinMatrix(mask));
+
+		Assert.assertEquals(expected.size(), actual.size());
+		Dataset e = expected.get(1);
+		Dataset a = actual.get(1);
+		Assert.assertArrayEquals(e.getShape(), a.getShape());
+		for (int i = 0; i < e.getSize(); i++) {
+			double ev = e.getElementDoubleAbs(i);
+			Assert.assertEquals(ev, a.getElementDoubleAbs(i), 1e-9 * Math.max(1, Math.abs(ev)));
+		}
+	}
+
+	@Test
+	public void testMatchesPixelByPixel() {
+		Dataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+		Dataset mask = getMask(data.getShape());
+
+		for (boolean to1D : new boolean[] {true, false}) {
+			for (boolean split : new boolean[] {false, true}) {
+				PixelIntegrationBean bean = new PixelIntegrationBean();
+				bean.setUsePixelSplitting(split);
+				bean.setTo1D(to1D);
+				bean.setNumberOfBinsRadial(1000);
+				if (!to1D) bean.setNumberOfBinsAzimuthal(90);
+				checkAgainstPixelByPixel(bean, data, null);
+				checkAgainstPixelByPixel(bean, data, mask);
+
+				bean.setAzimuthalRange(new double[]{-180,-170});
+				bean.setRadialRange(new double[]{1,5});
+				checkAgainstPixelByPixel(bean, data, mask);
+			}
+		}
+	}
+
+	@Test
+	public void testMatrixFollowsMask() {
+		Dataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setUsePixelSplitting(true);
+		PixelIntegrationCache cache = new PixelIntegrationCache(getDiffractionMetadata(), bean);
+
+		PixelBinMatrix unmasked = cache.getPixelBinMatrix(null);
+		Assert.assertSame(unmasked, cache.getPixelBinMatrix(null));
+		Assert.assertEquals(data.getSize(), unmasked.getNumberOfPixels());
+
+		Dataset mask = getMask(data.getShape());
+		PixelBinMatrix masked = cache.getPixelBinMatrix(mask);
+		Assert.assertNotSame(unmasked, masked);
+		Assert.assertSame(masked, cache.getPixelBinMatrix(mask.clone()));
+		Assert.assertTrue(masked.isForMask(mask));
+		Assert.assertFalse(masked.isForMask(null));
+		Assert.assertFalse(unmasked.isForMask(mask));
+		Assert.assertTrue(masked.getNumberOfEntries() < unmasked.getNumberOfEntries());
+	}
+
+	private void checkStack(IPixelIntegrationCache cache, Dataset[] frames, Dataset mask) {
+		Dataset[] views = new Dataset[frames.length];
+		for (int i = 0; i < frames.length; i++) {
+			views[i] = frames[i].getView(true);
+			views[i].setShape(1, frames[i].getShape()[0], frames[i].getShape()[1]);
+		}
+		Dataset stack = DatasetUtils.concatenate(views, 0);
+		List<Dataset> actual = PixelIntegration.integrateStack(stack, mask, cache, null);
+		DoubleDataset out = (DoubleDataset) actual.get(1);
+		Assert.assertEquals(frames.length, out.getShapeRef()[0]);
+
+		// reuse preallocated output
+		Assert.assertSame(out, PixelIntegration.integrateStack(stack, mask, cache, out).get(1));
+
+		for (int i = 0; i < frames.length; i++) {
+			Dataset e = PixelIntegration.integrate(frames[i], mask, cache).get(1);
+			Dataset a = out.getSlice(new Slice(i, i + 1)).squeezeEnds();
+			Assert.assertArrayEquals(e.getShape(), a.getShape());
+			for (int j = 0; j < e.getSize(); j++) {
+				double ev = e.getElementDoubleAbs(j);
+				Assert.assertEquals(ev, a.getElementDoubleAbs(j), 1e-9 * Math.max(1, Math.abs(ev)));
+			}
+		}
+	}
+
+	@Test
+	public void testStackMatchesFrames() {
+		Dataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+		Dataset mask = getMask(data.getShape());
+		Dataset[] frames = new Dataset[] {data, Maths.multiply(data, 2), Maths.add(data, 1)};
+
+		for (boolean to1D : new boolean[] {true, false}) {
+			for (boolean split : new boolean[] {false, true}) {
+				PixelIntegrationBean bean = new PixelIntegrationBean();
+				bean.setUsePixelSplitting(split);
+				bean.setTo1D(to1D);
+				bean.setNumberOfBinsRadial(1000);
+				if (!to1D) bean.setNumberOfBinsAzimuthal(90);
+				PixelIntegrationCache cache = new PixelIntegrationCache(getDiffractionMetadata(), bean);
+				checkStack(cache, frames, mask);
+				checkStack(new PixelByPixelCache(cache), frames, mask);
+			}
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.eclipse.january.dataset.BooleanDataset;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IntegerDataset;
+
+import uk.ac.diamond.scisoft.analysis.io.DiffractionMetadata;
+
+/**
+ * Throughput benchmark of powder integrators on synthetic detector geometries.
+ * <p>
+ * This is not a unit test. Run its main method with optional arguments of detector
+ * names (see {@link Detector}), and "-n" followed by the number of measured frames.
+ * For each integrator, it reports frames per second and the number of garbage
+ * collections and time spent collecting per frame (as a measure of allocation).
+ * Larger detectors need a large heap (-Xmx8g for Eiger 16M).
+ */
+public class PixelIntegrationBenchmark {
+
+	private static final int WARMUP_FRAMES = 5;
+	private static final int STACK_FRAMES = 8;
+	private static final int BINS = 2000;
+	private static final int AZIMUTHAL_BINS = 360;
+
+	/**
+	 * Detectors made of modules separated by gaps
+	 */
+	enum Detector {
+		PILATUS_2M(3, 8, 487, 195, 7, 17, 0.172),
+		PILATUS_6M(5, 12, 487, 195, 7, 17, 0.172),
+		EIGER_16M(4, 8, 1030, 514, 10, 37, 0.075);
+
+		private final int modulesX, modulesY, moduleWidth, moduleHeight, gapX, gapY;
+		private final double pixelSize;
+
+		private Detector(int modulesX, int modulesY, int moduleWidth, int moduleHeight, int gapX, int gapY, double pixelSize) {
+			this.modulesX = modulesX;
+			this.modulesY = modulesY;
+			this.moduleWidth = moduleWidth;
+			this.moduleHeight = moduleHeight;
+			this.gapX = gapX;
+			this.gapY = gapY;
+			this.pixelSize = pixelSize;
+		}
+
+		public int[] getShape() {
+			return new int[] {modulesY * (moduleHeight + gapY) - gapY, modulesX * (moduleWidth + gapX) - gapX};
+		}
+
+		/**
+		 * @return geometry with beam centre near middle of detector at 200mm
+		 */
+		public IDiffractionMetadata createMetadata() {
+			int[] shape = getShape();
+			DetectorProperties dp = DetectorProperties.getDefaultDetectorProperties(shape);
+			dp.setHPxSize(pixelSize);
+			dp.setVPxSize(pixelSize);
+			dp.setBeamCentreCoords(new double[] {0.47 * shape[1], 0.53 * shape[0]});
+			dp.setBeamCentreDistance(200);
+			return new DiffractionMetadata(name(), dp, new DiffractionCrystalEnvironment(0.5));
+		}
+
+		/**
+		 * @return mask which is false in module gaps and beamstop shadow
+		 */
+		public Dataset createMask(double[] beamCentre) {
+			int[] shape = getShape();
+			BooleanDataset mask = DatasetFactory.zeros(BooleanDataset.class, shape);
+			boolean[] m = mask.getData();
+			double r2 = 40 * 40;
+			for (int y = 0, i = 0; y < shape[0]; y++) {
+				boolean inGapY = y % (moduleHeight + gapY) >= moduleHeight;
+				double dy = y - beamCentre[1];
+				for (int x = 0; x < shape[1]; x++, i++) {
+					double dx = x - beamCentre[0];
+					m[i] = !inGapY && x % (moduleWidth + gapX) < moduleWidth && dx * dx + dy * dy > r2;
+				}
+			}
+			return mask;
+		}
+
+		/**
+		 * @return image of counts with rings about beam centre
+		 */
+		public Dataset createImage(double[] beamCentre) {
+			int[] shape = getShape();
+			IntegerDataset image = DatasetFactory.zeros(IntegerDataset.class, shape);
+			int[] d = image.getData();
+			for (int y = 0, i = 0; y < shape[0]; y++) {
+				double dy = y - beamCentre[1];
+				for (int x = 0; x < shape[1]; x++, i++) {
+					double dx = x - beamCentre[0];
+					double r = Math.hypot(dx, dy) % 150 - 75;
+					d[i] = (int) (50 + 2000 * Math.exp(-r * r / 20) + (i % 7));
+				}
+			}
+			return image;
+		}
+	}
+
+	private static class Result {
+		private final double framesPerSecond;
+		private final double collectionsPerFrame;
+		private final double collectionMillisPerFrame;
+
+		public Result(double framesPerSecond, double collectionsPerFrame, double collectionMillisPerFrame) {
+			this.framesPerSecond = framesPerSecond;
+			this.collectionsPerFrame = collectionsPerFrame;
+			this.collectionMillisPerFrame = collectionMillisPerFrame;
+		}
+	}
+
+	/**
+	 * @return total number of collections and milliseconds spent collecting by all garbage collectors
+	 */
+	private static long[] getCollections() {
+		long[] total = new long[2];
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total[0] += Math.max(0, gc.getCollectionCount());
+			total[1] += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	/**
+	 * Time integrator
+	 * @param integrator
+	 * @param frames number of calls to integrator
+	 * @param framesPerCall number of frames processed per call
+	 * @return result
+	 */
+	static Result measure(Supplier<List<Dataset>> integrator, int frames, int framesPerCall) {
+		for (int i = 0; i < WARMUP_FRAMES; i++) { // also fills caches
+			integrator.get();
+		}
+
+		long[] a = getCollections();
+		long t = System.nanoTime();
+		for (int i = 0; i < frames; i++) {
+			integrator.get();
+		}
+		t = System.nanoTime() - t;
+		long[] b = getCollections();
+
+		double n = frames * framesPerCall;
+		return new Result(n * 1e9 / t, (b[0] - a[0]) / n, (b[1] - a[1]) / n);
+	}
+
+	private static PixelIntegrationCache createCache(IDiffractionMetadata md, boolean to1D, boolean split) {
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setTo1D(to1D);
+		bean.setUsePixelSplitting(split);
+		bean.setNumberOfBinsRadial(BINS);
+		if (!to1D) bean.setNumberOfBinsAzimuthal(AZIMUTHAL_BINS);
+		return new PixelIntegrationCache(md, bean);
+	}
+
+	/**
+	 * @return map of names to integrators for given detector
+	 */
+	static Map<String, Supplier<List<Dataset>>> createIntegrators(Detector detector) {
+		final IDiffractionMetadata md = detector.createMetadata();
+		final double[] beamCentre = md.getDetector2DProperties().getBeamCentreCoords();
+		final Dataset image = detector.createImage(beamCentre);
+		final Dataset mask = detector.createMask(beamCentre);
+
+		Map<String, Supplier<List<Dataset>>> integrators = new LinkedHashMap<>();
+
+		final List<AbstractPixelIntegration> legacy = new ArrayList<>();
+		legacy.add(new NonPixelSplittingIntegration(md, BINS));
+		legacy.add(new PixelSplittingIntegration(md, BINS));
+		legacy.add(new NonPixelSplittingIntegration2D(md, BINS, AZIMUTHAL_BINS));
+		legacy.add(new PixelSplittingIntegration2D(md, BINS, AZIMUTHAL_BINS));
+		for (final AbstractPixelIntegration i : legacy) {
+			i.setMask(mask);
+			integrators.put(i.getClass().getSimpleName(), () -> i.integrate(image));
+		}
+
+		for (boolean to1D : new boolean[] {true, false}) {
+			for (boolean split : new boolean[] {false, true}) {
+				final PixelIntegrationCache cache = createCache(md, to1D, split);
+				String name = String.format("PixelIntegration %s%s", to1D ? "1D" : "cake", split ? " split" : "");
+				integrators.put(name, () -> PixelIntegration.integrate(image, mask, cache));
+			}
+		}
+
+		Dataset[] frames = new Dataset[STACK_FRAMES];
+		for (int i = 0; i < STACK_FRAMES; i++) {
+			frames[i] = image.getView(true);
+			frames[i].setShape(1, image.getShapeRef()[0], image.getShapeRef()[1]);
+		}
+		final Dataset stack = DatasetUtils.concatenate(frames, 0);
+		for (boolean to1D : new boolean[] {true, false}) {
+			final PixelIntegrationCache cache = createCache(md, to1D, true);
+			final DoubleDataset output = DatasetFactory.zeros(DoubleDataset.class,
+					to1D ? new int[] {STACK_FRAMES, BINS} : new int[] {STACK_FRAMES, AZIMUTHAL_BINS, BINS});
+			String name = String.format("PixelIntegration stack of %d %s split", STACK_FRAMES, to1D ? "1D" : "cake");
+			integrators.put(name, () -> PixelIntegration.integrateStack(stack, mask, cache, output));
+		}
+
+		return integrators;
+	}
+
+	public static void main(String[] args) {
+		List<Detector> detectors = new ArrayList<>();
+		int frames = 20;
+		for (int i = 0; i < args.length; i++) {
+			if ("-n".equals(args[i]) && i + 1 < args.length) {
+				frames = Integer.parseInt(args[++i]);
+			} else {
+				detectors.add(Detector.valueOf(args[i].toUpperCase()));
+			}
+		}
+		if (detectors.isEmpty()) {
+			for (Detector d : Detector.values()) {
+				detectors.add(d);
+			}
+		}
+
+		DiffractionCoordinateCache.getInstance().clear();
+		for (Detector d : detectors) {
+			int[] shape = d.getShape();
+			System.out.printf("%s (%d x %d)%n", d, shape[1], shape[0]);
+			for (Map.Entry<String, Supplier<List<Dataset>>> e : createIntegrators(d).entrySet()) {
+				int perCall = e.getKey().contains("stack") ? STACK_FRAMES : 1;
+				Result r = measure(e.getValue(), Math.max(1, frames / perCall), perCall);
+				System.out.printf("  %-40s %8.2f frames/s %8.3f GCs/frame %8.2f ms GC/frame%n", e.getKey(), r.framesPerSecond,
+						r.collectionsPerFrame, r.collectionMillisPerFrame);
+			}
+			DiffractionCoordinateCache.getInstance().clear();
+		}
+	}
+}
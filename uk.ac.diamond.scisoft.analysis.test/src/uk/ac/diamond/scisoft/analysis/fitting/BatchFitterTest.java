@@ -0,0 +1,107 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.fitting;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.fitting.functions.CompositeFunction;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.Gaussian;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.Offset;
+
+public class BatchFitterTest {
+
+	private static final int ROWS = 50;
+	private static final int POINTS = 200;
+
+	private static double position(int r) {
+		return 8 + 4. * r / ROWS;
+	}
+
+	private static DoubleDataset createSpectra(DoubleDataset x) {
+		DoubleDataset spectra = DatasetFactory.zeros(DoubleDataset.class, ROWS, POINTS);
+		Gaussian g = new Gaussian();
+		for (int r = 0; r < ROWS; r++) {
+			g.setParameterValues(position(r), 1.5, 10 + r * 0.1);
+			DoubleDataset v = g.calculateValues(x);
+			for (int i = 0; i < POINTS; i++) {
+				spectra.set(v.getDouble(i) + 0.5 + 0.01 * Math.sin(i * 0.7 + r), r, i);
+			}
+		}
+		return spectra;
+	}
+
+	private static CompositeFunction createTemplate() {
+		CompositeFunction template = new CompositeFunction();
+		Gaussian g = new Gaussian(0, 20, 5, 30);
+		g.setParameterValues(9, 2, 8);
+		template.addFunction(g);
+		template.addFunction(new Offset(-5, 5));
+		return template;
+	}
+
+	@Test
+	public void testFit() throws Exception {
+		DoubleDataset x = DatasetFactory.createRange(DoubleDataset.class, 0, 20, 0.1);
+		DoubleDataset spectra = createSpectra(x);
+
+		BatchFitter fitter = new BatchFitter(createTemplate());
+		fitter.setPool(new ForkJoinPool(3));
+		BatchFitter.Result result = fitter.fit(x, spectra);
+
+		Assert.assertEquals(4, fitter.getNoOfParameters());
+		DoubleDataset p = result.getParameters();
+		DoubleDataset e = result.getErrors();
+		Assert.assertArrayEquals(new int[] {ROWS, 4}, p.getShapeRef());
+		Assert.assertArrayEquals(new int[] {ROWS, 4}, e.getShapeRef());
+		for (int r = 0; r < ROWS; r++) {
+			Assert.assertEquals("Position of row " + r, position(r), p.getDouble(r, 0), 1e-2);
+			Assert.assertEquals("FWHM of row " + r, 1.5, p.getDouble(r, 1), 1e-2);
+			Assert.assertEquals("Area of row " + r, 10 + r * 0.1, p.getDouble(r, 2), 5e-2);
+			Assert.assertEquals("Offset of row " + r, 0.5, p.getDouble(r, 3), 1e-2);
+			Assert.assertTrue(e.getDouble(r, 0) >= 0);
+		}
+	}
+
+	@Test
+	public void testWarmStartMatchesColdStart() throws Exception {
+		DoubleDataset x = DatasetFactory.createRange(DoubleDataset.class, 0, 20, 0.1);
+		DoubleDataset spectra = createSpectra(x);
+
+		BatchFitter fitter = new BatchFitter(createTemplate());
+		DoubleDataset warm = fitter.fit(x, spectra).getParameters();
+		fitter.setWarmStart(false);
+		DoubleDataset cold = fitter.fit(x, spectra).getParameters();
+		for (int r = 0; r < ROWS; r++) {
+			for (int i = 0; i < 4; i++) {
+				Assert.assertEquals(cold.getDouble(r, i), warm.getDouble(r, i), 1e-4);
+			}
+		}
+	}
+
+	@Test
+	public void testFixedParameter() throws Exception {
+		DoubleDataset x = DatasetFactory.createRange(DoubleDataset.class, 0, 20, 0.1);
+		CompositeFunction template = createTemplate();
+		template.getParameter(1).setValue(1.5);
+		template.getParameter(1).setFixed(true);
+
+		BatchFitter.Result result = new BatchFitter(template).fit(x, createSpectra(x));
+		for (int r = 0; r < ROWS; r++) {
+			Assert.assertEquals(1.5, result.getParameters().getDouble(r, 1), 0);
+			Assert.assertTrue(Double.isNaN(result.getErrors().getDouble(r, 1)));
+			Assert.assertEquals(position(r), result.getParameters().getDouble(r, 0), 1e-2);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.fitting;
+
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IDataset;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.fitting.functions.Add;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.Gaussian;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.Offset;
+import uk.ac.diamond.scisoft.analysis.optimize.ApacheOptimizer;
+import uk.ac.diamond.scisoft.analysis.optimize.ApacheOptimizer.Optimizer;
+import uk.ac.diamond.scisoft.analysis.optimize.GeneticAlg;
+import uk.ac.diamond.scisoft.analysis.optimize.MultiStartOptimizer;
+
+public class MultiStartOptimizerTest {
+
+	private static DoubleDataset createData(DoubleDataset x) {
+		Gaussian g = new Gaussian(15, 1, 10);
+		DoubleDataset d = g.calculateValues(x);
+		for (int i = 0, imax = d.getSize(); i < imax; i++) {
+			d.setAbs(i, d.getAbs(i) + 0.5 + 0.01 * Math.sin(i));
+		}
+		return d;
+	}
+
+	private static Add createFunction() {
+		Gaussian g = new Gaussian(0, 20, 5, 30);
+		g.setParameterValues(3, 1, 5);
+		Add f = new Add();
+		f.addFunction(g);
+		f.addFunction(new Offset(-5, 5));
+		return f;
+	}
+
+	@Test
+	public void testFindsGlobalMinimum() throws Exception {
+		DoubleDataset x = DatasetFactory.createRange(DoubleDataset.class, 0, 20, 0.05);
+		DoubleDataset data = createData(x);
+
+		MultiStartOptimizer opt = new MultiStartOptimizer(() -> new ApacheOptimizer(Optimizer.LEVENBERG_MARQUARDT));
+		opt.setStarts(24);
+		opt.setAgreement(25);
+		opt.setSeed(12357);
+		Add f = createFunction();
+		opt.optimize(new IDataset[] {x}, data, f);
+
+		Assert.assertEquals(24, opt.getCompletedStarts());
+		Assert.assertEquals(15, f.getParameterValue(0), 1e-3);
+		Assert.assertEquals(1, f.getParameterValue(1), 1e-3);
+		Assert.assertEquals(10, f.getParameterValue(2), 1e-2);
+		Assert.assertEquals(f.residual(true, data, null, new IDataset[] {x}), opt.getBestValue(), 1e-9);
+	}
+
+	@Test
+	public void testStopsEarly() throws Exception {
+		DoubleDataset x = DatasetFactory.createRange(DoubleDataset.class, 0, 20, 0.05);
+		DoubleDataset data = createData(x);
+
+		MultiStartOptimizer opt = new MultiStartOptimizer(() -> new ApacheOptimizer(Optimizer.LEVENBERG_MARQUARDT));
+		opt.setStarts(8);
+		opt.setThreads(1);
+		opt.setAgreement(2);
+		Offset f = new Offset(-5, 5);
+		opt.optimize(new IDataset[] {x}, data, f);
+
+		Assert.assertEquals(2, opt.getCompletedStarts());
+		Assert.assertEquals(data.mean().doubleValue(), f.getParameterValue(0), 1e-6);
+	}
+
+	@Test
+	public void testGeneticAlgThreads() throws Exception {
+		DoubleDataset x = DatasetFactory.createRange(DoubleDataset.class, 0, 20, 0.05);
+		DoubleDataset data = createData(x);
+
+		GeneticAlg ga = new GeneticAlg(0.01, 12357L);
+		Add single = createFunction();
+		ga.optimize(new IDataset[] {x}, data, single);
+
+		ga = new GeneticAlg(0.01, 12357L);
+		ga.setThreads(4);
+		Add multiple = createFunction();
+		ga.optimize(new IDataset[] {x}, data, multiple);
+
+		Assert.assertArrayEquals(single.getParameterValues(), multiple.getParameterValues(), 0);
+	}
+}
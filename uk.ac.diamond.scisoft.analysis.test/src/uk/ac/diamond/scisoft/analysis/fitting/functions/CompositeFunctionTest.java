@@ -9,6 +9,10 @@
 
 package uk.ac.diamond.scisoft.analysis.fitting.functions;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DoubleDataset;
@@ -75,4 +79,54 @@ public class CompositeFunctionTest {
 		double rf = cf.residual(true, data, weight, coords);
 		Assert.assertEquals(rd, rf, 1e-9);
 	}
+
+	@Test
+	public void testValuesAndJacobian() {
+		CompositeFunction cf = new CompositeFunction();
+		cf.addFunction(new Gaussian(3., 1.5, 4.));
+		cf.addFunction(new Lorentzian(5., 0.8, 2.));
+		cf.addFunction(new PseudoVoigt(7., 1.1, 3., 0.9, 0.3));
+		cf.addFunction(new PearsonVII(new double[] {9., 1.2, 2.5, 2.2}));
+		cf.addFunction(new Voigt(11., 0.6, 1.5, 0.7));
+		cf.addFunction(new StraightLine(new double[] {0.1, 0.5}));
+
+		List<IParameter> params = new ArrayList<>();
+		for (IParameter p : cf.getParameters()) {
+			params.add(p);
+		}
+		params.remove(4); // leave out Lorentzian width
+
+		DoubleDataset[] coords = new DoubleDataset[] {DatasetFactory.createRange(DoubleDataset.class, 0, 14, 0.125)};
+		CoordinatesIterator it = CoordinatesIterator.createIterator(null, coords);
+		DoubleDataset values = DatasetFactory.zeros(DoubleDataset.class, it.getShape());
+		int size = values.getSize();
+		double[] jacobian = new double[params.size() * size];
+		cf.fillWithValuesAndJacobian(params, it, values, jacobian);
+
+		Assert.assertArrayEquals(cf.calculateValues(coords).getData(), values.getData(), ABS_TOL);
+
+		for (int i = 0; i < params.size(); i++) {
+			IParameter p = params.get(i);
+			double v = p.getValue();
+			double dv = 1e-6 * Math.max(1, Math.abs(v));
+			p.setValue(v + dv);
+			cf.setDirty(true);
+			DoubleDataset upper = cf.calculateValues(coords);
+			p.setValue(v - dv);
+			cf.setDirty(true);
+			DoubleDataset lower = cf.calculateValues(coords);
+			p.setValue(v);
+			cf.setDirty(true);
+			for (int j = 0; j < size; j++) {
+				double numerical = (upper.getDouble(j) - lower.getDouble(j)) / (2 * dv);
+				Assert.assertEquals("Parameter " + i + " at " + j, numerical, jacobian[i * size + j], 1e-5 * Math.max(1, Math.abs(numerical)));
+			}
+		}
+
+		// single parameter derivatives agree with those from one pass
+		DoubleDataset dx = cf.calculatePartialDerivativeValues(params.get(10), coords);
+		for (int j = 0; j < size; j++) {
+			Assert.assertEquals(jacobian[10 * size + j], dx.getDouble(j), ABS_TOL);
+		}
+	}
 }
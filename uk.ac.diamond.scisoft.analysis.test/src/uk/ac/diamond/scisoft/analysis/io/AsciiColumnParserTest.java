@@ -0,0 +1,114 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.eclipse.january.dataset.Dataset;
+import org.junit.Test;
+
+public class AsciiColumnParserTest {
+
+	@Test
+	public void testSplit() {
+		AsciiColumnParser parser = new AsciiColumnParser(false);
+		assertEquals(3, parser.split("  1.5\t-2  3e4 "));
+		assertEquals("1.5", parser.getToken(0));
+		assertEquals("-2", parser.getToken(1));
+		assertEquals("3e4", parser.getToken(2));
+		assertTrue(parser.isNumericRow());
+
+		assertEquals(1, parser.split("42"));
+		assertFalse(parser.isNumericRow());
+
+		parser.split("1 two 3");
+		assertFalse(parser.isNumericRow());
+
+		parser = new AsciiColumnParser(true);
+		assertEquals(3, parser.split("2.5, 0 ,0.451620042324"));
+		assertEquals("0", parser.getToken(1));
+		assertTrue(parser.isNumericRow());
+
+		assertEquals(3, parser.split("1,,2"));
+		assertEquals("", parser.getToken(1));
+		assertFalse(parser.isNumericRow());
+	}
+
+	@Test
+	public void testParseDouble() {
+		AsciiColumnParser parser = new AsciiColumnParser(false);
+		String[] tokens = {"6912.0000", "-39259.72", "+.5", "1.", "-0.0", "1E-310", "1e400", "12345678901234567890",
+				"0.000000000000000000000001234", "NaN", "-Infinity", "3.141592653589793"};
+		for (String t : tokens) {
+			parser.split(t);
+			assertEquals(t, Double.parseDouble(t), parser.parseDouble(0), 0);
+		}
+
+		Random r = new Random(1234);
+		for (int i = 0; i < 10000; i++) {
+			String t = Double.toString((r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(40) - 20));
+			parser.split(t);
+			assertEquals(t, Double.parseDouble(t), parser.parseDouble(0), 0);
+		}
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testParseNotNumber() {
+		AsciiColumnParser parser = new AsciiColumnParser(false);
+		parser.split("1.2.3");
+		assertFalse(parser.isNumber(0));
+		parser.parseDouble(0);
+	}
+
+	@Test
+	public void testStartsWithNumber() {
+		assertTrue(AsciiColumnParser.startsWithNumber("1 2 3"));
+		assertTrue(AsciiColumnParser.startsWithNumber("-.5 abc"));
+		assertFalse(AsciiColumnParser.startsWithNumber("-. 5"));
+		assertFalse(AsciiColumnParser.startsWithNumber("&END"));
+		assertFalse(AsciiColumnParser.startsWithNumber(""));
+	}
+
+	@Test
+	public void testColumns() {
+		AsciiColumnParser parser = new AsciiColumnParser(false);
+		AsciiColumnParser.Column bytes = new AsciiColumnParser.Column(true);
+		AsciiColumnParser.Column ints = new AsciiColumnParser.Column(true);
+		AsciiColumnParser.Column doubles = new AsciiColumnParser.Column(true);
+		AsciiColumnParser.Column text = new AsciiColumnParser.Column(true);
+		AsciiColumnParser.Column untyped = new AsciiColumnParser.Column(false);
+		for (int i = 0; i < 1000; i++) {
+			parser.split(String.format("%d %d %s image_%d.tif %d", i % 100, i * 1000, i == 500 ? "0.5" : Integer.toString(i), i, i));
+			bytes.add(parser, 0);
+			ints.add(parser, 1);
+			doubles.add(parser, 2);
+			text.add(parser, 3);
+			untyped.add(parser, 4);
+		}
+
+		assertEquals(1000, bytes.size());
+		assertEquals(Dataset.INT8, bytes.toDataset().getDType());
+		Dataset d = ints.toDataset();
+		assertEquals(Dataset.INT32, d.getDType());
+		assertEquals(999000, d.getInt(999));
+		d = doubles.toDataset();
+		assertEquals(Dataset.FLOAT64, d.getDType());
+		assertEquals(0.5, d.getDouble(500), 0);
+		assertEquals(499, d.getDouble(499), 0);
+		assertTrue(text.isText());
+		assertEquals(Dataset.STRING, text.toDataset().getDType());
+		assertEquals("image_7.tif", text.toDataset().getString(7));
+		assertEquals(Dataset.FLOAT64, untyped.toDataset().getDType());
+	}
+}
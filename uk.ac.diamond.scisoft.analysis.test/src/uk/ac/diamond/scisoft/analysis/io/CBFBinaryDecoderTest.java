@@ -0,0 +1,174 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class CBFBinaryDecoderTest {
+
+	private static final int WIDTH = 7;
+	private static final int HEIGHT = 5;
+
+	private static int[] createValues() {
+		int[] values = new int[WIDTH * HEIGHT];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (i * 37) % 101 - 20;
+		}
+		values[3] = 1000; // two byte delta
+		values[4] = -1;
+		values[10] = 70000; // four byte delta
+		values[11] = -80000;
+		return values;
+	}
+
+	private static byte[] encodeByteOffset(int[] values) {
+		ByteBuffer b = ByteBuffer.allocate(values.length * 7).order(ByteOrder.LITTLE_ENDIAN);
+		int last = 0;
+		for (int v : values) {
+			int d = v - last;
+			if (d > Byte.MIN_VALUE && d <= Byte.MAX_VALUE) {
+				b.put((byte) d);
+			} else {
+				b.put(Byte.MIN_VALUE);
+				if (d > Short.MIN_VALUE && d <= Short.MAX_VALUE) {
+					b.putShort((short) d);
+				} else {
+					b.putShort(Short.MIN_VALUE);
+					b.putInt(d);
+				}
+			}
+			last = v;
+		}
+		byte[] out = new byte[b.position()];
+		b.flip();
+		b.get(out);
+		return out;
+	}
+
+	private static File writeFile(String conversions, String type, byte[] data) throws IOException {
+		StringBuilder h = new StringBuilder();
+		h.append("###CBF: VERSION 1.5\r\n\r\ndata_test\r\n\r\n_array_data.data\r\n;\r\n");
+		h.append("--CIF-BINARY-FORMAT-SECTION--\r\n");
+		h.append("Content-Type: application/octet-stream;\r\n");
+		h.append("     conversions=\"").append(conversions).append("\"\r\n");
+		h.append("Content-Transfer-Encoding: BINARY\r\n");
+		h.append("X-Binary-Size: ").append(data.length).append("\r\n");
+		h.append("X-Binary-ID: 1\r\n");
+		h.append("X-Binary-Element-Type: \"").append(type).append("\"\r\n");
+		h.append("X-Binary-Element-Byte-Order: LITTLE_ENDIAN\r\n");
+		h.append("X-Binary-Number-of-Elements: ").append(WIDTH * HEIGHT).append("\r\n");
+		h.append("X-Binary-Size-Fastest-Dimension: ").append(WIDTH).append("\r\n");
+		h.append("X-Binary-Size-Second-Dimension: ").append(HEIGHT).append("\r\n");
+		h.append("X-Binary-Size-Padding: 4095\r\n\r\n");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(h.toString().getBytes(StandardCharsets.US_ASCII));
+		out.write(new byte[] {0x0c, 0x1a, 0x04, (byte) 0xd5});
+		out.write(data);
+		out.write("\r\n--CIF-BINARY-FORMAT-SECTION----\r\n;\r\n".getBytes(StandardCharsets.US_ASCII));
+
+		File f = File.createTempFile("test", ".cbf");
+		f.deleteOnExit();
+		try (FileOutputStream os = new FileOutputStream(f)) {
+			os.write(out.toByteArray());
+		}
+		return f;
+	}
+
+	@Test
+	public void testByteOffset() throws IOException {
+		int[] values = createValues();
+		File f = writeFile("x-CBF_BYTE_OFFSET", "signed 32-bit integer", encodeByteOffset(values));
+
+		CBFBinaryDecoder decoder = CBFBinaryDecoder.open(f.getPath());
+		assertArrayEquals(new int[] {HEIGHT, WIDTH}, decoder.getShape());
+		assertTrue(decoder.isSigned());
+
+		int[] out = new int[values.length];
+		decoder.decode(out, 0, 1, WIDTH);
+		assertArrayEquals(values, out);
+		assertEquals(-80000, decoder.getMinimum().intValue());
+		assertEquals(70000, decoder.getMaximum().intValue());
+	}
+
+	@Test
+	public void testFlippedAndTransposed() throws IOException {
+		int[] values = createValues();
+		File f = writeFile("x-CBF_BYTE_OFFSET", "signed 32-bit integer", encodeByteOffset(values));
+		CBFBinaryDecoder decoder = CBFBinaryDecoder.open(f.getPath());
+
+		// flip rows
+		int[] out = new int[values.length];
+		decoder.decode(out, (HEIGHT - 1) * WIDTH, 1, -WIDTH);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				assertEquals(values[y * WIDTH + x], out[(HEIGHT - 1 - y) * WIDTH + x]);
+			}
+		}
+
+		// transpose
+		decoder.decode(out, 0, HEIGHT, 1);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				assertEquals(values[y * WIDTH + x], out[x * HEIGHT + y]);
+			}
+		}
+	}
+
+	@Test
+	public void testUncompressed() throws IOException {
+		int[] values = createValues();
+		ByteBuffer b = ByteBuffer.allocate(values.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int v : values) {
+			b.putShort((short) v);
+		}
+		File f = writeFile("x-CBF_NONE", "signed 16-bit integer", b.array());
+		CBFBinaryDecoder decoder = CBFBinaryDecoder.open(f.getPath());
+
+		int[] out = new int[values.length];
+		decoder.decode(out, 0, 1, WIDTH);
+		for (int i = 0; i < values.length; i++) {
+			assertEquals((short) values[i], out[i]);
+		}
+
+		ByteBuffer d = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+		for (int v : values) {
+			d.putDouble(v * 0.5);
+		}
+		f = writeFile("x-CBF_NONE", "signed 64-bit real IEEE", d.array());
+		decoder = CBFBinaryDecoder.open(f.getPath());
+		assertTrue(decoder.isReal());
+		double[] dout = new double[values.length];
+		decoder.decode(dout, 0, 1, WIDTH);
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i] * 0.5, dout[i], 0);
+		}
+		assertEquals(-40000, decoder.getMinimum().doubleValue(), 0);
+	}
+
+	@Test
+	public void testPackedNotDecoded() throws IOException {
+		File f = writeFile("x-CBF_PACKED", "signed 32-bit integer", new byte[16]);
+		assertNull(CBFBinaryDecoder.open(f.getPath()));
+	}
+}
@@ -9,13 +9,16 @@
 
 package uk.ac.diamond.scisoft.analysis.io;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 
 import org.apache.commons.lang.SerializationUtils;
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
 import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetUtils;
 import org.eclipse.january.dataset.ILazyDataset;
+import org.eclipse.january.dataset.Slice;
 import org.eclipse.january.metadata.IMetadata;
 import org.junit.Test;
 
@@ -128,6 +131,26 @@ public class DatLoaderTest {
 		}
 	}
 
+	@Test
+	public void testLazyColumns() throws Exception {
+		final String testfile1 = "testfiles/gda/analysis/io/DatLoaderTest/FeKedge_1_15.dat";
+		final DataHolder dh = new DatLoader(testfile1).loadFile();
+
+		final DatLoader loader = new DatLoader(testfile1);
+		loader.setLoadAllLazily(true);
+		final DataHolder lh = loader.loadFile();
+		if (lh.getNames().length!=73) throw new Exception("There should be 73 columns!");
+
+		final ILazyDataset lazy = lh.getLazyDataset("Element 1");
+		if (lazy.getSize()!=dh.getDataset("Element 1").getSize()) throw new Exception("Lazy dataset has wrong size!");
+		final Dataset slice = DatasetUtils.convertToDataset(lazy.getSlice(new Slice(488, 489)));
+		if (slice.getDouble(0)!=327272.07d) throw new Exception("The 488 value of Element 1 should be 327272.07!");
+
+		final Map<String,ILazyDataset> sets = new DatLoader(testfile1).loadSets(testfile1, Arrays.asList("Energy", "Element 1"), null);
+		if (sets.size()!=2) throw new Exception("There should be 2 columns!");
+		if (!sets.get("Energy").getSlice().equals(dh.getDataset("Energy"))) throw new Exception("Energy should be same as when all columns are loaded!");
+	}
+
 	@Test
 	public void testSerializability() throws Exception {
 		DataHolder loader = new DatLoader("testfiles/gda/analysis/io/DatLoaderTest/MoFoil.dat").loadFile();
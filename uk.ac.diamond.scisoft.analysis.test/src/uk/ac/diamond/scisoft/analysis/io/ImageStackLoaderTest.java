@@ -217,6 +217,43 @@ public class ImageStackLoaderTest {
 	
 	}
 	
+	@Test
+	public void testConcurrentAndReadAhead() throws Exception {
+		String testScratchDirectoryName = IOTestUtils.setUpTest(ImageStackLoaderTest.class, "testConcurrentAndReadAhead", true);
+
+		int[] multipliers= new int[]{2,3,4,5,6,7,8,9};
+		String[] imageFilenames = makeFiles(testScratchDirectoryName, multipliers);
+		int[] dimensions = new int[] { imageFilenames.length };
+		ImageStackLoader loader = new ImageStackLoader(dimensions, imageFilenames);
+		loader.setNumberOfThreads(3);
+		int[] shape = loader.getShape();
+
+		ImageStackLoader serial = new ImageStackLoader(dimensions, imageFilenames);
+		serial.setNumberOfThreads(1);
+		serial.setReadAhead(0);
+		SliceND all = new SliceND(shape);
+		assertEquals(serial.getDataset(null, all), loader.getDataset(null, all));
+
+		//step through images, in pairs, as a pipeline would
+		for (int i = 0; i < multipliers.length; i += 2) {
+			int[] stop = new int[] { i+2, sizex, sizey };
+			int[] start = new int[] { i, 0, 0 };
+			Dataset dataset = loader.getDataset(null, new SliceND(shape, start, stop, null));
+			assertArrayEquals(new int[] { 2, sizex, sizey }, dataset.getShape());
+			assertEquals(multipliers[i], dataset.getInt(0, sizex-1, sizex-1));
+			assertEquals(multipliers[i+1], dataset.getInt(1, sizex-1, sizex-1));
+		}
+
+		//and one at a time backwards
+		for (int i = multipliers.length - 1; i >= 0; i--) {
+			int[] stop = new int[] { i+1, sizex, sizey };
+			int[] start = new int[] { i, sizex-1, 0 };
+			Dataset dataset = loader.getDataset(null, new SliceND(shape, start, stop, null));
+			assertArrayEquals(new int[] { 1, 1, sizey }, dataset.getShape());
+			assertEquals(multipliers[i], dataset.getInt(0, 0, sizex-1));
+		}
+	}
+
 	String [] makeFiles(String testScratchDirectoryName, int[] multipliers) throws ScanFileHolderException{
 		String [] filePaths = new String[multipliers.length];
 		for( int i =0 ; i< multipliers.length;i++){
@@ -9,11 +9,21 @@
 
 package uk.ac.diamond.scisoft.analysis.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
 import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.ILazyDataset;
+import org.eclipse.january.dataset.Slice;
+import org.eclipse.january.dataset.SliceND;
 import org.junit.Test;
 
 public class MerlinLoaderTest {
@@ -57,4 +67,204 @@ public class MerlinLoaderTest {
 		assertEquals(515,shape[1], 0.0);
 		assertEquals(0, data.max().intValue(), 0.001);
 	}
+
+	private static final int WIDTH = 12;
+	private static final int HEIGHT = 10;
+
+	/**
+	 * @return pixel value whose bytes are all less than 0x80, so headers can be
+	 * read as text regardless of the platform's default charset
+	 */
+	private static int value(String depth, int f, int r, int c) {
+		switch (depth) {
+		case "U08":
+			return (f * 7 + r * 3 + c) % 128;
+		case "U16":
+			return ((f + r) % 128) << 8 | (c * 5 + f) % 128;
+		default:
+			return (f % 128) << 24 | (r % 128) << 16 | (c % 128) << 8 | (f + r + c) % 128;
+		}
+	}
+
+	private static int getItemSize(String depth) {
+		return depth.equals("U08") ? 1 : depth.equals("U16") ? 2 : 4;
+	}
+
+	/**
+	 * Write Merlin file with given number of frames
+	 * @return byte offsets of data of each frame
+	 */
+	private static long[] writeFile(File f, int frames, String depth, int headerLength) throws IOException {
+		int itemSize = getItemSize(depth);
+		long[] offsets = new long[frames];
+		long offset = 0;
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(f))) {
+			for (int i = 0; i < frames; i++) {
+				StringBuilder h = new StringBuilder(String.format("MQ1,%06d,%05d,01,%04d,%04d,%s,   1x1,01,2017-06-01 10:00:00.000000,0.001000,0,0,0",
+						i + 1, headerLength, WIDTH, HEIGHT, depth));
+				while (h.length() < headerLength) {
+					h.append(' ');
+				}
+				os.write(h.toString().getBytes(StandardCharsets.US_ASCII));
+				offset += headerLength;
+				offsets[i] = offset;
+				for (int r = 0; r < HEIGHT; r++) {
+					for (int c = 0; c < WIDTH; c++) {
+						int v = value(depth, i, r, c);
+						for (int b = itemSize - 1; b >= 0; b--) { // big endian
+							os.write(v >>> (8 * b));
+						}
+					}
+				}
+				offset += WIDTH * HEIGHT * itemSize;
+			}
+		}
+		return offsets;
+	}
+
+	private static File createFile(int frames, String depth, int headerLength) throws IOException {
+		File f = File.createTempFile("test", ".mib");
+		f.deleteOnExit();
+		writeFile(f, frames, depth, headerLength);
+		return f;
+	}
+
+	/**
+	 * Check slice of frames against values written
+	 * @param message
+	 * @param data sliced dataset
+	 * @param slice slice of map and frame dimensions
+	 * @param droppedFrames
+	 * @param mapShape
+	 * @param depth
+	 */
+	private static void checkSlice(String message, IDataset data, SliceND slice, int droppedFrames, int[] mapShape, String depth) {
+		int[] shape = slice.getShape();
+		assertArrayEquals(message, shape, data.getShape());
+		int[] start = slice.getStart();
+		int[] step = slice.getStep();
+		int rank = shape.length;
+		int mrank = rank - 2;
+		int[] pos = new int[rank];
+		int size = data.getSize();
+		for (int n = 0; n < size; n++) {
+			int rem = n;
+			for (int i = rank - 1; i >= 0; i--) {
+				pos[i] = rem % shape[i];
+				rem /= shape[i];
+			}
+			int frame = 0;
+			for (int i = 0; i < mrank; i++) {
+				frame = frame * mapShape[i] + start[i] + pos[i] * step[i];
+			}
+			int r = start[mrank] + pos[mrank] * step[mrank];
+			int c = start[mrank + 1] + pos[mrank + 1] * step[mrank + 1];
+			assertEquals(message + " at " + n, value(depth, droppedFrames + frame, r, c), data.getInt(pos));
+		}
+	}
+
+	private static ILazyDataset loadLazy(File f) throws Exception {
+		MerlinLoader loader = new MerlinLoader(f.getAbsolutePath());
+		loader.setLoadMetadata(false);
+		return loader.loadFile().getLazyDataset(DATA_NAME);
+	}
+
+	@Test
+	public void testSyntheticDepthsAndHeaders() throws Exception {
+		for (String depth : new String[] {"U08", "U16", "U32"}) {
+			for (int headerLength : new int[] {384, 768, 1001}) {
+				String message = depth + " with header of " + headerLength;
+				File f = createFile(7, depth, headerLength);
+				ILazyDataset lazy = loadLazy(f);
+				int[] shape = new int[] {7, HEIGHT, WIDTH};
+				assertArrayEquals(message, shape, lazy.getShape());
+
+				SliceND all = new SliceND(shape);
+				checkSlice(message, lazy.getSlice(all), all, 0, new int[] {7}, depth);
+
+				// strided and partial in every dimension
+				SliceND strided = new SliceND(shape, new Slice(1, 7, 2), new Slice(1, 9, 3), new Slice(2, null, 4));
+				checkSlice(message + " strided", lazy.getSlice(strided), strided, 0, new int[] {7}, depth);
+
+				// partial rows of whole width are read contiguously
+				SliceND rows = new SliceND(shape, new Slice(3, 5), new Slice(2, 7), null);
+				checkSlice(message + " rows", lazy.getSlice(rows), rows, 0, new int[] {7}, depth);
+			}
+		}
+	}
+
+	@Test
+	public void testSyntheticSingleFrame() throws Exception {
+		File f = createFile(1, "U16", 384);
+		MerlinLoader loader = new MerlinLoader(f.getAbsolutePath());
+		loader.setLoadMetadata(false);
+		IDataset data = loader.loadFile().getDataset(DATA_NAME);
+		assertArrayEquals(new int[] {HEIGHT, WIDTH}, data.getShape());
+		for (int r = 0; r < HEIGHT; r++) {
+			for (int c = 0; c < WIDTH; c++) {
+				assertEquals(value("U16", 0, r, c), data.getInt(r, c));
+			}
+		}
+	}
+
+	@Test
+	public void testSyntheticMapShapeAndDroppedFrames() throws Exception {
+		File f = createFile(2 + 3 * 4, "U32", 512);
+		File meta = new File(f.getAbsolutePath() + "meta");
+		meta.deleteOnExit();
+		try (OutputStream os = new FileOutputStream(meta)) {
+			os.write("DroppedFrames: 2\nShape: 3, 4\n".getBytes(StandardCharsets.US_ASCII));
+		}
+
+		ILazyDataset lazy = loadLazy(f);
+		int[] shape = new int[] {3, 4, HEIGHT, WIDTH};
+		assertArrayEquals(shape, lazy.getShape());
+
+		SliceND all = new SliceND(shape);
+		checkSlice("all", lazy.getSlice(all), all, 2, new int[] {3, 4}, "U32");
+
+		SliceND strided = new SliceND(shape, new Slice(2, null, -1), new Slice(1, 4, 2), new Slice(0, 10, 5), new Slice(11, 0, -3));
+		checkSlice("strided", lazy.getSlice(strided), strided, 2, new int[] {3, 4}, "U32");
+	}
+
+	@Test
+	public void testSyntheticSegmentBoundaries() throws Exception {
+		for (String depth : new String[] {"U08", "U16", "U32"}) {
+			int frames = 9;
+			int itemSize = getItemSize(depth);
+			File f = File.createTempFile("test", ".mib");
+			f.deleteOnExit();
+			long[] offsets = writeFile(f, frames, depth, 384);
+
+			// small segments that are not a multiple of the frame spacing so frames cross boundaries
+			long segmentSize = (5 * (384 + WIDTH * HEIGHT * itemSize)) / 2 + 7;
+			MerlinLoader loader = new MerlinLoader(f.getAbsolutePath());
+			MerlinLoader.MerlinFrameLazyDataset lazy = loader.new MerlinFrameLazyDataset(f, offsets, itemSize,
+					new int[] {HEIGHT, WIDTH}, 0, new int[] {frames}, segmentSize);
+
+			int[] shape = new int[] {frames, HEIGHT, WIDTH};
+			SliceND all = new SliceND(shape);
+			checkSlice(depth + " all", lazy.getDataset(null, all), all, 0, new int[] {frames}, depth);
+
+			SliceND partial = new SliceND(shape, new Slice(1, 8, 3), new Slice(3, 8), new Slice(1, 11, 2));
+			checkSlice(depth + " partial", lazy.getDataset(null, partial), partial, 0, new int[] {frames}, depth);
+		}
+	}
+
+	@Test
+	public void testSyntheticParallelDecode() throws Exception {
+		// enough frames to be split across several tasks when more than one processor is available
+		int frames = 4 * MerlinLoader.MerlinFrameLazyDataset.MIN_FRAMES_PER_TASK + 3;
+		for (String depth : new String[] {"U08", "U16", "U32"}) {
+			File f = createFile(frames, depth, 384);
+			ILazyDataset lazy = loadLazy(f);
+			int[] shape = new int[] {frames, HEIGHT, WIDTH};
+
+			SliceND all = new SliceND(shape);
+			checkSlice(depth + " all", lazy.getSlice(all), all, 0, new int[] {frames}, depth);
+
+			SliceND partial = new SliceND(shape, new Slice(1, null, 1), new Slice(2, 9, 2), new Slice(3, 10));
+			checkSlice(depth + " partial", lazy.getSlice(partial), partial, 0, new int[] {frames}, depth);
+		}
+	}
 }
@@ -0,0 +1,116 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.IntegerDataset;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.io.DataHolder;
+
+public class DataCacheTest {
+
+	/**
+	 * Cache of strings where each character counts as a byte
+	 */
+	private static class StringCache extends DataCache<String> {
+		public StringCache(long maxBytes) {
+			super(maxBytes);
+		}
+
+		@Override
+		protected long sizeOf(String value) {
+			return value.length();
+		}
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		StringCache cache = new StringCache(10);
+		CacheKey a = cache.createCacheKey("a", false);
+		CacheKey b = cache.createCacheKey("b", false);
+		CacheKey c = cache.createCacheKey("c", false);
+
+		assertTrue(cache.recordSoftReference(a, "aaaa"));
+		assertTrue(cache.recordSoftReference(b, "bbbb"));
+		assertEquals("aaaa", cache.fetchData("a", false)); // a is now more recent than b
+		assertTrue(cache.recordSoftReference(c, "cccc"));
+
+		assertEquals("aaaa", cache.fetchData("a", false));
+		assertNull(cache.fetchData("b", false));
+		assertEquals("cccc", cache.fetchData("c", false));
+
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(3, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getEvictions());
+		assertEquals(2, stats.getEntries());
+		assertEquals(8, stats.getResidentBytes());
+	}
+
+	@Test
+	public void testTooLarge() {
+		StringCache cache = new StringCache(4);
+		assertFalse(cache.recordSoftReference(cache.createCacheKey("a", false), "aaaaa"));
+		assertEquals(0, cache.getStatistics().getEntries());
+		assertEquals(0, cache.getStatistics().getResidentBytes());
+	}
+
+	@Test
+	public void testShrinkBudget() {
+		StringCache cache = new StringCache(10);
+		cache.recordSoftReference(cache.createCacheKey("a", false), "aaaa");
+		cache.recordSoftReference(cache.createCacheKey("b", false), "bbbb");
+		cache.setMaxBytes(5);
+		assertNull(cache.fetchData("a", false));
+		assertEquals("bbbb", cache.fetchData("b", false));
+		assertEquals(4, cache.getStatistics().getResidentBytes());
+
+		cache.clear();
+		assertEquals(0, cache.getStatistics().getResidentBytes());
+		assertNull(cache.fetchData("b", false));
+	}
+
+	@Test
+	public void testModifiedFileIsInvalidated() throws Exception {
+		File f = File.createTempFile("datacache", ".txt");
+		f.deleteOnExit();
+		String path = f.getAbsolutePath();
+		assertTrue(f.setLastModified(1000000L));
+
+		StringCache cache = new StringCache(100);
+		cache.recordSoftReference(cache.createCacheKey(path, false), "old");
+		assertEquals("old", cache.fetchData(path, false));
+
+		assertTrue(f.setLastModified(2000000L));
+		assertNull(cache.fetchData(path, false));
+		assertEquals(0, cache.getStatistics().getEntries());
+		assertEquals(0, cache.getStatistics().getResidentBytes());
+	}
+
+	@Test
+	public void testSizeOfDataHolder() {
+		DataCache<IDataHolder> cache = new DataCache<IDataHolder>(1000000);
+		long empty = cache.sizeOf(new DataHolder());
+
+		DataHolder h = new DataHolder();
+		h.addDataset("a", DatasetFactory.zeros(10, 20));
+		h.addDataset("b", DatasetFactory.zeros(IntegerDataset.class, 5));
+		assertEquals(10 * 20 * 8 + 5 * 4, cache.sizeOf(h) - empty);
+	}
+}
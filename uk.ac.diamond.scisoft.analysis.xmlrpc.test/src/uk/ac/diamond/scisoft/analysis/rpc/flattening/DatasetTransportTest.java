@@ -0,0 +1,107 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.rpc.flattening;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.january.dataset.BooleanDataset;
+import org.eclipse.january.dataset.ComplexDoubleDataset;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IntegerDataset;
+import org.eclipse.january.dataset.ShortDataset;
+import org.eclipse.january.dataset.Slice;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.rpc.flattening.helpers.DatasetHelper;
+
+/**
+ * Test datasets round trip through each transport of {@link DatasetHelper}
+ */
+public class DatasetTransportTest {
+
+	private final IRootFlattener root = new RootFlattener();
+
+	@After
+	public void restoreTransports() {
+		DatasetHelper.setPeerTransports(null);
+	}
+
+	private static Dataset[] createDatasets() {
+		Dataset slice = DatasetFactory.createRange(DoubleDataset.class, 120).reshape(10, 12)
+				.getSliceView(new Slice(1, 9, 2), new Slice(null, null, -3));
+		return new Dataset[] {
+				DatasetFactory.createRange(IntegerDataset.class, -50, 50, 1).reshape(4, 25),
+				DatasetFactory.createRange(ShortDataset.class, 30),
+				DatasetFactory.createFromObject(BooleanDataset.class, new boolean[] {true, false, false, true}),
+				DatasetFactory.createFromObject(ComplexDoubleDataset.class, new double[] {1, -2, 3.5, 4e10}),
+				slice,
+				DatasetFactory.zeros(DoubleDataset.class, 0),
+		};
+	}
+
+	private Map<?, ?> roundTrip(Dataset in) {
+		Map<?, ?> flat = (Map<?, ?>) root.flatten(in);
+		Assert.assertTrue(new IFlattener.FlattenedFormChecker().legal(flat));
+		Dataset out = (Dataset) root.unflatten(flat);
+		Assert.assertEquals(in, out);
+		Assert.assertArrayEquals(in.getShape(), out.getShape());
+		Assert.assertEquals(in.getDType(), out.getDType());
+		return flat;
+	}
+
+	@Test
+	public void testInBand() {
+		DatasetHelper.setPeerTransports(DatasetHelper.TRANSPORTS);
+		for (Dataset d : createDatasets()) {
+			Map<?, ?> flat = roundTrip(d);
+			Assert.assertTrue(flat.get(DatasetHelper.DATA) instanceof byte[]);
+			Assert.assertFalse(flat.containsKey(DatasetHelper.FILENAME));
+		}
+	}
+
+	@Test
+	public void testSharedMemory() {
+		DatasetHelper.setPeerTransports(Collections.singleton(DatasetHelper.TRANSPORT_SHM));
+		for (Dataset d : createDatasets()) {
+			Map<?, ?> flat = roundTrip(d);
+			File file = new File((String) flat.get(DatasetHelper.FILENAME));
+			Assert.assertFalse("Raw file should be deleted after load", file.exists());
+			Assert.assertTrue(flat.containsKey(DatasetHelper.DTYPE));
+		}
+	}
+
+	@Test
+	public void testNumPyByDefault() {
+		Map<?, ?> flat = roundTrip(createDatasets()[0]);
+		Assert.assertTrue(flat.get(DatasetHelper.FILENAME).toString().endsWith(".npy"));
+		Assert.assertFalse(flat.containsKey(DatasetHelper.DTYPE));
+	}
+
+	@Test
+	public void testUnsignedFromPeer() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(IFlattener.TYPE_KEY, DatasetHelper.TYPE_NAME);
+		map.put(DatasetHelper.DATA, new byte[] {1, (byte) 200, 0, (byte) 255});
+		map.put(DatasetHelper.DTYPE, "|u1");
+		map.put(DatasetHelper.SHAPE, new Object[] {2, 2});
+		Dataset out = (Dataset) root.unflatten(map);
+		Assert.assertArrayEquals(new int[] {2, 2}, out.getShape());
+		Assert.assertEquals(Arrays.asList(1, 200, 0, 255), Arrays.asList(out.getInt(0, 0), out.getInt(0, 1),
+				out.getInt(1, 0), out.getInt(1, 1)));
+	}
+}
@@ -9,13 +9,16 @@
 
 package uk.ac.diamond.scisoft.analysis.rpc;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.client.XmlRpcClient;
@@ -26,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.IRootFlattener;
+import uk.ac.diamond.scisoft.analysis.rpc.flattening.helpers.DatasetHelper;
 import uk.ac.diamond.scisoft.analysis.rpc.internal.AnalysisRpcTypeFactoryImpl;
 
 /**
@@ -45,6 +49,7 @@ public class AnalysisRpcClient implements IAnalysisRpcClient {
 
 	private XmlRpcClient client;
 	private IRootFlattener flattener = FlatteningService.getFlattener();
+	private volatile Set<String> serverTransports;
 
 	private final int port;
 
@@ -78,14 +83,30 @@ public class AnalysisRpcClient implements IAnalysisRpcClient {
 				// No arguments, convert null to empty array
 				args = new Object[0];
 			}
-			Object[] flatargs = (Object[]) flattener.flatten(args);
 			final Object flatret;
 			if (debug) {
+				Object[] flatargs = (Object[]) flattener.flatten(args);
 				flatret = client.execute("Analysis.handler_debug",
 						new Object[] { destination, flatargs, suspend });
 			} else {
-				flatret = client.execute("Analysis.handler", new Object[] {
-						destination, flatargs });
+				Set<String> transports = getServerTransports();
+				if (transports.isEmpty()) {
+					Object[] flatargs = (Object[]) flattener.flatten(args);
+					flatret = client.execute("Analysis.handler", new Object[] {
+							destination, flatargs });
+				} else {
+					Set<String> oldTransports = DatasetHelper
+							.setPeerTransports(transports);
+					final Object[] flatargs;
+					try {
+						flatargs = (Object[]) flattener.flatten(args);
+					} finally {
+						DatasetHelper.setPeerTransports(oldTransports);
+					}
+					flatret = client.execute("Analysis.handler_transport",
+							new Object[] { destination, flatargs,
+									DatasetHelper.TRANSPORTS.toArray() });
+				}
 			}
 			Object unflatret = flattener.unflatten(flatret);
 			if (unflatret instanceof Exception) {
@@ -99,6 +120,35 @@ public class AnalysisRpcClient implements IAnalysisRpcClient {
 		}
 	}
 
+	/**
+	 * Ask server which dataset transports it supports. Servers that predate the
+	 * negotiation only support NumPy files so an empty set is returned for those.
+	 * 
+	 * @return transports supported by server
+	 * @throws XmlRpcException
+	 *             if server cannot be reached
+	 */
+	private Set<String> getServerTransports() throws XmlRpcException {
+		Set<String> transports = serverTransports;
+		if (transports == null) {
+			transports = new LinkedHashSet<String>();
+			try {
+				Object[] names = (Object[]) client.execute(
+						"Analysis.get_transports", new Object[0]);
+				for (Object n : names) {
+					transports.add((String) n);
+				}
+			} catch (XmlRpcException e) {
+				if (e.getCause() instanceof IOException) {
+					throw e; // not connected so ask again next time
+				}
+				logger.debug("Server does not support dataset transports", e);
+			}
+			serverTransports = transports;
+		}
+		return transports;
+	}
+
 	@Override
 	public Object request(String destination, Object[] args)
 			throws AnalysisRpcException {
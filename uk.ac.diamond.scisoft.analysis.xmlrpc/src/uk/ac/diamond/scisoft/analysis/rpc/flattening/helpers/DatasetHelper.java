@@ -10,18 +10,52 @@
 package uk.ac.diamond.scisoft.analysis.rpc.flattening.helpers;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.january.dataset.BooleanDataset;
+import org.eclipse.january.dataset.ByteDataset;
+import org.eclipse.january.dataset.ComplexDoubleDataset;
+import org.eclipse.january.dataset.ComplexFloatDataset;
 import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
 import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.IntegerDataset;
+import org.eclipse.january.dataset.LongDataset;
+import org.eclipse.january.dataset.ShortDataset;
 
 import uk.ac.diamond.scisoft.analysis.io.DataHolder;
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+import uk.ac.diamond.scisoft.analysis.io.NumPyFileLoader;
 import uk.ac.diamond.scisoft.analysis.io.NumPyFileSaver;
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.IFlattener;
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.IRootFlattener;
 
+/**
+ * Flattens datasets in one of three ways, depending on what the receiving end supports (see
+ * {@link #setPeerTransports(Collection)}):
+ * <ul>
+ * <li>{@link #TRANSPORT_INBAND} - small datasets are sent as little endian bytes within the call</li>
+ * <li>{@link #TRANSPORT_SHM} - the bytes are written to a memory-mapped file, in shared memory if available</li>
+ * <li>{@link #TRANSPORT_NPY} - the dataset is saved to a NumPy file</li>
+ * </ul>
+ * All three are always unflattened. The NumPy file form is also used for datasets of types that
+ * have no NumPy equivalent.
+ */
 public class DatasetHelper extends MapFlatteningHelper<IDataset> {
 	/** Value to assign in {@link IFlattener#TYPE_KEY} */
 	public static final String TYPE_NAME = Dataset.class.getCanonicalName();
@@ -36,11 +70,70 @@ public class DatasetHelper extends MapFlatteningHelper<IDataset> {
 	public static final String INDEX = "index";
 	/** Name of data set to load from data holder. Takes precedence over index. If absent, loads index 0. */
 	public static final String NAME = "name";
+	/** Bytes of data, in C order, when sent in-band */
+	public static final String DATA = "data";
+	/** NumPy type descriptor of bytes in {@link #DATA} or a raw file, e.g. "&lt;f8" */
+	public static final String DTYPE = "dtype";
+	/** Shape of data in {@link #DATA} or a raw file */
+	public static final String SHAPE = "shape";
+
+	/** Datasets sent in-band */
+	public static final String TRANSPORT_INBAND = "inband";
+	/** Datasets sent as raw bytes in a memory-mapped file */
+	public static final String TRANSPORT_SHM = "shm";
+	/** Datasets sent as NumPy files */
+	public static final String TRANSPORT_NPY = "npy";
+	/** All transports that can be unflattened */
+	public static final Set<String> TRANSPORTS = Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(TRANSPORT_INBAND, TRANSPORT_SHM, TRANSPORT_NPY)));
+
+	private static final int INBAND_LIMIT = Integer.getInteger("uk.ac.diamond.scisoft.analysis.xmlrpc.inband.limit", 4 * 1024 * 1024);
+	private static final File SHARED_MEMORY = new File("/dev/shm");
+
+	private static final ThreadLocal<Set<String>> peerTransports = new ThreadLocal<Set<String>>();
+
+	private static final Map<Integer, String> numPyTypes = new HashMap<Integer, String>();
+	private static final Map<String, Integer> datasetTypes = new HashMap<String, Integer>();
+	static {
+		addType(Dataset.BOOL, "b1");
+		addType(Dataset.INT8, "i1");
+		addType(Dataset.INT16, "i2");
+		addType(Dataset.INT32, "i4");
+		addType(Dataset.INT64, "i8");
+		addType(Dataset.FLOAT32, "f4");
+		addType(Dataset.FLOAT64, "f8");
+		addType(Dataset.COMPLEX64, "c8");
+		addType(Dataset.COMPLEX128, "c16");
+		datasetTypes.put("u1", Dataset.INT8);
+		datasetTypes.put("u2", Dataset.INT16);
+		datasetTypes.put("u4", Dataset.INT32);
+		datasetTypes.put("u8", Dataset.INT64); // unsigned 64 bits cannot be unwrapped
+	}
+
+	private static void addType(int dtype, String type) {
+		numPyTypes.put(dtype, (type.endsWith("1") ? "|" : "<") + type);
+		datasetTypes.put(type, dtype);
+	}
 
 	public DatasetHelper() {
 		super(IDataset.class);
 	}
 
+	/**
+	 * Set transports that the receiver of datasets flattened in the current thread can unflatten.
+	 * The default is to only use NumPy files as all versions of the receiver support them.
+	 * @param transports can be null to restore the default
+	 * @return previous transports
+	 */
+	public static Set<String> setPeerTransports(Collection<String> transports) {
+		Set<String> old = peerTransports.get();
+		if (transports == null) {
+			peerTransports.remove();
+		} else {
+			peerTransports.set(new LinkedHashSet<String>(transports));
+		}
+		return old;
+	}
+
 	@Override
 	public IDataset unflatten(Map<?, ?> thisMap, IRootFlattener rootFlattener) {
 		final String fileName = (String) rootFlattener.unflatten(thisMap.get(FILENAME));
@@ -48,14 +141,31 @@ public class DatasetHelper extends MapFlatteningHelper<IDataset> {
 		final Integer index = (Integer) rootFlattener.unflatten(thisMap.get(INDEX));
 		final String name = (String) rootFlattener.unflatten(thisMap.get(NAME));
 		try {
-			final IDataHolder dataHolder = LoaderFactory.getData(fileName, false, null);
+			if (thisMap.containsKey(DTYPE)) {
+				final String type = (String) thisMap.get(DTYPE);
+				final int[] shape = getShape((Object[]) thisMap.get(SHAPE));
+				if (fileName == null) {
+					return decode(ByteBuffer.wrap((byte[]) thisMap.get(DATA)), type, shape);
+				}
+				try {
+					return readRawFile(fileName, type, shape);
+				} finally {
+					if (deleteFile != null && deleteFile) {
+						deleteFile(fileName);
+					}
+				}
+			}
+
+			final IDataHolder dataHolder;
+			if (deleteFile != null && deleteFile && fileName.endsWith(".npy")) {
+				// temporary file so skip cache of loader factory
+				dataHolder = new NumPyFileLoader(fileName).loadFile();
+			} else {
+				dataHolder = LoaderFactory.getData(fileName, false, null);
+			}
 
 			if (deleteFile != null && deleteFile) {
-				File file = new File(fileName);
-				boolean success = file.delete();
-				if (!success) {
-					file.deleteOnExit();
-				}
+				deleteFile(fileName);
 			}
 
 			final IDataset data;
@@ -73,6 +183,22 @@ public class DatasetHelper extends MapFlatteningHelper<IDataset> {
 		}
 	}
 
+	private static void deleteFile(String fileName) {
+		File file = new File(fileName);
+		boolean success = file.delete();
+		if (!success) {
+			file.deleteOnExit();
+		}
+	}
+
+	private static int[] getShape(Object[] flatShape) {
+		int[] shape = new int[flatShape.length];
+		for (int i = 0; i < shape.length; i++) {
+			shape[i] = (Integer) flatShape[i];
+		}
+		return shape;
+	}
+
 	@Override
 	public boolean canFlatten(Object obj) {
 		return obj instanceof Dataset;
@@ -80,8 +206,29 @@ public class DatasetHelper extends MapFlatteningHelper<IDataset> {
 
 	@Override
 	public Object flatten(Object obj, IRootFlattener rootFlattener) {
+		Dataset data = (Dataset) obj;
+		final Set<String> transports = peerTransports.get();
+		final String type = numPyTypes.get(data.getDType());
+		if (transports != null && type != null) {
+			if (data.getStrides() != null) {
+				data = data.getSlice(); // make contiguous copy
+			}
+			final long bytes = (long) data.getSize() * data.getItemBytes();
+			if (transports.contains(TRANSPORT_INBAND) && bytes <= INBAND_LIMIT) {
+				ByteBuffer buffer = ByteBuffer.allocate((int) bytes);
+				encode(data, buffer);
+				Map<String, Object> outMap = createMap(TYPE_NAME);
+				outMap.put(DATA, buffer.array());
+				outMap.put(DTYPE, type);
+				outMap.put(SHAPE, getFlatShape(data));
+				return outMap;
+			}
+			if (transports.contains(TRANSPORT_SHM) && bytes <= Integer.MAX_VALUE) {
+				return flattenToRawFile(data, type, bytes, rootFlattener.getTempLocation());
+			}
+		}
+
 		final DataHolder dh = new DataHolder();
-		final Dataset data = (Dataset) obj;
 		dh.addDataset("", data);
 		final File tempFile;
 		try {
@@ -101,6 +248,162 @@ public class DatasetHelper extends MapFlatteningHelper<IDataset> {
 		return outMap;
 	}
 
+	private static Object[] getFlatShape(Dataset data) {
+		int[] shape = data.getShapeRef();
+		Object[] flatShape = new Object[shape.length];
+		for (int i = 0; i < shape.length; i++) {
+			flatShape[i] = shape[i];
+		}
+		return flatShape;
+	}
+
+	private Map<String, Object> flattenToRawFile(Dataset data, String type, long bytes, File location) {
+		if (location == null && SHARED_MEMORY.isDirectory() && SHARED_MEMORY.canWrite()) {
+			location = SHARED_MEMORY;
+		}
+
+		final File tempFile;
+		try {
+			tempFile = File.createTempFile("scisofttmp-", ".raw", location);
+			tempFile.deleteOnExit();
+			try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw"); FileChannel channel = file.getChannel()) {
+				encode(data, channel.map(MapMode.READ_WRITE, 0, bytes));
+			}
+		} catch (Exception e) {
+			throw new UnsupportedOperationException("Unable to save Dataset", e);
+		}
+
+		Map<String, Object> outMap = createMap(TYPE_NAME);
+		outMap.put(FILENAME, tempFile.toString());
+		outMap.put(DELETEFILEAFTERLOAD, true);
+		outMap.put(DTYPE, type);
+		outMap.put(SHAPE, getFlatShape(data));
+		return outMap;
+	}
+
+	private static Dataset readRawFile(String fileName, String type, int[] shape) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()) {
+			return decode(channel.map(MapMode.READ_ONLY, 0, channel.size()), type, shape);
+		}
+	}
+
+	/**
+	 * Put contiguous data into buffer as little endian values
+	 * @param data
+	 * @param buffer
+	 */
+	static void encode(Dataset data, ByteBuffer buffer) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		switch (data.getDType()) {
+		case Dataset.BOOL:
+			for (boolean b : ((BooleanDataset) data).getData()) {
+				buffer.put((byte) (b ? 1 : 0));
+			}
+			break;
+		case Dataset.INT8:
+			buffer.put(((ByteDataset) data).getData());
+			break;
+		case Dataset.INT16:
+			buffer.asShortBuffer().put(((ShortDataset) data).getData());
+			break;
+		case Dataset.INT32:
+			buffer.asIntBuffer().put(((IntegerDataset) data).getData());
+			break;
+		case Dataset.INT64:
+			buffer.asLongBuffer().put(((LongDataset) data).getData());
+			break;
+		case Dataset.FLOAT32:
+			buffer.asFloatBuffer().put(((FloatDataset) data).getData());
+			break;
+		case Dataset.FLOAT64:
+			buffer.asDoubleBuffer().put(((DoubleDataset) data).getData());
+			break;
+		case Dataset.COMPLEX64:
+			buffer.asFloatBuffer().put(((ComplexFloatDataset) data).getData());
+			break;
+		case Dataset.COMPLEX128:
+			buffer.asDoubleBuffer().put(((ComplexDoubleDataset) data).getData());
+			break;
+		default:
+			throw new IllegalArgumentException("Dataset type not supported");
+		}
+	}
+
+	/**
+	 * Create dataset from buffer
+	 * @param buffer
+	 * @param type NumPy type descriptor
+	 * @param shape
+	 * @return dataset
+	 */
+	static Dataset decode(ByteBuffer buffer, String type, int[] shape) {
+		buffer.order(type.charAt(0) == '>' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		String t = type.substring(1);
+		Integer dtype = datasetTypes.get(t);
+		if (dtype == null) {
+			throw new IllegalArgumentException("NumPy type " + type + " not supported");
+		}
+
+		Dataset data;
+		switch (dtype) {
+		case Dataset.BOOL:
+			BooleanDataset b = DatasetFactory.zeros(BooleanDataset.class, shape);
+			boolean[] bData = b.getData();
+			for (int i = 0; i < bData.length; i++) {
+				bData[i] = buffer.get() != 0;
+			}
+			data = b;
+			break;
+		case Dataset.INT8:
+			ByteDataset i8 = DatasetFactory.zeros(ByteDataset.class, shape);
+			buffer.get(i8.getData());
+			data = i8;
+			break;
+		case Dataset.INT16:
+			ShortDataset i16 = DatasetFactory.zeros(ShortDataset.class, shape);
+			buffer.asShortBuffer().get(i16.getData());
+			data = i16;
+			break;
+		case Dataset.INT32:
+			IntegerDataset i32 = DatasetFactory.zeros(IntegerDataset.class, shape);
+			buffer.asIntBuffer().get(i32.getData());
+			data = i32;
+			break;
+		case Dataset.INT64:
+			LongDataset i64 = DatasetFactory.zeros(LongDataset.class, shape);
+			buffer.asLongBuffer().get(i64.getData());
+			data = i64;
+			break;
+		case Dataset.FLOAT32:
+			FloatDataset f32 = DatasetFactory.zeros(FloatDataset.class, shape);
+			buffer.asFloatBuffer().get(f32.getData());
+			data = f32;
+			break;
+		case Dataset.FLOAT64:
+			DoubleDataset f64 = DatasetFactory.zeros(DoubleDataset.class, shape);
+			buffer.asDoubleBuffer().get(f64.getData());
+			data = f64;
+			break;
+		case Dataset.COMPLEX64:
+			ComplexFloatDataset c64 = DatasetFactory.zeros(ComplexFloatDataset.class, shape);
+			buffer.asFloatBuffer().get(c64.getData());
+			data = c64;
+			break;
+		case Dataset.COMPLEX128:
+			ComplexDoubleDataset c128 = DatasetFactory.zeros(ComplexDoubleDataset.class, shape);
+			buffer.asDoubleBuffer().get(c128.getData());
+			data = c128;
+			break;
+		default:
+			throw new IllegalArgumentException("NumPy type " + type + " not supported");
+		}
+
+		if (t.startsWith("u") && dtype != Dataset.INT64) {
+			data = DatasetFactory.createFromObject(true, data);
+		}
+		return data;
+	}
+
 	@Override
 	public boolean canUnFlatten(Object obj) {
 		if (obj instanceof Map<?, ?>) {
@@ -35,6 +35,22 @@ public interface AnalysisRpcServerHandler {
 	 * @see #handler(String, Object[])
 	 */
 	public Object handler_debug(String destination, Object[] args, boolean suspend);
+
+	/**
+	 * Call handler, flattening datasets in its return value with the best of the transports
+	 * supported by the client.
+	 * 
+	 * @param transports
+	 *            names of dataset transports the client can unflatten
+	 * @see #handler(String, Object[])
+	 * @see #get_transports()
+	 */
+	public Object handler_transport(String destination, Object[] args, Object[] transports);
+
+	/**
+	 * @return names of dataset transports the server can unflatten
+	 */
+	public Object get_transports();
 	
 	/**
 	 * Runs without exception if the server is running. Can be used by the client to poll the server to see if it is up yet.
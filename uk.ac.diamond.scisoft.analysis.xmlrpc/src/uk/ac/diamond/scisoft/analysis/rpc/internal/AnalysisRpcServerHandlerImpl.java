@@ -9,11 +9,17 @@
 
 package uk.ac.diamond.scisoft.analysis.rpc.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
 import org.eclipse.dawnsci.analysis.api.rpc.AnalysisRpcException;
 import org.eclipse.dawnsci.analysis.api.rpc.IAnalysisRpcHandler;
 
 import uk.ac.diamond.scisoft.analysis.rpc.AnalysisRpcServer;
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.IRootFlattener;
+import uk.ac.diamond.scisoft.analysis.rpc.flattening.helpers.DatasetHelper;
 
 /**
  * @see AnalysisRpcServerHandler
@@ -27,7 +33,13 @@ public class AnalysisRpcServerHandlerImpl implements AnalysisRpcServerHandler {
 
 	private Object handler_common(String destination, Object[] args,
 			boolean debug, boolean suspend) {
+		return handler_common(destination, args, debug, suspend, null);
+	}
+
+	private Object handler_common(String destination, Object[] args,
+			boolean debug, boolean suspend, Collection<String> transports) {
 		IRootFlattener flattener = analysisRPC.getFlattener();
+		Set<String> oldTransports = DatasetHelper.setPeerTransports(transports);
 		try {
 			IAnalysisRpcHandler handler = analysisRPC
 					.getDestination(destination);
@@ -44,6 +56,8 @@ public class AnalysisRpcServerHandlerImpl implements AnalysisRpcServerHandler {
 			return flatret;
 		} catch (Exception e) {
 			return flattener.flatten(e);
+		} finally {
+			DatasetHelper.setPeerTransports(oldTransports);
 		}
 	}
 
@@ -59,6 +73,21 @@ public class AnalysisRpcServerHandlerImpl implements AnalysisRpcServerHandler {
 
 	}
 
+	@Override
+	public Object handler_transport(String destination, Object[] args,
+			Object[] transports) {
+		List<String> names = new ArrayList<String>(transports.length);
+		for (Object t : transports) {
+			names.add((String) t);
+		}
+		return handler_common(destination, args, false, false, names);
+	}
+
+	@Override
+	public Object get_transports() {
+		return DatasetHelper.TRANSPORTS.toArray();
+	}
+
 	@Override
 	public Object is_alive() {
 		// this method does nothing. Simply successfully running as an RPC call
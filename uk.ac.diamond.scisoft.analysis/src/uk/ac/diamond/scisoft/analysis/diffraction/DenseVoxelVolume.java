@@ -0,0 +1,91 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.Maths;
+
+/**
+ * Volume held in a pair of datasets covering its entire bounding box
+ */
+class DenseVoxelVolume implements VoxelVolume {
+	private final DoubleDataset map;
+	private final DoubleDataset weight;
+
+	/**
+	 * @param map dataset that holds the voxel values
+	 * @param weight dataset that holds the relative contributions from each pixel
+	 */
+	public DenseVoxelVolume(DoubleDataset map, DoubleDataset weight) {
+		this.map = map;
+		this.weight = weight;
+	}
+
+	public DenseVoxelVolume(int[] shape) {
+		this(DatasetFactory.zeros(shape), DatasetFactory.zeros(shape));
+	}
+
+	@Override
+	public int[] getShape() {
+		return map.getShapeRef();
+	}
+
+	@Override
+	public void add(final int[] pos, final double value, final double weight) {
+		final int index = map.get1DIndex(pos);
+		map.setAbs(index, map.getAbs(index) + value);
+		this.weight.setAbs(index, this.weight.getAbs(index) + weight);
+	}
+
+	@Override
+	public VoxelVolume createEmpty() {
+		return new DenseVoxelVolume(map.getShapeRef());
+	}
+
+	@Override
+	public VoxelVolume createPartial() {
+		return createEmpty();
+	}
+
+	@Override
+	public long getPartialBytes() {
+		return getBytes();
+	}
+
+	@Override
+	public void accumulate(VoxelVolume other) {
+		DenseVoxelVolume o = (DenseVoxelVolume) other;
+		map.iadd(o.map);
+		weight.iadd(o.weight);
+	}
+
+	@Override
+	public long getBytes() {
+		return 2L * map.getSize() * Double.BYTES;
+	}
+
+	/**
+	 * Normalize values by tally, in place
+	 * @return normalized map
+	 */
+	public DoubleDataset normalize() {
+		Maths.dividez(map, weight, map);
+		return map;
+	}
+
+	/**
+	 * Reset volume to zero
+	 */
+	public void clear() {
+		map.fill(0);
+		weight.fill(0);
+	}
+}
@@ -12,6 +12,10 @@ package uk.ac.diamond.scisoft.analysis.diffraction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.measure.unit.SI;
 import javax.vecmath.Vector3d;
@@ -53,14 +57,18 @@ import uk.ac.diamond.scisoft.analysis.io.NexusTreeUtils;
 interface PixelSplitter {
 	/**
 	 * Spread a pixel intensity value over voxels near position
-	 * @param volume dataset that holds the voxel values
-	 * @param weight dataset that holds the relative contributions from each pixel
+	 * @param volume volume that holds the voxel values and the relative contributions from each pixel
 	 * @param vsize voxel size in reciprocal space
 	 * @param dh offset in reciprocal space from voxel corner
 	 * @param pos position in volume
 	 * @param value pixel intensity to split
 	 */
-	public void splitValue(DoubleDataset volume, DoubleDataset weight, final double[] vsize, final Vector3d dh, final int[] pos, final double value);
+	public void splitValue(VoxelVolume volume, final double[] vsize, final Vector3d dh, final int[] pos, final double value);
+
+	/**
+	 * @return splitter that can be used in another thread
+	 */
+	public PixelSplitter copy();
 }
 
 /**
@@ -91,6 +99,8 @@ public class MillerSpaceMapper {
 	private double scale; // image upsampling factor
 
 	private PixelSplitter splitter;
+	private int threads; // number of threads used to map images
+	private Boolean sparseVolume; // null for automatic
 
 	private double[] vDel;
 	private double[] vMin;
@@ -113,16 +123,20 @@ public class MillerSpaceMapper {
 	 */
 	static class NonSplitter implements PixelSplitter {
 		@Override
-		public void splitValue(DoubleDataset volume, DoubleDataset weight, final double[] vsize, Vector3d dh, int[] pos, double value) {
-			addToDataset(volume, pos, value);
-			addToDataset(weight, pos, 1);
+		public void splitValue(VoxelVolume volume, final double[] vsize, Vector3d dh, int[] pos, double value) {
+			volume.add(pos, value, 1);
+		}
+
+		@Override
+		public PixelSplitter copy() {
+			return this; // stateless
 		}
 	}
 
 	/**
 	 * Split pixel over eight voxels with weight determined by 1/distance
 	 */
-	static class InverseSplitter implements PixelSplitter {
+	static class InverseSplitter implements PixelSplitter, Cloneable {
 		/**
 		 * Weight function of distance squared
 		 * @param squaredDistance 
@@ -135,6 +149,17 @@ public class MillerSpaceMapper {
 		double[] weights = new double[8];
 		double factor;
 
+		@Override
+		public PixelSplitter copy() {
+			try {
+				InverseSplitter copy = (InverseSplitter) super.clone();
+				copy.weights = new double[8];
+				return copy;
+			} catch (CloneNotSupportedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
 		/**
 		 * Calculate weights
 		 * @param vd size of voxel
@@ -170,23 +195,21 @@ public class MillerSpaceMapper {
 		}
 
 		@Override
-		public void splitValue(DoubleDataset volume, DoubleDataset weight, final double[] vsize, Vector3d dh, int[] pos, double value) {
+		public void splitValue(VoxelVolume volume, final double[] vsize, Vector3d dh, int[] pos, double value) {
 			calcWeights(vsize, dh.x, dh.y, dh.z);
-			int[] vShape = volume.getShapeRef();
+			int[] vShape = volume.getShape();
 
 			double w;
 			int[] lpos = pos.clone();
 
 			w = factor * weights[0];
-			addToDataset(volume, lpos, w * value);
-			addToDataset(weight, lpos, w);
+			volume.add(lpos, w * value, w);
 
 			lpos[0]++;
 			if (lpos[0] >= 0 && lpos[0] < vShape[0]) {
 				w = factor * weights[1];
 				if (w > 0) {
-					addToDataset(volume, lpos, w * value);
-					addToDataset(weight, lpos, w);
+					volume.add(lpos, w * value, w);
 				}
 			}
 			lpos[0]--;
@@ -195,16 +218,14 @@ public class MillerSpaceMapper {
 			if (lpos[1] >= 0 && lpos[1] < vShape[1]) {
 				w = factor * weights[2];
 				if (w > 0) {
-					addToDataset(volume, lpos, w * value);
-					addToDataset(weight, lpos, w);
+					volume.add(lpos, w * value, w);
 				}
 
 				lpos[0]++;
 				if (lpos[0] >= 0 && lpos[0] < vShape[0]) {
 					w = factor * weights[3];
 					if (w > 0) {
-						addToDataset(volume, lpos, w * value);
-						addToDataset(weight, lpos, w);
+						volume.add(lpos, w * value, w);
 					}
 				}
 				lpos[0]--;
@@ -215,16 +236,14 @@ public class MillerSpaceMapper {
 			if (lpos[2] >= 0 && lpos[2] < vShape[2]) {
 				w = factor * weights[4];
 				if (w > 0) {
-					addToDataset(volume, lpos, w * value);
-					addToDataset(weight, lpos, w);
+					volume.add(lpos, w * value, w);
 				}
 
 				lpos[0]++;
 				if (lpos[0] >= 0 && lpos[0] < vShape[0]) {
 					w = factor * weights[5];
 					if (w > 0) {
-						addToDataset(volume, lpos, w * value);
-						addToDataset(weight, lpos, w);
+						volume.add(lpos, w * value, w);
 					}
 				}
 				lpos[0]--;
@@ -233,16 +252,14 @@ public class MillerSpaceMapper {
 				if (lpos[1] >= 0 && lpos[1] < vShape[1]) {
 					w = factor * weights[6];
 					if (w > 0) {
-						addToDataset(volume, lpos, w * value);
-						addToDataset(weight, lpos, w);
+						volume.add(lpos, w * value, w);
 					}
 
 					lpos[0]++;
 					if (lpos[0] >= 0 && lpos[0] < vShape[0]) {
 						w = factor * weights[7];
 						if (w > 0) {
-							addToDataset(volume, lpos, w * value);
-							addToDataset(weight, lpos, w);
+							volume.add(lpos, w * value, w);
 						}
 					}
 				}
@@ -287,6 +304,7 @@ public class MillerSpaceMapper {
 	 */
 	public MillerSpaceMapper(MillerSpaceMapperBean bean) {
 		this.bean = bean.clone();
+		threads = bean.getThreads();
 	}
 
 	/**
@@ -341,7 +359,27 @@ public class MillerSpaceMapper {
 		this.splitter = splitter;
 	}
 
-	private int[] copyParameters(boolean mapQ) {
+	/**
+	 * Set number of threads used to map images into volume. Each extra thread
+	 * accumulates into its own copy of a dense volume, so memory use grows with it
+	 * (threads share the blocks of a sparse volume)
+	 * @param threads if less than one, use number of available processors
+	 */
+	public void setNumberOfThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Set whether to accumulate volume in blocks that are allocated only when
+	 * touched. By default, this is used when the full volume would not fit in
+	 * half of the available memory
+	 * @param sparse
+	 */
+	public void setSparseVolume(boolean sparse) {
+		sparseVolume = sparse;
+	}
+
+	int[] copyParameters(boolean mapQ) {
 		if (mapQ) {
 			vDel = qDel;
 			vMin = qMin;
@@ -416,18 +454,17 @@ public class MillerSpaceMapper {
 			Arrays.fill(sMax, -1);
 		}
 
-		DoubleDataset map = DatasetFactory.zeros(vShape);
-		DoubleDataset weight = DatasetFactory.zeros(vShape);
+		DenseVoxelVolume volume = new DenseVoxelVolume(vShape);
 
 		try {
-			mapToASpace(mapQ, tree, iters, map, weight);
+			mapToASpace(mapQ, tree, iters, volume);
 		} catch (ScanFileHolderException sfhe) {
 			throw sfhe;
 		} catch (DatasetException e) {
 			throw new ScanFileHolderException("Could not get data from lazy dataset", e);
 		}
 
-		Maths.dividez(map, weight, map); // normalize by tally
+		DoubleDataset map = volume.normalize(); // normalize by tally
 	
 		if (reduceToNonZeroBB) {
 			System.err.println("Reduced to non-zero bounding box: " + Arrays.toString(sMin) + " to " + Arrays.toString(sMax));
@@ -442,7 +479,7 @@ public class MillerSpaceMapper {
 		return map;
 	}
 
-	private void mapToASpace(boolean mapQ, Tree tree, PositionIterator[] iters, DoubleDataset map, DoubleDataset weight) throws ScanFileHolderException, DatasetException {
+	private void mapToASpace(boolean mapQ, Tree tree, PositionIterator[] iters, VoxelVolume volume) throws ScanFileHolderException, DatasetException {
 		int[] dshape = iters[0].getShape();
 	
 		Dataset trans = NexusTreeUtils.parseAttenuator(attenuatorPath, tree);
@@ -482,7 +519,7 @@ public class MillerSpaceMapper {
 			upSampler = new BicubicInterpolator(ishape);
 		}
 
-		mapImages(mapQ, tree, trans, images, iters, map, weight, ishape, upSampler);
+		mapImages(mapQ, tree, trans, images, iters, volume, ishape, upSampler);
 	}
 
 	private void listToASpace(Tree tree, PositionIterator[] iters, ILazyWriteableDataset lazy) throws ScanFileHolderException, DatasetException {
@@ -703,59 +740,265 @@ public class MillerSpaceMapper {
 		System.out.println("x,y: " + m.toString());
 	}
 
-	private void mapImages(boolean mapQ, Tree tree, Dataset trans, ILazyDataset images, PositionIterator[] iters,
-			DoubleDataset map, DoubleDataset weight, int[] ishape, BicubicInterpolator upSampler) throws DatasetException {
-		PositionIterator diter = iters[0];
-		PositionIterator iter = iters[1];
-		iter.reset();
-		diter.reset();
-		int[] dpos = diter.getPos();
-		int[] pos = iter.getPos();
-		int[] stop = iter.getStop().clone();
-		int rank  = pos.length;
-		int srank = rank - 2;
-		MillerSpace mspace = null;
+	/**
+	 * Image and its mapping to reciprocal space
+	 */
+	static class Frame {
+		private final int[] shape;
+		private final QSpace qspace;
+		private final MillerSpace mspace;
+		private final Dataset image;
 
-		while (iter.hasNext() && diter.hasNext()) {
-			DetectorProperties dp = NexusTreeUtils.parseDetector(detectorPath, tree, dpos)[0];
-			dp.setHPxSize(dp.getHPxSize() / scale);
-			dp.setVPxSize(dp.getVPxSize() / scale);
+		/**
+		 * @param shape shape of image
+		 * @param qspace
+		 * @param mspace null when mapping to q space
+		 * @param image
+		 */
+		public Frame(int[] shape, QSpace qspace, MillerSpace mspace, Dataset image) {
+			this.shape = shape;
+			this.qspace = qspace;
+			this.mspace = mspace;
+			this.image = image;
+		}
+	}
+
+	private static final Frame END_FRAME = new Frame(null, null, null, null);
+
+	private static final long POLL_MS = 100;
+
+	/**
+	 * Accumulates frames into a volume. Each thread uses its own accumulator with
+	 * separate volumes, splitter and bounding box which are summed when all frames
+	 * have been mapped
+	 */
+	private class VolumeAccumulator implements Runnable {
+		private final VoxelVolume volume;
+		private final PixelSplitter splitter;
+		private final int[] min;
+		private final int[] max;
+		private final int[] ishape;
+		private final BicubicInterpolator upSampler;
+
+		private BlockingQueue<Frame> queue;
+		private AtomicReference<Throwable> failure;
+
+		public VolumeAccumulator(VoxelVolume volume, PixelSplitter splitter, int[] min, int[] max, int[] ishape, BicubicInterpolator upSampler) {
+			this.volume = volume;
+			this.splitter = splitter;
+			this.min = min;
+			this.max = max;
+			this.ishape = ishape;
+			this.upSampler = upSampler;
+		}
+
+		public void map(Frame f) {
+			Dataset image = f.image;
+			int[] s = f.shape;
 			if (upSampler != null) {
-				dp.setPx(ishape[0]);
-				dp.setPy(ishape[1]);
+				image = upSampler.value(image).get(0);
+				s = ishape;
 			}
-			for (int i = 0; i < srank; i++) {
-				stop[i] = pos[i] + 1;
+			mapImage(s, f.qspace, f.mspace, image, splitter, min, max, volume);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (failure.get() == null) {
+					Frame f = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+					if (f == END_FRAME) {
+						break;
+					}
+					if (f != null) {
+						map(f);
+					}
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
 			}
-			DiffractionSample sample = NexusTreeUtils.parseSample(samplePath, tree, dpos);
-			DiffractionCrystalEnvironment env = sample.getDiffractionCrystalEnvironment();
-			QSpace qspace = new QSpace(dp, env);
-			if (!mapQ) {
-				mspace = new MillerSpace(sample.getUnitCell(), env.getOrientation());
+		}
+
+		/**
+		 * Add partial volumes and bounding box to given accumulator
+		 * @param total
+		 */
+		public void addTo(VolumeAccumulator total) {
+			total.volume.accumulate(volume);
+			if (min != null) {
+				minMax(total.min, total.max, min);
+				minMax(total.min, total.max, max);
 			}
-			Dataset image = DatasetUtils.convertToDataset(images.getSlice(pos, stop, null));
-			if (trans != null) {
-				if (trans.getSize() == 1) {
-					image.idivide(trans.getElementDoubleAbs(0));
+		}
+	}
+
+	/**
+	 * @param bytes size of volume in bytes
+	 * @return number of threads that can be used given memory needed for extra volumes
+	 */
+	private int getNumberOfThreads(long bytes) {
+		int n = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+		if (n > 1) {
+			Runtime rt = Runtime.getRuntime();
+			long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+			long extra = (available / 2) / Math.max(1, bytes); // use up to half available memory for copies
+			n = (int) Math.max(1, Math.min(n, extra + 1));
+		}
+		return n;
+	}
+
+	private void mapImages(final boolean mapQ, final Tree tree, final Dataset trans, final ILazyDataset images, PositionIterator[] iters,
+			VoxelVolume volume, final int[] ishape, final BicubicInterpolator upSampler) throws DatasetException {
+		final PositionIterator diter = iters[0];
+		final PositionIterator iter = iters[1];
+		iter.reset();
+		diter.reset();
+		final int[] dpos = diter.getPos();
+		final int[] pos = iter.getPos();
+		final int[] stop = iter.getStop().clone();
+		final int rank  = pos.length;
+		final int srank = rank - 2;
+
+		mapFrames(new FrameSource() {
+			@Override
+			public Frame next() throws DatasetException {
+				MillerSpace mspace = null;
+				while (iter.hasNext() && diter.hasNext()) {
+					DetectorProperties dp = NexusTreeUtils.parseDetector(detectorPath, tree, dpos)[0];
+					dp.setHPxSize(dp.getHPxSize() / scale);
+					dp.setVPxSize(dp.getVPxSize() / scale);
+					if (upSampler != null) {
+						dp.setPx(ishape[0]);
+						dp.setPy(ishape[1]);
+					}
+					for (int i = 0; i < srank; i++) {
+						stop[i] = pos[i] + 1;
+					}
+					DiffractionSample sample = NexusTreeUtils.parseSample(samplePath, tree, dpos);
+					DiffractionCrystalEnvironment env = sample.getDiffractionCrystalEnvironment();
+					QSpace qspace = new QSpace(dp, env);
+					if (!mapQ) {
+						mspace = new MillerSpace(sample.getUnitCell(), env.getOrientation());
+					}
+					Dataset image = DatasetUtils.convertToDataset(images.getSlice(pos, stop, null));
+					if (trans != null) {
+						if (trans.getSize() == 1) {
+							image.idivide(trans.getElementDoubleAbs(0));
+						} else {
+							image.idivide(trans.getDouble(dpos));
+						}
+					}
+					int[] s = Arrays.copyOfRange(image.getShapeRef(), srank, rank);
+					image.setShape(s);
+					if (image.max().doubleValue() <= 0) {
+						System.err.println("Skipping image at " + Arrays.toString(pos));
+						continue;
+					}
+					return new Frame(s, qspace, mspace, image);
+				}
+				return null;
+			}
+		}, volume, ishape, upSampler);
+	}
+
+	/**
+	 * Supplies frames to map
+	 */
+	interface FrameSource {
+		/**
+		 * @return next frame or null if there are no more
+		 * @throws DatasetException
+		 */
+		public Frame next() throws DatasetException;
+	}
+
+	/**
+	 * Map frames into volume. Frames are read on the calling thread and, when
+	 * more than one thread is used, mapped by worker threads whose partial volumes
+	 * are accumulated into the given volume
+	 * @param source
+	 * @param volume
+	 * @param ishape shape of upsampled images
+	 * @param upSampler can be null
+	 * @throws DatasetException
+	 */
+	void mapFrames(FrameSource source, VoxelVolume volume, int[] ishape, BicubicInterpolator upSampler) throws DatasetException {
+		int nt = getNumberOfThreads(volume.getPartialBytes());
+		VolumeAccumulator[] accumulators = new VolumeAccumulator[nt];
+		accumulators[0] = new VolumeAccumulator(volume, splitter, sMin, sMax, ishape, upSampler);
+		for (int i = 1; i < nt; i++) {
+			accumulators[i] = new VolumeAccumulator(volume.createPartial(), splitter.copy(), sMin == null ? null : sMin.clone(), sMax == null ? null : sMax.clone(),
+					ishape, upSampler == null ? null : new BicubicInterpolator(ishape));
+		}
+
+		BlockingQueue<Frame> queue = null;
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] workers = new Thread[nt];
+		if (nt > 1) {
+			queue = new ArrayBlockingQueue<Frame>(2 * nt); // limit number of images held in memory
+			for (int i = 0; i < nt; i++) {
+				VolumeAccumulator a = accumulators[i];
+				a.queue = queue;
+				a.failure = failure;
+				workers[i] = new Thread(a, "Miller space mapper " + i);
+				workers[i].setDaemon(true);
+				workers[i].start();
+			}
+		}
+
+		try {
+			while (failure.get() == null) {
+				Frame f = source.next();
+				if (f == null) {
+					break;
+				}
+				if (queue == null) {
+					accumulators[0].map(f);
 				} else {
-					image.idivide(trans.getDouble(dpos));
+					while (!queue.offer(f, POLL_MS, TimeUnit.MILLISECONDS)) {
+						if (failure.get() != null) {
+							break;
+						}
+					}
 				}
 			}
-			int[] s = Arrays.copyOfRange(image.getShapeRef(), srank, rank);
-			image.setShape(s);
-			if (image.max().doubleValue() <= 0) {
-				System.err.println("Skipping image at " + Arrays.toString(pos));
-				continue;
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+		} finally {
+			if (queue != null) {
+				try {
+					for (int i = 0; i < nt && failure.get() == null; i++) {
+						while (!queue.offer(END_FRAME, POLL_MS, TimeUnit.MILLISECONDS)) {
+							if (failure.get() != null) {
+								break;
+							}
+						}
+					}
+					for (Thread w : workers) {
+						w.join();
+					}
+				} catch (InterruptedException e) {
+					failure.compareAndSet(null, e);
+				}
 			}
-			if (upSampler != null) {
-				image = upSampler.value(image).get(0);
-				s = ishape;
+		}
+
+		Throwable t = failure.get();
+		if (t != null) {
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
 			}
-			mapImage(s, qspace, mspace, image, map, weight);
+			throw new DatasetException("Could not map images", t);
+		}
+
+		for (int i = 1; i < nt; i++) {
+			accumulators[i].addTo(accumulators[0]);
 		}
 	}
 
-	private static void minMax(double[] min, double[] max, Vector3d v) {
+	static void minMax(double[] min, double[] max, Vector3d v) {
 		min[0] = Math.min(min[0], v.x);
 		max[0] = Math.max(max[0], v.x);
 		min[1] = Math.min(min[1], v.y);
@@ -764,7 +1007,7 @@ public class MillerSpaceMapper {
 		max[2] = Math.max(max[2], v.z);
 	}
 
-	private void mapImage(int[] s, QSpace qspace, MillerSpace mspace, Dataset image, DoubleDataset map, DoubleDataset weight) {
+	private void mapImage(int[] s, QSpace qspace, MillerSpace mspace, Dataset image, PixelSplitter splitter, int[] sMin, int[] sMax, VoxelVolume volume) {
 		int[] pos = new int[3]; // voxel position
 		Vector3d q = new Vector3d();
 		double value;
@@ -783,7 +1026,7 @@ public class MillerSpaceMapper {
 							if (reduceToNonZeroBB) {
 								minMax(sMin, sMax, pos);
 							}
-							splitter.splitValue(map, weight, vDel, dq, pos, value);
+							splitter.splitValue(volume, vDel, dq, pos, value);
 						}
 					}
 				}
@@ -804,7 +1047,7 @@ public class MillerSpaceMapper {
 							if (reduceToNonZeroBB) {
 								minMax(sMin, sMax, pos);
 							}
-							splitter.splitValue(map, weight, vDel, dh, pos, value);
+							splitter.splitValue(volume, vDel, dh, pos, value);
 						}
 					}
 				}
@@ -860,11 +1103,6 @@ public class MillerSpaceMapper {
 		return true;
 	}
 
-	private static void addToDataset(DoubleDataset d, final int[] pos, double v) {
-		final int index = d.get1DIndex(pos);
-		d.setAbs(index, d.getAbs(index) + v);
-	}
-
 	private void doImages(Tree tree, Dataset trans, ILazyDataset images, PositionIterator[] iters,
 			ILazyWriteableDataset lazy, int[] ishape, BicubicInterpolator upSampler) throws DatasetException, ScanFileHolderException {
 		PositionIterator diter = iters[0];
@@ -1167,24 +1405,22 @@ public class MillerSpaceMapper {
 		}
 		String volPath = mapQ ? Q_VOLUME_DATA_PATH : MILLER_VOLUME_DATA_PATH;
 
+		if (useSparseVolume(vShape)) {
+			processTreesSparsely(mapQ, trees, allIters, output, volPath, vShape, a);
+			return;
+		}
+
 		try {
-			DoubleDataset map = DatasetFactory.zeros(vShape);
-			DoubleDataset weight = DatasetFactory.zeros(vShape);
+			DenseVoxelVolume volume = new DenseVoxelVolume(vShape);
 
 			for (int i = 0; i < trees.length; i++) {
 				Tree tree = trees[i];
-				mapToASpace(mapQ, tree, allIters[i], map, weight);
+				mapToASpace(mapQ, tree, allIters[i], volume);
 			}
-			Maths.dividez(map, weight, map); // normalize by tally
+			DoubleDataset map = volume.normalize(); // normalize by tally
 
 			if (reduceToNonZeroBB) {
-				System.err.println("Reduced to non-zero bounding box: " + Arrays.toString(sMin) + " to " + Arrays.toString(sMax));
-				for (int i = 0; i < 3; i++) {
-					vMin[i] += sMin[i]*vDel[i];
-					sMax[i]++;
-					vShape[i] = sMax[i] - sMin[i];
-				}
-				System.err.println("so now start = " + Arrays.toString(vMin) + " for shape = " + Arrays.toString(vShape));
+				reduceToNonZeroBoundingBox(vShape);
 				map = (DoubleDataset) map.getSlice(sMin, sMax, null);
 			}
 
@@ -1244,12 +1480,81 @@ public class MillerSpaceMapper {
 			int[] cShape = vShape.clone();
 			cShape[0] = 1;
 			LazyWriteableDataset lazy = HDF5Utils.createLazyDataset(output, volPath, VOLUME_NAME, vShape, null, cShape, Dataset.FLOAT64, null, false);
-			mapAndSaveInParts(mapQ, trees, allIters, lazy, parts, map, weight);
+			mapAndSaveInParts(mapQ, trees, allIters, lazy, parts, new DenseVoxelVolume(map, weight));
 
 			saveAxesAndAttributes(output, volPath, a);
 		}
 	}
 
+	/**
+	 * Move start of volume to non-zero bounding box and make its maximum exclusive
+	 * @param vShape shape of volume, updated to that of bounding box
+	 */
+	private void reduceToNonZeroBoundingBox(int[] vShape) {
+		System.err.println("Reduced to non-zero bounding box: " + Arrays.toString(sMin) + " to " + Arrays.toString(sMax));
+		for (int i = 0; i < 3; i++) {
+			vMin[i] += sMin[i]*vDel[i];
+			sMax[i]++;
+			vShape[i] = sMax[i] - sMin[i];
+		}
+		System.err.println("so now start = " + Arrays.toString(vMin) + " for shape = " + Arrays.toString(vShape));
+	}
+
+	/**
+	 * @param vShape
+	 * @return true if volume should be accumulated in sparse blocks
+	 */
+	private boolean useSparseVolume(int[] vShape) {
+		if (sparseVolume != null) {
+			return sparseVolume;
+		}
+		Runtime rt = Runtime.getRuntime();
+		long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+		long bytes = 2L * Double.BYTES * vShape[0] * vShape[1] * vShape[2];
+		return bytes > available / 2;
+	}
+
+	/**
+	 * Map to a volume that only holds blocks of voxels that are touched and write
+	 * those blocks directly to a chunked dataset
+	 */
+	private void processTreesSparsely(boolean mapQ, Tree[] trees, PositionIterator[][] allIters, String output, String volPath, int[] vShape, Dataset[] a) throws ScanFileHolderException, DatasetException {
+		SparseVoxelVolume volume = new SparseVoxelVolume(vShape);
+
+		for (int i = 0; i < trees.length; i++) {
+			Tree tree = trees[i];
+			mapToASpace(mapQ, tree, allIters[i], volume);
+		}
+
+		int[] start = new int[3];
+		int[] stop = vShape.clone();
+		if (reduceToNonZeroBB) {
+			reduceToNonZeroBoundingBox(vShape);
+			start = sMin;
+			stop = sMax;
+		}
+
+		if (findImageBB) {
+			if (mapQ) {
+				createQSpaceAxes(a, vShape, vMin, null, vDel);
+			} else {
+				createMillerSpaceAxes(a, vShape, vMin, null, vDel);
+			}
+		}
+		if (!hasDeleted) {
+			HDF5FileFactory.deleteFile(output);
+			hasDeleted = true;
+		}
+
+		LazyWriteableDataset lazy = HDF5Utils.createLazyDataset(output, volPath, VOLUME_NAME, vShape, null, SparseVoxelVolume.getChunkShape(vShape), Dataset.FLOAT64, null, false);
+		try {
+			volume.write(lazy, start, stop);
+		} catch (DatasetException e) {
+			throw new ScanFileHolderException("Could not save volume", e);
+		}
+		saveAxesAndAttributes(output, volPath, a);
+	}
+
 	private static void createQSpaceAxes(Dataset[] a, int[] mShape, double[] mStart, double[] mStop, double[] mDelta) {
 		createAxes(Q_VOLUME_AXES, a, mShape, mStart, mStop, mDelta);
 	}
@@ -1358,16 +1663,16 @@ public class MillerSpaceMapper {
 	 * @param trees 
 	 * @param allIters 
 	 * @param parts 
-	 * @param map 
-	 * @param weight 
+	 * @param volume 
 	 * @throws ScanFileHolderException 
 	 * @throws DatasetException 
 	 */
-	private void mapAndSaveInParts(boolean mapQ, Tree[] trees, PositionIterator[][] allIters, LazyWriteableDataset output, int parts, DoubleDataset map, DoubleDataset weight) throws ScanFileHolderException, DatasetException {
+	private void mapAndSaveInParts(boolean mapQ, Tree[] trees, PositionIterator[][] allIters, LazyWriteableDataset output, int parts, DenseVoxelVolume volume) throws ScanFileHolderException, DatasetException {
 		int n = trees.length;
+		int[] mShape = volume.getShape();
 
-		SliceND slice = new SliceND(hShape, null, map.getShapeRef(), null);
-		int ml = map.getShapeRef()[0]; // length of first dimension
+		SliceND slice = new SliceND(hShape, null, mShape, null);
+		int ml = mShape[0]; // length of first dimension
 		int[] vstart = slice.getStart();
 		int[] vstop = slice.getStop();
 		double oMin = vMin[0];
@@ -1414,9 +1719,9 @@ public class MillerSpaceMapper {
 					upSampler = new BicubicInterpolator(ishape);
 				}
 
-				mapImages(mapQ, tree, trans, images, iters, map, weight, ishape, upSampler);
+				mapImages(mapQ, tree, trans, images, iters, volume, ishape, upSampler);
 			}
-			Maths.dividez(map, weight, map); // normalize by tally
+			DoubleDataset map = volume.normalize(); // normalize by tally
 
 			try {
 				output.setSlice(map, slice);
@@ -1424,8 +1729,7 @@ public class MillerSpaceMapper {
 				System.err.println("Could not saving part of volume");
 				throw new ScanFileHolderException("Could not saving part of volume", e);
 			}
-			map.fill(0);
-			weight.fill(0);
+			volume.clear();
 			vstart[0] = vstop[0];
 			vstop[0] = vstart[0] + ml;
 		}
@@ -1470,9 +1774,9 @@ public class MillerSpaceMapper {
 				upSampler = new BicubicInterpolator(ishape);
 			}
 
-			mapImages(mapQ, tree, trans, images, iters, map, weight, ishape, upSampler);
+			mapImages(mapQ, tree, trans, images, iters, volume, ishape, upSampler);
 		}
-		Maths.dividez(map, weight, map); // normalize by tally
+		DoubleDataset map = volume.normalize(); // normalize by tally
 
 		DoubleDataset tmap;
 		if (overflow) {
@@ -1810,6 +2114,8 @@ public class MillerSpaceMapper {
 
 		private boolean listMillerEntries;
 
+		private int threads;
+
 		private int[] qShape;
 		private double[] qStart;
 		private double[] qStep;
@@ -2034,6 +2340,17 @@ public class MillerSpaceMapper {
 			this.listMillerEntries = listMillerEntries;
 		}
 
+		public int getThreads() {
+			return threads;
+		}
+
+		/**
+		 * @param threads number of threads used to map images (if less than one, use all available processors)
+		 */
+		public void setThreads(int threads) {
+			this.threads = threads;
+		}
+
 		public int[] getQShape() {
 			return qShape;
 		}
@@ -2105,6 +2422,7 @@ public class MillerSpaceMapper {
 			result = prime * result + Arrays.hashCode(qStart);
 			result = prime * result + Arrays.hashCode(qStep);
 			result = prime * result + (reduceToNonZero ? 1231 : 1237);
+			result = prime * result + threads;
 			result = prime * result + ((sampleName == null) ? 0 : sampleName.hashCode());
 			long temp;
 			temp = Double.doubleToLongBits(scaleFactor);
@@ -2199,6 +2517,9 @@ public class MillerSpaceMapper {
 			if (reduceToNonZero != other.reduceToNonZero) {
 				return false;
 			}
+			if (threads != other.threads) {
+				return false;
+			}
 			if (sampleName == null) {
 				if (other.sampleName != null) {
 					return false;
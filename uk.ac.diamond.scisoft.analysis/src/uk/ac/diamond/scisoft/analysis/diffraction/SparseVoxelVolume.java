@@ -0,0 +1,231 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.january.DatasetException;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.LazyWriteableDataset;
+import org.eclipse.january.dataset.SliceND;
+
+/**
+ * Volume held as cubic blocks of voxels that are only allocated when a voxel
+ * in the block is first touched, so memory use follows the occupied part of
+ * the volume rather than its bounding box. Partial volumes share the blocks
+ * so several threads can add to the volume without holding copies of it
+ */
+class SparseVoxelVolume implements VoxelVolume {
+	static final int BLOCK_BITS = 4;
+	static final int BLOCK_SIDE = 1 << BLOCK_BITS;
+	private static final int BLOCK_MASK = BLOCK_SIDE - 1;
+	private static final int BLOCK_SIZE = BLOCK_SIDE * BLOCK_SIDE * BLOCK_SIDE;
+	private static final long BLOCK_BYTES = 2L * BLOCK_SIZE * Double.BYTES + 64; // including some overhead
+
+	private static class Block {
+		private double[] values = new double[BLOCK_SIZE];
+		private double[] weights = new double[BLOCK_SIZE];
+	}
+
+	private final int[] shape;
+	private final long[] blocks; // number of blocks in each dimension
+	private final ConcurrentMap<Long, Block> map;
+
+	// last block used by this instance as neighbouring pixels usually land in the same block
+	private long lastKey = -1;
+	private Block lastBlock;
+
+	/**
+	 * @param shape shape of volume
+	 */
+	public SparseVoxelVolume(int[] shape) {
+		this.shape = shape.clone();
+		blocks = new long[shape.length];
+		for (int i = 0; i < shape.length; i++) {
+			blocks[i] = (shape[i] + BLOCK_SIDE - 1) >> BLOCK_BITS;
+		}
+		map = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param shared volume whose blocks are shared
+	 */
+	private SparseVoxelVolume(SparseVoxelVolume shared) {
+		shape = shared.shape;
+		blocks = shared.blocks;
+		map = shared.map;
+	}
+
+	/**
+	 * @param shape
+	 * @return chunk shape that matches blocks in volume
+	 */
+	public static int[] getChunkShape(int[] shape) {
+		int[] chunk = new int[shape.length];
+		for (int i = 0; i < shape.length; i++) {
+			chunk[i] = Math.min(BLOCK_SIDE, shape[i]);
+		}
+		return chunk;
+	}
+
+	@Override
+	public int[] getShape() {
+		return shape;
+	}
+
+	@Override
+	public void add(final int[] pos, final double value, final double weight) {
+		final long key = ((pos[0] >> BLOCK_BITS) * blocks[1] + (pos[1] >> BLOCK_BITS)) * blocks[2] + (pos[2] >> BLOCK_BITS);
+		Block b;
+		if (key == lastKey) {
+			b = lastBlock;
+		} else {
+			b = map.get(key);
+			if (b == null) {
+				b = map.computeIfAbsent(key, k -> new Block());
+			}
+			lastKey = key;
+			lastBlock = b;
+		}
+		final int index = (((pos[0] & BLOCK_MASK) << BLOCK_BITS) + (pos[1] & BLOCK_MASK) << BLOCK_BITS) + (pos[2] & BLOCK_MASK);
+		synchronized (b) {
+			b.values[index] += value;
+			b.weights[index] += weight;
+		}
+	}
+
+	@Override
+	public VoxelVolume createEmpty() {
+		return new SparseVoxelVolume(shape);
+	}
+
+	@Override
+	public VoxelVolume createPartial() {
+		return new SparseVoxelVolume(this);
+	}
+
+	@Override
+	public long getPartialBytes() {
+		return 0;
+	}
+
+	@Override
+	public void accumulate(VoxelVolume other) {
+		SparseVoxelVolume o = (SparseVoxelVolume) other;
+		if (o.map == map) { // partial volume has added to shared blocks already
+			return;
+		}
+		for (Map.Entry<Long, Block> e : o.map.entrySet()) {
+			Block ob = e.getValue();
+			Block b = map.get(e.getKey());
+			if (b == null) {
+				map.put(e.getKey(), ob);
+			} else {
+				for (int i = 0; i < BLOCK_SIZE; i++) {
+					b.values[i] += ob.values[i];
+					b.weights[i] += ob.weights[i];
+				}
+			}
+		}
+		lastKey = -1;
+		lastBlock = null;
+	}
+
+	@Override
+	public long getBytes() {
+		return map.size() * BLOCK_BYTES;
+	}
+
+	/**
+	 * @return number of allocated blocks
+	 */
+	public int getNumberOfBlocks() {
+		return map.size();
+	}
+
+	/**
+	 * Get value normalized by tally
+	 * @param pos
+	 * @return value or zero if voxel has not been touched
+	 */
+	public double getNormalizedValue(int... pos) {
+		Block b = map.get(((pos[0] >> BLOCK_BITS) * blocks[1] + (pos[1] >> BLOCK_BITS)) * blocks[2] + (pos[2] >> BLOCK_BITS));
+		if (b == null) {
+			return 0;
+		}
+		final int index = (((pos[0] & BLOCK_MASK) << BLOCK_BITS) + (pos[1] & BLOCK_MASK) << BLOCK_BITS) + (pos[2] & BLOCK_MASK);
+		double w = b.weights[index];
+		return w == 0 ? 0 : b.values[index] / w;
+	}
+
+	/**
+	 * Write values normalized by tally to the part of output that corresponds to given sub-volume.
+	 * Blocks are written in order and untouched blocks are skipped, leaving them as the output's fill value
+	 * @param output lazy dataset with shape of sub-volume
+	 * @param start start of sub-volume
+	 * @param stop stop of sub-volume (exclusive)
+	 * @throws DatasetException
+	 */
+	public void write(LazyWriteableDataset output, int[] start, int[] stop) throws DatasetException {
+		int[] oShape = new int[3];
+		for (int i = 0; i < 3; i++) {
+			oShape[i] = stop[i] - start[i];
+		}
+		Long[] keys = map.keySet().toArray(new Long[map.size()]);
+		Arrays.sort(keys);
+
+		int[] lo = new int[3];
+		int[] hi = new int[3];
+		int[] oStart = new int[3];
+		int[] oStop = new int[3];
+		for (Long k : keys) {
+			long key = k;
+			int[] origin = new int[3];
+			origin[2] = (int) (key % blocks[2]) << BLOCK_BITS;
+			key /= blocks[2];
+			origin[1] = (int) (key % blocks[1]) << BLOCK_BITS;
+			origin[0] = (int) (key / blocks[1]) << BLOCK_BITS;
+
+			boolean empty = false;
+			for (int i = 0; i < 3; i++) {
+				lo[i] = Math.max(origin[i], start[i]);
+				hi[i] = Math.min(Math.min(origin[i] + BLOCK_SIDE, shape[i]), stop[i]);
+				if (lo[i] >= hi[i]) {
+					empty = true;
+					break;
+				}
+				oStart[i] = lo[i] - start[i];
+				oStop[i] = hi[i] - start[i];
+			}
+			if (empty) {
+				continue;
+			}
+
+			Block b = map.get(k);
+			DoubleDataset data = DatasetFactory.zeros(hi[0] - lo[0], hi[1] - lo[1], hi[2] - lo[2]);
+			double[] buffer = data.getData();
+			int j = 0;
+			for (int x = lo[0]; x < hi[0]; x++) {
+				for (int y = lo[1]; y < hi[1]; y++) {
+					int index = (((x & BLOCK_MASK) << BLOCK_BITS) + (y & BLOCK_MASK) << BLOCK_BITS) + (lo[2] & BLOCK_MASK);
+					for (int z = lo[2]; z < hi[2]; z++, index++) {
+						double w = b.weights[index];
+						buffer[j++] = w == 0 ? 0 : b.values[index] / w;
+					}
+				}
+			}
+			output.setSlice(data, new SliceND(oShape, oStart, oStop, null));
+		}
+	}
+}
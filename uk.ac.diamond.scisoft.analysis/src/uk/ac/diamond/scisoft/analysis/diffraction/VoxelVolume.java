@@ -0,0 +1,54 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+/**
+ * Volume that accumulates split pixel values and their weights in voxels
+ */
+interface VoxelVolume {
+	/**
+	 * @return shape of volume
+	 */
+	public int[] getShape();
+
+	/**
+	 * Add value and weight to voxel
+	 * @param pos position in volume
+	 * @param value weighted pixel value
+	 * @param weight
+	 */
+	public void add(final int[] pos, final double value, final double weight);
+
+	/**
+	 * @return empty volume of same shape and kind
+	 */
+	public VoxelVolume createEmpty();
+
+	/**
+	 * @return volume that another thread can add to and that is then accumulated into this volume
+	 */
+	public VoxelVolume createPartial();
+
+	/**
+	 * @return number of extra bytes needed for each partial volume
+	 */
+	public long getPartialBytes();
+
+	/**
+	 * Add all voxels from other volume (of same shape and kind) to this volume
+	 * @param other
+	 */
+	public void accumulate(VoxelVolume other);
+
+	/**
+	 * @return number of bytes used to hold volume
+	 */
+	public long getBytes();
+}
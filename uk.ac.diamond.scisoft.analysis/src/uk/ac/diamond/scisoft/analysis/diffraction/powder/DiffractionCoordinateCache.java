@@ -9,52 +9,169 @@
 
 package uk.ac.diamond.scisoft.analysis.diffraction.powder;
 
-import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
 import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
 import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.FloatDataset;
 
 import uk.ac.diamond.scisoft.analysis.roi.XAxis;
 
+/**
+ * Shared cache of coordinate arrays (q, 2theta, etc) for detector geometries.
+ * <p>
+ * Entries are strongly held until the total size exceeds a memory budget, at which
+ * point least recently used entries are evicted. Arrays can optionally be stored
+ * in single precision to halve their footprint.
+ */
 public class DiffractionCoordinateCache {
-	
-	private static final Map<DiffractionCoordiateCacheKey, WeakReference<Object>> CACHE = Collections.synchronizedMap(new LinkedHashMap<>(6));
-	
+
+	private static final long DEFAULT_MAX_BYTES = Runtime.getRuntime().maxMemory() / 8;
+
+	private final Map<DiffractionCoordiateCacheKey, CacheEntry> cache = new ConcurrentHashMap<>();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong clock = new AtomicLong();
+
 	private static final DiffractionCoordinateCache instance = new DiffractionCoordinateCache();
-	private boolean disabled = false;
-	
+	private volatile boolean disabled = false;
+	private volatile boolean singlePrecision = false;
+	private volatile long maxBytes = DEFAULT_MAX_BYTES;
+
 	private DiffractionCoordinateCache() {
-		
+
 	}
-	
+
 	public static DiffractionCoordinateCache getInstance() {
 		return instance;
 	}
-	
-	public void put(IDiffractionMetadata md, XAxis axis, boolean centre, boolean radians, Object value) {
-		if (disabled) return;
-		DiffractionCoordiateCacheKey key = new DiffractionCoordiateCacheKey(md, axis, centre, radians);
-		CACHE.put(key, new WeakReference<Object>(value));
+
+	/**
+	 * Put coordinates in cache
+	 * @param md
+	 * @param axis
+	 * @param centre
+	 * @param radians
+	 * @param value dataset or array of datasets
+	 * @return value as held by cache, which is converted to single precision if that is set
+	 */
+	public Object put(IDiffractionMetadata md, XAxis axis, boolean centre, boolean radians, Object value) {
+		if (disabled || value == null) return value;
+
+		Object stored = singlePrecision ? toSinglePrecision(value) : value;
+		CacheEntry entry = new CacheEntry(stored, clock.incrementAndGet());
+		CacheEntry old = cache.put(new DiffractionCoordiateCacheKey(md, axis, centre, radians), entry);
+		bytes.addAndGet(entry.bytes - (old == null ? 0 : old.bytes));
+
+		if (bytes.get() > maxBytes) {
+			evict();
+		}
+		return stored;
 	}
 
 	public Object get(IDiffractionMetadata md, XAxis axis, boolean centre, boolean radians) {
 		if (disabled) return null;
-		DiffractionCoordiateCacheKey key = new DiffractionCoordiateCacheKey(md, axis, centre, radians);
-		WeakReference<Object> wr = CACHE.get(key);
-		return wr != null ? wr.get() : null;
+		CacheEntry entry = cache.get(new DiffractionCoordiateCacheKey(md, axis, centre, radians));
+		if (entry == null) return null;
+		entry.lastUsed = clock.incrementAndGet();
+		return entry.value;
+	}
+
+	/**
+	 * Remove all entries
+	 */
+	public void clear() {
+		cache.clear();
+		bytes.set(0);
+	}
+
+	/**
+	 * @return number of bytes held in cache
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	private synchronized void evict() {
+		if (bytes.get() <= maxBytes) return;
+
+		List<Map.Entry<DiffractionCoordiateCacheKey, CacheEntry>> entries = new ArrayList<>(cache.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<DiffractionCoordiateCacheKey, CacheEntry>>() {
+			@Override
+			public int compare(Map.Entry<DiffractionCoordiateCacheKey, CacheEntry> a, Map.Entry<DiffractionCoordiateCacheKey, CacheEntry> b) {
+				return Long.compare(a.getValue().lastUsed, b.getValue().lastUsed);
+			}
+		});
+
+		for (Map.Entry<DiffractionCoordiateCacheKey, CacheEntry> e : entries) {
+			if (bytes.get() <= maxBytes) break;
+			CacheEntry entry = e.getValue();
+			if (cache.remove(e.getKey(), entry)) {
+				bytes.addAndGet(-entry.bytes);
+			}
+		}
+	}
+
+	private static Object toSinglePrecision(Object value) {
+		if (value instanceof Dataset) {
+			return toSinglePrecision((Dataset) value);
+		}
+		if (value instanceof Dataset[]) {
+			Dataset[] in = (Dataset[]) value;
+			Dataset[] out = new Dataset[in.length];
+			for (int i = 0; i < in.length; i++) {
+				out[i] = toSinglePrecision(in[i]);
+			}
+			return out;
+		}
+		return value;
 	}
-	
-	class DiffractionCoordiateCacheKey {
-		
+
+	private static Dataset toSinglePrecision(Dataset d) {
+		return d == null || d instanceof FloatDataset ? d : DatasetUtils.cast(FloatDataset.class, d);
+	}
+
+	private static long getBytes(Object value) {
+		if (value instanceof Dataset) {
+			Dataset d = (Dataset) value;
+			return (long) d.getSize() * d.getItemBytes();
+		}
+		if (value instanceof Dataset[]) {
+			long total = 0;
+			for (Dataset d : (Dataset[]) value) {
+				total += getBytes(d);
+			}
+			return total;
+		}
+		return 0;
+	}
+
+	private static class CacheEntry {
+		private final Object value;
+		private final long bytes;
+		private volatile long lastUsed;
+
+		public CacheEntry(Object value, long time) {
+			this.value = value;
+			bytes = getBytes(value);
+			lastUsed = time;
+		}
+	}
+
+	static class DiffractionCoordiateCacheKey {
+
 		@Override
 		public int hashCode() {
 			final int prime = 31;
 			int result = 1;
-			result = prime * result + getOuterType().hashCode();
 			result = prime * result + ((axis == null) ? 0 : axis.hashCode());
 			result = prime * result + (centre ? 1231 : 1237);
 			result = prime * result + ((dce == null) ? 0 : dce.hashCode());
@@ -72,8 +189,6 @@ public class DiffractionCoordinateCache {
 			if (getClass() != obj.getClass())
 				return false;
 			DiffractionCoordiateCacheKey other = (DiffractionCoordiateCacheKey) obj;
-			if (!getOuterType().equals(other.getOuterType()))
-				return false;
 			if (axis != other.axis)
 				return false;
 			if (centre != other.centre)
@@ -98,7 +213,7 @@ public class DiffractionCoordinateCache {
 		private XAxis axis;
 		private boolean centre;
 		private boolean radians;
-		
+
 		public DiffractionCoordiateCacheKey(IDiffractionMetadata md, XAxis axis, boolean centre, boolean radians) {
 			dp = md.getDetector2DProperties().clone();
 			dce = md.getDiffractionCrystalEnvironment().clone();
@@ -107,10 +222,6 @@ public class DiffractionCoordinateCache {
 			this.radians = radians;
 		}
 
-		private DiffractionCoordinateCache getOuterType() {
-			return DiffractionCoordinateCache.this;
-		}
-		
 	}
 
 	public boolean isDisabled() {
@@ -121,4 +232,29 @@ public class DiffractionCoordinateCache {
 		this.disabled = disabled;
 	}
 
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	/**
+	 * @param singlePrecision if true, store coordinates as float32 datasets
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @param maxBytes memory budget of cache, beyond which least recently used entries are evicted
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		if (bytes.get() > maxBytes) {
+			evict();
+		}
+	}
+
 }
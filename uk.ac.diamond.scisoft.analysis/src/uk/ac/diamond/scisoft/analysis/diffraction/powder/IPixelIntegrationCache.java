@@ -10,6 +10,7 @@
 package uk.ac.diamond.scisoft.analysis.diffraction.powder;
 
 import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.IDataset;
 
 public interface IPixelIntegrationCache {
 
@@ -45,4 +46,15 @@ public interface IPixelIntegrationCache {
 	
 	boolean provideLookup();
 	
+	/**
+	 * Get sparse matrix of pixel contributions to bins, creating it if the
+	 * mask differs from the one used for the current matrix. By default,
+	 * there is no matrix
+	 * @param mask (can be null)
+	 * @return matrix or null to integrate pixel by pixel
+	 */
+	default PixelBinMatrix getPixelBinMatrix(IDataset mask) {
+		return null;
+	}
+	
 }
@@ -0,0 +1,535 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
+import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.IntegerDataset;
+import org.eclipse.january.dataset.ShortDataset;
+
+/**
+ * Sparse matrix, in compressed sparse row format, of the fraction of each pixel
+ * that goes into each bin of an integration.
+ * <p>
+ * For a fixed geometry and mask, this matrix does not change so each frame can be
+ * integrated with a single sparse matrix-vector product over its data buffer.
+ */
+public class PixelBinMatrix {
+
+	private final int[] shape; // shape of binned output
+	private final int nPixels;
+	private final int[] rowStart; // start of each pixel's entries (has extra element for end)
+	private final int[] bins; // flattened bin indexes
+	private final double[] weights; // null when all weights are one
+	private final DoubleDataset histogram; // sum of weights in each bin
+	private final boolean[] mask; // copy of mask used to create matrix (can be null)
+	private volatile WeakReference<IDataset> lastMask; // last mask object found to match copy
+
+	private PixelBinMatrix(int[] shape, Builder b, boolean[] mask) {
+		this.shape = shape;
+		nPixels = b.pixel;
+		rowStart = b.rowStart;
+		bins = Arrays.copyOf(b.bins, b.size);
+		weights = b.unitWeights ? null : Arrays.copyOf(b.weights, b.size);
+		this.mask = mask;
+
+		histogram = DatasetFactory.zeros(DoubleDataset.class, shape);
+		final double[] h = histogram.getData();
+		for (int k = 0; k < bins.length; k++) {
+			h[bins[k]] += weights == null ? 1 : weights[k];
+		}
+	}
+
+	/**
+	 * @return shape of binned output
+	 */
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	/**
+	 * @return number of pixels in image
+	 */
+	public int getNumberOfPixels() {
+		return nPixels;
+	}
+
+	/**
+	 * @return number of non-zero elements in matrix
+	 */
+	public int getNumberOfEntries() {
+		return bins.length;
+	}
+
+	/**
+	 * @return sum of pixel fractions in each bin. This must not be modified
+	 */
+	public DoubleDataset getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * Masks are compared by reference first so a mask that is reused for every frame is
+	 * only compared element by element once. Therefore a mask must not be modified after
+	 * it has been used
+	 * @param m
+	 * @return true if matrix was created with same mask
+	 */
+	public boolean isForMask(IDataset m) {
+		if (m == null || mask == null) {
+			return m == null && mask == null;
+		}
+
+		WeakReference<IDataset> last = lastMask;
+		if (last != null && last.get() == m) {
+			return true;
+		}
+
+		Dataset d = DatasetUtils.convertToDataset(m);
+		if (d.getSize() != mask.length) {
+			return false;
+		}
+		for (int i = 0; i < mask.length; i++) {
+			if (d.getElementBooleanAbs(i) != mask[i]) {
+				return false;
+			}
+		}
+		lastMask = new WeakReference<IDataset>(m);
+		return true;
+	}
+
+	/**
+	 * Add binned values of image to output
+	 * @param data image
+	 * @param out flattened output
+	 */
+	public void multiply(Dataset data, final double[] out) {
+		multiply(data, 0, out, 0);
+	}
+
+	/**
+	 * Add binned values of image in buffer of data to output
+	 * @param data dataset that holds image
+	 * @param offset absolute index in data of image's first pixel
+	 * @param out flattened output
+	 * @param outOffset index in output of first bin
+	 */
+	public void multiply(Dataset data, final int offset, final double[] out, final int outOffset) {
+		checkSize(data, offset);
+
+		if (data instanceof DoubleDataset) {
+			final double[] b = ((DoubleDataset) data).getData();
+			for (int p = 0; p < nPixels; p++) {
+				addRow(p, b[offset + p], out, outOffset);
+			}
+		} else if (data instanceof FloatDataset) {
+			final float[] b = ((FloatDataset) data).getData();
+			for (int p = 0; p < nPixels; p++) {
+				addRow(p, b[offset + p], out, outOffset);
+			}
+		} else if (data instanceof IntegerDataset) {
+			final int[] b = ((IntegerDataset) data).getData();
+			for (int p = 0; p < nPixels; p++) {
+				addRow(p, b[offset + p], out, outOffset);
+			}
+		} else if (data instanceof ShortDataset) {
+			final short[] b = ((ShortDataset) data).getData();
+			for (int p = 0; p < nPixels; p++) {
+				addRow(p, b[offset + p], out, outOffset);
+			}
+		} else {
+			for (int p = 0; p < nPixels; p++) {
+				addRow(p, data.getElementDoubleAbs(offset + p), out, outOffset);
+			}
+		}
+	}
+
+	/**
+	 * Add squares of binned values to output, as used to propagate errors
+	 * @param errors image of errors
+	 * @param out flattened output
+	 */
+	public void multiplySquared(Dataset errors, final double[] out) {
+		multiplySquared(errors, 0, out, 0);
+	}
+
+	/**
+	 * Add squares of binned values to output, as used to propagate errors
+	 * @param errors dataset that holds image of errors
+	 * @param offset absolute index in errors of image's first pixel
+	 * @param out flattened output
+	 * @param outOffset index in output of first bin
+	 */
+	public void multiplySquared(Dataset errors, final int offset, final double[] out, final int outOffset) {
+		checkSize(errors, offset);
+
+		for (int p = 0; p < nPixels; p++) {
+			final double v = errors.getElementDoubleAbs(offset + p);
+			for (int k = rowStart[p], end = rowStart[p + 1]; k < end; k++) {
+				final double s = weights == null ? v : v * weights[k];
+				out[outOffset + bins[k]] += s * s;
+			}
+		}
+	}
+
+	private void checkSize(Dataset data, int offset) {
+		if (offset == 0 ? data.getSize() != nPixels : offset + nPixels > data.getSize()) {
+			throw new IllegalArgumentException("Dataset size does not match number of pixels in matrix");
+		}
+	}
+
+	private void addRow(final int p, final double v, final double[] out, final int outOffset) {
+		final int end = rowStart[p + 1];
+		if (weights == null) {
+			for (int k = rowStart[p]; k < end; k++) {
+				out[outOffset + bins[k]] += v;
+			}
+		} else {
+			for (int k = rowStart[p]; k < end; k++) {
+				out[outOffset + bins[k]] += v * weights[k];
+			}
+		}
+	}
+
+	/**
+	 * Holds the matrix of a cache, creating it when first needed or when the mask changes
+	 */
+	public static class Holder {
+		private volatile PixelBinMatrix matrix = null;
+
+		/**
+		 * @param cache
+		 * @param mask (can be null)
+		 * @return matrix for cache and mask (or null if cache does not define bins)
+		 */
+		public PixelBinMatrix get(IPixelIntegrationCache cache, IDataset mask) {
+			PixelBinMatrix m = matrix;
+			if (m == null || !m.isForMask(mask)) {
+				synchronized (this) {
+					m = matrix;
+					if (m == null || !m.isForMask(mask)) {
+						m = create(cache, mask);
+						matrix = m;
+					}
+				}
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * Accumulates rows of matrix, one pixel at a time
+	 */
+	private static class Builder {
+		private int[] rowStart;
+		private int[] bins;
+		private double[] weights;
+		private int size = 0;
+		private int pixel = 0;
+		private boolean unitWeights = true;
+
+		public Builder(int nPixels) {
+			rowStart = new int[nPixels + 1];
+			bins = new int[nPixels];
+			weights = new double[nPixels];
+		}
+
+		public void add(int bin, double weight) {
+			if (size == bins.length) {
+				int n = size + (size >> 1) + 16;
+				bins = Arrays.copyOf(bins, n);
+				weights = Arrays.copyOf(weights, n);
+			}
+			bins[size] = bin;
+			weights[size++] = weight;
+			if (weight != 1) {
+				unitWeights = false;
+			}
+		}
+
+		public void nextPixel() {
+			rowStart[++pixel] = size;
+		}
+	}
+
+	/**
+	 * Create matrix from bean's axis arrays and bin edges
+	 * @param bean
+	 * @param mask (can be null)
+	 * @return matrix or null if bean does not define bins
+	 */
+	public static PixelBinMatrix create(IPixelIntegrationCache bean, IDataset mask) {
+		Dataset m = mask == null ? null : DatasetUtils.convertToDataset(mask);
+		boolean[] copy = null;
+		if (m != null) {
+			copy = new boolean[m.getSize()];
+			for (int i = 0; i < copy.length; i++) {
+				copy[i] = m.getElementBooleanAbs(i);
+			}
+		}
+
+		if (bean.isTo1D()) {
+			Dataset[] a = bean.getXAxisArray();
+			if (a == null || bean.getXBinEdgeMax() <= bean.getXBinEdgeMin()) {
+				return null;
+			}
+			Builder b = new Builder(a[0].getSize());
+			if (bean.isPixelSplitting()) {
+				pixelSplitting1D(b, copy, bean);
+			} else {
+				nonPixelSplitting1D(b, copy, bean);
+			}
+			return new PixelBinMatrix(new int[] {bean.getNumberOfBinsXAxis()}, b, copy);
+		}
+
+		Builder b = new Builder(bean.getXAxisArray()[0].getSize());
+		if (bean.isPixelSplitting()) {
+			pixelSplitting2D(b, copy, bean);
+		} else {
+			nonPixelSplitting2D(b, copy, bean);
+		}
+		return new PixelBinMatrix(new int[] {bean.getNumberOfBinsYAxis(), bean.getNumberOfBinsXAxis()}, b, copy);
+	}
+
+	private static void nonPixelSplitting1D(Builder b, boolean[] m, IPixelIntegrationCache bean) {
+		final int nbins = bean.getNumberOfBinsXAxis();
+		final double lo = bean.getXBinEdgeMin();
+		final double hi = bean.getXBinEdgeMax();
+		final double span = (hi - lo)/nbins;
+
+		Dataset a = bean.getXAxisArray()[0];
+		double[] integrationRange = bean.getYAxisRange();
+		Dataset r = null;
+		if (bean.getYAxisArray() != null) {
+			r = bean.getYAxisArray()[0];
+		}
+
+		final int n = a.getSize();
+		for (int i = 0; i < n; i++, b.nextPixel()) {
+			if (m != null && !m[i]) continue;
+
+			if (integrationRange != null && r != null) {
+				final double ra = r.getElementDoubleAbs(i);
+				if (ra > integrationRange[1] || ra < integrationRange[0]) continue;
+			}
+
+			final double val = a.getElementDoubleAbs(i);
+			if (val < lo || val > hi) {
+				continue;
+			}
+
+			int p = (int) ((val-lo)/span);
+			if (p < nbins) {
+				b.add(p, 1);
+			}
+		}
+	}
+
+	private static void pixelSplitting1D(Builder b, boolean[] m, IPixelIntegrationCache bean) {
+		final int nbins = bean.getNumberOfBinsXAxis();
+		final double lo = bean.getXBinEdgeMin();
+		final double hi = bean.getXBinEdgeMax();
+		final double span = (hi - lo)/nbins;
+
+		Dataset[] a = bean.getXAxisArray();
+		double[] integrationRange = bean.getYAxisRange();
+		Dataset[] r = bean.getYAxisArray();
+
+		final int n = a[0].getSize();
+		for (int p = 0; p < n; p++, b.nextPixel()) {
+			if (m != null && !m[p]) continue;
+
+			double rangeScale = 1;
+
+			if (integrationRange != null && r != null) {
+				double rMin = r[0].getElementDoubleAbs(p);
+				double rMax = r[1].getElementDoubleAbs(p);
+
+				if (rMin > integrationRange[1]) continue;
+				if (rMax < integrationRange[0]) continue;
+
+				double fullRange = rMax-rMin;
+
+				rMin = integrationRange[0] > rMin ? integrationRange[0] : rMin;
+				rMax = integrationRange[1] < rMax ? integrationRange[1] : rMax;
+
+				double reducedRange = rMax-rMin;
+
+				rangeScale = reducedRange/fullRange;
+			}
+
+			double qMin = a[0].getElementDoubleAbs(p);
+			double qMax = a[1].getElementDoubleAbs(p);
+
+			if (qMax < lo || qMin > hi) {
+				continue;
+			}
+
+			double minBinExact = (qMin-lo)/span;
+			double maxBinExact = (qMax-lo)/span;
+
+			int minBin = (int)minBinExact;
+			int maxBin = (int)maxBinExact;
+
+			if (minBin == maxBin) {
+				if (minBin >= 0 && minBin < nbins) {
+					b.add(minBin, rangeScale);
+				}
+			} else {
+				double range = maxBinExact-minBinExact;
+
+				double minFrac = 1-(minBinExact-minBin);
+				double maxFrac = maxBinExact-maxBin;
+
+				for (int i = minBin; i <= maxBin; i++) {
+					double modify = rangeScale;
+					if (i >= nbins || i < 0) continue;
+					if (i == minBin) modify *= minFrac;
+					if (i == maxBin) modify *= maxFrac;
+					modify /= range;
+					b.add(i, modify);
+				}
+			}
+		}
+	}
+
+	private static void nonPixelSplitting2D(Builder b, boolean[] m, IPixelIntegrationCache bean) {
+		final double loQ = bean.getXBinEdgeMin();
+		final double hiQ = bean.getXBinEdgeMax();
+		final double spanQ = (hiQ - loQ)/(bean.getNumberOfBinsXAxis());
+
+		final double loChi = bean.getYBinEdgeMin();
+		final double hiChi = bean.getYBinEdgeMax();
+		final double spanChi = (hiChi - loChi)/(bean.getNumberOfBinsYAxis());
+
+		final int nXBins = bean.getNumberOfBinsXAxis();
+		final int nYBins = bean.getNumberOfBinsYAxis();
+
+		Dataset x = bean.getXAxisArray()[0];
+		Dataset y = bean.getYAxisArray()[0];
+
+		final int n = x.getSize();
+		for (int p = 0; p < n; p++, b.nextPixel()) {
+			if (m != null && !m[p]) {
+				continue;
+			}
+
+			final double valq = x.getElementDoubleAbs(p);
+			final double chi = y.getElementDoubleAbs(p);
+
+			if (valq < loQ || valq > hiQ) {
+				continue;
+			}
+
+			if (chi < loChi || chi > hiChi) {
+				continue;
+			}
+
+			int qPos = (int) ((valq-loQ)/spanQ);
+			int chiPos = (int) ((chi-loChi)/spanChi);
+
+			if (qPos < nXBins && chiPos < nYBins) {
+				b.add(chiPos * nXBins + qPos, 1);
+			}
+		}
+	}
+
+	private static void pixelSplitting2D(Builder b, boolean[] m, IPixelIntegrationCache bean) {
+		final int nXBins = bean.getNumberOfBinsXAxis();
+		final int nYBins = bean.getNumberOfBinsYAxis();
+
+		final double minX = bean.getXBinEdgeMin();
+		final double maxX = bean.getXBinEdgeMax();
+		final double spanX = (maxX - minX)/nXBins;
+
+		final double minY = bean.getYBinEdgeMin();
+		final double maxY = bean.getYBinEdgeMax();
+		final double spanY = (maxY - minY)/nYBins;
+
+		Dataset x0 = bean.getXAxisArray()[0];
+		Dataset x1 = bean.getXAxisArray()[1];
+		Dataset y0 = bean.getYAxisArray()[0];
+		Dataset y1 = bean.getYAxisArray()[1];
+
+		final int n = x0.getSize();
+		for (int p = 0; p < n; p++, b.nextPixel()) {
+			if (m != null && !m[p]) continue;
+			double xPixMax = x1.getElementDoubleAbs(p);
+			double xPixMin = x0.getElementDoubleAbs(p);
+			double yPixMax = y1.getElementDoubleAbs(p);
+			double yPixMin = y0.getElementDoubleAbs(p);
+
+			if (xPixMax < minX || xPixMin > maxX) {
+				continue;
+			}
+
+			if (yPixMax < minY || yPixMin > maxY) {
+				continue;
+			}
+
+			double minBinExactX = (xPixMin-minX)/spanX;
+			double maxBinExactX = (xPixMax-minX)/spanX;
+
+			double minBinExactY = (yPixMin-minY)/spanY;
+			double maxBinExactY = (yPixMax-minY)/spanY;
+
+			double partialScale = 1;
+			double iFull = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
+
+			//Partial pixel if outside of range
+			minBinExactX = xPixMin < minX ? 0 : minBinExactX;
+			maxBinExactX = xPixMax > maxX ? nXBins : maxBinExactX;
+			minBinExactY = yPixMin < minY ? 0 : minBinExactY;
+			maxBinExactY = yPixMax > maxY ? nYBins : maxBinExactY;
+
+			double iFraction = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
+			partialScale *= (iFraction/iFull);
+
+			int minBinX = (int)minBinExactX;
+			int maxBinX= (int)maxBinExactX;
+			int minBinY = (int)minBinExactY;
+			int maxBinY = (int)maxBinExactY;
+
+			double binArea = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
+
+			double minFracX = 1-(minBinExactX-minBinX);
+			double maxFracX = maxBinExactX-maxBinX;
+			double minFracY = 1-(minBinExactY-minBinY);
+			double maxFracY = maxBinExactY-maxBinY;
+
+			for (int i = minBinX ; i <= maxBinX; i++) {
+				if (i < 0 || i >= nXBins) continue;
+				for (int j = minBinY; j <= maxBinY; j++) {
+					if (j < 0 || j >= nYBins) continue;
+
+					double modify = partialScale;
+
+					if (i == minBinX && minBinX != maxBinX) modify *= (minFracX);
+					if (i == maxBinX && minBinX != maxBinX) modify *= (maxFracX);
+					if (j == minBinY && minBinY != maxBinY) modify *= (minFracY);
+					if (j == maxBinY && minBinY != maxBinY) modify *= (maxFracY);
+
+					if (j == maxBinY && maxBinY == minBinY) modify*=(maxBinExactY-minBinExactY);
+					if (j == maxBinX && maxBinX == minBinX) modify*=(maxBinExactX-minBinExactX);
+
+					modify /= binArea;
+					b.add(j * nXBins + i, modify);
+				}
+			}
+		}
+	}
+}
@@ -10,7 +10,9 @@
 package uk.ac.diamond.scisoft.analysis.diffraction.powder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.eclipse.january.dataset.BooleanDataset;
 import org.eclipse.january.dataset.Dataset;
@@ -21,11 +23,17 @@ import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.IndexIterator;
 import org.eclipse.january.dataset.IntegerDataset;
 import org.eclipse.january.dataset.Outliers;
+import org.eclipse.january.dataset.Slice;
 
 public class PixelIntegration {
 
 	public static List<Dataset> integrate(IDataset data, IDataset mask, IPixelIntegrationCache bean) {
 		
+		if (!bean.provideLookup()) {
+			PixelBinMatrix matrix = bean.getPixelBinMatrix(mask);
+			if (matrix != null) return integrate(data, matrix, bean);
+		}
+		
 		if (bean.isTo1D()) {
 			if (bean.isPixelSplitting()) return pixelSplitting1D(data, mask, bean);
 			return nonPixelSplitting1D(data, mask, bean);
@@ -36,6 +44,166 @@ public class PixelIntegration {
 		
 	}
 	
+	/**
+	 * Integrate a stack of images in one pass, frames being integrated in parallel
+	 * into a single output dataset rather than a list of datasets per frame
+	 * @param frames stack of images with shape [n, height, width]
+	 * @param mask (can be null)
+	 * @param bean
+	 * @param output dataset to hold integrated frames with shape [n, bins] for 1D or
+	 * [n, y bins, x bins] for 2D. Can be null to create a new dataset
+	 * @return list containing axis, integrated frames (and y axis for 2D)
+	 */
+	public static List<Dataset> integrateStack(IDataset frames, IDataset mask, IPixelIntegrationCache bean, DoubleDataset output) {
+		
+		Dataset d = DatasetUtils.convertToDataset(frames);
+		if (d.getRank() != 3) {
+			throw new IllegalArgumentException("Stack of images must have rank of 3");
+		}
+		if (d.getStrides() != null) {
+			d = d.getSlice(); // need contiguous buffer
+		}
+		
+		final int n = d.getShape()[0];
+		
+		PixelBinMatrix matrix = bean.provideLookup() ? null : bean.getPixelBinMatrix(mask);
+		if (matrix == null) {
+			return integrateStackByFrame(d, mask, bean, output);
+		}
+		
+		output = prepareStackOutput(output, n, matrix.getShape());
+		final double[] out = output.getData();
+		final int nPixels = matrix.getNumberOfPixels();
+		final int nBins = matrix.getHistogram().getSize();
+		if (d.getSize() != n * nPixels) {
+			throw new IllegalArgumentException("Image size does not match number of pixels in matrix");
+		}
+		
+		final boolean is2d = !bean.isTo1D();
+		final Dataset e = is2d ? null : d.getErrors();
+		final double[] eb = e == null ? null : new double[out.length];
+		final double[] h = matrix.getHistogram().getData();
+		final Dataset fd = d;
+		
+		IntStream.range(0, n).parallel().forEach(i -> {
+			final int o = i * nBins;
+			matrix.multiply(fd, i * nPixels, out, o);
+			if (eb != null) {
+				matrix.multiplySquared(e, i * nPixels, eb, o);
+			}
+			for (int k = 0; k < nBins; k++) {
+				out[o + k] /= h[k];
+				if (eb != null) {
+					eb[o + k] /= h[k] * h[k];
+				}
+			}
+		});
+		
+		if (eb != null) {
+			output.setErrorBuffer(eb);
+		}
+		
+		if (bean.sanitise()) {
+			DatasetUtils.makeFinite(output);
+			if (eb != null) {
+				Dataset error = output.getErrors();
+				DatasetUtils.makeFinite(error);
+				output.setErrors(error);
+			}
+		}
+		
+		List<Dataset> result = new ArrayList<Dataset>();
+		result.add(bean.getXAxis());
+		result.add(output);
+		if (is2d) result.add(bean.getYAxis());
+		
+		return result;
+	}
+	
+	/**
+	 * Integrate stack frame by frame, for caches that do not supply a matrix
+	 */
+	private static List<Dataset> integrateStackByFrame(final Dataset d, final IDataset mask, final IPixelIntegrationCache bean, DoubleDataset output) {
+		
+		final int n = d.getShape()[0];
+		final List<Dataset> first = integrate(d.getSlice(new Slice(0, 1)).squeezeEnds(), mask, bean);
+		output = prepareStackOutput(output, n, first.get(1).getShape());
+		
+		final double[] out = output.getData();
+		final int nBins = first.get(1).getSize();
+		final boolean hasErrors = first.get(1).getErrors() != null;
+		final double[] eb = hasErrors ? new double[out.length] : null;
+		
+		IntStream.range(0, n).parallel().forEach(i -> {
+			Dataset r = i == 0 ? first.get(1) : integrate(d.getSlice(new Slice(i, i + 1)).squeezeEnds(), mask, bean).get(1);
+			Dataset re = hasErrors ? r.getErrors() : null;
+			final int o = i * nBins;
+			for (int k = 0; k < nBins; k++) {
+				out[o + k] = r.getElementDoubleAbs(k);
+				if (re != null) {
+					final double v = re.getElementDoubleAbs(k);
+					eb[o + k] = v * v;
+				}
+			}
+		});
+		
+		if (eb != null) {
+			output.setErrorBuffer(eb);
+		}
+		
+		List<Dataset> result = new ArrayList<Dataset>();
+		result.add(first.get(0));
+		result.add(output);
+		if (first.size() > 2) result.add(first.get(2));
+		
+		return result;
+	}
+	
+	private static DoubleDataset prepareStackOutput(DoubleDataset output, int n, int[] binShape) {
+		int[] shape = new int[binShape.length + 1];
+		shape[0] = n;
+		System.arraycopy(binShape, 0, shape, 1, binShape.length);
+		
+		if (output == null) {
+			return DatasetFactory.zeros(DoubleDataset.class, shape);
+		}
+		
+		if (!Arrays.equals(shape, output.getShape()) || output.getStrides() != null) {
+			throw new IllegalArgumentException("Output must be a contiguous dataset of shape " + Arrays.toString(shape));
+		}
+		output.fill(0);
+		output.setErrors(null);
+		return output;
+	}
+	
+	/**
+	 * Integrate using precomputed pixel to bin matrix
+	 */
+	private static List<Dataset> integrate(IDataset data, PixelBinMatrix matrix, IPixelIntegrationCache bean) {
+		
+		List<Dataset> result = new ArrayList<Dataset>();
+		
+		Dataset d = DatasetUtils.convertToDataset(data);
+		
+		DoubleDataset intensity = DatasetFactory.zeros(DoubleDataset.class, matrix.getShape());
+		matrix.multiply(d, intensity.getData());
+		
+		boolean is2d = !bean.isTo1D();
+		if (!is2d) {
+			Dataset e = d.getErrors();
+			if (e != null) {
+				double[] eb = new double[intensity.getSize()];
+				matrix.multiplySquared(e, eb);
+				intensity.setErrorBuffer(eb);
+			}
+			if (!bean.isPixelSplitting()) intensity.setName(data.getName() + "_integrated");
+		}
+		
+		processAndAddToResult(intensity, matrix.getHistogram(), result, bean, is2d);
+		
+		return result;
+	}
+	
 	private static List<Dataset> nonPixelSplitting1D(IDataset data, IDataset mask, IPixelIntegrationCache bean) {
 		
 		List<Dataset> result = new ArrayList<Dataset>();
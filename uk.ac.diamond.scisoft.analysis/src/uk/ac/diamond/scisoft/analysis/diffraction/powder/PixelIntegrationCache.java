@@ -19,6 +19,7 @@ import org.eclipse.dawnsci.analysis.api.metadata.UnitMetadata;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.IndexIterator;
 import org.eclipse.january.dataset.Maths;
 
@@ -44,6 +45,8 @@ public class PixelIntegrationCache implements IPixelIntegrationCache {
 	
 	private final boolean sanitise;
 	
+	private final PixelBinMatrix.Holder matrix = new PixelBinMatrix.Holder();
+	
 	QSpace qSpace = null;
 	
 	
@@ -373,6 +376,11 @@ public class PixelIntegrationCache implements IPixelIntegrationCache {
 	public boolean provideLookup() {
 		return false;
 	}
+
+	@Override
+	public PixelBinMatrix getPixelBinMatrix(IDataset mask) {
+		return matrix.get(this, mask);
+	}
 	
 	private void setUpPixelSplitting() {
 		
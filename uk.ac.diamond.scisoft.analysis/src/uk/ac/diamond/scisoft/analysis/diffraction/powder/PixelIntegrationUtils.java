@@ -266,9 +266,7 @@ public class PixelIntegrationUtils {
 		
 		Dataset[] output = new Dataset[]{radialArrayMin,radialArrayMax};
 		
-		putInCache(qSpace, xAxis, false, false, output);
-		
-		return output;
+		return putInCache(qSpace, xAxis, false, false, output);
 	}
 	
 	public static Dataset generateRadialArray(int[] shape, QSpace qSpace, XAxis xAxis) {
@@ -325,11 +323,11 @@ public class PixelIntegrationUtils {
 			ra.setItem(value, pos);
 		}
 		
-		putInCache(qSpace, xAxis, true, radians, new Dataset[]{ra});
+		Dataset[] stored = putInCache(qSpace, xAxis, true, radians, new Dataset[]{ra});
 		
-		System.out.println(System.currentTimeMillis()-t);
+		logger.debug("Radial array generated in {} ms", System.currentTimeMillis()-t);
 		
-		return ra;
+		return stored[0];
 	}
 	
 	private static Dataset[] getFromCache(QSpace q, XAxis axis, boolean centre, boolean radians) {
@@ -353,10 +351,11 @@ public class PixelIntegrationUtils {
 		return null;
 	}
 	
-	private static void putInCache(QSpace q, XAxis axis, boolean centre, boolean radians, Dataset[] object) {
+	private static Dataset[] putInCache(QSpace q, XAxis axis, boolean centre, boolean radians, Dataset[] object) {
 		DiffractionCoordinateCache cacheInstance = DiffractionCoordinateCache.getInstance();
 		DiffractionMetadata md = new DiffractionMetadata("", q.getDetectorProperties(), new DiffractionCrystalEnvironment(q.getWavelength()));
-		cacheInstance.put(md, axis, centre, radians, centre ? object[0] : object);
+		Object stored = cacheInstance.put(md, axis, centre, radians, centre ? object[0] : object);
+		return centre ? new Dataset[] {(Dataset) stored} : (Dataset[]) stored;
 	}
 	
 	public static int[] getShape(IDiffractionMetadata metadata) {
@@ -17,6 +17,7 @@ import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.Maths;
 
 import uk.ac.diamond.scisoft.analysis.diffraction.QSpace;
@@ -34,6 +35,8 @@ public class SurfacePixelIntegrationCache implements IPixelIntegrationCache {
 	private DoubleDataset binEdgesY = null;
 	private DoubleDataset binEdgesX = null;
 	
+	private final PixelBinMatrix.Holder matrix = new PixelBinMatrix.Holder();
+	
 	private double[] xRange;
 	private double[] yRange;
 	
@@ -158,6 +161,11 @@ public class SurfacePixelIntegrationCache implements IPixelIntegrationCache {
 	public boolean provideLookup() {
 		return false;
 	}
+
+	@Override
+	public PixelBinMatrix getPixelBinMatrix(IDataset mask) {
+		return matrix.get(this, mask);
+	}
 	
 	private static Dataset calculateAxis(DoubleDataset binEdges, String name){
 		
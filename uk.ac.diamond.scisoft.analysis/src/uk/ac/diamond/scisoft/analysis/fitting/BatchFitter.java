@@ -0,0 +1,321 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.fitting;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IFunction;
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
+import org.eclipse.january.IMonitor;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.diamond.scisoft.analysis.fitting.functions.CompositeFunction;
+import uk.ac.diamond.scisoft.analysis.optimize.ApacheOptimizer;
+import uk.ac.diamond.scisoft.analysis.optimize.ApacheOptimizer.Optimizer;
+
+/**
+ * Fit one model to many spectra in parallel.
+ * <p>
+ * Each row of a 2D dataset is fitted with a copy of a template function. Rows are split into
+ * contiguous blocks which are fitted in a fork-join pool. Each thread reuses its own copy of the function,
+ * optimizer and row buffer, and within a block each fit starts from the result of the previous row.
+ * Rows that fail to fit have NaN parameter values and uncertainties, and the next row starts from the template.
+ */
+public class BatchFitter {
+	private static final Logger logger = LoggerFactory.getLogger(BatchFitter.class);
+
+	private static final int ROWS_PER_TASK = 16;
+
+	private final CompositeFunction template;
+	private Optimizer optimizer = Optimizer.LEVENBERG_MARQUARDT;
+	private boolean warmStart = true;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private IMonitor monitor = null;
+
+	/**
+	 * @param template function whose parameter values, limits and fixed states are used to start each fit
+	 */
+	public BatchFitter(CompositeFunction template) {
+		this.template = template;
+	}
+
+	/**
+	 * @param optimizer least-squares optimizer to use (default is Levenberg-Marquardt)
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		this.optimizer = optimizer;
+	}
+
+	/**
+	 * @param warmStart if true, start each fit from result of the previous row (default is true)
+	 */
+	public void setWarmStart(boolean warmStart) {
+		this.warmStart = warmStart;
+	}
+
+	/**
+	 * @param pool fork-join pool to run fits in (default is common pool)
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @param monitor can be null
+	 */
+	public void setMonitor(IMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * @return number of parameters in output, i.e. unique parameters of template
+	 */
+	public int getNoOfParameters() {
+		return template.getNoOfParameters();
+	}
+
+	/**
+	 * Results of batch fit
+	 */
+	public static class Result {
+		private final DoubleDataset parameters;
+		private final DoubleDataset errors;
+
+		Result(DoubleDataset parameters, DoubleDataset errors) {
+			this.parameters = parameters;
+			this.errors = errors;
+		}
+
+		/**
+		 * @return N x P dataset of fitted parameter values (NaN for rows that failed)
+		 */
+		public DoubleDataset getParameters() {
+			return parameters;
+		}
+
+		/**
+		 * @return N x P dataset of parameter uncertainties (NaN for fixed parameters, rows that failed or
+		 * when uncertainties could not be found)
+		 */
+		public DoubleDataset getErrors() {
+			return errors;
+		}
+	}
+
+	/**
+	 * Fit each row of spectra
+	 * @param xAxis M values of coordinate
+	 * @param spectra N x M values to fit
+	 * @return result with N x P parameter values and uncertainties where P is {@link #getNoOfParameters()}
+	 * @throws Exception if template cannot be copied
+	 */
+	public Result fit(IDataset xAxis, IDataset spectra) throws Exception {
+		int[] shape = spectra.getShape();
+		if (shape.length != 2) {
+			throw new IllegalArgumentException("Spectra must be a 2D dataset");
+		}
+		if (xAxis.getSize() != shape[1]) {
+			throw new IllegalArgumentException("Size of x axis must match length of spectra");
+		}
+
+		Batch batch = new Batch(xAxis, spectra);
+		pool.invoke(new FitTask(batch, 0, shape[0]));
+		return new Result(batch.parameters, batch.errors);
+	}
+
+	/**
+	 * Copy template keeping any parameters shared between its functions shared in copy
+	 */
+	private CompositeFunction copyTemplate() throws Exception {
+		CompositeFunction copy = template.copy();
+		int np = template.getNoOfParameters();
+		IParameter[] tps = template.getParameters();
+		IParameter[] cps = new IParameter[np];
+		for (int i = 0, imax = template.getNoOfFunctions(); i < imax; i++) {
+			IFunction tf = template.getFunction(i);
+			if (tf == null) {
+				continue;
+			}
+			IFunction cf = copy.getFunction(i);
+			for (int j = 0, jmax = tf.getNoOfParameters(); j < jmax; j++) {
+				IParameter tp = tf.getParameter(j);
+				int k = 0;
+				while (tps[k] != tp) {
+					k++;
+				}
+				if (cps[k] == null) {
+					cps[k] = cf.getParameter(j);
+				} else if (cf.getParameter(j) != cps[k]) {
+					cf.setParameter(j, cps[k]);
+				}
+			}
+		}
+		copy.updateParameters();
+		return copy;
+	}
+
+	/**
+	 * Function, optimizer and row buffer used by one thread
+	 */
+	private class Workspace {
+		private final CompositeFunction function;
+		private final IParameter[] parameters;
+		private final int[] free; // indexes of unfixed parameters
+		private final ApacheOptimizer opt;
+		private final DoubleDataset row;
+
+		Workspace(int m) throws Exception {
+			function = copyTemplate();
+			parameters = function.getParameters();
+			int n = 0;
+			int[] f = new int[parameters.length];
+			for (int i = 0; i < parameters.length; i++) {
+				if (!parameters[i].isFixed()) {
+					f[n++] = i;
+				}
+			}
+			free = Arrays.copyOf(f, n);
+			opt = new ApacheOptimizer(optimizer);
+			row = DatasetFactory.zeros(DoubleDataset.class, m);
+		}
+
+		void reset() {
+			IParameter[] tps = template.getParameters();
+			for (int i = 0; i < parameters.length; i++) {
+				parameters[i].setValue(tps[i].getValue());
+			}
+			function.setDirty(true);
+		}
+	}
+
+	/**
+	 * Inputs, outputs and workspaces of one call to fit
+	 */
+	private class Batch {
+		private final IDataset[] coords;
+		private final double[] source;
+		private final int m;
+		private final int np;
+		private final DoubleDataset parameters;
+		private final DoubleDataset errors;
+		private final Map<Thread, Workspace> workspaces;
+
+		Batch(IDataset xAxis, IDataset spectra) {
+			coords = new IDataset[] {DatasetUtils.cast(DoubleDataset.class, xAxis)};
+			DoubleDataset s = DatasetUtils.cast(DoubleDataset.class, spectra);
+			if (s.getStrides() != null) {
+				s = (DoubleDataset) s.getSlice();
+			}
+			source = s.getData();
+			int n = spectra.getShape()[0];
+			m = spectra.getShape()[1];
+			np = template.getNoOfParameters();
+			parameters = DatasetFactory.zeros(DoubleDataset.class, n, np);
+			errors = DatasetFactory.zeros(DoubleDataset.class, n, np);
+			parameters.fill(Double.NaN);
+			errors.fill(Double.NaN);
+			workspaces = new ConcurrentHashMap<>();
+		}
+
+		private Workspace getWorkspace() throws Exception {
+			Thread t = Thread.currentThread();
+			Workspace w = workspaces.get(t);
+			if (w == null) {
+				w = new Workspace(m);
+				workspaces.put(t, w);
+			}
+			return w;
+		}
+
+		/**
+		 * Fit rows from start to stop (exclusive)
+		 */
+		void fitRows(int start, int stop) {
+			Workspace w;
+			try {
+				w = getWorkspace();
+			} catch (Exception e) {
+				throw new IllegalStateException("Could not copy template function", e);
+			}
+
+			boolean warm = false;
+			for (int r = start; r < stop; r++) {
+				if (monitor != null && monitor.isCancelled()) {
+					return;
+				}
+				warm = fitRow(w, r, warm && warmStart);
+			}
+		}
+
+		/**
+		 * @return true if fit succeeded
+		 */
+		private boolean fitRow(Workspace w, int r, boolean warm) {
+			System.arraycopy(source, r * m, w.row.getData(), 0, m);
+			if (!warm) {
+				w.reset();
+			}
+
+			try {
+				w.opt.optimize(coords, w.row, w.function);
+			} catch (Exception e) {
+				logger.debug("Could not fit row {}", r, e);
+				return false;
+			}
+
+			double[] p = parameters.getData();
+			int o = r * np;
+			for (int i = 0; i < np; i++) {
+				p[o + i] = w.parameters[i].getValue();
+			}
+			double[] err = w.opt.guessParametersErrors();
+			if (err != null && err.length == w.free.length) {
+				double[] e = errors.getData();
+				for (int i = 0; i < err.length; i++) {
+					e[o + w.free[i]] = err[i];
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class FitTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient Batch batch;
+		private final int start;
+		private final int stop;
+
+		FitTask(Batch batch, int start, int stop) {
+			this.batch = batch;
+			this.start = start;
+			this.stop = stop;
+		}
+
+		@Override
+		protected void compute() {
+			if (stop - start > ROWS_PER_TASK) {
+				int mid = (start + stop) >>> 1;
+				invokeAll(new FitTask(batch, start, mid), new FitTask(batch, mid, stop));
+			} else {
+				batch.fitRows(start, stop);
+			}
+		}
+	}
+}
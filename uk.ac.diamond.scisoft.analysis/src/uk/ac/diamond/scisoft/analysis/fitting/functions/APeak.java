@@ -11,6 +11,7 @@ package uk.ac.diamond.scisoft.analysis.fitting.functions;
 
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IPeak;
+import org.eclipse.january.dataset.DoubleDataset;
 
 
 /**
@@ -169,4 +170,64 @@ public abstract class APeak extends AFunction implements IPeak {
 	 * Implement this to set height and any other internally-used values
 	 */
 	abstract protected void calcCachedParameters();
+
+	/**
+	 * Override this to calculate the value and analytic partial derivatives at given position.
+	 * This is only used when no parameter is duplicated
+	 * @param x position
+	 * @param index index of parameter whose partial derivative is needed or -1 for all parameters
+	 * @param result array of length one more than number of parameters to be filled with partial
+	 * derivatives in order of parameters (only that of given index if not -1) followed by value
+	 * at position
+	 * @return false if peak does not have analytic partial derivatives
+	 */
+	protected boolean calculatePartialDerivatives(double x, int index, double[] result) {
+		return false;
+	}
+
+	private transient double[] derivatives;
+
+	private double[] getDerivativesBuffer() {
+		int n = getNoOfParameters() + 1;
+		if (derivatives == null || derivatives.length != n) {
+			derivatives = new double[n];
+		}
+		return derivatives;
+	}
+
+	@Override
+	public double partialDeriv(IParameter parameter, double... position) {
+		int i = indexOfParameter(parameter);
+		if (i < 0 || isDuplicated(parameter)) {
+			return super.partialDeriv(parameter, position);
+		}
+
+		double[] result = getDerivativesBuffer();
+		if (!calculatePartialDerivatives(position[0], i, result)) {
+			return super.partialDeriv(parameter, position);
+		}
+		return result[i];
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		int j = indexOfParameter(parameter);
+		if (j < 0 || isDuplicated(parameter)) {
+			super.fillWithPartialDerivativeValues(parameter, data, it);
+			return;
+		}
+
+		double[] result = getDerivativesBuffer();
+		it.reset();
+		double[] coords = it.getCoordinates();
+		int i = 0;
+		double[] buffer = data.getData();
+		while (it.hasNext()) {
+			if (!calculatePartialDerivatives(coords[0], j, result)) {
+				super.fillWithPartialDerivativeValues(parameter, data, it);
+				return;
+			}
+			buffer[i++] = result[j];
+		}
+	}
 }
@@ -9,7 +9,11 @@
 
 package uk.ac.diamond.scisoft.analysis.fitting.functions;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IFunction;
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IPeak;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
@@ -113,6 +117,160 @@ public class CompositeFunction extends Add {
 		return (IPeak) getFunction(i);
 	}
 
+	private transient APeak[] jacobianPeaks; // peaks with analytic derivatives, null for other functions
+	private transient int[][] jacobianColumns; // columns of each function's parameters, -1 if not in Jacobian
+	private transient double[][] jacobianDerivatives;
+	private transient DoubleDataset jacobianTemp;
+
+	/**
+	 * Fill values and Jacobian in one pass over the coordinates. Peaks with analytic partial derivatives
+	 * are evaluated together at each coordinate and any other functions are added afterwards
+	 * @param parameters parameters in order of columns of Jacobian
+	 * @param it coordinates iterator
+	 * @param values dataset to be filled with values
+	 * @param jacobian array to be filled with partial derivatives in column-major order so that the
+	 * derivative with respect to parameter i at coordinate j is at i * size + j, where size is that of values
+	 */
+	public void fillWithValuesAndJacobian(List<IParameter> parameters, CoordinatesIterator it, DoubleDataset values, double[] jacobian) {
+		final int size = values.getSize();
+		final double[] v = values.getData();
+		Arrays.fill(v, 0);
+		Arrays.fill(jacobian, 0, parameters.size() * size, 0);
+
+		final int nf = updateJacobianColumns(parameters);
+		boolean allPeaks = true;
+		boolean anyPeaks = false;
+		for (int k = 0; k < nf; k++) {
+			if (jacobianPeaks[k] == null) {
+				allPeaks = false;
+			} else {
+				anyPeaks = true;
+			}
+		}
+
+		if (anyPeaks) {
+			it.reset();
+			final double[] coords = it.getCoordinates();
+			int j = 0;
+			while (it.hasNext()) {
+				final double x = coords[0];
+				double y = 0;
+				for (int k = 0; k < nf; k++) {
+					final APeak peak = jacobianPeaks[k];
+					if (peak == null) {
+						continue;
+					}
+					final double[] d = jacobianDerivatives[k];
+					peak.calculatePartialDerivatives(x, -1, d);
+					y += d[d.length - 1];
+					final int[] c = jacobianColumns[k];
+					for (int q = 0; q < c.length; q++) {
+						if (c[q] >= 0) {
+							jacobian[c[q] * size + j] += d[q];
+						}
+					}
+				}
+				v[j++] = y;
+			}
+		}
+
+		if (allPeaks) {
+			return;
+		}
+
+		if (jacobianTemp == null || !Arrays.equals(jacobianTemp.getShapeRef(), it.getShape())) {
+			jacobianTemp = DatasetFactory.zeros(DoubleDataset.class, it.getShape());
+		}
+		final double[] t = jacobianTemp.getData();
+		for (int k = 0; k < nf; k++) {
+			IFunction f = getFunction(k);
+			if (f == null || jacobianPeaks[k] != null) {
+				continue;
+			}
+
+			if (f instanceof AFunction) {
+				((AFunction) f).fillWithValues(jacobianTemp, it);
+			} else {
+				jacobianTemp.setSlice(DatasetUtils.convertToDataset(f.calculateValues(it.getValues())));
+			}
+			for (int j = 0; j < size; j++) {
+				v[j] += t[j];
+			}
+
+			final int[] c = jacobianColumns[k];
+			for (int q = 0; q < c.length; q++) {
+				if (c[q] < 0) {
+					continue;
+				}
+				IParameter p = f.getParameter(q);
+				if (f instanceof AFunction) {
+					((AFunction) f).fillWithPartialDerivativeValues(p, jacobianTemp, it);
+				} else {
+					jacobianTemp.setSlice(DatasetUtils.convertToDataset(f.calculatePartialDerivativeValues(p, it.getValues())));
+				}
+				for (int j = 0, o = c[q] * size; j < size; j++) {
+					jacobian[o + j] += t[j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find columns of Jacobian for parameters of each function and which functions are peaks
+	 * whose partial derivatives can be evaluated together
+	 * @param parameters
+	 * @return number of functions
+	 */
+	private int updateJacobianColumns(List<IParameter> parameters) {
+		final int nf = getNoOfFunctions();
+		if (jacobianPeaks == null || jacobianPeaks.length != nf) {
+			jacobianPeaks = new APeak[nf];
+			jacobianColumns = new int[nf][];
+			jacobianDerivatives = new double[nf][];
+		}
+
+		final int np = parameters.size();
+		for (int k = 0; k < nf; k++) {
+			IFunction f = getFunction(k);
+			int m = f == null ? 0 : f.getNoOfParameters();
+			if (jacobianColumns[k] == null || jacobianColumns[k].length != m) {
+				jacobianColumns[k] = new int[m];
+			}
+			int[] c = jacobianColumns[k];
+			boolean duplicated = false;
+			for (int q = 0; q < m; q++) {
+				IParameter p = f.getParameter(q);
+				c[q] = -1;
+				for (int i = 0; i < np; i++) {
+					if (parameters.get(i) == p) {
+						c[q] = i;
+						break;
+					}
+				}
+				for (int r = 0; r < q; r++) {
+					if (f.getParameter(r) == p) { // only count duplicated parameter once
+						duplicated = true;
+						c[q] = -1;
+						break;
+					}
+				}
+			}
+
+			jacobianPeaks[k] = null;
+			if (!duplicated && f instanceof APeak) {
+				if (jacobianDerivatives[k] == null || jacobianDerivatives[k].length != m + 1) {
+					jacobianDerivatives[k] = new double[m + 1];
+				}
+				// check peak has analytic partial derivatives
+				APeak peak = (APeak) f;
+				if (peak.calculatePartialDerivatives(peak.getPosition(), -1, jacobianDerivatives[k])) {
+					jacobianPeaks[k] = peak;
+				}
+			}
+		}
+		return nf;
+	}
+
 	@Override
 	public CompositeFunction copy() throws Exception {
 		return (CompositeFunction)super.copy();
@@ -112,6 +112,30 @@ public class Gaussian extends APeak {
 		}
 	}
 	
+	@Override
+	protected boolean calculatePartialDerivatives(double x, int index, double[] result) {
+		if (isDirty()) {
+			calcCachedParameters();
+		}
+
+		final double arg = fr * (x - pos);
+		final double sqarg = arg * arg;
+		final double ex = Math.exp(-sqarg);
+		final double value = height * ex;
+		final boolean all = index < 0;
+		if (all || index == POSN) {
+			result[POSN] = 2 * value * arg * fr;
+		}
+		if (all || index == FWHM) {
+			result[FWHM] = fr * value * (2 * sqarg - 1) / CONST_A;
+		}
+		if (all || index == AREA) {
+			result[AREA] = CONST_B * fr * ex;
+		}
+		result[result.length - 1] = value;
+		return true;
+	}
+
 	@Override
 	public double partialDeriv(IParameter parameter, double... position) {
 		if (isDirty()) {
@@ -116,4 +116,24 @@ public class Lorentzian extends APeak {
 			buffer[i++] = height / ( dist * dist + 1);
 		}
 	}
+
+	@Override
+	protected boolean calculatePartialDerivatives(double x, int index, double[] result) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double dist = (x - pos) / halfw;
+		double sqdist = dist * dist;
+		double q = 1 / (sqdist + 1);
+		double value = height * q;
+		boolean all = index < 0;
+		if (all || index == POSN)
+			result[POSN] = 2 * value * dist * q / halfw;
+		if (all || index == FWHM)
+			result[FWHM] = 0.5 * value * (sqdist - 1) * q / halfw;
+		if (all || index == AREA)
+			result[AREA] = q / (Math.PI * halfw);
+		result[result.length - 1] = value;
+		return true;
+	}
 }
@@ -10,6 +10,7 @@
 package uk.ac.diamond.scisoft.analysis.fitting.functions;
 
 import org.apache.commons.math3.special.Beta;
+import org.apache.commons.math3.special.Gamma;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
 import org.eclipse.january.dataset.DoubleDataset;
 
@@ -116,15 +117,21 @@ public class PearsonVII extends APeak {
 		setNames(NAME, DESC, LOCAL_PARAM_NAMES);
 	}
 
-	private transient double pos, halfwp, power;
+	private transient double pos, halfwp, power, norm, dlnh, dlnbeta;
 
 	@Override
 	protected void calcCachedParameters() {
 		pos = getParameterValue(POSN);
 		power = getParameterValue(POWER);
-		halfwp = 0.5 * getParameterValue(FWHM) / Math.sqrt(Math.pow(2, 1. / power)  - 1);
+		double p2 = Math.pow(2, 1. / power);
+		halfwp = 0.5 * getParameterValue(FWHM) / Math.sqrt(p2  - 1);
 		double beta = Math.exp(Beta.logBeta(power - 0.5,  0.5));
-		height = getParameterValue(AREA) / (beta * halfwp);
+		norm = 1 / (beta * halfwp);
+		height = getParameterValue(AREA) * norm;
+
+		// derivatives of logarithms of half-width and beta function with respect to power
+		dlnh = 0.5 * Math.log(2) * p2 / (power * power * (p2 - 1));
+		dlnbeta = Gamma.digamma(power - 0.5) - Gamma.digamma(power);
 
 		setDirty(false);
 	}
@@ -154,4 +161,28 @@ public class PearsonVII extends APeak {
 			buffer[i++] = height / Math.pow((1.0 + arg * arg), power);
 		}
 	}
+
+	@Override
+	protected boolean calculatePartialDerivatives(double x, int index, double[] result) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double arg = (x - pos) / halfwp;
+		double sqarg = arg * arg;
+		double u = 1.0 + sqarg;
+		double p = Math.pow(u, -power);
+		double value = height * p;
+		double a = 2 * power * sqarg / u;
+		boolean all = index < 0;
+		if (all || index == POSN)
+			result[POSN] = 2 * power * value * arg / (u * halfwp);
+		if (all || index == FWHM)
+			result[FWHM] = value * (a - 1) / getParameterValue(FWHM);
+		if (all || index == AREA)
+			result[AREA] = norm * p;
+		if (all || index == POWER)
+			result[POWER] = value * (dlnh * (a - 1) - dlnbeta - Math.log1p(sqarg));
+		result[result.length - 1] = value;
+		return true;
+	}
 }
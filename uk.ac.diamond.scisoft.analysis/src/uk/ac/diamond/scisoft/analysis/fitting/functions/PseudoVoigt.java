@@ -156,7 +156,7 @@ public class PseudoVoigt extends APeak {
 	private static final double CONST_A = Math.sqrt(Math.log(2.));
 	private static final double CONST_B = Math.sqrt(Math.PI / Math.log(2.));
 
-	private transient double pos, halfwg, halfwl, mixing;
+	private transient double pos, halfwg, halfwl, mixing, norm;
 
 	@Override
 	protected void calcCachedParameters() {
@@ -165,8 +165,9 @@ public class PseudoVoigt extends APeak {
 		halfwg = getParameterValue(FWHMG) / 2.0;
 		mixing = getParameter(MIX).getValue();
 
-		height = getParameterValue(AREA) / (halfwl * Math.PI * mixing +
+		norm = 1 / (halfwl * Math.PI * mixing +
 				halfwg * CONST_B * (1 - mixing));
+		height = getParameterValue(AREA) * norm;
 
 		setDirty(false);
 	}
@@ -209,6 +210,38 @@ public class PseudoVoigt extends APeak {
 		}
 	}
 
+	@Override
+	protected boolean calculatePartialDerivatives(double x, int index, double[] result) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double delta = x - pos;
+		// Lorentzian part
+		double dist = delta / halfwl;
+		double l = 1 / (dist * dist + 1);
+		// Gaussian part
+		double arg = CONST_A * delta / halfwg;
+		double g = Math.exp(- arg * arg);
+		double ex = mixing * l + (1 - mixing) * g;
+		double value = height * ex;
+
+		double dl = 2 * dist * l * l; // derivative of Lorentzian part with respect to (delta / halfwl)
+		double dg = 2 * arg * g; // derivative of Gaussian part with respect to arg
+		boolean all = index < 0;
+		if (all || index == POSN)
+			result[POSN] = height * (mixing * dl / halfwl + (1 - mixing) * dg * CONST_A / halfwg);
+		if (all || index == FWHM)
+			result[FWHM] = 0.5 * mixing * (height * dl * dist / halfwl - value * Math.PI * norm);
+		if (all || index == AREA)
+			result[AREA] = norm * ex;
+		if (all || index == FWHMG)
+			result[FWHMG] = 0.5 * (1 - mixing) * (height * dg * arg / halfwg - value * CONST_B * norm);
+		if (all || index == MIX)
+			result[MIX] = height * (l - g) - value * norm * (halfwl * Math.PI - halfwg * CONST_B);
+		result[result.length - 1] = value;
+		return true;
+	}
+
 	@Override
 	public double getFWHM() {
 		if (isDirty())
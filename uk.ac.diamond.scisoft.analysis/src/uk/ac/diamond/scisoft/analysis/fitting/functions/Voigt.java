@@ -75,15 +75,21 @@ public class Voigt extends APeak {
 
 	private static final double CONST = Math.sqrt(8 * Math.log(2.));
 
-	private transient double r, ft, fr, zi;
+	private static final double TWO_OVER_ROOT_PI = 2 / Math.sqrt(Math.PI);
+
+	private transient double r, ft, fr, zi, ig;
 
 	@Override
 	protected void calcCachedParameters() {
 		r = getParameterValue(POSN);
 		double l = getParameterValue(FWHM) / 2.;
-		double sigma = getParameterValue(FWHMG) / CONST;
+		double g = getParameterValue(FWHMG);
+		double sigma = g / CONST;
 		if (sigma < 5 * Double.MIN_NORMAL) { // fix Lorentzian limit
 			sigma = 10 * Double.MIN_NORMAL;
+			ig = 0;
+		} else {
+			ig = 1 / g;
 		}
 		fr = Math.sqrt(0.5) / sigma;
 		zi = fr * l;
@@ -122,4 +128,35 @@ public class Voigt extends APeak {
 			buffer[i++] = ft * w.getReal();
 		}
 	}
+
+	@Override
+	protected boolean calculatePartialDerivatives(double x, int index, double[] result) {
+		if (isDirty()) {
+			calcCachedParameters();
+		}
+
+		double zr = fr * (x - r);
+		Complex w = Faddeeva.w(new Complex(zr, zi), 0);
+		double u = w.getReal();
+		double v = w.getImaginary();
+		// w'(z) = -2 z w(z) + 2i/sqrt(pi)
+		double dwr = -2 * (zr * u - zi * v);
+		double dwi = -2 * (zr * v + zi * u) + TWO_OVER_ROOT_PI;
+
+		boolean all = index < 0;
+		if (all || index == POSN) {
+			result[POSN] = -ft * fr * dwr;
+		}
+		if (all || index == FWHM) {
+			result[FWHM] = -0.5 * ft * fr * dwi;
+		}
+		if (all || index == AREA) {
+			result[AREA] = fr * u / Math.sqrt(Math.PI);
+		}
+		if (all || index == FWHMG) {
+			result[FWHMG] = -ft * ig * (u + zr * dwr - zi * dwi);
+		}
+		result[result.length - 1] = ft * u;
+		return true;
+	}
 }
@@ -0,0 +1,547 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.january.IMonitor;
+import org.eclipse.january.dataset.ByteDataset;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.IntegerDataset;
+import org.eclipse.january.dataset.LongDataset;
+import org.eclipse.january.dataset.ShortDataset;
+import org.eclipse.january.dataset.SliceND;
+import org.eclipse.january.io.ILazyLoader;
+
+/**
+ * Tokenizer for lines of columnar ASCII data that does not use regular expressions.
+ * <p>
+ * A line is split by recording the offsets of its tokens so no strings are created
+ * unless asked for. Tokens can be checked against {@link Utils#FLOATING_POINT_NUMBER}
+ * and parsed directly from the line. Values are accumulated in {@link Column}s that
+ * hold primitive arrays. A {@link ColumnLoader} lets a lazy dataset read only its column.
+ */
+class AsciiColumnParser {
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	private static final int MAX_EXACT_DIGITS = 15; // mantissa with this many digits is exact in a double
+	private static final int MAX_LONG_DIGITS = 18;
+
+	private final boolean comma;
+
+	private String line;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int count;
+
+	/**
+	 * @param comma if true, tokens are separated by commas with optional surrounding
+	 * whitespace otherwise they are separated by runs of whitespace
+	 */
+	public AsciiColumnParser(boolean comma) {
+		this.comma = comma;
+	}
+
+	/**
+	 * Split line into tokens in the same way as {@link String#split(String)} would with
+	 * "\\s+" or "\\s*,\\s*" after the line has been trimmed. Unlike that, trailing empty
+	 * tokens are kept
+	 * @param text
+	 * @return number of tokens
+	 */
+	public int split(String text) {
+		line = text;
+		count = 0;
+		int end = text.length();
+		while (end > 0 && isWhitespace(text.charAt(end - 1))) {
+			end--;
+		}
+		int i = 0;
+		while (i < end && isWhitespace(text.charAt(i))) {
+			i++;
+		}
+
+		if (comma) {
+			while (true) {
+				int c = text.indexOf(',', i);
+				if (c < 0 || c >= end) {
+					addToken(i, end);
+					break;
+				}
+				int e = c;
+				while (e > i && isWhitespace(text.charAt(e - 1))) {
+					e--;
+				}
+				addToken(i, e);
+				i = c + 1;
+				while (i < end && isWhitespace(text.charAt(i))) {
+					i++;
+				}
+			}
+		} else {
+			do {
+				int s = i;
+				while (i < end && !isWhitespace(text.charAt(i))) {
+					i++;
+				}
+				addToken(s, i);
+				while (i < end && isWhitespace(text.charAt(i))) {
+					i++;
+				}
+			} while (i < end);
+		}
+		return count;
+	}
+
+	private void addToken(int start, int end) {
+		if (count == starts.length) {
+			starts = Arrays.copyOf(starts, 2 * count);
+			ends = Arrays.copyOf(ends, 2 * count);
+		}
+		starts[count] = start;
+		ends[count++] = end;
+	}
+
+	/**
+	 * @param c
+	 * @return true if character is matched by \s in a regular expression
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @return number of tokens found by last split
+	 */
+	public int getTokenCount() {
+		return count;
+	}
+
+	/**
+	 * @param i
+	 * @return token as string
+	 */
+	public String getToken(int i) {
+		return line.substring(starts[i], ends[i]);
+	}
+
+	/**
+	 * @return true if all tokens are numbers and there are at least two of them
+	 */
+	public boolean isNumericRow() {
+		if (count < 2) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			if (!isNumber(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param i
+	 * @return true if token matches {@link Utils#FLOATING_POINT_NUMBER}
+	 */
+	public boolean isNumber(int i) {
+		final String l = line;
+		int p = starts[i];
+		final int end = ends[i];
+		if (p < end && (l.charAt(p) == '-' || l.charAt(p) == '+')) {
+			p++;
+		}
+		int digits = 0;
+		while (p < end && isDigit(l.charAt(p))) {
+			p++;
+			digits++;
+		}
+		if (p < end && l.charAt(p) == '.') {
+			p++;
+			while (p < end && isDigit(l.charAt(p))) {
+				p++;
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+		if (p < end && (l.charAt(p) == 'e' || l.charAt(p) == 'E')) {
+			p++;
+			if (p < end && (l.charAt(p) == '-' || l.charAt(p) == '+')) {
+				p++;
+			}
+			int s = p;
+			while (p < end && isDigit(l.charAt(p))) {
+				p++;
+			}
+			if (p == s) {
+				return false;
+			}
+		}
+		return p == end;
+	}
+
+	/**
+	 * @param i
+	 * @return true if token is an optionally signed integer
+	 */
+	public boolean isInteger(int i) {
+		final String l = line;
+		int p = starts[i];
+		final int end = ends[i];
+		if (p < end && (l.charAt(p) == '-' || l.charAt(p) == '+')) {
+			p++;
+		}
+		if (p == end) {
+			return false;
+		}
+		while (p < end) {
+			if (!isDigit(l.charAt(p++))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse token as a double with the same result as {@link Utils#parseDouble(String)}
+	 * @param i
+	 * @return value
+	 * @throws NumberFormatException
+	 */
+	public double parseDouble(int i) {
+		final String l = line;
+		int p = starts[i];
+		final int end = ends[i];
+
+		boolean negative = false;
+		if (p < end && (l.charAt(p) == '-' || l.charAt(p) == '+')) {
+			negative = l.charAt(p++) == '-';
+		}
+
+		long mantissa = 0;
+		int digits = 0; // significant digits in mantissa
+		int exponent = 0;
+		boolean any = false;
+		char c = 0;
+		while (p < end && isDigit(c = l.charAt(p))) {
+			any = true;
+			if (mantissa != 0 || c != '0') {
+				mantissa = mantissa * 10 + (c - '0');
+				if (++digits > MAX_EXACT_DIGITS) {
+					return Utils.parseDouble(getToken(i));
+				}
+			}
+			p++;
+		}
+		if (p < end && c == '.') {
+			p++;
+			while (p < end && isDigit(c = l.charAt(p))) {
+				any = true;
+				if (mantissa != 0 || c != '0') {
+					mantissa = mantissa * 10 + (c - '0');
+					if (++digits > MAX_EXACT_DIGITS) {
+						return Utils.parseDouble(getToken(i));
+					}
+				}
+				exponent--;
+				p++;
+			}
+		}
+		if (!any) {
+			return Utils.parseDouble(getToken(i)); // NaN, Infinity or not a number
+		}
+		if (p < end) {
+			if (c != 'e' && c != 'E') {
+				return Utils.parseDouble(getToken(i));
+			}
+			p++;
+			boolean negativeExponent = false;
+			if (p < end && (l.charAt(p) == '-' || l.charAt(p) == '+')) {
+				negativeExponent = l.charAt(p++) == '-';
+			}
+			int e = 0;
+			int s = p;
+			while (p < end && isDigit(c = l.charAt(p)) && e < 1000) {
+				e = e * 10 + (c - '0');
+				p++;
+			}
+			if (p != end || p == s) {
+				return Utils.parseDouble(getToken(i));
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		double v = mantissa;
+		if (mantissa != 0 && exponent != 0) {
+			if (exponent < 0 && exponent >= -22) {
+				v /= POWERS_OF_TEN[-exponent];
+			} else if (exponent > 0 && exponent <= 22) {
+				v *= POWERS_OF_TEN[exponent];
+			} else {
+				return Utils.parseDouble(getToken(i));
+			}
+		}
+		return negative ? -v : v;
+	}
+
+	/**
+	 * Parse integer token
+	 * @param i
+	 * @return value
+	 * @throws NumberFormatException if token is not an integer or does not fit in a long
+	 */
+	public long parseLong(int i) {
+		final String l = line;
+		int p = starts[i];
+		final int end = ends[i];
+		if (end - p > MAX_LONG_DIGITS) {
+			return Long.parseLong(getToken(i));
+		}
+		boolean negative = false;
+		if (p < end && (l.charAt(p) == '-' || l.charAt(p) == '+')) {
+			negative = l.charAt(p++) == '-';
+		}
+		if (p == end) {
+			throw new NumberFormatException("No digits in " + getToken(i));
+		}
+		long v = 0;
+		while (p < end) {
+			char c = l.charAt(p++);
+			if (!isDigit(c)) {
+				throw new NumberFormatException("Not an integer: " + getToken(i));
+			}
+			v = v * 10 + (c - '0');
+		}
+		return negative ? -v : v;
+	}
+
+	/**
+	 * @param text
+	 * @return true if text starts with an optionally signed number (i.e. it matches "^[-+]?[\\d]*\\.?\\d+.*")
+	 */
+	public static boolean startsWithNumber(String text) {
+		int n = text.length();
+		int p = 0;
+		if (p < n && (text.charAt(p) == '-' || text.charAt(p) == '+')) {
+			p++;
+		}
+		if (p < n && isDigit(text.charAt(p))) {
+			return true;
+		}
+		return p + 1 < n && text.charAt(p) == '.' && isDigit(text.charAt(p + 1));
+	}
+
+	/**
+	 * Growable column of values held in a primitive array
+	 * <p>
+	 * A typed column keeps integers in a long array until a non-integer is added, and
+	 * holds text when its first value is not a number. Its dataset has the narrowest
+	 * type that holds all values, as {@link Utils#parseValue(String)} gives for each.
+	 * An untyped column only holds doubles.
+	 */
+	static class Column {
+		private static final int INITIAL_CAPACITY = 256;
+
+		private final boolean typed;
+		private long[] longs;
+		private double[] doubles;
+		private List<String> strings;
+		private int size;
+		private long min = Long.MAX_VALUE;
+		private long max = Long.MIN_VALUE;
+
+		/**
+		 * @param typed if true, keep integer and text values
+		 */
+		public Column(boolean typed) {
+			this.typed = typed;
+			if (typed) {
+				longs = new long[INITIAL_CAPACITY];
+			} else {
+				doubles = new double[INITIAL_CAPACITY];
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return true if column holds text
+		 */
+		public boolean isText() {
+			return strings != null;
+		}
+
+		public void add(double v) {
+			if (doubles == null) {
+				toDoubles();
+			}
+			if (size == doubles.length) {
+				doubles = Arrays.copyOf(doubles, grow(size));
+			}
+			doubles[size++] = v;
+		}
+
+		private void add(long v) {
+			if (doubles != null) {
+				add((double) v);
+				return;
+			}
+			if (size == longs.length) {
+				longs = Arrays.copyOf(longs, grow(size));
+			}
+			longs[size++] = v;
+			if (v < min) {
+				min = v;
+			}
+			if (v > max) {
+				max = v;
+			}
+		}
+
+		private static int grow(int size) {
+			return size + (size >> 1) + 1;
+		}
+
+		private void toDoubles() {
+			doubles = new double[Math.max(INITIAL_CAPACITY, grow(size))];
+			for (int i = 0; i < size; i++) {
+				doubles[i] = longs[i];
+			}
+			longs = null;
+		}
+
+		/**
+		 * Parse token and add its value
+		 * @param parser
+		 * @param i token index
+		 */
+		public void add(AsciiColumnParser parser, int i) {
+			if (!typed) {
+				add(parser.parseDouble(i));
+				return;
+			}
+
+			if (strings != null) {
+				strings.add(parser.getToken(i));
+				return;
+			}
+
+			if (doubles == null && parser.isInteger(i)) {
+				try {
+					add(parser.parseLong(i));
+					return;
+				} catch (NumberFormatException e) {
+					// too large for a long so held as a double
+				}
+			}
+
+			try {
+				add(parser.parseDouble(i));
+			} catch (NumberFormatException e) {
+				if (size == 0) { // first value decides if column is text
+					strings = new ArrayList<String>();
+					strings.add(parser.getToken(i));
+					longs = null;
+					doubles = null;
+				} else {
+					add(Double.NaN);
+				}
+			}
+		}
+
+		/**
+		 * @return dataset of values
+		 */
+		public Dataset toDataset() {
+			if (strings != null) {
+				return DatasetFactory.createFromObject(strings);
+			}
+			if (doubles != null) {
+				return DatasetFactory.createFromObject(DoubleDataset.class, size == doubles.length ? doubles : Arrays.copyOf(doubles, size));
+			}
+
+			Dataset d = DatasetFactory.createFromObject(LongDataset.class, size == longs.length ? longs : Arrays.copyOf(longs, size));
+			if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE) {
+				return DatasetUtils.cast(ByteDataset.class, d);
+			} else if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+				return DatasetUtils.cast(ShortDataset.class, d);
+			} else if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) {
+				return DatasetUtils.cast(IntegerDataset.class, d);
+			}
+			return d;
+		}
+	}
+
+	/**
+	 * Lazy loader of a single column that keeps the column once it is read
+	 */
+	abstract static class ColumnLoader implements ILazyLoader {
+		private static final long serialVersionUID = -2876498725463518962L;
+
+		protected final String fileName;
+		protected final String name;
+		private transient Dataset column;
+
+		/**
+		 * @param fileName
+		 * @param name of column
+		 */
+		public ColumnLoader(String fileName, String name) {
+			this.fileName = fileName;
+			this.name = name;
+		}
+
+		/**
+		 * @param mon
+		 * @return column
+		 * @throws Exception
+		 */
+		protected abstract Dataset loadColumn(IMonitor mon) throws Exception;
+
+		@Override
+		public boolean isFileReadable() {
+			return new File(fileName).canRead();
+		}
+
+		@Override
+		public synchronized IDataset getDataset(IMonitor mon, SliceND slice) throws IOException {
+			if (column == null) {
+				try {
+					column = loadColumn(mon);
+				} catch (Exception e) {
+					throw new IOException("Could not load " + name + " from " + fileName, e);
+				}
+				if (column == null) {
+					throw new IOException("Could not find " + name + " in " + fileName);
+				}
+			}
+			return column.getSliceView(slice);
+		}
+	}
+}
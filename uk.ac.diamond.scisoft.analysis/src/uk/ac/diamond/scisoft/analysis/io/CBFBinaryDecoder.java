@@ -0,0 +1,340 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Decoder of binary section of CBF file that does not use cbflib. It supports
+ * byte offset compressed and uncompressed integer arrays, and uncompressed real arrays.
+ * <p>
+ * Pixels are decoded from a memory-mapped file straight into a primitive array with a
+ * linear mapping of pixel position to array index, so images can be flipped or transposed
+ * as they are read. The minimum, maximum and hash of the values are found in the same pass.
+ */
+class CBFBinaryDecoder {
+	private static final byte[] SECTION_MARKER = "--CIF-BINARY-FORMAT-SECTION--".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] DATA_MARKER = new byte[] {0x0c, 0x1a, 0x04, (byte) 0xd5};
+	private static final int MAX_HEADER = 1 << 16; // header is expected to be in first 64kB after section marker
+
+	private static final String BYTE_OFFSET = "x-cbf_byte_offset";
+	private static final String NONE = "x-cbf_none";
+
+	private final ByteBuffer buffer;
+	private final int dataStart;
+	private final boolean byteOffset;
+	private final int elements;
+	private final int fastest;
+	private final int second;
+	private final boolean real;
+	private final boolean signed;
+	private final int elementSize;
+
+	private Number min;
+	private Number max;
+	private int hash;
+
+	private CBFBinaryDecoder(ByteBuffer buffer, int dataStart, String header) {
+		this.buffer = buffer;
+		this.dataStart = dataStart;
+
+		String conversions = getQuotedValue(header, "conversions=");
+		byteOffset = BYTE_OFFSET.equals(conversions);
+		elements = getIntegerValue(header, "x-binary-number-of-elements:");
+		fastest = getIntegerValue(header, "x-binary-size-fastest-dimension:");
+		int s = getIntegerValue(header, "x-binary-size-second-dimension:");
+		second = s < 0 && fastest > 0 ? elements / fastest : s;
+
+		String type = getQuotedValue(header, "x-binary-element-type:");
+		real = type != null && type.contains("real");
+		signed = type == null || type.startsWith("signed");
+		elementSize = type == null ? 4 : type.contains("64-bit") ? 8 : type.contains("16-bit") ? 2 : type.contains("8-bit") ? 1 : 4;
+
+		String order = getValue(header, "x-binary-element-byte-order:");
+		if (byteOffset || order == null || order.startsWith("little")) {
+			buffer.order(ByteOrder.LITTLE_ENDIAN); // byte offset compression is always little endian
+		} else {
+			buffer.order(ByteOrder.BIG_ENDIAN);
+		}
+	}
+
+	/**
+	 * Open file and parse header of its first binary section
+	 * @param fileName
+	 * @return decoder or null if file has no binary section that can be decoded
+	 * @throws IOException
+	 */
+	public static CBFBinaryDecoder open(String fileName) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				return null;
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size); // mapping remains valid after close
+		}
+
+		int section = indexOf(buffer, SECTION_MARKER, 0, buffer.limit());
+		if (section < 0) {
+			return null;
+		}
+		int data = indexOf(buffer, DATA_MARKER, section, Math.min(buffer.limit(), section + MAX_HEADER));
+		if (data < 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[data - section];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(section + i);
+		}
+		String header = new String(bytes, StandardCharsets.US_ASCII).toLowerCase(Locale.ROOT);
+		String encoding = getValue(header, "content-transfer-encoding:");
+		if (encoding != null && !encoding.startsWith("binary")) {
+			return null;
+		}
+
+		String conversions = getQuotedValue(header, "conversions=");
+		if (!BYTE_OFFSET.equals(conversions) && !NONE.equals(conversions)) {
+			return null; // leave packed compression to cbflib
+		}
+
+		CBFBinaryDecoder decoder = new CBFBinaryDecoder(buffer, data + DATA_MARKER.length, header);
+		if (decoder.elements <= 0 || decoder.fastest <= 0 || (long) decoder.fastest * decoder.second != decoder.elements) {
+			return null;
+		}
+		if (decoder.byteOffset && decoder.real) {
+			return null;
+		}
+		if (!decoder.byteOffset && (long) decoder.elements * decoder.elementSize > buffer.limit() - decoder.dataStart) {
+			return null;
+		}
+		return decoder;
+	}
+
+	private static int indexOf(ByteBuffer buffer, byte[] pattern, int from, int to) {
+		final int last = to - pattern.length;
+		outer:
+		for (int i = from; i <= last; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (buffer.get(i + j) != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static String getValue(String header, String key) {
+		int i = header.indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		i += key.length();
+		int end = header.indexOf('\n', i);
+		return header.substring(i, end < 0 ? header.length() : end).trim();
+	}
+
+	private static String getQuotedValue(String header, String key) {
+		String v = getValue(header, key);
+		if (v == null) {
+			return null;
+		}
+		int start = v.indexOf('"');
+		int end = v.indexOf('"', start + 1);
+		return start < 0 || end < 0 ? v : v.substring(start + 1, end);
+	}
+
+	private static int getIntegerValue(String header, String key) {
+		String v = getValue(header, key);
+		if (v != null) {
+			try {
+				return Integer.parseInt(v);
+			} catch (NumberFormatException e) {
+				// fall through
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return shape of image as slowest then fastest dimension
+	 */
+	public int[] getShape() {
+		return new int[] {second, fastest};
+	}
+
+	public int getNumberOfElements() {
+		return elements;
+	}
+
+	public boolean isReal() {
+		return real;
+	}
+
+	public boolean isSigned() {
+		return signed;
+	}
+
+	/**
+	 * @return minimum of last decoded values
+	 */
+	public Number getMinimum() {
+		return min;
+	}
+
+	/**
+	 * @return maximum of last decoded values
+	 */
+	public Number getMaximum() {
+		return max;
+	}
+
+	/**
+	 * @return hash of last decoded values
+	 */
+	public int getHash() {
+		return hash;
+	}
+
+	/**
+	 * Decode integer pixels. The pixel at (x, y), where x is in fastest dimension,
+	 * is put at index start + x * dx + y * dy
+	 * @param out
+	 * @param start
+	 * @param dx
+	 * @param dy
+	 * @throws IOException if data is truncated
+	 */
+	public void decode(final int[] out, final int start, final int dx, final int dy) throws IOException {
+		if (real) {
+			throw new IllegalStateException("Binary data is not integer");
+		}
+
+		final ByteBuffer b = buffer;
+		final int limit = b.limit();
+		int p = dataStart;
+		int amin = Integer.MAX_VALUE;
+		int amax = Integer.MIN_VALUE;
+		int h = 0;
+		int v = 0;
+
+		try {
+			for (int y = 0; y < second; y++) {
+				int d = start + y * dy;
+				for (int x = 0; x < fastest; x++, d += dx) {
+					if (byteOffset) {
+						int delta = b.get(p++);
+						if (delta == Byte.MIN_VALUE) {
+							delta = b.getShort(p);
+							p += 2;
+							if (delta == Short.MIN_VALUE) {
+								delta = b.getInt(p);
+								p += 4;
+								if (delta == Integer.MIN_VALUE) {
+									delta = (int) b.getLong(p);
+									p += 8;
+								}
+							}
+						}
+						v += delta;
+					} else {
+						switch (elementSize) {
+						case 1:
+							v = signed ? b.get(p) : b.get(p) & 0xff;
+							break;
+						case 2:
+							v = signed ? b.getShort(p) : b.getShort(p) & 0xffff;
+							break;
+						case 8:
+							v = (int) b.getLong(p);
+							break;
+						default:
+							v = b.getInt(p);
+							break;
+						}
+						p += elementSize;
+					}
+
+					out[d] = v;
+					h = h * 19 + v;
+					if (v < amin) {
+						amin = v;
+					}
+					if (v > amax) {
+						amax = v;
+					}
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("CBF binary data is truncated at byte " + p + " of " + limit, e);
+		}
+
+		min = amin;
+		max = amax;
+		hash = h;
+	}
+
+	/**
+	 * Decode real pixels. The pixel at (x, y), where x is in fastest dimension,
+	 * is put at index start + x * dx + y * dy
+	 * @param out
+	 * @param start
+	 * @param dx
+	 * @param dy
+	 */
+	public void decode(final double[] out, final int start, final int dx, final int dy) {
+		if (!real) {
+			throw new IllegalStateException("Binary data is not real");
+		}
+
+		final ByteBuffer b = buffer;
+		int p = dataStart;
+		double amin = Double.MAX_VALUE;
+		double amax = -Double.MAX_VALUE;
+		double dhash = 0;
+		for (int y = 0; y < second; y++) {
+			int d = start + y * dy;
+			for (int x = 0; x < fastest; x++, d += dx) {
+				double v;
+				if (elementSize == 8) {
+					v = b.getDouble(p);
+				} else {
+					v = b.getFloat(p);
+				}
+				p += elementSize;
+
+				out[d] = v;
+				if (Double.isInfinite(v) || Double.isNaN(v)) {
+					dhash = (dhash * 19) % Integer.MAX_VALUE;
+				} else {
+					dhash = (dhash * 19 + v) % Integer.MAX_VALUE;
+				}
+				if (v > amax) {
+					amax = v;
+				}
+				if (v < amin) {
+					amin = v;
+				}
+			}
+		}
+
+		min = amin;
+		max = amax;
+		hash = (int) dhash;
+	}
+}
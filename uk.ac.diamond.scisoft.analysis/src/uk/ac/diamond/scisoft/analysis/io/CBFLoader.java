@@ -92,6 +92,14 @@ public class CBFLoader extends AbstractFileLoader {
 
 		logger.info("Loading {}", fileName);
 
+		if (!loadMetadata && !loadLazily) { // no need for cbflib when header is not wanted
+			Dataset d = readBinaryData(null);
+			if (d != null) {
+				output.addDataset(DEF_IMAGE_NAME, d);
+				return output;
+			}
+		}
+
 		cbf_handle_struct chs = new cbf_handle_struct(fileName);
 
 		Tree tree = readAllMetadata(chs);
@@ -109,7 +117,10 @@ public class CBFLoader extends AbstractFileLoader {
 		if (loadLazily) {
 			data = createLazyDataset(DEF_IMAGE_NAME, imageOrien.getDType(), imageOrien.getShape(), new CBFLoader(fileName));
 		} else {
-			data = readCBFBinaryData(chs, imageOrien);
+			data = readBinaryData(imageOrien);
+			if (data == null) {
+				data = readCBFBinaryData(chs, imageOrien);
+			}
 		}
 		chs.delete(); // this also closes the file
 
@@ -520,9 +531,11 @@ _diffrn_radiation_wavelength.wt 1.0
 		return imageOrien;
 	}
 
-	@SuppressWarnings("unchecked")
-	private Dataset readCBFBinaryData(cbf_handle_struct chs, ImageOrientation imageOrien) throws ScanFileHolderException {
-
+	/**
+	 * @param imageOrien
+	 * @return start position in buffer, position steps for rows and columns of dataset, and numbers of rows and columns
+	 */
+	private static int[] getSteps(ImageOrientation imageOrien) {
 		int[] shape = imageOrien.getShape();
 		int xLength = shape[1];
 		int yLength = shape[0];
@@ -530,16 +543,6 @@ _diffrn_radiation_wavelength.wt 1.0
 		boolean yIncreasing = imageOrien.isYIncreasing();
 		boolean isRowsX = imageOrien.isRowsX();
 
-		int numPixels = xLength * yLength;
-
-//		System.out.println("Loading " + fileName + ", " + numPixels);
-
-		// remember to explicitly delete arrays allocated on the JNI side
-		// as finalize method is up to garbage collector and is tardily done
-
-		// TODO add smaller data type support (with sign extension ala NeXus)
-		// deal with floating point data differently than integer data
-
 		int stride1; // stride is change in position on n-th dim
 		int stride2;
 		int start;  // start is offset in position
@@ -565,22 +568,101 @@ _diffrn_radiation_wavelength.wt 1.0
 			start += xLength - 1;
 		}
 
-		int rows;
-		int cols;
-		int rstep;
-		int cstep;
-
 		if (isRowsX) {
-			rows = yLength;
-			cols = xLength;
-			rstep = stride1;
-			cstep = stride2;
+			return new int[] {start, stride1, stride2, yLength, xLength};
+		}
+		return new int[] {start, stride2, stride1, xLength, yLength};
+	}
+
+	/**
+	 * Decode binary section directly from file into dataset without using cbflib
+	 * @param imageOrien can be null to use default orientation
+	 * @return dataset or null if binary section cannot be decoded this way
+	 */
+	@SuppressWarnings("unchecked")
+	private Dataset readBinaryData(ImageOrientation imageOrien) {
+		CBFBinaryDecoder decoder;
+		try {
+			decoder = CBFBinaryDecoder.open(fileName);
+		} catch (IOException e) {
+			logger.debug("Could not open {} for decoding", fileName, e);
+			return null;
+		}
+		if (decoder == null) {
+			return null;
+		}
+
+		int[] dims = decoder.getShape();
+		if (imageOrien == null) {
+			imageOrien = new ImageOrientation(dims[1], dims[0], decoder.isReal() ? 1 : 0, decoder.isSigned() ? 1 : 0);
+		} else if ((imageOrien.isReal != 0) != decoder.isReal()
+				|| ShapeUtils.calcLongSize(imageOrien.getShape()) != decoder.getNumberOfElements()) {
+			return null;
+		}
+
+		// map position in file, p = start + j * rstep + i * cstep, to index in dataset, j * cols + i
+		int xLength = imageOrien.getShape()[1];
+		if (dims[1] != xLength) {
+			return null;
+		}
+		int[] steps = getSteps(imageOrien);
+		int cols = steps[4];
+		int dx, dy;
+		if (imageOrien.isRowsX()) {
+			dx = Integer.signum(steps[2]);
+			dy = Integer.signum(steps[1]) * cols;
 		} else {
-			rows = xLength;
-			cols = yLength;
-			rstep = stride2;
-			cstep = stride1;
+			dx = Integer.signum(steps[1]) * cols;
+			dy = Integer.signum(steps[2]);
 		}
+		int start = -((steps[0] / xLength) * dy + (steps[0] % xLength) * dx);
+
+		Dataset data = DatasetFactory.zeros(imageOrien.getShape(), imageOrien.getDType());
+		try {
+			if (data instanceof DoubleDataset) {
+				decoder.decode(((DoubleDataset) data).getData(), start, dx, dy);
+			} else {
+				decoder.decode(((IntegerDataset) data).getData(), start, dx, dy);
+			}
+		} catch (IOException e) {
+			logger.warn("Could not decode {}", fileName, e);
+			return null;
+		}
+
+		try {
+			StatisticsMetadata<Number> stats = MetadataFactory.createMetadata(StatisticsMetadata.class, data);
+			stats.setMaximumMinimum(decoder.getMaximum(), decoder.getMinimum());
+			stats.setHash(decoder.getHash()*19 + data.getDType()*17 + data.getElementsPerItem());
+			data.addMetadata(stats);
+		} catch (MetadataException e) {
+			logger.error("Could not create max/min metadata", e);
+		}
+		return data;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Dataset readCBFBinaryData(cbf_handle_struct chs, ImageOrientation imageOrien) throws ScanFileHolderException {
+
+		int[] shape = imageOrien.getShape();
+		int xLength = shape[1];
+		int yLength = shape[0];
+
+		int numPixels = xLength * yLength;
+
+//		System.out.println("Loading " + fileName + ", " + numPixels);
+
+		// remember to explicitly delete arrays allocated on the JNI side
+		// as finalize method is up to garbage collector and is tardily done
+
+		// TODO add smaller data type support (with sign extension ala NeXus)
+		// deal with floating point data differently than integer data
+
+		int[] steps = getSteps(imageOrien);
+		int start = steps[0];
+		int rstep = steps[1];
+		int cstep = steps[2];
+		int rows = steps[3];
+		int cols = steps[4];
 
 		int index = 0; // index in destination
 		int position = 0; // position in buffer
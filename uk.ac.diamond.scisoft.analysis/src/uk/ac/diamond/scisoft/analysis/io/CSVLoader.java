@@ -57,6 +57,16 @@ public class CSVLoader extends DatLoader {
 		return "\\s*,\\s*";
 	}
 
+	@Override
+	protected boolean isCommaSeparated() {
+		return true;
+	}
+
+	@Override
+	protected DatLoader createColumnLoader() {
+		return new CSVLoader(fileName);
+	}
+
 	@Override
 	protected String parseHeaders(final BufferedReader in, final String name, IMonitor mon) throws Exception {
 
@@ -17,19 +17,18 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.regex.Pattern;
 
 import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
 import org.eclipse.january.IMonitor;
 import org.eclipse.january.dataset.Dataset;
-import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.ILazyDataset;
+import org.eclipse.january.dataset.LazyDataset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -86,6 +85,9 @@ import org.slf4j.LoggerFactory;
 
 It is also legal to have no header section at all and just columns of white space separated numbers.
 In this case the columns will be labelled Column_1...Column_N.
+
+Data lines are split and parsed without regular expressions or boxing. When loading lazily, or
+with {@link #loadSet(String, String, IMonitor)}, only the values of the requested column are parsed.
  */
 public class DatLoader extends AbstractFileLoader {
 	
@@ -139,11 +141,18 @@ public class DatLoader extends AbstractFileLoader {
 	 */
 	@Override
 	public DataHolder loadFile(final IMonitor mon) throws ScanFileHolderException {
-        final DataHolder result = loadFile(null, mon);
+        final DataHolder result = loadFile(null, null, mon);
 		return result;
 	}
 
-	private DataHolder loadFile(final String name, final IMonitor mon) throws ScanFileHolderException {
+	/**
+	 * @param name if not null, load only this column
+	 * @param selection if not null, load only these columns
+	 * @param mon
+	 * @return holder
+	 * @throws ScanFileHolderException
+	 */
+	private DataHolder loadFile(final String name, final Collection<String> selection, final IMonitor mon) throws ScanFileHolderException {
 		
 		// first instantiate the return object.
 		final DataHolder result = new DataHolder();
@@ -156,9 +165,21 @@ public class DatLoader extends AbstractFileLoader {
 			boolean readingFooter = false;
 			
 			String line	= parseHeaders(in, name, mon);
-			int columns = vals.size();
+			final String[] names = vals.keySet().toArray(new String[vals.size()]);
+			int columns = names.length;
 			if (columns == 0) throw new ScanFileHolderException("Cannot read header for data set names!");
 
+			final boolean single = columnIndex>-1 && name!=null;
+			final AsciiColumnParser parser = new AsciiColumnParser(isCommaSeparated());
+			final AsciiColumnParser.Column[] data = new AsciiColumnParser.Column[columns];
+			if (!loadLazily) {
+				for (int i = 0; i < columns; i++) {
+					if (selection == null || selection.contains(names[i])) {
+						data[i] = new AsciiColumnParser.Column(false);
+					}
+				}
+			}
+
 			// Read data
 			int count = 0;
 
@@ -167,8 +188,8 @@ public class DatLoader extends AbstractFileLoader {
 					throw new ScanFileHolderException("Loader cancelled during reading!");
 				}
 				
-				line = line.trim();
-				if (!readingFooter && DATA.matcher(line).matches()) {
+				parser.split(line);
+				if (!readingFooter && parser.isNumericRow()) {
 					
 					if (line.startsWith("#")) {
 						readingFooter = true;
@@ -176,17 +197,20 @@ public class DatLoader extends AbstractFileLoader {
 					}
 
 					if (!loadLazily) {
-						final String[] values = line.split(getDelimiter());
-						if (columnIndex>-1 && name!=null) {
-						    final String value = values[columnIndex];
-						    vals.get(name).add(Utils.parseDouble(value.trim()));
+						final int n = parser.getTokenCount();
+						if (single) {
+							if (columnIndex >= n) {
+								throw new ScanFileHolderException("Data has fewer columns than header!");
+							}
+							data[0].add(parser, columnIndex);
 						} else {
-							if (values.length != columns) {
+							if (n != columns) {
 								throw new ScanFileHolderException("Data and header must be the same size!");
 							}
-							final Iterator<String> it = vals.keySet().iterator();
-							for (String value : values) {
-								vals.get(it.next()).add(Utils.parseDouble(value.trim())); 
+							for (int i = 0; i < columns; i++) {
+								if (data[i] != null) {
+									data[i].add(parser, i);
+								}
 							}
 						}
 					}
@@ -209,19 +233,22 @@ public class DatLoader extends AbstractFileLoader {
 				}
 			}
 
-			for (final String n : vals.keySet()) {
-				ILazyDataset data;
+			for (int i = 0; i < columns; i++) {
+				final String n = names[i];
+				ILazyDataset d;
 				if (loadLazily) {
-					data = createLazyDataset(n, -1, new int[] { count }, new DatLoader(fileName));
+					d = new LazyDataset(n, Dataset.FLOAT64, new int[] { count }, new ColumnLoader(createColumnLoader(), n));
+				} else if (data[i] != null) {
+					d = data[i].toDataset();
+					d.setName(n);
 				} else {
-					data = DatasetFactory.createFromList(vals.get(n));
-					data.setName(n);
+					continue;
 				}
-				result.addDataset(n, data);
+				result.addDataset(n, d);
 			}
 
 			if (loadMetadata) {
-				createMetadata();
+				createMetadata(count);
 				result.setMetadata(metadata);
 			}
 			return result;
@@ -246,34 +273,66 @@ public class DatLoader extends AbstractFileLoader {
 		return "\\s+";
 	}
 
+	/**
+	 * May override to support different file formats.
+	 * @return true if values in data lines are separated by commas rather than white space
+	 */
+	protected boolean isCommaSeparated() {
+		return false;
+	}
+
+	/**
+	 * Override to create a loader of the same class to load single columns lazily
+	 * @return loader
+	 */
+	protected DatLoader createColumnLoader() {
+		return new DatLoader(fileName);
+	}
+
+	/**
+	 * Load a single column. Only the values in that column are parsed.
+	 * @param path
+	 * @param name
+	 * @param mon
+	 * @return dataset
+	 * @throws Exception
+	 */
 	public Dataset loadSet(final String path, final String name, final IMonitor mon) throws Exception {
 		
 		setFile(path);
-		/**
-		 * TODO Instead of **loading everything each time**, we should get the column
-		 * number from the name, and write the algorithm to extract 
-		 */
-		final DataHolder dh = loadFile(name, mon);
+		final DataHolder dh = loadFile(name, null, mon);
 		return dh.getDataset(name);
 	}
 
 	/**
-	 * There are no efficiency gains in using this method, it reads everything in and garbage
-	 * collects what is not needed.
+	 * Load given columns. Only the values in those columns are parsed.
 	 */
 	public Map<String,ILazyDataset> loadSets(String path, List<String> names, IMonitor mon) throws Exception {
 		
 		setFile(path);
-		/**
-		 * TODO Instead of **loading everything each time**, we should get the column
-		 * number from the name, and write the algorithm to extract 
-		 */
-		final DataHolder dh = loadFile(mon);
+		final DataHolder dh = loadFile(null, names, mon);
 		final Map<String,ILazyDataset> ret = dh.toLazyMap();
 		ret.keySet().retainAll(names);
 		return ret;
 	}	
 
+	private static class ColumnLoader extends AsciiColumnParser.ColumnLoader {
+		private static final long serialVersionUID = 6046164829409418371L;
+
+		private final DatLoader loader;
+
+		public ColumnLoader(DatLoader loader, String name) {
+			super(loader.fileName, name);
+			this.loader = loader;
+			loader.setLoadAllLazily(false);
+			loader.setLoadMetadata(false);
+		}
+
+		@Override
+		protected Dataset loadColumn(IMonitor mon) throws Exception {
+			return loader.loadSet(fileName, name, mon);
+		}
+	}
 
 	@Override
 	public void loadMetadata(final IMonitor mon) throws IOException {
@@ -301,19 +360,11 @@ public class DatLoader extends AbstractFileLoader {
 		createMetadata(count);
 	}
 	
-	private void createMetadata() {
-		createMetadata(-1);
-	}
-	
-	private void createMetadata(int approxSize) {
+	private void createMetadata(int size) {
 		metadata = new ExtendedMetadata(new File(fileName));
 		metadata.setMetadata(metadataMap);
-		for (Entry<String, List<Double>> e : vals.entrySet()) {
-			if (approxSize>-1 &&  e.getValue().size()<1) {
-			    metadata.addDataInfo(e.getKey(), approxSize);
-			} else {
-			    metadata.addDataInfo(e.getKey(), e.getValue().size());
-			}
+		for (String n : vals.keySet()) {
+		    metadata.addDataInfo(n, size);
 		}
 	}
 
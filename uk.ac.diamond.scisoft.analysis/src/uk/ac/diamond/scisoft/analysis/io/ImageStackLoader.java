@@ -11,8 +11,17 @@ package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
 import org.eclipse.dawnsci.analysis.api.io.IFileLoader;
@@ -38,6 +47,9 @@ import org.eclipse.january.metadata.IMetadata;
  * the shape of the first image.
  * 
  * The type of the dataset is set to equal the type of the first image.
+ * <p>
+ * Images in a slice are loaded concurrently and, when successive slices step through
+ * the stack, the images of the next slice are read ahead.
  */
 public class ImageStackLoader implements ILazyLoader {
 
@@ -48,9 +60,22 @@ public class ImageStackLoader implements ILazyLoader {
 	private int[] shape;
 	private int dtype;
 	private File parent = null;
-	private Class<? extends IFileLoader> loaderClass;
+	private volatile Class<? extends IFileLoader> loaderClass;
 	private boolean onlyOne;
 	private String datasetName;
+
+	private static final int DEFAULT_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "Image stack loader");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private int threads = DEFAULT_THREADS;
+	private int readAhead = DEFAULT_THREADS;
+	private transient Map<String, Future<IDataset>> prefetched;
+	private transient int[] lastPosition;
+	private transient int[] lastStep;
 	
 	public int getDType() {
 		return dtype;
@@ -204,30 +229,190 @@ public class ImageStackLoader implements ILazyLoader {
 			missing[i] = start + i;
 		}
 		SliceNDIterator it = new SliceNDIterator(slice, missing);
-		Dataset result = onlyOne || ShapeUtils.calcSize(it.getShape()) == 1 ? null : DatasetFactory.zeros(newShape, dtype);
-
+		final SliceND iSlice = it.getOmittedSlice();
 		int[] pos = it.getUsedPos();
-		SliceND iSlice = it.getOmittedSlice();
-		int[] iShape = iSlice.getShape();
 		SliceND dSlice = it.getOutputSlice();
+
+		if (onlyOne || ShapeUtils.calcSize(it.getShape()) == 1) {
+			it.hasNext();
+			Dataset result = DatasetUtils.convertToDataset(getImage(pos, iSlice, mon));
+			result.setShape(newShape);
+			readAhead(Collections.singletonList(pos.clone()), iSlice);
+			return result;
+		}
+
+		final List<int[]> positions = new ArrayList<>();
+		final List<SliceND> regions = new ArrayList<>();
 		while (it.hasNext()) {
-			IDataset image;
+			positions.add(pos.clone());
+			regions.add(dSlice.clone());
+		}
+
+		final Dataset result = DatasetFactory.zeros(newShape, dtype);
+		final int n = positions.size();
+		int tasks = Math.min(threads, n);
+		if (tasks <= 1) {
+			for (int i = 0; i < n; i++) {
+				result.setSlice(getImage(positions.get(i), iSlice, mon), regions.get(i));
+			}
+		} else { // decode files concurrently, each straight into its region of result
+			final int perTask = (n + tasks - 1) / tasks;
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int t = 0; t < tasks; t++) {
+				final int begin = t * perTask;
+				final int end = Math.min(n, begin + perTask);
+				futures.add(EXECUTOR.submit(() -> {
+					for (int i = begin; i < end; i++) {
+						if (mon != null && mon.isCancelled()) {
+							break;
+						}
+						IDataset image = getImage(positions.get(i), iSlice, mon);
+						synchronized (result) {
+							result.setSlice(image, regions.get(i));
+						}
+					}
+					return null;
+				}));
+			}
+			waitFor(futures);
+		}
+
+		readAhead(positions, iSlice);
+		return result;
+	}
+
+	private static void waitFor(List<? extends Future<?>> futures) throws IOException {
+		IOException error = null;
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				if (error == null) {
+					error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted whilst loading image stack", e);
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private static String getKey(int[] pos, SliceND iSlice) {
+		return Arrays.toString(pos) + Arrays.toString(iSlice.getStart()) + Arrays.toString(iSlice.getStop())
+				+ Arrays.toString(iSlice.getStep());
+	}
+
+	/**
+	 * Get image from file or from read ahead
+	 */
+	private IDataset getImage(int[] pos, SliceND iSlice, IMonitor mon) throws IOException {
+		Future<IDataset> f = null;
+		synchronized (this) {
+			if (prefetched != null) {
+				f = prefetched.remove(getKey(pos, iSlice));
+			}
+		}
+
+		IDataset image = null;
+		if (f != null) {
+			try {
+				image = f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException | CancellationException e) {
+				// try again below
+			}
+		}
+		if (image == null) {
 			try {
 				image = getDatasetFromFile(pos, mon).getSlice(iSlice);
 			} catch (Exception e) {
 				throw new IOException(e);
 			}
+		}
+		image.setShape(iSlice.getShape());
+		return image;
+	}
+
+	/**
+	 * Start loading images expected in next request. This is done when the last two requests
+	 * were for the same images offset by the same step, as when a pipeline iterates through
+	 * the stack
+	 * @param positions of images in current request
+	 * @param iSlice
+	 */
+	private synchronized void readAhead(List<int[]> positions, final SliceND iSlice) {
+		int[] first = positions.get(0);
+		int[] step = null;
+		if (lastPosition != null && lastPosition.length == first.length) {
+			step = new int[first.length];
+			for (int i = 0; i < first.length; i++) {
+				step[i] = first[i] - lastPosition[i];
+			}
+		}
+		boolean steady = step != null && Arrays.equals(step, lastStep) && !Arrays.equals(step, new int[step.length]);
+		lastPosition = first.clone();
+		lastStep = step;
+		if (!steady || readAhead <= 0) {
+			return;
+		}
 
-			image.setShape(iShape);
-			if (result == null) {
-				result = DatasetUtils.convertToDataset(image);
-				result.setShape(newShape);
+		if (prefetched == null) {
+			prefetched = new LinkedHashMap<String, Future<IDataset>>() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Future<IDataset>> eldest) {
+					if (size() > 2 * readAhead) {
+						eldest.getValue().cancel(false);
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		int fRank = first.length;
+		int[] fShapeNow = Arrays.copyOf(shape, fRank);
+		int count = 0;
+		for (int[] p : positions) { // extrapolate whole request by step
+			if (count >= readAhead) {
 				break;
 			}
-			result.setSlice(image, dSlice);
+			final int[] next = p.clone();
+			boolean inside = true;
+			for (int i = 0; i < fRank; i++) {
+				next[i] += step[i];
+				if (next[i] < 0 || next[i] >= fShapeNow[i]) {
+					inside = false;
+				}
+			}
+			String key = getKey(next, iSlice);
+			if (!inside || prefetched.containsKey(key)) {
+				continue;
+			}
+			prefetched.put(key, EXECUTOR.submit(() -> getDatasetFromFile(next, null).getSlice(iSlice)));
+			count++;
 		}
+	}
 
-		return result;
+	/**
+	 * @param threads maximum number of images to load concurrently
+	 */
+	public void setNumberOfThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param images maximum number of images to read ahead of requests that step through stack.
+	 * Set to zero to disable reading ahead
+	 */
+	public void setReadAhead(int images) {
+		readAhead = Math.max(0, images);
 	}
 
 	public int[] getShape() {
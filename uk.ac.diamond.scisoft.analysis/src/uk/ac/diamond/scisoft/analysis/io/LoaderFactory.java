@@ -43,7 +43,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.io.cache.CacheKey;
+import uk.ac.diamond.scisoft.analysis.io.cache.CacheStatistics;
 import uk.ac.diamond.scisoft.analysis.io.cache.DataCache;
+import uk.ac.diamond.scisoft.analysis.io.cache.LoadingLocks;
 import uk.ac.diamond.scisoft.analysis.utils.FileUtils;
 
 /**
@@ -91,6 +93,7 @@ public class LoaderFactory {
 	private static final Map<String, List<Class<? extends IFileLoader>>> LOADERS;
 	private static final Map<String, Class<? extends InputStream>>     UNZIPPERS;
 	private static final DataCache<IDataHolder> dataCache;
+	private static final LoadingLocks loadingLocks;
 	private static final Set<String> IGNORE_EXTS;
 
 	/**
@@ -112,6 +115,7 @@ public class LoaderFactory {
 		LOADERS   = new HashMap<String, List<Class<? extends IFileLoader>>>(19);
 		UNZIPPERS = new HashMap<String, Class<? extends InputStream>>(3);
 		dataCache = new DataCache<IDataHolder>();
+		loadingLocks = new LoadingLocks();
 		IGNORE_EXTS   = new HashSet<String>(3);
 		
 		try {
@@ -293,8 +297,8 @@ public class LoaderFactory {
 	 * all the loaders for a given extension if the extension is registered already. 
 	 * Otherwise it tries all loaders - in no particular order.
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
+	 *   Loading is locked per path because multiple threads load data simultaneously and without
+	 *   a lock you can get data loaded twice which is SLOW. Different files are loaded in parallel.
 	 * 
 	 * @param path to file
 	 * @param willLoadMetadata dictates whether metadata is not loaded (if possible)
@@ -323,8 +327,8 @@ public class LoaderFactory {
 	 * all the loaders for a given extension if the extension is registered already. 
 	 * Otherwise it tries all loaders - in no particular order.
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
+	 *   Loading is locked per path because multiple threads load data simultaneously and without
+	 *   a lock you can get data loaded twice which is SLOW. Different files are loaded in parallel.
 	 * 
 	 * @param path to file
 	 * @param willLoadMetadata dictates whether metadata is not loaded (if possible)
@@ -335,11 +339,11 @@ public class LoaderFactory {
 	 * @return DataHolder
 	 * @throws Exception
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized  IDataHolder getData(final String   path,
-																		  final boolean willLoadMetadata, 
-																		  final boolean loadImageStacks, 
-																		  final boolean lazily, 
-																		  final IMonitor mon) throws Exception {
+	public static IDataHolder getData(final String   path,
+									  final boolean  willLoadMetadata, 
+									  final boolean  loadImageStacks, 
+									  final boolean  lazily, 
+									  final IMonitor mon) throws Exception {
 
 		if (path.toLowerCase().startsWith("http")) {
 			throw new Exception("Data from URL not yet supported!");
@@ -362,11 +366,46 @@ public class LoaderFactory {
 		throw new Exception(path+" is not valid!");
 	}
 	
-	private static /*THIS IS REQUIRED:*/ synchronized  IDataHolder getFileData(final String   path,
-																				final boolean willLoadMetadata, 
-																				final boolean loadImageStacks, 
-																				final boolean lazily, 
-																				final IMonitor mon) throws Exception {
+	private static IDataHolder getFileData(final String   path,
+										   final boolean  willLoadMetadata, 
+										   final boolean  loadImageStacks, 
+										   final boolean  lazily, 
+										   final IMonitor mon) throws Exception {
+
+		final IDataHolder holder;
+		loadingLocks.lock(path);
+		try {
+			holder = getFileDataLocked(path, willLoadMetadata, lazily, mon);
+		} finally {
+			loadingLocks.unlock(path);
+		}
+
+		// For images, we can put another item in the data holder
+		// which represents the stack of other images in the same directory.
+		// NOTE This is done outside of the path lock as the stack loads the
+		// other images in the directory which may be locked by other threads.
+		try {
+			if (loadImageStacks && holder!=null) {
+				synchronized (holder) {
+					if (holder.size()==1 && holder.getLazyDataset(0).getRank()==2 && !isH5(path)) {
+						final Map<String,ILazyDataset> stack = getImageStack(path, holder, mon);
+						if (stack!=null) for (String name : stack.keySet()) holder.addDataset(name, stack.get(name));
+					}
+				}
+			}
+		} catch (Throwable ne) { // It is not a fatal error to fail to load an image stack.
+			logger.error("Cannot load image stack!", ne);
+		}
+		return holder;
+	}
+
+	/**
+	 * Must be called with the lock for the path held
+	 */
+	private static IDataHolder getFileDataLocked(final String   path,
+												 final boolean  willLoadMetadata, 
+												 final boolean  lazily, 
+												 final IMonitor mon) throws Exception {
 
 		// IMPORTANT: DO NOT USE loadImageStacks in Key. 
 		// Instead when loadImageStacks=true, we add the stack to the already
@@ -377,57 +416,42 @@ public class LoaderFactory {
 		final Object cachedObject = dataCache.getSoftReference(key);
 		IDataHolder holder = null;
 		if (cachedObject!=null && cachedObject instanceof IDataHolder) holder = (IDataHolder)cachedObject;
+		if (holder!=null) return holder;
 
-		if (holder==null) { // try and load it
-			final Iterator<Class<? extends IFileLoader>> it = getIterator(path);
-			if (it == null) return null;
-	
-			// Currently this method simply cycles through all loaders.
-			// When it finds one which does not give an exception on loading it
-			// returns the data from this loader.
-			while (it.hasNext()) {
-				final Class<? extends IFileLoader> clazz = it.next();
-				final IFileLoader loader = getLoader(clazz, path);
-				loader.setLoadMetadata(willLoadMetadata);
-				loader.setLoadAllLazily(lazily);
-				try {
-					// NOTE Assumes loader fails quickly and nicely
-					// if given the wrong file. If a loader does not
-					// do this it should not be registered with LoaderFactory
-					holder = loader.loadFile(mon);
-					holder.setLoaderClass(clazz);
-					holder.setFilePath(path);
-
-					if (!lazily) {
-						key.setMetadata(holder.getMetadata()!=null);
-						boolean cached = dataCache.recordSoftReference(key, holder);
-						if (!cached) System.err.println("Loader factory failed to cache "+path);
-					}
-					break;
-					
-				} catch (OutOfMemoryError ome) {
-					logger.error("There was not enough memory to load {}", path);
-					throw new ScanFileHolderException("Out of memory in loader factory", ome);
-				} catch (Throwable ne) {
-					logger.trace("Loader {} caused {}", loader, ne);
-					continue;
-				}
-			}
-		}
-		
-		// For images, we can put another item in the data holder
-		// which represents the stack of other images in the same directory.
-		try {
-			if (loadImageStacks && holder!=null) {
+		// try and load it
+		final Iterator<Class<? extends IFileLoader>> it = getIterator(path);
+		if (it == null) return null;
 
-				if (holder.size()==1 && holder.getLazyDataset(0).getRank()==2 && !isH5(path)) {
-					final Map<String,ILazyDataset> stack = getImageStack(path, holder, mon);
-					if (stack!=null) for (String name : stack.keySet()) holder.addDataset(name, stack.get(name));
+		// Currently this method simply cycles through all loaders.
+		// When it finds one which does not give an exception on loading it
+		// returns the data from this loader.
+		while (it.hasNext()) {
+			final Class<? extends IFileLoader> clazz = it.next();
+			final IFileLoader loader = getLoader(clazz, path);
+			loader.setLoadMetadata(willLoadMetadata);
+			loader.setLoadAllLazily(lazily);
+			try {
+				// NOTE Assumes loader fails quickly and nicely
+				// if given the wrong file. If a loader does not
+				// do this it should not be registered with LoaderFactory
+				holder = loader.loadFile(mon);
+				holder.setLoaderClass(clazz);
+				holder.setFilePath(path);
+
+				if (!lazily) {
+					key.setMetadata(holder.getMetadata()!=null);
+					boolean cached = dataCache.recordSoftReference(key, holder);
+					if (!cached) System.err.println("Loader factory failed to cache "+path);
 				}
+				break;
 
+			} catch (OutOfMemoryError ome) {
+				logger.error("There was not enough memory to load {}", path);
+				throw new ScanFileHolderException("Out of memory in loader factory", ome);
+			} catch (Throwable ne) {
+				logger.trace("Loader {} caused {}", loader, ne);
+				continue;
 			}
-		} catch (Throwable ne) { // It is not a fatal error to fail to load an image stack.
-			logger.error("Cannot load image stack!", ne);
 		}
 		return holder;
 	}
@@ -436,8 +460,8 @@ public class LoaderFactory {
 	/**
 	 * Call to load file into memory with specific loader class
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
+	 *   Loading is locked per path because multiple threads load data simultaneously and without
+	 *   a lock you can get data loaded twice which is SLOW. Different files are loaded in parallel.
      *
 	 * @param clazz loader class
 	 * @param path to file
@@ -446,13 +470,26 @@ public class LoaderFactory {
 	 * @return data holder (can be null)
 	 * @throws ScanFileHolderException
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized IDataHolder getData(Class<? extends IFileLoader> clazz, 
-						                         String path, 
-			                                     boolean willLoadMetadata, 
-			                                     IMonitor mon) throws Exception {
-		
+	public static IDataHolder getData(Class<? extends IFileLoader> clazz, 
+									  String path, 
+									  boolean willLoadMetadata, 
+									  IMonitor mon) throws Exception {
+
 		if (!(new File(path)).exists()) throw new FileNotFoundException(path);
 
+		loadingLocks.lock(path);
+		try {
+			return getDataLocked(clazz, path, willLoadMetadata, mon);
+		} finally {
+			loadingLocks.unlock(path);
+		}
+	}
+
+	private static IDataHolder getDataLocked(Class<? extends IFileLoader> clazz, 
+											 String path, 
+											 boolean willLoadMetadata, 
+											 IMonitor mon) throws Exception {
+
 		// IMPORTANT: DO NOT USE loadImageStacks in Key. 
 		// Instead when loadImageStacks=true, we add the stack to the already
 		// cached data. So reducing the cache size.
@@ -641,10 +678,20 @@ public class LoaderFactory {
 	 * @return IMetadata
 	 * @throws Exception
 	 */
-	public static synchronized IMetadata getMetadata(final String path, final IMonitor mon) throws Exception {
+	public static IMetadata getMetadata(final String path, final IMonitor mon) throws Exception {
 
-		
 		if (!(new File(path)).exists()) throw new FileNotFoundException(path);
+
+		loadingLocks.lock(path);
+		try {
+			return getMetadataLocked(path, mon);
+		} finally {
+			loadingLocks.unlock(path);
+		}
+	}
+
+	private static IMetadata getMetadataLocked(final String path, final IMonitor mon) throws Exception {
+
 		final CacheKey key = dataCache.createCacheKey(path, true);
 		
 		// Look for other data with the meta data
@@ -987,9 +1034,9 @@ public class LoaderFactory {
 	
 	
 	/**
-	 * This method may be called to ensure that the soft reference cache of data is
+	 * This method may be called to ensure that the cache of data is
 	 * empty. It is required from the unit tests which attempt to measure memory
-	 * leaks, which otherwise would measure the "leak" of the soft reference cache.
+	 * leaks, which otherwise would measure the "leak" of the cache.
 	 */
 	public static void clear() {
 		dataCache.clear();
@@ -999,4 +1046,27 @@ public class LoaderFactory {
 		dataCache.clear(filePath);
 	}
 
+	/**
+	 * Set the byte budget of the data cache. Least recently used data is evicted
+	 * when the budget is exceeded.
+	 * @param maxBytes
+	 */
+	public static void setCacheSize(long maxBytes) {
+		dataCache.setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * @return the byte budget of the data cache
+	 */
+	public static long getCacheSize() {
+		return dataCache.getMaxBytes();
+	}
+
+	/**
+	 * @return hits, misses, evictions and resident bytes of the data cache
+	 */
+	public static CacheStatistics getCacheStatistics() {
+		return dataCache.getStatistics();
+	}
+
 }
@@ -11,16 +11,20 @@ package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
@@ -137,6 +141,7 @@ public class MerlinLoader extends AbstractFileLoader {
 		int x;
 		int y;
 		int dtype;
+		int itemSize;
 		try {
 			f = new File(fileName);
 			char[] cbuf = new char[INITIAL_LENGTH];
@@ -223,7 +228,6 @@ public class MerlinLoader extends AbstractFileLoader {
 				if (x != Integer.parseInt(head[4]) || y != Integer.parseInt(head[5])) {
 					throw new ScanFileHolderException("Size of image has changed!");
 				}
-				int itemSize = 0;
 				switch (head[6]) { // TODO support other formats like U01, U64
 				case "U08":
 					itemSize = 1;
@@ -265,7 +269,7 @@ public class MerlinLoader extends AbstractFileLoader {
 			int[] frameShape = new int[] {y, x};
 			int[] shape = ArrayUtils.addAll(this.mapShape, frameShape);
 			lazy = createLazyDataset(DATA_NAME, dtype, shape,
-					new MerlinFrameLazyDataset(f, offsetList.toArray(new Long[0]), dtype, frameShape, this.droppedFrames, this.mapShape));
+					new MerlinFrameLazyDataset(f, ArrayUtils.toPrimitive(offsetList.toArray(new Long[0])), itemSize, frameShape, this.droppedFrames, this.mapShape));
 
 		} catch (Exception e) {
 			throw new ScanFileHolderException("File failed to load " + fileName, e);
@@ -346,96 +350,179 @@ public class MerlinLoader extends AbstractFileLoader {
 	}
 
 	class MerlinFrameLazyDataset extends LazyLoaderStub {
-		
+		static final long SEGMENT_SIZE = 1L << 30; // maximum size of each mapping of file
+		static final int MIN_FRAMES_PER_TASK = 32; // minimum number of frames for each thread to decode
+
 		private File file;
-		private Long[] frameOffsets;
-		private int dtype;
+		private long[] frameOffsets;
+		private int itemSize;
 		private int[] frameShape;
 		private int droppedFramesInt;
 		private int[] mapShapeInt;
-		
-		public MerlinFrameLazyDataset(File file, Long[] frameOffsets, int dtype, int[] frameShape, int droppedFrames, int[] mapShape) {
+		private long segmentSize;
+
+		/**
+		 * @param file
+		 * @param frameOffsets byte offsets in file of data of each frame
+		 * @param itemSize number of bytes per pixel
+		 * @param frameShape
+		 * @param droppedFrames
+		 * @param mapShape
+		 */
+		public MerlinFrameLazyDataset(File file, long[] frameOffsets, int itemSize, int[] frameShape, int droppedFrames, int[] mapShape) {
+			this(file, frameOffsets, itemSize, frameShape, droppedFrames, mapShape, SEGMENT_SIZE);
+		}
+
+		MerlinFrameLazyDataset(File file, long[] frameOffsets, int itemSize, int[] frameShape, int droppedFrames, int[] mapShape, long segmentSize) {
 			this.file = file;
 			this.frameOffsets = frameOffsets;
-			this.dtype = dtype;
+			this.itemSize = itemSize;
 			this.frameShape = frameShape;
 			this.droppedFramesInt = droppedFrames;
 			this.mapShapeInt = mapShape;
+			this.segmentSize = segmentSize;
 		}
-		
+
+		/**
+		 * Map segments of file that hold given frames. Segments overlap by a frame so every
+		 * frame lies within one segment. The mappings are not kept by this dataset so they
+		 * are released once the returned buffers are no longer referenced
+		 * @param frames
+		 * @return segments, which are null where they hold none of the frames
+		 * @throws IOException
+		 */
+		private ByteBuffer[] mapSegments(int[] frames) throws IOException {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				long size = channel.size();
+				long overlap = (long) frameShape[0] * frameShape[1] * itemSize;
+				ByteBuffer[] s = new ByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+				for (int f : frames) {
+					int i = (int) (frameOffsets[f] / segmentSize);
+					if (i >= s.length) {
+						throw new IOException("Merlin file " + file + " is truncated");
+					}
+					if (s[i] == null) {
+						long start = i * segmentSize;
+						s[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize + overlap, size - start));
+					}
+				}
+				return s; // mappings remain valid after channel is closed
+			}
+		}
+
 		@Override
 		public IDataset getDataset(IMonitor mon, SliceND slice) throws IOException {
-			Dataset loaded = null;
-			Dataset temp = null;
-			Class<? extends Dataset> clazz = null;
-			switch (dtype) {
-			case Dataset.INT16:
-				clazz = ShortDataset.class;
-				break;
-			case Dataset.INT32:
-			case Dataset.INT64:
-				clazz = IntegerDataset.class;
-				break;
-			}
-			
-			loaded = DatasetFactory.zeros(clazz, slice.getShape());
-			temp = DatasetFactory.zeros(clazz, frameShape);
-			
+			Class<? extends Dataset> clazz = itemSize == 1 ? ShortDataset.class : IntegerDataset.class;
+			final Dataset loaded = DatasetFactory.zeros(clazz, slice.getShape());
+
 			LongDataset lookup = DatasetFactory.createRange(LongDataset.class, (long) DatasetFactory.createFromObject(mapShapeInt).product(true));
 			lookup.iadd(droppedFramesInt);
 			lookup.setShape(mapShapeInt);
-			
-			Slice[] mapSlice = Arrays.copyOf(slice.convertToSlice(), slice.convertToSlice().length-2);
-			lookup = (LongDataset) lookup.getSliceView(mapSlice);				
-			
-			IndexIterator iter = lookup.getPositionIterator(null);
-			
-			int[] pos = iter.getPos();
-			while(iter.hasNext()){
-				FileInputStream fis = null;
-				try {
-					fis = new FileInputStream(file);
-					long position = frameOffsets[(int) lookup.get(pos)];
-					switch (dtype) {
-					case Dataset.INT16:
-						Utils.readByte(fis, (ShortDataset) temp, position);
-						break;
-					case Dataset.INT32:
-						Utils.readBeShort(fis, (IntegerDataset) temp, position, false);			
-						break;
-					case Dataset.INT64:
-						Utils.readBeInt(fis, (IntegerDataset) temp, position);
-						break;
-					}
-				} catch (Exception e) {
-					throw new IOException(e);				
-				} finally {
-					if (fis != null) {
-						fis.close();
+
+			int rank = slice.getShape().length;
+			Slice[] mapSlice = Arrays.copyOf(slice.convertToSlice(), rank - frameShape.length);
+			lookup = (LongDataset) lookup.getSliceView(mapSlice);
+
+			// frames in order of output
+			final int[] frames = new int[lookup.getSize()];
+			IndexIterator iter = lookup.getIterator();
+			for (int i = 0; iter.hasNext(); i++) {
+				frames[i] = (int) lookup.getAbs(iter.index);
+			}
+
+			final int[] fStart = Arrays.copyOfRange(slice.getStart(), rank - 2, rank);
+			final int[] fStep = Arrays.copyOfRange(slice.getStep(), rank - 2, rank);
+			final int[] fShape = Arrays.copyOfRange(slice.getShape(), rank - 2, rank);
+			final int frameSize = fShape[0] * fShape[1];
+			final ByteBuffer[] segs = mapSegments(frames);
+			final Object out = loaded.getBuffer();
+
+			// split into runs of frames, in output order, each decoded by one thread. Frames are
+			// separated by headers in the file so each frame is read with its own bulk get
+			int tasks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), frames.length / MIN_FRAMES_PER_TASK));
+			final int perTask = (frames.length + tasks - 1) / tasks;
+			try {
+				IntStream.range(0, tasks).parallel().forEach(t -> {
+					FrameDecoder decoder = new FrameDecoder();
+					for (int i = t * perTask, end = Math.min(frames.length, i + perTask); i < end; i++) {
+						long offset = frameOffsets[frames[i]];
+						ByteBuffer b = segs[(int) (offset / segmentSize)].duplicate().order(ByteOrder.BIG_ENDIAN);
+						decoder.decode(b, (int) (offset % segmentSize), out, i * frameSize, fStart, fStep, fShape);
 					}
-					fis = null;
-				}
+				});
+			} catch (IndexOutOfBoundsException e) {
+				throw new IOException("Merlin file " + file + " is truncated", e);
+			}
 
-				Slice[] readSlice = Arrays.copyOfRange(slice.convertToSlice(), frameShape.length, frameShape.length+2);
-				Dataset sliced = temp.getSlice(readSlice);
-				int[] sliceShape = slice.getShape();
-				Slice[] writeSlice = slice.convertToSlice();
-				
-				for(int i = 0; i < (sliceShape.length - frameShape.length); i++){
-					sliceShape[i] = 1;
-					writeSlice[i] = new Slice(pos[i], pos[i]+1);
+			return loaded;
+		}
+
+		/**
+		 * Decodes big-endian unsigned pixels of frames, keeping a buffer for bulk reads
+		 */
+		private class FrameDecoder {
+			private final byte[] bytes;
+			private final short[] shorts;
+
+			public FrameDecoder() {
+				int n = frameShape[0] * frameShape[1];
+				bytes = itemSize == 1 ? new byte[n] : null;
+				shorts = itemSize == 2 ? new short[n] : null;
+			}
+
+			public void decode(ByteBuffer b, int position, Object out, int outOffset, int[] fStart, int[] fStep, int[] fShape) {
+				final int width = frameShape[1];
+				if (fStep[0] == 1 && fStep[1] == 1 && fShape[1] == width) { // whole rows so contiguous
+					read(b, position + fStart[0] * width * itemSize, out, outOffset, fShape[0] * width);
+					return;
 				}
-				
-				for(int i = (writeSlice.length - frameShape.length); i < writeSlice.length; i++){
-					writeSlice[i] = new Slice();
+
+				for (int r = 0; r < fShape[0]; r++) {
+					int p = position + ((fStart[0] + r * fStep[0]) * width + fStart[1]) * itemSize;
+					int o = outOffset + r * fShape[1];
+					if (fStep[1] == 1) {
+						read(b, p, out, o, fShape[1]);
+					} else {
+						final int dp = fStep[1] * itemSize;
+						for (int c = 0; c < fShape[1]; c++, p += dp) {
+							switch (itemSize) {
+							case 1:
+								((short[]) out)[o + c] = (short) (b.get(p) & 0xff);
+								break;
+							case 2:
+								((int[]) out)[o + c] = b.getShort(p) & 0xffff;
+								break;
+							default:
+								((int[]) out)[o + c] = b.getInt(p);
+								break;
+							}
+						}
+					}
 				}
+			}
 
-				sliced.setShape(sliceShape);
-								
-				loaded.setSlice(sliced, writeSlice);
-				pos = iter.getPos();
+			private void read(ByteBuffer b, int position, Object out, int outOffset, int n) {
+				b.position(position);
+				switch (itemSize) {
+				case 1:
+					b.get(bytes, 0, n);
+					short[] sout = (short[]) out;
+					for (int i = 0; i < n; i++) {
+						sout[outOffset + i] = (short) (bytes[i] & 0xff);
+					}
+					break;
+				case 2:
+					b.asShortBuffer().get(shorts, 0, n);
+					int[] iout = (int[]) out;
+					for (int i = 0; i < n; i++) {
+						iout[outOffset + i] = shorts[i] & 0xffff;
+					}
+					break;
+				default:
+					b.asIntBuffer().get((int[]) out, outOffset, n);
+					break;
+				}
 			}
-			return loaded == null ? null : loaded;
 		}
 	}
 }
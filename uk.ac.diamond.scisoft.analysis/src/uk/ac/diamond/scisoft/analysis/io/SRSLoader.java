@@ -102,7 +102,6 @@ public class SRSLoader extends AbstractFileLoader implements IFileSaver {
 	}
 
 	private static final Pattern SPLIT_REGEX = Pattern.compile("\\s+");
-	private static final Pattern NUMBER_REGEX = Pattern.compile("^[-+]?[\\d]*\\.?\\d+.*");
 
 	private static final String QUOTE_CHAR = "\"";
 
@@ -126,42 +125,27 @@ public class SRSLoader extends AbstractFileLoader implements IFileSaver {
 		
 		try {
 			in = new LineNumberReader(new FileReader(fileName), BUFFER_SIZE);
-			String dataStr;
 			// an updated header reader grabs all the metadata
 			readMetadata(in, mon);
 
 			// read in the names of the different datasets which will be needed
 			List<String> vals = readColumnHeaders(in);
-			
-			List<?> [] columns = new List<?>[vals.size()];
-
-			// now add the data to the appropriate vectors
-			int count = 0;
-			while ((dataStr = in.readLine()) != null) {
-				if (!monitorIncrement(mon)) {
-					throw new ScanFileHolderException("Loader cancelled during reading!");
-				}
-				dataStr = dataStr.trim();
-				if (NUMBER_REGEX.matcher(dataStr).matches() || !checkForMoreMetadata) {
-					if (!loadLazily) {
-						parseColumns(SPLIT_REGEX.split(dataStr), columns);
-					}
-					count++;
-				} else {
-					// more metadata?
-					in.reset();
-					readMetadata(in, mon);
-					in.readLine(); // throw away line
-				}
-				in.mark(MARK_LIMIT);
-			}
 
 			if (loadLazily) {
+				int count = readData(in, null, -1, mon);
 				for (String n : vals) {
-					result.addDataset(n, createLazyDataset(n, -1, new int[] {count}, new SRSLoader(fileName)));
+					result.addDataset(n, new LazyDataset(n, -1, new int[] {count}, new ColumnLoader(fileName, n)));
 				}
 			} else {
-				convertToDatasets(result, vals, columns, isStoreStringValues(), isUseImageLoaderForStrings(), (new File(fileName)).getParent());
+				AsciiColumnParser.Column[] columns = new AsciiColumnParser.Column[vals.size()];
+				readData(in, columns, -1, mon);
+				Dataset[] datasets = new Dataset[columns.length];
+				for (int i = 0; i < columns.length; i++) {
+					if (columns[i] != null) {
+						datasets[i] = columns[i].toDataset();
+					}
+				}
+				convertToDatasets(result, vals, datasets, isStoreStringValues(), isUseImageLoaderForStrings(), (new File(fileName)).getParent());
 			}
 			if (result.size() == 0) throw new Exception("Cannot parse "+fileName+" into datasets!");
 
@@ -183,6 +167,80 @@ public class SRSLoader extends AbstractFileLoader implements IFileSaver {
 		return result;
 	}
 
+	/**
+	 * Read data lines into columns
+	 * @param in
+	 * @param columns if null, lines are only counted
+	 * @param index if non-negative, only read this column
+	 * @param mon
+	 * @return number of data lines
+	 * @throws Exception
+	 */
+	private int readData(LineNumberReader in, AsciiColumnParser.Column[] columns, int index, IMonitor mon) throws Exception {
+		final AsciiColumnParser parser = new AsciiColumnParser(false);
+		String dataStr;
+		int count = 0;
+		while ((dataStr = in.readLine()) != null) {
+			if (!monitorIncrement(mon)) {
+				throw new ScanFileHolderException("Loader cancelled during reading!");
+			}
+			dataStr = dataStr.trim();
+			if (AsciiColumnParser.startsWithNumber(dataStr) || !checkForMoreMetadata) {
+				if (columns != null) {
+					parseColumns(parser, dataStr, columns, index);
+				}
+				count++;
+			} else {
+				// more metadata?
+				in.reset();
+				readMetadata(in, mon);
+				in.readLine(); // throw away line
+			}
+			in.mark(MARK_LIMIT);
+		}
+		return count;
+	}
+
+	/**
+	 * Load a single column. Only the values in that column are parsed
+	 * @param name
+	 * @param mon
+	 * @return dataset or null if there is no column of that name
+	 * @throws Exception
+	 */
+	private Dataset loadColumn(String name, IMonitor mon) throws Exception {
+		try (LineNumberReader in = new LineNumberReader(new FileReader(fileName), BUFFER_SIZE)) {
+			readMetadata(in, mon);
+			List<String> vals = readColumnHeaders(in);
+			int index = vals.indexOf(name);
+			if (index < 0) {
+				return null;
+			}
+
+			AsciiColumnParser.Column[] columns = new AsciiColumnParser.Column[vals.size()];
+			readData(in, columns, index, mon);
+			if (columns[index] == null) {
+				return null;
+			}
+			Dataset d = columns[index].toDataset();
+			d.setName(name);
+			return d;
+		}
+	}
+
+	private static class ColumnLoader extends AsciiColumnParser.ColumnLoader {
+		private static final long serialVersionUID = -3316546098143447522L;
+
+		public ColumnLoader(String fileName, String name) {
+			super(fileName, name);
+		}
+
+		@Override
+		protected Dataset loadColumn(IMonitor mon) throws Exception {
+			return new SRSLoader(fileName).loadColumn(name, mon);
+		}
+	}
+
 	private List<String> readColumnHeaders(LineNumberReader in) throws IOException {
 		String headStr = in.readLine();
 		if (headStr == null)
@@ -261,6 +319,32 @@ public class SRSLoader extends AbstractFileLoader implements IFileSaver {
 
 	}
 
+	/**
+	 * Parse line into columns, creating columns as needed
+	 * @param parser
+	 * @param line
+	 * @param columns
+	 * @param index if non-negative, only parse this column
+	 */
+	private static void parseColumns(AsciiColumnParser parser, String line, AsciiColumnParser.Column[] columns, int index) {
+		int cols = Math.min(parser.split(line), columns.length);
+		int start = 0;
+		if (index >= 0) {
+			if (index >= cols) {
+				return;
+			}
+			start = index;
+			cols = index + 1;
+		}
+
+		for (int i = start; i < cols; i++) {
+			if (columns[i] == null) {
+				columns[i] = new AsciiColumnParser.Column(true);
+			}
+			columns[i].add(parser, i);
+		}
+	}
+
 	/**
 	 * Create all the datasets (1D)
 	 * @param holder
@@ -271,10 +355,29 @@ public class SRSLoader extends AbstractFileLoader implements IFileSaver {
 	 * @param fileDirectory
 	 */
 	protected final void convertToDatasets(DataHolder holder, List<String> names, List<?>[] columns, boolean storeStrings, boolean useImageLoader, String fileDirectory) {
+		Dataset[] datasets = new Dataset[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i] != null) {
+				datasets[i] = DatasetFactory.createFromObject(columns[i]);
+			}
+		}
+		convertToDatasets(holder, names, datasets, storeStrings, useImageLoader, fileDirectory);
+	}
+
+	/**
+	 * Add all the datasets (1D)
+	 * @param holder
+	 * @param names column headings
+	 * @param columns array of datasets
+	 * @param storeStrings
+	 * @param useImageLoader
+	 * @param fileDirectory
+	 */
+	protected final void convertToDatasets(DataHolder holder, List<String> names, Dataset[] columns, boolean storeStrings, boolean useImageLoader, String fileDirectory) {
 		for (int i = 0, imax = names.size(); i < imax; i++) {
 			if (columns[i] != null) {
 				String name = names.get(i);
-				final Dataset ds = DatasetFactory.createFromObject(columns[i]);
+				final Dataset ds = columns[i];
 				ds.setName(name);
 				if (ds.getDType() == Dataset.STRING) {
 					StringDataset sds = (StringDataset) ds;
@@ -340,7 +443,7 @@ public class SRSLoader extends AbstractFileLoader implements IFileSaver {
 				if (line.contains(EQUAL)) {
 					parseString(line);
 				} else {
-					if (NUMBER_REGEX.matcher(line).matches()) {
+					if (AsciiColumnParser.startsWithNumber(line)) {
 						int l = in.getLineNumber(); // backtrack to line before last line
 						if (l > 1) l -= 2;
 						else l = 0;
@@ -0,0 +1,88 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io.cache;
+
+/**
+ * Snapshot of the usage of a {@link DataCache}
+ */
+public class CacheStatistics {
+
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final int entries;
+	private final long residentBytes;
+	private final long maxBytes;
+
+	public CacheStatistics(long hits, long misses, long evictions, int entries, long residentBytes, long maxBytes) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.entries = entries;
+		this.residentBytes = residentBytes;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return number of lookups that found a value
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups that did not find a value
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of entries evicted to keep within byte budget
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return number of entries in cache
+	 */
+	public int getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return estimated number of bytes held by cache
+	 */
+	public long getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * @return byte budget of cache
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return fraction of lookups that found a value
+	 */
+	public double getHitRatio() {
+		long total = hits + misses;
+		return total == 0 ? 0 : ((double) hits) / total;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", entries=" + entries
+				+ ", bytes=" + residentBytes + "/" + maxBytes;
+	}
+}
@@ -12,49 +12,152 @@ package uk.ac.diamond.scisoft.analysis.io.cache;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.january.dataset.DTypeUtils;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.ILazyDataset;
 
 /**
  * Class to encapsulate data caching for LoaderFactory
+ * <p>
+ * The cache holds its values softly up to a byte budget and evicts the least
+ * recently used entries when the budget is exceeded, so the garbage collector can
+ * still reclaim them under memory pressure. The size of an {@link IDataHolder}
+ * is estimated from the datasets it holds in memory (lazy datasets count as nothing).
+ * Entries for a file are invalidated when the file's modification time changes.
  */
 public class DataCache<T> {
 
 
 	private static final String NO_CACHING = "uk.ac.diamond.scisoft.analysis.io.nocaching";
+	private static final String WEAK_CACHING = "uk.ac.diamond.scisoft.analysis.io.weakcaching";
+
+	/**
+	 * System property to set the byte budget of the cache. Default is a quarter of the maximum heap
+	 */
+	public static final String MAX_BYTES = "uk.ac.diamond.scisoft.analysis.io.cachebytes";
 
 	// used when we are caching items do not have an image number
 	private static final int NOT_A_SINGLE_IMAGE = -1;
 
+	// nominal cost of an entry to account for keys, metadata and lazy datasets
+	private static final long ENTRY_OVERHEAD = 1024;
+
+	private class Entry {
+		private final Reference<T> ref;
+		private final long bytes;
+
+		public Entry(T value, long bytes, boolean weak) {
+			this.ref = weak ? new WeakReference<T>(value) : new SoftReference<T>(value);
+			this.bytes = weak ? 0 : bytes;
+		}
+
+		public T get() {
+			return ref.get();
+		}
+	}
+
 	/**
-	 * A caching mechanism using soft references. Soft references attempt to keep things
-	 * in memory until the system is short on memory. Hashtable used because it is synchronized
-	 * which should reduce chances of getting the wrong data for the key.
+	 * A caching mechanism using a map in access order so the eldest entry is the
+	 * least recently used. All access is guarded by the map's monitor.
 	 */
-	private final Map<CacheKey, Reference<T>> cache;
-	
+	private final LinkedHashMap<CacheKey, Entry> cache;
+
+	/**
+	 * Keys in the cache for each file path
+	 */
+	private final Map<String, Set<CacheKey>> pathKeys;
+
+	private long maxBytes;
+	private long residentBytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
 	public DataCache() {
-		cache = new Hashtable<CacheKey, Reference<T>>(89);
+		this(Long.getLong(MAX_BYTES, Runtime.getRuntime().maxMemory() / 4));
 	}
 
 	/**
-	 * Used for synchronization.
+	 * @param maxBytes byte budget of cache
 	 */
-	private final static Object LOCK = new Object();
-	
+	public DataCache(long maxBytes) {
+		cache = new LinkedHashMap<CacheKey, Entry>(89, 0.75f, true);
+		pathKeys = new HashMap<String, Set<CacheKey>>(89);
+		this.maxBytes = maxBytes;
+	}
+
 	public void clear() {
-		cache.clear();
+		synchronized (cache) {
+			cache.clear();
+			pathKeys.clear();
+			residentBytes = 0;
+		}
 	}
+
 	public void clear(String filePath) {
-		for (Iterator<CacheKey> it = cache.keySet().iterator();it.hasNext();) {
-			CacheKey key = it.next();
-			if (filePath.equals(key.getFilePath())) it.remove();
+		synchronized (cache) {
+			Set<CacheKey> keys = pathKeys.get(filePath);
+			if (keys == null) return;
+			for (CacheKey k : new ArrayList<CacheKey>(keys)) {
+				remove(k);
+			}
+		}
+	}
+
+	/**
+	 * @return byte budget of cache
+	 */
+	public long getMaxBytes() {
+		synchronized (cache) {
+			return maxBytes;
+		}
+	}
+
+	/**
+	 * Set byte budget of cache, evicting least recently used entries if necessary
+	 * @param maxBytes
+	 */
+	public void setMaxBytes(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Byte budget must be non-negative");
+		}
+		synchronized (cache) {
+			this.maxBytes = maxBytes;
+			evict();
+		}
+	}
+
+	/**
+	 * @return snapshot of cache statistics
+	 */
+	public CacheStatistics getStatistics() {
+		synchronized (cache) {
+			return new CacheStatistics(hits, misses, evictions, cache.size(), residentBytes, maxBytes);
+		}
+	}
+
+	/**
+	 * Reset hit, miss and eviction counts
+	 */
+	public void resetStatistics() {
+		synchronized (cache) {
+			hits = 0;
+			misses = 0;
+			evictions = 0;
 		}
 	}
-	
+
 	public CacheKey createCacheKey(String path, boolean loadMeta) {
 		final CacheKey key = new CacheKey();
 		key.setFilePath(path);
@@ -66,68 +169,140 @@ public class DataCache<T> {
 	/**
 	 * May be null
 	 * @param key
-	 * @return the object referenced or null if it got garbaged or was not cached yet
+	 * @return the object referenced or null if it got evicted or was not cached yet
 	 */
 	public T getSoftReference(CacheKey key) {
 		T o = getReference(key);
-		if (o != null) {
-			return o;
-		}
-		if (key.hasMetadata()) { // wanted metadata but none there
-			return null;
+		if (o == null && !key.hasMetadata()) {
+			key.setMetadata(true); // try with unwanted metadata
+			o = getReference(key);
 		}
-		key.setMetadata(true); // try with unwanted metadata
-		return getReference(key);
+		count(o);
+		return o;
 	}
 
 	/**
 	 * May be null
 	 * @param key
-	 * @return the object referenced or null if it got garbaged or was not cached yet
+	 * @return the object referenced or null if it got evicted or was not cached yet
 	 */
 	public T getSoftReferenceWithMetadata(CacheKey key) {
 		T o = getReference(key);
-		if (o != null) return o;
-
-		CacheKey k = findKeyWithMetadata(key);
-		return k == null ? null : getReference(k);
+		if (o == null) {
+			CacheKey k = findKeyWithMetadata(key);
+			o = k == null ? null : getReference(k);
+		}
+		count(o);
+		return o;
 	}
 
+	private void count(T o) {
+		if (Boolean.getBoolean(NO_CACHING)) return;
+		synchronized (cache) {
+			if (o == null) {
+				misses++;
+			} else {
+				hits++;
+			}
+		}
+	}
 
 	/**
 	 * May be null
 	 * @param key
-	 * @return the object referenced or null if it got garbaged or was not cached yet
+	 * @return the object referenced or null if it got evicted or was not cached yet
 	 */
 	private T getReference(CacheKey key) {
 		if (Boolean.getBoolean(NO_CACHING)) return null;
-		synchronized (LOCK) {
-			try {
-		        final Reference<T> ref = cache.get(key);
-		        if (ref == null) return null;
-		        T got = ref.get();
-		        return got;
-			} catch (Throwable ne) {
-				return null;
+		synchronized (cache) {
+			invalidateModified(key);
+			final Entry e = cache.get(key);
+			if (e == null) return null;
+			T got = e.get();
+			if (got == null) { // reference has been cleared
+				remove(key);
 			}
+			return got;
 		}
 	}
 
 	private CacheKey findKeyWithMetadata(CacheKey key) {
 		if (Boolean.getBoolean(NO_CACHING)) return null;
-		synchronized (LOCK) {
-			for (CacheKey k : cache.keySet()) {
-				if (k.isSameFile(key) && k.hasMetadata()) {
-					return k;
+		synchronized (cache) {
+			Set<CacheKey> keys = pathKeys.get(key.getFilePath());
+			if (keys != null) {
+				for (CacheKey k : keys) {
+					if (k.isSameFile(key) && k.hasMetadata()) {
+						return k;
+					}
 				}
 			}
 			return null;
 		}
+	}
+
+	/**
+	 * Remove all entries whose file has a different modification time to that of given key
+	 */
+	private void invalidateModified(CacheKey key) {
+		Set<CacheKey> keys = pathKeys.get(key.getFilePath());
+		if (keys == null) return;
+		List<CacheKey> stale = null;
+		for (CacheKey k : keys) {
+			if (k.getTimeStamp() != key.getTimeStamp()) {
+				if (stale == null) stale = new ArrayList<CacheKey>();
+				stale.add(k);
+			}
+		}
+		if (stale != null) {
+			for (CacheKey k : stale) {
+				remove(k);
+			}
+		}
+	}
+
+	private void remove(CacheKey key) {
+		Entry e = cache.remove(key);
+		if (e != null) {
+			residentBytes -= e.bytes;
+		}
+		removePathKey(key);
+	}
+
+	private void removePathKey(CacheKey key) {
+		Set<CacheKey> keys = pathKeys.get(key.getFilePath());
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty()) pathKeys.remove(key.getFilePath());
+		}
+	}
 
+	/**
+	 * Remove entries whose values have been reclaimed by the garbage collector then
+	 * evict least recently used entries until within budget
+	 */
+	private void evict() {
+		for (Iterator<Map.Entry<CacheKey, Entry>> it = cache.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<CacheKey, Entry> e = it.next();
+			if (e.getValue().get() == null) {
+				CacheKey k = e.getKey();
+				it.remove();
+				residentBytes -= e.getValue().bytes;
+				removePathKey(k);
+			}
+		}
+		for (Iterator<Map.Entry<CacheKey, Entry>> it = cache.entrySet().iterator(); residentBytes > maxBytes && it.hasNext();) {
+			Map.Entry<CacheKey, Entry> e = it.next();
+			CacheKey k = e.getKey();
+			it.remove();
+			residentBytes -= e.getValue().bytes;
+			removePathKey(k);
+			evictions++;
+		}
 	}
 
 	/**
-	 * 
+	 *
 	 * @param key
 	 * @param value
 	 * @return true if value has been stored
@@ -135,12 +310,25 @@ public class DataCache<T> {
 	public boolean recordSoftReference(CacheKey key, T value) {
 
 		if (Boolean.getBoolean(NO_CACHING)) return false;
-		synchronized (LOCK) {
+		final boolean weak = Boolean.getBoolean(WEAK_CACHING);
+		final long bytes = weak ? 0 : sizeOf(value);
+		synchronized (cache) {
 			try {
-				Reference<T> ref = Boolean.getBoolean("uk.ac.diamond.scisoft.analysis.io.weakcaching")
-						         ? new WeakReference<T>(value)
-						         : new SoftReference<T>(value);
-				cache.put(key, ref);
+				if (bytes > maxBytes) {
+					remove(key);
+					return false;
+				}
+				invalidateModified(key);
+				remove(key);
+				cache.put(key, new Entry(value, bytes, weak));
+				residentBytes += bytes;
+				Set<CacheKey> keys = pathKeys.get(key.getFilePath());
+				if (keys == null) {
+					keys = new HashSet<CacheKey>();
+					pathKeys.put(key.getFilePath(), keys);
+				}
+				keys.add(key);
+				evict();
 				return true;
 			} catch (Throwable ne) {
 				return false;
@@ -148,6 +336,27 @@ public class DataCache<T> {
 		}
 	}
 
+	/**
+	 * Estimate number of bytes held by value. Override for values that are not data holders
+	 * @param value
+	 * @return number of bytes
+	 */
+	protected long sizeOf(T value) {
+		long bytes = ENTRY_OVERHEAD;
+		if (value instanceof IDataHolder) {
+			IDataHolder h = (IDataHolder) value;
+			for (int i = 0, imax = h.size(); i < imax; i++) {
+				ILazyDataset l = h.getLazyDataset(i);
+				if (l instanceof Dataset) {
+					bytes += ((Dataset) l).getNbytes();
+				} else if (l instanceof IDataset) {
+					bytes += (long) l.getSize() * DTypeUtils.getItemBytes(DTypeUtils.getDType(l), l.getElementsPerItem());
+				}
+			}
+		}
+		return bytes;
+	}
+
 	/**
 	 * Store data into cache
      *
@@ -159,7 +368,7 @@ public class DataCache<T> {
 
 	/**
 	 * Store data into cache
-	 * 
+	 *
      *
 	 * @param holder
 	 * @param imageNumber must be non-negative
@@ -173,7 +382,7 @@ public class DataCache<T> {
 
 	/**
 	 * Store data into cache
-	 * 
+	 *
      *
 	 * @param holder
 	 * @param imageNumber
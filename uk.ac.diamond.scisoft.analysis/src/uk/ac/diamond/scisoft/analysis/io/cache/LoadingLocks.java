@@ -0,0 +1,72 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-path locks for LoaderFactory so that loads of different files run in
+ * parallel whereas concurrent requests for the same file wait for the one
+ * in-flight load (and then find its result in the cache).
+ * <p>
+ * Locks are reentrant and are discarded when no thread holds or waits on them,
+ * so the map does not grow with the number of files ever loaded.
+ */
+public class LoadingLocks {
+
+	private static class PathLock extends ReentrantLock {
+		private static final long serialVersionUID = 1L;
+		private int users; // guarded by the map's compute methods
+	}
+
+	private final ConcurrentMap<String, PathLock> locks;
+
+	public LoadingLocks() {
+		locks = new ConcurrentHashMap<String, PathLock>(89);
+	}
+
+	/**
+	 * Block until the lock for the given path is held by the calling thread.
+	 * Every call must be paired with {@link #unlock(String)} in a finally block
+	 * @param path
+	 */
+	public void lock(String path) {
+		final PathLock lock = locks.compute(path, (p, l) -> {
+			if (l == null) {
+				l = new PathLock();
+			}
+			l.users++;
+			return l;
+		});
+		lock.lock();
+	}
+
+	/**
+	 * Release the lock for the given path
+	 * @param path
+	 */
+	public void unlock(String path) {
+		final PathLock lock = locks.get(path);
+		if (lock == null || !lock.isHeldByCurrentThread()) {
+			throw new IllegalMonitorStateException("Lock for " + path + " is not held by current thread");
+		}
+		lock.unlock();
+		locks.computeIfPresent(path, (p, l) -> --l.users == 0 ? null : l);
+	}
+
+	/**
+	 * @return number of paths currently locked or waited on
+	 */
+	public int size() {
+		return locks.size();
+	}
+}
@@ -45,23 +45,31 @@ public abstract class AbstractOptimizer implements IOptimizer {
 	 */
 	private void initializeParameters() {
 		params.clear();
-		n = function.getNoOfParameters();
-		for (int i = 0; i < n; i++) {
+		findFreeParameters(function, params);
+		n = params.size();
+	}
+
+	/**
+	 * Find unique and unfixed parameters of function
+	 * @param function
+	 * @param free list to add parameters to
+	 */
+	static void findFreeParameters(IFunction function, List<IParameter> free) {
+		for (int i = 0, imax = function.getNoOfParameters(); i < imax; i++) {
 			IParameter p = function.getParameter(i);
 			if (p.isFixed())
 				continue;
 
 			boolean found = false;
-			for (IParameter op : params) {
+			for (IParameter op : free) {
 				if (p == op) {
 					found = true;
 					break;
 				}
 			}
 			if (!found)
-				params.add(p);
+				free.add(p);
 		}
-		n = params.size();
 	}
 
 	/**
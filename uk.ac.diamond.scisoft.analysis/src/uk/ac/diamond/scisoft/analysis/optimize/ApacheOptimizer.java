@@ -20,6 +20,7 @@ import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optim
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresProblem;
 import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
 import org.apache.commons.math3.fitting.leastsquares.MultivariateJacobianFunction;
+import org.apache.commons.math3.linear.AbstractRealMatrix;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.MatrixUtils;
@@ -56,6 +57,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.fitting.functions.AFunction;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.CompositeFunction;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.CoordinatesIterator;
 
 public class ApacheOptimizer extends AbstractOptimizer implements ILeastSquaresOptimizer {
@@ -104,19 +106,88 @@ public class ApacheOptimizer extends AbstractOptimizer implements ILeastSquaresO
 		return f;
 	}
 
+	/**
+	 * Matrix that wraps an array of values stored in column-major order
+	 */
+	private static class ColumnMajorMatrix extends AbstractRealMatrix {
+		private final int rows;
+		private final int columns;
+		private final double[] values;
+
+		public ColumnMajorMatrix(int rows, int columns, double[] values) {
+			this.rows = rows;
+			this.columns = columns;
+			this.values = values;
+		}
+
+		@Override
+		public int getRowDimension() {
+			return rows;
+		}
+
+		@Override
+		public int getColumnDimension() {
+			return columns;
+		}
+
+		@Override
+		public RealMatrix createMatrix(int rowDimension, int columnDimension) {
+			return new Array2DRowRealMatrix(rowDimension, columnDimension);
+		}
+
+		@Override
+		public RealMatrix copy() {
+			return new ColumnMajorMatrix(rows, columns, values.clone());
+		}
+
+		@Override
+		public double getEntry(int row, int column) {
+			return values[column * rows + row];
+		}
+
+		@Override
+		public void setEntry(int row, int column, double value) {
+			values[column * rows + row] = value;
+		}
+
+		@Override
+		public double[][] getData() {
+			final double[][] data = new double[rows][columns];
+			for (int c = 0, k = 0; c < columns; c++) {
+				for (int r = 0; r < rows; r++) {
+					data[r][c] = values[k++];
+				}
+			}
+			return data;
+		}
+
+		@Override
+		public RealMatrix scalarMultiply(double d) {
+			final double[] scaled = new double[values.length];
+			for (int k = 0; k < scaled.length; k++) {
+				scaled[k] = d * values[k];
+			}
+			return new ColumnMajorMatrix(rows, columns, scaled);
+		}
+	}
+
 	public MultivariateJacobianFunction createJacobianFunction() {
 		final int size = coords[0].getSize();
 		final AFunction afn;
+		final CompositeFunction cfn;
 		final CoordinatesIterator it;
 		final DoubleDataset vd, pvd;
-		final double[][] dm = new double[size][n];
+		final double[] jd = new double[n * size]; // column-major
+		final RealMatrix jm = new ColumnMajorMatrix(size, n, jd);
 		if (function instanceof AFunction) {
 			afn = (AFunction) function;
+			cfn = function instanceof CompositeFunction ? (CompositeFunction) function : null;
 			it = CoordinatesIterator.createIterator(data == null ? null : data.getShapeRef(), coords);
 			vd = DatasetFactory.zeros(coords[0].getShapeRef());
 			pvd = vd.clone();
 		} else {
 			afn = null;
+			cfn = null;
 			it = null;
 			vd = null;
 			pvd = null;
@@ -137,17 +208,17 @@ public class ApacheOptimizer extends AbstractOptimizer implements ILeastSquaresO
 					setParameterValues(point.toArray());
 				}
 				final double[] dv ;
-				if (afn != null) {
+				if (cfn != null) {
+					dv = vd.getData();
+					cfn.fillWithValuesAndJacobian(params, it, vd, jd);
+				} else if (afn != null) {
 					dv = vd.getData();
-					AFunction afn = (AFunction) function;
 					afn.fillWithValues(vd, it);
 					double[] pd = pvd.getData();
 					for (int i = 0; i < n; i++) { // assuming number of parameters is less than number of coordinates
 						IParameter p = params.get(i);
 						afn.fillWithPartialDerivativeValues(p, pvd, it);
-						for (int j = 0; j < size; j++) {
-							dm[j][i] = pd[j];
-						}
+						System.arraycopy(pd, 0, jd, i * size, size);
 					}
 				} else {
 					dv = calculateValues().getData();
@@ -155,12 +226,10 @@ public class ApacheOptimizer extends AbstractOptimizer implements ILeastSquaresO
 						IParameter p = params.get(i);
 						DoubleDataset dp = (DoubleDataset) DatasetUtils.cast(function.calculatePartialDerivativeValues(p, coords), Dataset.FLOAT64);
 						double[] pd = dp.getData();
-						for (int j = 0; j < size; j++) {
-							dm[j][i] = pd[j];
-						}
+						System.arraycopy(pd, 0, jd, i * size, size);
 					}
 				}
-				return new Pair<RealVector, RealMatrix>(new ArrayRealVector(dv, false), new Array2DRowRealMatrix(dm, false));
+				return new Pair<RealVector, RealMatrix>(new ArrayRealVector(dv, false), jm);
 			}
 		};
 
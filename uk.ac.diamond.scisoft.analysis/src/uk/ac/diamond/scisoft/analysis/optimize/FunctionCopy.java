@@ -0,0 +1,107 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.optimize;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IFunction;
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IOperator;
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
+
+/**
+ * Copy of a function whose parameters can be set from values of the free parameters of the original.
+ * <p>
+ * Copying a function does not keep parameters shared between its child functions so these are
+ * shared again in the copy. This allows a function to be evaluated or optimized for different
+ * parameter values in several threads at once.
+ */
+class FunctionCopy {
+	private final IFunction function;
+	private final IParameter[] mapped;
+
+	/**
+	 * @param original
+	 * @param free unique and unfixed parameters of original
+	 * @throws Exception if function cannot be copied
+	 */
+	FunctionCopy(IFunction original, List<IParameter> free) throws Exception {
+		function = original.copy();
+		Map<IParameter, IParameter> map = new IdentityHashMap<>();
+		mapParameters(original, function, map);
+
+		mapped = new IParameter[free.size()];
+		for (int i = 0; i < mapped.length; i++) {
+			IParameter p = map.get(free.get(i));
+			if (p == null) {
+				throw new IllegalArgumentException("Copy of function does not contain parameter " + free.get(i).getName());
+			}
+			mapped[i] = p;
+		}
+	}
+
+	/**
+	 * Map parameters of original to copy, making copy share parameters where the original does
+	 */
+	private static void mapParameters(IFunction o, IFunction c, Map<IParameter, IParameter> map) {
+		if (o instanceof IOperator && c instanceof IOperator) {
+			IOperator oo = (IOperator) o;
+			IOperator co = (IOperator) c;
+			for (int i = 0, imax = oo.getNoOfFunctions(); i < imax; i++) {
+				IFunction of = oo.getFunction(i);
+				if (of != null) {
+					mapParameters(of, co.getFunction(i), map);
+				}
+			}
+			co.updateParameters();
+			return;
+		}
+
+		for (int i = 0, imax = o.getNoOfParameters(); i < imax; i++) {
+			IParameter op = o.getParameter(i);
+			IParameter cp = map.get(op);
+			if (cp == null) {
+				map.put(op, c.getParameter(i));
+			} else if (c.getParameter(i) != cp) {
+				c.setParameter(i, cp);
+			}
+		}
+	}
+
+	/**
+	 * @return copied function
+	 */
+	IFunction getFunction() {
+		return function;
+	}
+
+	/**
+	 * Set parameter values in copied function
+	 * @param values of free parameters of original
+	 */
+	void setParameterValues(double[] values) {
+		for (int i = 0; i < values.length; i++) {
+			mapped[i].setValue(values[i]);
+		}
+		function.setDirty(true);
+	}
+
+	/**
+	 * @return values of free parameters of original as held in copy
+	 */
+	double[] getParameterValues() {
+		double[] values = new double[mapped.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = mapped[i].getValue();
+		}
+		return values;
+	}
+}
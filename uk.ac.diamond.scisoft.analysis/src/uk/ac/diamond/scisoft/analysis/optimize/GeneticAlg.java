@@ -9,6 +9,8 @@
 
 package uk.ac.diamond.scisoft.analysis.optimize;
 
+import java.util.stream.IntStream;
+
 import org.apache.commons.math3.random.MersenneTwister;
 import org.apache.commons.math3.random.RandomDataGenerator;
 import org.apache.commons.math3.random.RandomGenerator;
@@ -37,6 +39,8 @@ public class GeneticAlg extends AbstractOptimizer {
 
 	private double qualityFactor = 0.0;
 
+	private int threads = 1;
+
 	/**
 	 * Constructor which takes the quality of the fit as an input.
 	 * 
@@ -63,6 +67,62 @@ public class GeneticAlg extends AbstractOptimizer {
 		generator.setSeed(seed);
 	}
 
+	/**
+	 * Set number of threads used to evaluate each epoch. When more than one, each thread evaluates
+	 * a copy of the function so the function must be able to copy itself completely
+	 * @param threads (default is 1)
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Create copies of function for each thread
+	 * @return null if only one thread is used or function could not be copied
+	 */
+	private FunctionCopy[] createCopies(int size) {
+		int nt = Math.min(threads, size);
+		if (nt < 2) {
+			return null;
+		}
+		FunctionCopy[] copies = new FunctionCopy[nt];
+		try {
+			for (int i = 0; i < nt; i++) {
+				copies[i] = new FunctionCopy(function, params);
+			}
+		} catch (Exception e) {
+			GAlogger.warn("Could not copy function so evaluating epochs in one thread", e);
+			return null;
+		}
+		return copies;
+	}
+
+	/**
+	 * Calculate fitness of each member of epoch
+	 * @param copies can be null
+	 */
+	private void evaluate(final double[][] epoch, final double[] results, final boolean useResiduals, final FunctionCopy[] copies) {
+		if (copies == null) {
+			for (int i = 0; i < epoch.length; i++) {
+				results[i] = useResiduals ? calculateResidual(epoch[i]) : calculateFunction(epoch[i]);
+			}
+			return;
+		}
+
+		final int nt = copies.length;
+		IntStream.range(0, nt).parallel().forEach(t -> {
+			IFunction f = copies[t].getFunction();
+			int end = (int) (((long) epoch.length * (t + 1)) / nt);
+			for (int i = (int) (((long) epoch.length * t) / nt); i < end; i++) {
+				copies[t].setParameterValues(epoch[i]);
+				results[i] = useResiduals ? f.residual(true, data, weight, coords) : f.val(point);
+			}
+		});
+	}
+
 	@Override
 	void internalOptimize() {
 		try {
@@ -120,9 +180,12 @@ public class GeneticAlg extends AbstractOptimizer {
 		}
 
 		// now the first epoch has been created and calculate the fitness
+		final FunctionCopy[] copies = createCopies(topEpoch + 1);
+		evaluate(epoch, results, useResiduals, copies);
 		for (int i = 0; i <= topEpoch; i++) {
-			double r = useResiduals ? calculateResidual(epoch[i]) : calculateFunction(epoch[i]);
-			results[i] = Double.isNaN(r) ? Double.MAX_VALUE : r;
+			if (Double.isNaN(results[i])) {
+				results[i] = Double.MAX_VALUE;
+			}
 		}
 
 		// now do the epochs
@@ -235,10 +298,12 @@ public class GeneticAlg extends AbstractOptimizer {
 						e[j] = 2. * p.getLowerLimit() - e[j];
 					}
 				}
+			}
 
-				// finally calculate the fitness and put it in the last digit
-				results[i] = useResiduals ? calculateResidual(e) : calculateFunction(e);
+			// finally calculate the fitness
+			evaluate(epoch, results, useResiduals, copies);
 
+			for (int i = 0; i <= topEpoch; i++) {
 			    double delta = results[i] - mean;
 			    mean = mean + delta/(i+1);
 			}
@@ -0,0 +1,252 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.optimize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IFunction;
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Global optimizer that runs several local optimizers concurrently from scattered starting points
+ * and keeps the best result.
+ * <p>
+ * The first start uses the current parameter values. Others are drawn uniformly between the limits of
+ * each parameter or, where a limit is not set, within a spread about the current value. Each start
+ * optimizes its own copy of the function. Once a given number of starts have reached the same minimum,
+ * the remaining starts are abandoned.
+ */
+public class MultiStartOptimizer implements IOptimizer {
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LoggerFactory.getLogger(MultiStartOptimizer.class);
+
+	private final Supplier<? extends IOptimizer> factory;
+	private int starts = 8;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int agreement = 3;
+	private double tolerance = 1e-6;
+	private double spread = 1.0;
+	private final Random random = new Random(0);
+
+	private double best = Double.NaN;
+	private int completed;
+
+	/**
+	 * @param factory creates a local optimizer for each start, e.g. {@code NelderMead::new}
+	 */
+	public MultiStartOptimizer(Supplier<? extends IOptimizer> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * @param starts number of starting points (default is 8)
+	 */
+	public void setStarts(int starts) {
+		if (starts < 1) {
+			throw new IllegalArgumentException("Number of starts must be positive");
+		}
+		this.starts = starts;
+	}
+
+	/**
+	 * @param threads number of starts to run at once (default is number of processors)
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Set number of starts that must reach the same minimum before stopping early. Use a number greater
+	 * than the number of starts to always run them all
+	 * @param agreement (default is 3)
+	 */
+	public void setAgreement(int agreement) {
+		this.agreement = agreement;
+	}
+
+	/**
+	 * @param tolerance relative difference in objective values for starts to be considered to reach the
+	 * same minimum (default is 1e-6)
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param spread relative spread of starting points about current value for parameters without
+	 * limits (default is 1)
+	 */
+	public void setSpread(double spread) {
+		this.spread = spread;
+	}
+
+	public void setSeed(long seed) {
+		random.setSeed(seed);
+	}
+
+	/**
+	 * @return objective value of best result from last optimization
+	 */
+	public double getBestValue() {
+		return best;
+	}
+
+	/**
+	 * @return number of starts that finished in last optimization
+	 */
+	public int getCompletedStarts() {
+		return completed;
+	}
+
+	@Override
+	public void optimize(IDataset[] coords, IDataset data, IFunction function) throws Exception {
+		if (data.getElementsPerItem() > 1) {
+			throw new IllegalArgumentException("The 'data' dataset must be elemental (or non-compound) as only scalar fitting functions are supported");
+		}
+		final DoubleDataset[] c = new DoubleDataset[coords.length];
+		for (int i = 0; i < c.length; i++) {
+			c[i] = DatasetUtils.cast(DoubleDataset.class, coords[i]);
+		}
+		final DoubleDataset d = DatasetUtils.cast(DoubleDataset.class, data);
+		run(function, (o, f) -> {
+			o.optimize(c, d, f);
+			return f.residual(true, d, null, c);
+		});
+	}
+
+	@Override
+	public void optimize(final boolean minimize, IFunction function, final double... coords) throws Exception {
+		run(function, (o, f) -> {
+			o.optimize(minimize, f, coords);
+			double v = f.val(coords);
+			return minimize ? v : -v;
+		});
+	}
+
+	/**
+	 * Run local optimizer on function and return objective value to minimize
+	 */
+	private interface Start {
+		double run(IOptimizer optimizer, IFunction function) throws Exception;
+	}
+
+	private static class Outcome {
+		final double value;
+		final double[] parameters;
+
+		Outcome(double value, double[] parameters) {
+			this.value = value;
+			this.parameters = parameters;
+		}
+	}
+
+	private void run(IFunction function, final Start start) throws Exception {
+		List<IParameter> free = new ArrayList<>();
+		AbstractOptimizer.findFreeParameters(function, free);
+		double[][] points = createStartingPoints(free);
+
+		best = Double.NaN;
+		completed = 0;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, starts));
+		CompletionService<Outcome> service = new ExecutorCompletionService<>(executor);
+		Outcome result = null;
+		Exception failure = null;
+		try {
+			for (double[] p : points) {
+				final FunctionCopy copy = new FunctionCopy(function, free);
+				copy.setParameterValues(p);
+				service.submit(() -> {
+					double v = start.run(factory.get(), copy.getFunction());
+					return new Outcome(Double.isNaN(v) ? Double.POSITIVE_INFINITY : v, copy.getParameterValues());
+				});
+			}
+
+			int agreed = 0;
+			for (int i = 0; i < points.length; i++) {
+				Outcome o;
+				try {
+					o = service.take().get();
+				} catch (ExecutionException e) {
+					logger.debug("Start failed", e.getCause());
+					if (failure == null && e.getCause() instanceof Exception) {
+						failure = (Exception) e.getCause();
+					}
+					continue;
+				}
+				completed++;
+
+				if (result == null || o.value < result.value) {
+					agreed = result != null && isSame(o.value, result.value) ? agreed + 1 : 1;
+					result = o;
+				} else if (isSame(o.value, result.value)) {
+					agreed++;
+				}
+				if (agreed >= agreement) {
+					logger.debug("Stopping after {} starts as {} have reached the same minimum", completed, agreed);
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (result == null) {
+			throw failure != null ? failure : new IllegalStateException("No start completed");
+		}
+
+		best = result.value;
+		for (int i = 0; i < free.size(); i++) {
+			free.get(i).setValue(result.parameters[i]);
+		}
+		function.setDirty(true);
+	}
+
+	private boolean isSame(double a, double b) {
+		return Math.abs(a - b) <= tolerance * Math.max(Math.abs(a), Math.abs(b));
+	}
+
+	private double[][] createStartingPoints(List<IParameter> free) {
+		int n = free.size();
+		double[][] points = new double[starts][n];
+		for (int j = 0; j < n; j++) {
+			IParameter p = free.get(j);
+			double v = p.getValue();
+			points[0][j] = v;
+			double l = p.getLowerLimit();
+			double u = p.getUpperLimit();
+			if (u - l >= Double.MAX_VALUE) { // spread about current value when unbounded
+				double s = spread * Math.max(Math.abs(v), 1);
+				l = Math.max(l, v - s);
+				u = Math.min(u, v + s);
+			}
+			for (int i = 1; i < starts; i++) {
+				points[i][j] = l + random.nextDouble() * (u - l);
+			}
+		}
+		return points;
+	}
+}
@@ -11,14 +11,21 @@ package uk.ac.diamond.scisoft.analysis.plotserver;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.dawnsci.analysis.api.tree.Tree;
 import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DatasetUtils;
 import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.IntegerDataset;
 
 /**
  * This bean contains all the information required by a GUI to perform a plot,
@@ -38,6 +45,18 @@ public class DataBean implements Serializable {
 	
 	protected GuiBean plotParameters;
 
+	/**
+	 * Line with spare capacity at its end so that appending does not copy existing values. Views
+	 * of the line's values do not change when appending as they exclude the spare capacity
+	 */
+	private static class AppendBuffer {
+		private Dataset buffer;
+		private int used;
+	}
+
+	private transient Map<Dataset, AppendBuffer> appendBuffers; // keyed by views of buffers held in bean
+	private transient Set<Dataset> owned; // datasets made by applying region deltas, modified in place by later ones
+
 	/**
 	 * Constructor to initialise all the collection objects
 	 */
@@ -57,7 +76,8 @@ public class DataBean implements Serializable {
 	
 
 	/**
-	 * @return a shallow copy of data bean
+	 * @return a shallow copy of data bean. Datasets made by applying region deltas to this bean
+	 * are shared with the copy which modifies them in place when it applies further region deltas
 	 */
 	public DataBean copy() {
 		DataBean bean = new DataBean();
@@ -67,6 +87,12 @@ public class DataBean implements Serializable {
 		bean.guiPlotMode = guiPlotMode;
 		if (plotParameters != null)
 			bean.plotParameters = plotParameters.copy();
+		if (appendBuffers != null)
+			bean.appendBuffers = new IdentityHashMap<Dataset, AppendBuffer>(appendBuffers);
+		if (owned != null) {
+			bean.owned = Collections.newSetFromMap(new IdentityHashMap<Dataset, Boolean>());
+			bean.owned.addAll(owned);
+		}
 		return bean;
 	}
 	
@@ -184,7 +210,9 @@ public class DataBean implements Serializable {
 		for (String s : nmap.keySet()) {
 			Dataset nd = nmap.get(s);
 			Dataset od = axisData.get(s);
-			if (od != null && !od.equals(nd)) { // a clash so need to rename
+			if (od == null) {
+				axisData.put(s, nd);
+			} else if (!od.equals(nd)) { // a clash so need to rename
 				String n = nd.getName();
 				if (n != null && n.trim().length() > 0) {
 					od = axisData.get(n);
@@ -207,6 +235,176 @@ public class DataBean implements Serializable {
 		data.addAll(ndata);
 	}
 
+	/**
+	 * Remove oldest data so that no more than the given number of datasets remain. Axes no longer
+	 * used by the remaining data are also removed
+	 * @param max maximum number of datasets to keep
+	 * @return true if any data was removed
+	 */
+	public boolean retainLatest(int max) {
+		int excess = data.size() - max;
+		if (excess <= 0) {
+			return false;
+		}
+		data.subList(0, excess).clear();
+
+		Set<String> used = new HashSet<String>();
+		for (DatasetWithAxisInformation d : data) {
+			String[] ids = d.getAxisMap() == null ? null : d.getAxisMap().getAxisID();
+			if (ids != null) {
+				used.addAll(Arrays.asList(ids));
+			}
+		}
+		axisData.keySet().retainAll(used);
+		return true;
+	}
+
+	/**
+	 * @return true if bean holds changes to existing data, i.e. its plot operation is APPEND or REGION
+	 */
+	public boolean isDelta() {
+		Serializable op = plotParameters == null ? null : plotParameters.get(GuiParameters.PLOTOPERATION);
+		return GuiParameters.PLOTOP_APPEND.equals(op) || GuiParameters.PLOTOP_REGION.equals(op);
+	}
+
+	/**
+	 * Apply changes held in a bean whose plot operation is APPEND or REGION. Lines and axes shared
+	 * with other beans, such as copies of this bean, are not modified so those beans are not affected
+	 * <p>
+	 * For APPEND, each dataset in the delta is appended to the existing line at the same position
+	 * offset by {@link GuiParameters#DATAINDEX} and any axis it has is appended to the line's x axis.
+	 * Lines that share an x axis should be appended together as the axis is extended only once. Where
+	 * no axis is given, the x axis is extended by continuing its indices. Lines and axes are held in
+	 * buffers with spare capacity so the cost of appending depends on the size of the delta.
+	 * <p>
+	 * For REGION, each dataset in the delta replaces a region of the existing dataset at the same
+	 * position offset by {@link GuiParameters#DATAINDEX}, starting at {@link GuiParameters#REGIONSTART}.
+	 * The existing dataset is copied for the first region applied to it and then modified in place, also
+	 * by later regions applied to copies of this bean, so that images are not copied for every update
+	 * @param delta
+	 * @throws DataBeanException if the delta does not match the data in this bean
+	 */
+	public void applyDelta(DataBean delta) throws DataBeanException {
+		GuiBean params = delta.getGuiParameters();
+		Serializable op = params == null ? null : params.get(GuiParameters.PLOTOPERATION);
+		Integer index = params == null ? null : (Integer) params.get(GuiParameters.DATAINDEX);
+		int k = index == null ? 0 : index;
+		List<DatasetWithAxisInformation> ndata = delta.getData();
+		if (k < 0 || k + ndata.size() > data.size()) {
+			throw new DataBeanException("Delta has " + ndata.size() + " datasets from index " + k + " but there are only " + data.size());
+		}
+
+		if (GuiParameters.PLOTOP_APPEND.equals(op)) {
+			for (int i = 0; i < ndata.size(); i++) { // check all before changing any
+				if (data.get(k + i).getData().getRank() != 1 || ndata.get(i).getData().getRank() != 1) {
+					throw new DataBeanException("Only lines can be appended to");
+				}
+			}
+
+			Set<String> extended = new HashSet<String>();
+			for (int i = 0; i < ndata.size(); i++) {
+				DatasetWithAxisInformation o = data.get(k + i);
+				DatasetWithAxisInformation n = ndata.get(i);
+				Dataset od = o.getData();
+				Dataset nd = n.getData();
+				data.set(k + i, createDataset(append(od, nd), o.getAxisMap()));
+
+				String[] oids = o.getAxisMap() == null ? null : o.getAxisMap().getAxisID();
+				if (oids == null || oids.length == 0 || !extended.add(oids[0])) {
+					continue;
+				}
+				Dataset ox = axisData.get(oids[0]);
+				if (ox == null) {
+					continue;
+				}
+				String[] nids = n.getAxisMap() == null ? null : n.getAxisMap().getAxisID();
+				Dataset nx = nids == null || nids.length == 0 ? null : delta.getAxis(nids[0]);
+				if (nx == null) {
+					nx = DatasetFactory.createRange(IntegerDataset.class, ox.getSize(), ox.getSize() + nd.getSize(), 1);
+				}
+				axisData.put(oids[0], append(ox, nx));
+			}
+		} else if (GuiParameters.PLOTOP_REGION.equals(op)) {
+			Integer[] start = params == null ? null : (Integer[]) params.get(GuiParameters.REGIONSTART);
+			int[][] begins = new int[ndata.size()][];
+			int[][] ends = new int[ndata.size()][];
+			for (int i = 0; i < ndata.size(); i++) { // check all before changing any
+				Dataset od = data.get(k + i).getData();
+				Dataset nd = ndata.get(i).getData();
+				int rank = od.getRank();
+				if (nd.getRank() != rank || (start != null && start.length != rank)) {
+					throw new DataBeanException("Region must have same rank as dataset");
+				}
+				int[] shape = od.getShapeRef();
+				int[] nshape = nd.getShapeRef();
+				int[] begin = new int[rank];
+				int[] end = new int[rank];
+				for (int j = 0; j < rank; j++) {
+					begin[j] = start == null ? 0 : start[j];
+					end[j] = begin[j] + nshape[j];
+					if (begin[j] < 0 || end[j] > shape[j]) {
+						throw new DataBeanException("Region lies outside dataset");
+					}
+				}
+				begins[i] = begin;
+				ends[i] = end;
+			}
+
+			if (owned == null) {
+				owned = Collections.newSetFromMap(new IdentityHashMap<Dataset, Boolean>());
+			}
+			for (int i = 0; i < ndata.size(); i++) {
+				DatasetWithAxisInformation o = data.get(k + i);
+				Dataset d = o.getData();
+				if (!owned.contains(d)) {
+					d = d.clone();
+					owned.add(d);
+					data.set(k + i, createDataset(d, o.getAxisMap()));
+				}
+				d.setSlice(ndata.get(i).getData(), begins[i], ends[i], null);
+			}
+		} else {
+			throw new DataBeanException("Plot operation " + op + " is not a delta");
+		}
+	}
+
+	/**
+	 * Append to line. The values are put in the spare capacity of the line's buffer if no other
+	 * line has been made from the buffer since, otherwise they are copied to a new buffer
+	 * @param line
+	 * @param extra
+	 * @return view of appended line
+	 */
+	private Dataset append(Dataset line, Dataset extra) {
+		if (extra.getSize() == 0) {
+			return line;
+		}
+		if (appendBuffers == null) {
+			appendBuffers = new IdentityHashMap<Dataset, AppendBuffer>();
+		}
+		int n = line.getSize();
+		int m = n + extra.getSize();
+		AppendBuffer b = appendBuffers.remove(line);
+		if (b == null || b.used != n || b.buffer.getSize() < m) {
+			b = new AppendBuffer();
+			// spare capacity is filled with repeats of values
+			b.buffer = DatasetUtils.resize(n == 0 ? DatasetUtils.cast(extra, line.getDType()) : line, Math.max(2 * m, 16));
+		}
+		b.buffer.setSlice(extra, new int[] {n}, new int[] {m}, null);
+		b.used = m;
+		Dataset view = b.buffer.getSliceView(new int[] {0}, new int[] {m}, null);
+		view.setName(line.getName());
+		appendBuffers.put(view, b);
+		return view;
+	}
+
+	private static DatasetWithAxisInformation createDataset(Dataset d, AxisMapBean axisMap) {
+		DatasetWithAxisInformation n = new DatasetWithAxisInformation();
+		n.setData(d);
+		n.setAxisMap(axisMap);
+		return n;
+	}
+
 	private void replaceAxisID(List<DatasetWithAxisInformation> ndata, String oldID, String newID) {
 		for (DatasetWithAxisInformation d : ndata) { // replace clashing name
 			String[] ids = d.getAxisMap().getAxisID();
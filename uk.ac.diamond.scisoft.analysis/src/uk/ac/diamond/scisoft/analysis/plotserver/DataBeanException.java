@@ -14,4 +14,10 @@ package uk.ac.diamond.scisoft.analysis.plotserver;
  */
 public class DataBeanException extends Exception {
 
+	public DataBeanException() {
+	}
+
+	public DataBeanException(String message) {
+		super(message);
+	}
 }
@@ -118,6 +118,18 @@ public final class GuiParameters implements Serializable {
 	 */
 	public static final String PLOTOP_NONE = "NONE";
 
+	/**
+	 * APPEND value of Plot Operation GuiParameter. The bean holds points to append to existing lines,
+	 * starting at the line given by {@link #DATAINDEX}
+	 */
+	public static final String PLOTOP_APPEND = "APPEND";
+
+	/**
+	 * REGION value of Plot Operation GuiParameter. The bean holds a region to replace in an existing
+	 * dataset given by {@link #DATAINDEX}, starting at the position given by {@link #REGIONSTART}
+	 */
+	public static final String PLOTOP_REGION = "REGION";
+
 	/**
 	 * Specifies the plotting mode can be any of the values in GuiPlotMode
 	 */
@@ -149,10 +161,20 @@ public final class GuiParameters implements Serializable {
 	public static final GuiParameters PLOTID = new GuiParameters("PlotID", UUID.class);
 
 	/**
-	 * Specifies the plot operation at the moment can only be UPDATE, ADD or NONE
+	 * Specifies the plot operation at the moment can only be UPDATE, ADD, APPEND, REGION or NONE
 	 */
 	public static final GuiParameters PLOTOPERATION = new GuiParameters("PlotOp", String.class);
 
+	/**
+	 * Specifies the index of the first existing dataset changed by an APPEND or REGION plot operation
+	 */
+	public static final GuiParameters DATAINDEX = new GuiParameters("DataIndex", Integer.class);
+
+	/**
+	 * Specifies the start position of the region replaced by a REGION plot operation
+	 */
+	public static final GuiParameters REGIONSTART = new GuiParameters("RegionStart", Integer[].class);
+
 	/**
 	 * Specified the file operation and should hold a FileOperationsBean for further detail
 	 */
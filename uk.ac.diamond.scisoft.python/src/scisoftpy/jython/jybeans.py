@@ -24,6 +24,8 @@ class _parameters:
     roiclearall = _guiparam.ROICLEARALL
     plotid = _guiparam.PLOTID
     plotop = _guiparam.PLOTOPERATION
+    dataindex = _guiparam.DATAINDEX
+    regionstart = _guiparam.REGIONSTART
     fileop = _guiparam.FILEOPERATION
     filename = _guiparam.FILENAME
     fileselect = _guiparam.FILESELECTEDLIST
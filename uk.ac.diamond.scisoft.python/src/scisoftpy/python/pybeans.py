@@ -49,6 +49,8 @@ class _parameters(object):
         self.roiclearall = self._parametershelper(self, "roiclearall", "ROIClearAll")
         self.plotid = self._parametershelper(self, "plotid", "PlotID")
         self.plotop = self._parametershelper(self, "plotop", "PlotOp")
+        self.dataindex = self._parametershelper(self, "dataindex", "DataIndex")
+        self.regionstart = self._parametershelper(self, "regionstart", "RegionStart")
         self.fileop = self._parametershelper(self, "fileop", "FileOp")
         self.filename = self._parametershelper(self, "filename", "Filename")
         self.fileselect = self._parametershelper(self, "fileselect", "FileList")
@@ -31,6 +31,8 @@ import sys
 import copy
 import uuid
 import traceback
+import threading
+import xmlrpclib
 
 TYPE = "__type__"
 CONTENT = "content"
@@ -38,6 +40,26 @@ CONTENT = "content"
 _TEMP_LOCATION_SET = False
 _TEMP_LOCATION = None
 
+TRANSPORT_INBAND = "inband"
+TRANSPORT_SHM = "shm"
+TRANSPORT_NPY = "npy"
+TRANSPORTS = [TRANSPORT_INBAND, TRANSPORT_SHM, TRANSPORT_NPY]
+_INBAND_LIMIT = int(os.getenv('SCISOFT_RPC_INBAND_LIMIT', 4 * 1024 * 1024))
+_SHARED_MEMORY = "/dev/shm"
+_peer = threading.local()
+
+def setpeertransports(transports=None):
+    '''
+    Set transports that the receiver of arrays flattened in the current thread can unflatten.
+    The default is to only use NumPy files as all versions of the receiver support them.
+    
+    transports list of transport names, or None to restore the default
+    returns previous transports
+    '''
+    old = getattr(_peer, 'transports', None)
+    _peer.transports = None if transports is None else frozenset(transports)
+    return old
+
 def settemplocation(loc=None):
     '''
      Set a custom temporary file location. This is used by some flatteners to store large data sets which are faster
@@ -197,10 +219,20 @@ class ndArrayHelper(flatteningHelper):
     DELETEFILEAFTERLOAD = "deletefile"
     INDEX = "index"
     NAME = "name"
+    DATA = "data"
+    DTYPE = "dtype"
+    SHAPE = "shape"
+    _KINDS = "biufc"
     
     def __init__(self):
         super(ndArrayHelper, self).__init__(_np.ndarray, self.TYPE_NAME)
     
+    def _tolittle(self, obj):
+        dtype = obj.dtype
+        if dtype.kind not in self._KINDS or (dtype.kind == 'u' and dtype.itemsize == 8):
+            return None
+        return _np.ascontiguousarray(obj, dtype=dtype.newbyteorder('<'))
+
     def flatten(self, obj):
         rval = dict()
         if isinstance(obj, _core.ndarrayRGB):
@@ -212,7 +244,34 @@ class ndArrayHelper(flatteningHelper):
                 _TEMP_LOCATION_SET = True
             if _TEMP_LOCATION == "":
                 _TEMP_LOCATION = None
-                 
+
+            transports = getattr(_peer, 'transports', None)
+            little = None if transports is None else self._tolittle(obj)
+            if little is not None:
+                if TRANSPORT_INBAND in transports and little.nbytes <= _INBAND_LIMIT:
+                    rval[self.DATA] = xmlrpclib.Binary(little.tostring())
+                    rval[self.DTYPE] = little.dtype.str
+                    rval[self.SHAPE] = [int(n) for n in little.shape]
+                    rval[TYPE] = self.TYPE_NAME
+                    return rval
+                if TRANSPORT_SHM in transports:
+                    loc = _TEMP_LOCATION
+                    if loc is None and os.path.isdir(_SHARED_MEMORY) and os.access(_SHARED_MEMORY, os.W_OK):
+                        loc = _SHARED_MEMORY
+                    (osfd, filename) = mkstemp(suffix='.raw', prefix='scisofttmp-', dir=loc)
+                    os.close(osfd)
+                    try:
+                        little.tofile(filename)
+                    except:
+                        os.remove(filename)
+                        raise
+                    rval[self.FILENAME] = filename
+                    rval[self.DELETEFILEAFTERLOAD] = True
+                    rval[self.DTYPE] = little.dtype.str
+                    rval[self.SHAPE] = [int(n) for n in little.shape]
+                    rval[TYPE] = self.TYPE_NAME
+                    return rval
+
             (osfd, filename) = mkstemp(suffix='.npy', prefix='scisofttmp-', dir=_TEMP_LOCATION)
             os.close(osfd)
             try:
@@ -238,11 +297,19 @@ class ndArrayHelper(flatteningHelper):
         return rval
 
     def unflatten(self, obj):
+        if self.DTYPE in obj:
+            dtype = _np.dtype(obj[self.DTYPE])
+            shape = tuple(obj[self.SHAPE])
+            if self.DATA in obj:
+                return _np.frombuffer(obj[self.DATA].data, dtype=dtype).reshape(shape).copy()
+
         filename = obj[self.FILENAME]
         deletefile = False
         if self.DELETEFILEAFTERLOAD in obj:
             deletefile = obj[self.DELETEFILEAFTERLOAD]
         try:
+            if self.DTYPE in obj:
+                return _np.fromfile(filename, dtype=dtype).reshape(shape)
             return _np.load(filename)
         finally:
             if deletefile:
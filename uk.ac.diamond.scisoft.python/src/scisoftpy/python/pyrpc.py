@@ -19,7 +19,7 @@ AnalysisRpc implementation in Python
 '''
 from SocketServer import TCPServer, ThreadingMixIn
 from SimpleXMLRPCServer import SimpleXMLRPCRequestHandler, SimpleXMLRPCServer
-from xmlrpclib import ServerProxy
+from xmlrpclib import ServerProxy, Fault
 import scisoftpy.python.pyflatten as _flatten
 
 class _method:
@@ -49,13 +49,16 @@ class rpcserver(object):
         
         self._server.register_function(self._xmlrpchandler, 'Analysis.handler');
         self._server.register_function(self._xmlrpchandler_debug, 'Analysis.handler_debug');
+        self._server.register_function(self._xmlrpchandler_transport, 'Analysis.handler_transport');
+        self._server.register_function(self._xmlrpc_get_transports, 'Analysis.get_transports');
         self._server.register_function(self._xmlrpc_is_alive, 'Analysis.is_alive');
         self._server.register_function(self._xmlrpc_set_pydev_settrace_params, 'Analysis.set_pydev_settrace_params');
         self._handlers = dict()
 
         self.pydev_settrace_params = dict()
    
-    def _xmlrpchandler_common(self, destination, args, debug=False, suspend=False):
+    def _xmlrpchandler_common(self, destination, args, debug=False, suspend=False, transports=None):
+        oldtransports = _flatten.setpeertransports(transports)
         try:
             handler = self._handlers.get(destination)
             if handler is None:
@@ -88,12 +91,19 @@ class rpcserver(object):
             flatret = _flatten.flatten(ret)
         except Exception, e:
             flatret = _flatten.flatten(e)
+        finally:
+            _flatten.setpeertransports(oldtransports)
         return flatret
     def _xmlrpchandler(self, destination, args):
         return self._xmlrpchandler_common(destination, args)
     def _xmlrpchandler_debug(self, destination, args, suspend):
         return self._xmlrpchandler_common(destination, args, True, suspend)
+    def _xmlrpchandler_transport(self, destination, args, transports):
+        return self._xmlrpchandler_common(destination, args, transports=transports)
     
+    def _xmlrpc_get_transports(self):
+        return _flatten.TRANSPORTS
+
     def _xmlrpc_is_alive(self):
         return True
 
@@ -146,13 +156,33 @@ class rpcclient(object):
         '''
         self._serverProxy = ServerProxy("http://127.0.0.1:%d" % port)
         self._port = port
+        self._transports = None
+
+    def _server_transports(self):
+        if self._transports is None:
+            try:
+                self._transports = self._serverProxy.Analysis.get_transports()
+            except Fault:
+                # server predates negotiation so only supports NumPy files
+                self._transports = []
+        return self._transports
         
     def _request_common(self, destination, params, debug=False, suspend=False):
-        flatargs = _flatten.flatten(params)
         if debug:
+            flatargs = _flatten.flatten(params)
             flatret = self._serverProxy.Analysis.handler_debug(destination, flatargs, suspend)
         else:
-            flatret = self._serverProxy.Analysis.handler(destination, flatargs)
+            transports = self._server_transports()
+            if transports:
+                oldtransports = _flatten.setpeertransports(transports)
+                try:
+                    flatargs = _flatten.flatten(params)
+                finally:
+                    _flatten.setpeertransports(oldtransports)
+                flatret = self._serverProxy.Analysis.handler_transport(destination, flatargs, _flatten.TRANSPORTS)
+            else:
+                flatargs = _flatten.flatten(params)
+                flatret = self._serverProxy.Analysis.handler(destination, flatargs)
         unflatret = _flatten.unflatten(flatret)
         if (isinstance(unflatret, Exception)):
             raise unflatret
@@ -0,0 +1,58 @@
+package org.dawnsci.surfacescatter.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.dawnsci.surfacescatter.FastFourierTransform;
+import org.junit.Test;
+
+public class FastFourierTransformTest {
+
+	private static void checkTransform(int n, boolean direct) {
+
+		Random random = new Random(12357 + n);
+		double[] real = new double[n];
+		double[] imag = new double[n];
+		for (int j = 0; j < n; j++) {
+			real[j] = random.nextGaussian();
+			imag[j] = random.nextGaussian();
+		}
+
+		double[][] output = FastFourierTransform.fft(real, imag, direct);
+
+		double sign = direct ? 1 : -1;
+		for (int i = 0; i < n; i++) {
+			double expectedReal = 0;
+			double expectedImag = 0;
+			if (i % 2 == 0) {
+				int k = i / 2;
+				for (int j = 0; j < n; j++) {
+					double arg = sign * 2 * Math.PI * j * k / n;
+					expectedReal += real[j] * Math.cos(arg) - imag[j] * Math.sin(arg);
+					expectedImag += real[j] * Math.sin(arg) + imag[j] * Math.cos(arg);
+				}
+				expectedReal /= Math.sqrt(n);
+				expectedImag /= Math.sqrt(n);
+			}
+			assertEquals("real part " + i + " of " + n, expectedReal, output[0][i], 1e-12);
+			assertEquals("imaginary part " + i + " of " + n, expectedImag, output[1][i], 1e-12);
+		}
+	}
+
+	@Test
+	public void testPowersOfTwo() {
+		for (int n = 1; n <= 256; n *= 2) {
+			checkTransform(n, true);
+			checkTransform(n, false);
+		}
+	}
+
+	@Test
+	public void testOtherLengths() {
+		for (int n : new int[] { 3, 5, 6, 12, 100, 127, 243 }) {
+			checkTransform(n, true);
+			checkTransform(n, false);
+		}
+	}
+}
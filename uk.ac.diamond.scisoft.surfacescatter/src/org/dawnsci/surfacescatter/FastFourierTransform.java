@@ -1,25 +1,19 @@
 package org.dawnsci.surfacescatter;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.eclipse.january.dataset.IDataset;
 
 public class FastFourierTransform {
 
-	/**
-	 * @author Orlando Selenu
-	 *
-	 */
+	// Plans are kept for each length transformed, up to this many lengths
+	private static final int MAX_PLANS = 64;
 
-	/**
-	 * The Fast Fourier Transform (generic version, with NO optimizations).
-	 *
-	 * @param inputReal
-	 *            an array of length n, the real part
-	 * @param inputImag
-	 *            an array of length n, the imaginary part
-	 * @param DIRECT
-	 *            TRUE = direct transform, FALSE = inverse transform
-	 * @return a new array of length 2n
-	 */
+	// Number of steps of the angle addition recurrence between exact evaluations
+	private static final int RECURRENCE_STEPS = 64;
+
+	private static final ConcurrentMap<Integer, Plan> plans = new ConcurrentHashMap<>();
 
 	public static IDataset fftModeledYValuesDataset(IDataset inputReal) {
 
@@ -50,8 +44,8 @@ public class FastFourierTransform {
 		return computedYOutputDataset(probeArray, fft(inputReal));
 
 	}
-	
-	
+
+
 	public static FourierScalingOutputPackage fftModeledYValuesDatasetFullPackage(IDataset probeArray, IDataset inputReal) {
 
 		return computedYOutputDatasetFullPackage(probeArray, fft(inputReal));
@@ -68,105 +62,123 @@ public class FastFourierTransform {
 	private static double[][] fft(IDataset inputReal) {
 
 		double[] inputRealArray = new double[inputReal.getSize()];
-		double[] inputImArray = new double[inputReal.getSize()];
 		try {
 			for (int i = 0; i < inputReal.getSize(); i++) {
 				inputRealArray[i] = inputReal.getDouble(i);
-				inputImArray[i] = 0;
 			}
 		} catch (IllegalArgumentException ill) {
 			System.out.println(ill.getMessage());
 		}
-		return fft(inputRealArray, inputImArray, true);
+		// The direct transform has a positive exponent
+		double[][] transform = realTransform(inputRealArray);
+		conjugate(transform[1]);
+		return coefficients(transform, inputRealArray.length);
 	}
 
+	/**
+	 * The Fast Fourier Transform, of any length.
+	 * <p>
+	 * Lengths that are powers of two use a radix-2 transform, other lengths
+	 * Bluestein's algorithm. The tables for each length are calculated once
+	 * and reused.
+	 *
+	 * @param inputReal
+	 *            an array of length n, the real part
+	 * @param inputImag
+	 *            an array of length n, the imaginary part
+	 * @param DIRECT
+	 *            TRUE = direct transform, with the kernel exp(2&pi;ijk/n),
+	 *            FALSE = inverse transform
+	 * @return the real and imaginary parts of the first half of the
+	 *         transform, divided by the square root of n, at the even
+	 *         indices of two arrays of length n
+	 */
 	public static double[][] fft(final double[] inputReal, double[] inputImag, boolean DIRECT) {
-		// - n is the dimension of the problem
-		// - nu is its logarithm in base e
 		int n = inputReal.length;
 
-		// If n is a power of 2, then ld is an integer (_without_ decimals)
-		double ld = Math.log(n) / Math.log(2.0);
-
-		// Here I check if n is a power of 2. If exist decimals in ld, I quit
-		// from the function returning null.
-		if (((int) ld) - ld != 0) {
-			System.out.println("The number of elements is not a power of 2.");
+		if (n == 0) {
 			return null;
 		}
 
-		// Declaration and initialization of the variables
-		// ld should be an integer, actually, so I don't lose any information in
-		// the cast
-		int nu = (int) ld;
-		int n2 = n / 2;
-		int nu1 = nu - 1;
-		double[] xReal = new double[n];
-		double[] xImag = new double[n];
-		double tReal, tImag, p, arg, c, s;
-
-		// Here I check if I'm going to do the direct transform or the inverse
-		// transform.
-		double constant;
+		// I don't want to overwrite the input arrays, so here I copy them.
+		double[] xReal = inputReal.clone();
+		double[] xImag = inputImag.clone();
+
+		// The plans transform with the kernel exp(-2 pi ijk/n), so the direct
+		// transform is the conjugate of the transform of the conjugate
+		if (DIRECT)
+			conjugate(xImag);
+		getPlan(n).transform(xReal, xImag);
 		if (DIRECT)
-			constant = -2 * Math.PI;
-		else
-			constant = 2 * Math.PI;
-
-		// I don't want to overwrite the input arrays, so here I copy them. This
-		// choice adds \Theta(2n) to the complexity.
-		for (int i = 0; i < n; i++) {
-			xReal[i] = inputReal[i];
-			xImag[i] = inputImag[i];
+			conjugate(xImag);
+
+		return coefficients(new double[][] { xReal, xImag }, n);
+	}
+
+	/**
+	 * Transforms real data, using a transform of half the length when the
+	 * length is even.
+	 *
+	 * @param input
+	 *            real data of length n
+	 * @return the real and imaginary parts of at least the first n/2 + 1
+	 *         elements of the transform
+	 */
+	private static double[][] realTransform(double[] input) {
+		int n = input.length;
+
+		if (n == 0) {
+			return new double[2][0];
 		}
 
-		// First phase - calculation
-		int k = 0;
-		for (int l = 1; l <= nu; l++) {
-			while (k < n) {
-				for (int i = 1; i <= n2; i++) {
-					p = bitreverseReference(k >> nu1, nu);
-					// direct FFT or inverse FFT
-					arg = constant * p / n;
-					c = Math.cos(arg);
-					s = Math.sin(arg);
-					tReal = xReal[k + n2] * c + xImag[k + n2] * s;
-					tImag = xImag[k + n2] * c - xReal[k + n2] * s;
-					xReal[k + n2] = xReal[k] - tReal;
-					xImag[k + n2] = xImag[k] - tImag;
-					xReal[k] += tReal;
-					xImag[k] += tImag;
-					k++;
-				}
-				k += n2;
-			}
-			k = 0;
-			nu1--;
-			n2 /= 2;
+		if (n % 2 != 0) {
+			double[] re = input.clone();
+			double[] im = new double[n];
+			getPlan(n).transform(re, im);
+			return new double[][] { re, im };
 		}
 
-		// Second phase - recombination
-		k = 0;
-		int r;
-		while (k < n) {
-			r = bitreverseReference(k, nu);
-			if (r > k) {
-				tReal = xReal[k];
-				tImag = xImag[k];
-				xReal[k] = xReal[r];
-				xImag[k] = xImag[r];
-				xReal[r] = tReal;
-				xImag[r] = tImag;
-			}
-			k++;
+		// Transform the even elements as the real part and the odd as the
+		// imaginary part, then separate the two transforms
+		int h = n / 2;
+		double[] zRe = new double[h];
+		double[] zIm = new double[h];
+		for (int j = 0; j < h; j++) {
+			zRe[j] = input[2 * j];
+			zIm[j] = input[2 * j + 1];
+		}
+		getPlan(h).transform(zRe, zIm);
+
+		Plan plan = getPlan(n);
+		double[] re = new double[h + 1];
+		double[] im = new double[h + 1];
+		for (int k = 0; k <= h; k++) {
+			int k1 = (k == h) ? 0 : k;
+			int k2 = (k == 0) ? 0 : h - k;
+			// even = (Z_k + conj Z_h-k)/2, odd = (Z_k - conj Z_h-k)/2i
+			double evenRe = 0.5 * (zRe[k1] + zRe[k2]);
+			double evenIm = 0.5 * (zIm[k1] - zIm[k2]);
+			double oddRe = 0.5 * (zIm[k1] + zIm[k2]);
+			double oddIm = -0.5 * (zRe[k1] - zRe[k2]);
+			double c = plan.realCos[k];
+			double s = plan.realSin[k];
+			re[k] = evenRe + oddRe * c - oddIm * s;
+			im[k] = evenIm + oddRe * s + oddIm * c;
 		}
+		return new double[][] { re, im };
+	}
 
-		// Here I have to mix xReal and xImag to have an array (yes, it should
-		// be possible to do this stuff in the earlier parts of the code, but
-		// it's here to readibility).
+	/**
+	 * Arranges a transform of length n as the coefficients of the fitted
+	 * series.
+	 */
+	private static double[][] coefficients(double[][] transform, int n) {
+		if (n == 0) {
+			return null;
+		}
 
-		double[] newRealOutArray = new double[xReal.length];
-		double[] newImOutArray = new double[xReal.length];
+		double[] newRealOutArray = new double[n];
+		double[] newImOutArray = new double[n];
 
 		double[][] output = new double[][] { newRealOutArray, newImOutArray };
 
@@ -175,52 +187,252 @@ public class FastFourierTransform {
 			int i2 = i / 2;
 			// I used Stephen Wolfram's Mathematica as a reference so I'm going
 			// to normalize the output while I'm copying the elements.
-			newRealOutArray[i] = xReal[i2] * radice;
-			newImOutArray[i] = xImag[i2] * radice;
+			newRealOutArray[i] = transform[0][i2] * radice;
+			newImOutArray[i] = transform[1][i2] * radice;
 		}
 		return output;
 	}
 
+	private static void conjugate(double[] imag) {
+		for (int i = 0; i < imag.length; i++) {
+			imag[i] = -imag[i];
+		}
+	}
+
+	private static Plan getPlan(int n) {
+		Plan plan = plans.get(n);
+		if (plan == null) {
+			if (plans.size() >= MAX_PLANS) {
+				plans.clear();
+			}
+			plan = new Plan(n);
+			Plan old = plans.putIfAbsent(n, plan);
+			if (old != null) {
+				plan = old;
+			}
+		}
+		return plan;
+	}
+
 	/**
-	 * The reference bitreverse function.
+	 * The precalculated tables for the transform of one length, with the
+	 * kernel exp(-2&pi;ijk/n).
 	 */
-	private static int bitreverseReference(int j, int nu) {
-		int j2;
-		int j1 = j;
-		int k = 0;
-		for (int i = 1; i <= nu; i++) {
-			j2 = j1 / 2;
-			k = 2 * k + j1 - 2 * j2;
-			j1 = j2;
+	private static class Plan {
+		private final int n;
+
+		// radix-2: the bit reversed indices and the twiddle factors
+		private int[] bitReverse;
+		private double[] cos;
+		private double[] sin;
+
+		// Bluestein: the chirp, the transform of its conjugate and a radix-2
+		// plan of the convolution length
+		private Plan convolution;
+		private double[] chirpRe;
+		private double[] chirpIm;
+		private double[] kernelRe;
+		private double[] kernelIm;
+		private ThreadLocal<double[][]> work;
+
+		// twiddle factors to separate a real transform of this length from
+		// a complex transform of half the length
+		private final double[] realCos;
+		private final double[] realSin;
+
+		Plan(int n) {
+			this.n = n;
+
+			if (Integer.bitCount(n) == 1) {
+				int nu = Integer.numberOfTrailingZeros(n);
+				bitReverse = new int[n];
+				for (int i = 0; i < n; i++) {
+					bitReverse[i] = (nu == 0) ? 0 : Integer.reverse(i) >>> (32 - nu);
+				}
+				cos = new double[n / 2];
+				sin = new double[n / 2];
+				for (int k = 0; k < n / 2; k++) {
+					double arg = -2 * Math.PI * k / n;
+					cos[k] = Math.cos(arg);
+					sin[k] = Math.sin(arg);
+				}
+			} else {
+				int m = Integer.highestOneBit(2 * n - 1);
+				if (m < 2 * n - 1) {
+					m <<= 1;
+				}
+				convolution = getPlan(m);
+				chirpRe = new double[n];
+				chirpIm = new double[n];
+				for (int k = 0; k < n; k++) {
+					// exp(-i pi k^2 / n), with k^2 reduced modulo 2n to keep precision
+					double arg = -Math.PI * ((long) k * k % (2L * n)) / n;
+					chirpRe[k] = Math.cos(arg);
+					chirpIm[k] = Math.sin(arg);
+				}
+				kernelRe = new double[m];
+				kernelIm = new double[m];
+				kernelRe[0] = chirpRe[0];
+				kernelIm[0] = -chirpIm[0];
+				for (int k = 1; k < n; k++) {
+					kernelRe[k] = kernelRe[m - k] = chirpRe[k];
+					kernelIm[k] = kernelIm[m - k] = -chirpIm[k];
+				}
+				convolution.transform(kernelRe, kernelIm);
+				final int length = m;
+				work = ThreadLocal.withInitial(() -> new double[2][length]);
+			}
+
+			realCos = new double[n / 2 + 1];
+			realSin = new double[n / 2 + 1];
+			for (int k = 0; k <= n / 2; k++) {
+				double arg = -2 * Math.PI * k / n;
+				realCos[k] = Math.cos(arg);
+				realSin[k] = Math.sin(arg);
+			}
+		}
+
+		/**
+		 * Transform in place, without normalization.
+		 */
+		void transform(double[] re, double[] im) {
+			if (convolution == null) {
+				radix2(re, im);
+			} else {
+				bluestein(re, im);
+			}
+		}
+
+		private void radix2(double[] re, double[] im) {
+			for (int i = 0; i < n; i++) {
+				int r = bitReverse[i];
+				if (r > i) {
+					double t = re[i];
+					re[i] = re[r];
+					re[r] = t;
+					t = im[i];
+					im[i] = im[r];
+					im[r] = t;
+				}
+			}
+			for (int size = 2; size <= n; size <<= 1) {
+				int half = size / 2;
+				int step = n / size;
+				for (int start = 0; start < n; start += size) {
+					for (int k = 0; k < half; k++) {
+						double c = cos[k * step];
+						double s = sin[k * step];
+						int a = start + k;
+						int b = a + half;
+						double tReal = re[b] * c - im[b] * s;
+						double tImag = re[b] * s + im[b] * c;
+						re[b] = re[a] - tReal;
+						im[b] = im[a] - tImag;
+						re[a] += tReal;
+						im[a] += tImag;
+					}
+				}
+			}
+		}
+
+		private void bluestein(double[] re, double[] im) {
+			double[][] w = work.get();
+			double[] wRe = w[0];
+			double[] wIm = w[1];
+			int m = wRe.length;
+			for (int k = 0; k < n; k++) {
+				wRe[k] = re[k] * chirpRe[k] - im[k] * chirpIm[k];
+				wIm[k] = re[k] * chirpIm[k] + im[k] * chirpRe[k];
+			}
+			for (int k = n; k < m; k++) {
+				wRe[k] = 0;
+				wIm[k] = 0;
+			}
+			// Convolve with the conjugate chirp, using the conjugate of the
+			// direct transform for the inverse
+			convolution.transform(wRe, wIm);
+			for (int k = 0; k < m; k++) {
+				double a = wRe[k] * kernelRe[k] - wIm[k] * kernelIm[k];
+				double b = wRe[k] * kernelIm[k] + wIm[k] * kernelRe[k];
+				wRe[k] = a;
+				wIm[k] = -b;
+			}
+			convolution.transform(wRe, wIm);
+			for (int k = 0; k < n; k++) {
+				double a = wRe[k] / m;
+				double b = -wIm[k] / m;
+				re[k] = a * chirpRe[k] - b * chirpIm[k];
+				im[k] = a * chirpIm[k] + b * chirpRe[k];
+			}
 		}
-		return k;
 	}
 
-	private static double computedYOutputDatasetRMS(IDataset input, double[][] coefficients) {
+	/**
+	 * Evaluates a cos(&omega;j) - b sin(&omega;j) for j = 0 ... length-1,
+	 * stepping the cosine and sine with the angle addition formulae.
+	 */
+	private static double[] evaluateSeries(double a, double b, double baseFrequency, int length) {
 
-		double meanOfDifferenceSquared = 0;
+		double[] yOutput = new double[length];
 
-		for (int j = 0; j < input.getSize(); j++) {
+		double cosStep = Math.cos(baseFrequency);
+		double sinStep = Math.sin(baseFrequency);
+		double c = 1;
+		double s = 0;
 
-			double xVal = (double) j;
+		for (int j = 0; j < length; j++) {
 
-			double yVal = 0;
+			// start again from the exact values now and then, so rounding
+			// errors do not accumulate
+			if (j % RECURRENCE_STEPS == 0) {
+				c = Math.cos(baseFrequency * j);
+				s = Math.sin(baseFrequency * j);
+			}
 
-			double baseFrequency = (1 / (2 * input.getSize())) * coefficients.length / 2;
+			yOutput[j] = a * c - b * s;
 
-			double[] realArray = new double[coefficients.length / 2];
-			double[] imArray = new double[coefficients.length / 2];
+			double cNext = c * cosStep - s * sinStep;
+			s = s * cosStep + c * sinStep;
+			c = cNext;
+		}
 
-			for (int n = 0; n < coefficients.length / 2; n++) {
+		return yOutput;
+	}
 
-				realArray[n] = coefficients[0][n] * Math.cos(baseFrequency * xVal);
-				imArray[n] = -1 * coefficients[1][n] * Math.sin(baseFrequency * xVal);
+	/**
+	 * Sums the real coefficients of the series terms.
+	 */
+	private static double sumReal(double[][] coefficients) {
+		double sum = 0;
+		for (int n = 0; n < coefficients.length / 2; n++) {
+			sum += coefficients[0][n];
+		}
+		return sum;
+	}
 
-				yVal += realArray[n];
-				yVal += imArray[n];
-			}
+	/**
+	 * Sums the imaginary coefficients of the series terms.
+	 */
+	private static double sumImaginary(double[][] coefficients) {
+		double sum = 0;
+		for (int n = 0; n < coefficients.length / 2; n++) {
+			sum += coefficients[1][n];
+		}
+		return sum;
+	}
 
-			double differenceSquared = Math.pow((yVal - input.getDouble(j)), 2);
+	private static double computedYOutputDatasetRMS(IDataset input, double[][] coefficients) {
+
+		double meanOfDifferenceSquared = 0;
+
+		double baseFrequency = (1 / (2 * input.getSize())) * coefficients.length / 2;
+
+		double[] yVals = evaluateSeries(sumReal(coefficients), sumImaginary(coefficients), baseFrequency,
+				input.getSize());
+
+		for (int j = 0; j < input.getSize(); j++) {
+
+			double differenceSquared = Math.pow((yVals[j] - input.getDouble(j)), 2);
 
 			meanOfDifferenceSquared += differenceSquared;
 
@@ -241,38 +453,25 @@ public class FastFourierTransform {
 		// components for 1 bin so frequency = (bin_id * freq/2) / (N/2). freq is sample
 		/// frequency, N the size of the FFT (which is coefficients.length).
 		double baseFrequency = 1;
-		
+
 		try {
 			baseFrequency = (double) ((1 / (2 * ((double) xRange.getSize()))) * ((double) coefficients[0].length)
 					/ 2);
 		} catch (NullPointerException n) {
 			System.out.println(n.getMessage());
 		}
-		for (int j = 0; j < xRange.getSize(); j++) {
-
-			double xVal = (double) j;
 
-			double yVal = 0;
+		double[] yVals = evaluateSeries(sumReal(coefficients), sumImaginary(coefficients), baseFrequency,
+				xRange.getSize());
 
-			double[] realArray = new double[coefficients.length / 2];
-			double[] imArray = new double[coefficients.length / 2];
-
-			for (int n = 0; n < coefficients.length / 2; n++) {
-
-				realArray[n] = coefficients[0][n] * Math.cos(baseFrequency * xVal);
-				imArray[n] = -1 * coefficients[1][n] * Math.sin(baseFrequency * xVal);
-
-				yVal += realArray[n];
-				yVal += imArray[n];
-			}
-
-			yOutput.set(yVal, j);
+		for (int j = 0; j < xRange.getSize(); j++) {
+			yOutput.set(yVals[j], j);
 		}
 
 		return yOutput;
-		
+
 	}
-	
+
 	private static FourierScalingOutputPackage computedYOutputDatasetFullPackage(IDataset xRange, double[][] coefficients) {
 
 		IDataset yOutput = xRange.clone();
@@ -284,32 +483,19 @@ public class FastFourierTransform {
 		// components for 1 bin so frequency = (bin_id * freq/2) / (N/2). freq is sample
 		/// frequency, N the size of the FFT (which is coefficients.length).
 		double baseFrequency = 1;
-		
+
 		try {
 			baseFrequency = ((1 / (2 * ((double) xRange.getSize()))) * ((double) coefficients[0].length)
 					/ 2);
 		} catch (NullPointerException n) {
 			System.out.println(n.getMessage());
 		}
-		for (int j = 0; j < xRange.getSize(); j++) {
-
-			double xVal = (double) j;
-
-			double yVal = 0;
-
-			double[] realArray = new double[coefficients.length / 2];
-			double[] imArray = new double[coefficients.length / 2];
-
-			for (int n = 0; n < coefficients.length / 2; n++) {
 
-				realArray[n] = coefficients[0][n] * Math.cos(baseFrequency * xVal);
-				imArray[n] = -1 * coefficients[1][n] * Math.sin(baseFrequency * xVal);
+		double[] yVals = evaluateSeries(sumReal(coefficients), sumImaginary(coefficients), baseFrequency,
+				xRange.getSize());
 
-				yVal += realArray[n];
-				yVal += imArray[n];
-			}
-
-			yOutput.set(yVal, j);
+		for (int j = 0; j < xRange.getSize(); j++) {
+			yOutput.set(yVals[j], j);
 		}
 
 		return new FourierScalingOutputPackage(baseFrequency, coefficients,new double[] {0.0}, new double[] {0.0}, new double[] {0.0}, yOutput) ;
@@ -317,73 +503,34 @@ public class FastFourierTransform {
 
 	private static double[] computedYOutputArray(IDataset xRange, double[][] coefficients) {
 
-		double[] yOutput = new double[xRange.getSize()];
-
-		// xRange is just a series of integers 0-N where N is the end
-
-		/// base frequency for each FFT bin. Remember coeffiecients[n] is the real and
-		/// coeffiecients[n+1] the imaginary
-		// components for 1 bin so frequency = (bin_id * freq/2) / (N/2). freq is sample
-		/// frequency, N the size of the FFT (which is coefficients.length).
+		double[] probePoints = new double[xRange.getSize()];
 
 		for (int j = 0; j < xRange.getSize(); j++) {
-
-			double xVal = xRange.getDouble(j);
-
-			double yVal = 0;
-
-			double baseFrequency = (1 / (2 * xRange.getSize())) * coefficients.length / 2;
-
-			double[] realArray = new double[coefficients.length / 2];
-			double[] imArray = new double[coefficients.length / 2];
-
-			for (int n = 0; n < coefficients.length; n++) {
-
-				realArray[n] = coefficients[0][n] * Math.cos(baseFrequency * xVal);
-				imArray[n] = -1 * coefficients[1][n] * Math.sin(baseFrequency * xVal);
-
-				yVal += realArray[n];
-				yVal += imArray[n];
-			}
-
-			yOutput[j] = yVal;
+			probePoints[j] = xRange.getDouble(j);
 		}
 
-		return yOutput;
+		return computedYOutputArray(probePoints, coefficients);
 	}
 
 	private static double[] computedYOutputArray(double[] probePoints, double[][] coefficients) {
 
 		double[] yOutput = new double[probePoints.length];
 
-		// xRange is just a series of integers 0-N where N is the end
-
 		/// base frequency for each FFT bin. Remember coeffiecients[n] is the real and
 		/// coeffiecients[n+1] the imaginary
 		// components for 1 bin so frequency = (bin_id * freq/2) / (N/2). freq is sample
 		/// frequency, N the size of the FFT (which is coefficients.length).
 
-		for (int j = 0; j < probePoints.length; j++) {
-
-			double xVal = probePoints[j];
-
-			double yVal = 0;
-
-			double baseFrequency = (1 / (2 * probePoints.length)) * coefficients.length / 2;
+		double baseFrequency = (1 / (2 * probePoints.length)) * coefficients.length / 2;
 
-			double[] realArray = new double[coefficients.length / 2];
-			double[] imArray = new double[coefficients.length / 2];
+		double a = sumReal(coefficients);
+		double b = sumImaginary(coefficients);
 
-			for (int n = 0; n < coefficients.length; n++) {
-
-				realArray[n] = coefficients[0][n] * Math.cos(baseFrequency * xVal);
-				imArray[n] = -1 * coefficients[1][n] * Math.sin(baseFrequency * xVal);
+		for (int j = 0; j < probePoints.length; j++) {
 
-				yVal += realArray[n];
-				yVal += imArray[n];
-			}
+			double xVal = probePoints[j];
 
-			yOutput[j] = yVal;
+			yOutput[j] = a * Math.cos(baseFrequency * xVal) - b * Math.sin(baseFrequency * xVal);
 		}
 
 		return yOutput;
@@ -256,50 +256,9 @@ public class FourierTransformCurveStitch {
 					double polyRMSMean = 0;
 
 
-					boolean useFourierTransform = true;
+					// The transform handles any number of points, but needs some
+					boolean useFourierTransform = yLowerDataset.getSize() > 0 && yHigherDataset.getSize() > 0;
 
-					Dataset yLowerDatasetUse = yLowerDataset;
-					Dataset yHigherDatasetUse = yHigherDataset;
-
-					Dataset yLowerDatasetFhklUse = yLowerDatasetFhkl;
-					Dataset yHigherDatasetFhklUse = yHigherDatasetFhkl;
-
-					Dataset yLowerDatasetRawUse = yLowerDatasetRaw;
-					Dataset yHigherDatasetRawUse = yHigherDatasetRaw;
-
-					// - nu is its logarithm in base e
-					int n = yLowerDataset.getSize();
-					int m = yHigherDataset.getSize();
-
-					// If n is a power of 2, then ld is an integer (_without_ decimals)
-					double ldL = Math.log(n) / Math.log(2.0);
-					double ldH = Math.log(m) / Math.log(2.0);
-					// Here I check if n is a power of 2. If exist decimals in ld, I quit
-					// from the function returning null.
-					if (((int) ldL) - ldL != 0 || ((int) ldH) - ldH != 0) {
-
-						int twoPowL = (int) Math.floor(ldL);
-						int twoPowH = (int) Math.floor(ldH);
-
-						if (twoPowL == 0 || twoPowH == 0) {
-							useFourierTransform = false;
-						}
-
-						int noPointsReqL = (int) Math.pow(2, twoPowL);
-						int noPointsReqH = (int) Math.pow(2, twoPowH);
-
-						yLowerDatasetUse = usedatasetStochastic(yLowerDataset, noPointsReqL);
-						yHigherDatasetUse = usedatasetStochastic(yHigherDataset, noPointsReqH);
-
-						yLowerDatasetFhklUse = usedatasetStochastic(yLowerDatasetFhkl, noPointsReqL);
-						yHigherDatasetFhklUse = usedatasetStochastic(yHigherDatasetFhkl, noPointsReqH);
-
-						yLowerDatasetRawUse = usedatasetStochastic(yLowerDatasetRaw, noPointsReqL);
-						yHigherDatasetRawUse = usedatasetStochastic(yHigherDatasetRaw, noPointsReqH);
-
-					}
-
-					
 					FourierScalingOutputPackage correctionRatiosFourier = null;
 					FourierScalingOutputPackage correctionRatiosFhklFourier= null;
 					FourierScalingOutputPackage correctionRatiosRawFourier= null;
@@ -307,19 +266,19 @@ public class FourierTransformCurveStitch {
 					if (useFourierTransform) {
 						try {
 							correctionRatiosFourier = FourierTransformOverlap.correctionRatioFullPackage(xLowerDataset,
-									yLowerDatasetUse, xHigherDataset, yHigherDatasetUse, attenuationFactor);
+									yLowerDataset, xHigherDataset, yHigherDataset, attenuationFactor);
 	
 							correctionRatioFourier = correctionRatiosFourier.getCorrection()[0];
 	
 							fourierRMSMean = (correctionRatiosFourier.getrMSLowerHigher()[0] + correctionRatiosFourier.getrMSLowerHigher()[1]) / 2;
 	
 							correctionRatiosFhklFourier = FourierTransformOverlap.correctionRatioFullPackage(xLowerDataset,
-									yLowerDatasetFhklUse, xHigherDataset, yHigherDatasetFhklUse, attenuationFactor);
+									yLowerDatasetFhkl, xHigherDataset, yHigherDatasetFhkl, attenuationFactor);
 	
 							correctionRatioFhklFourier = correctionRatiosFhklFourier.getCorrection()[0];
 	
 							correctionRatiosRawFourier = FourierTransformOverlap.correctionRatioFullPackage(xLowerDataset,
-									yLowerDatasetRawUse, xHigherDataset, yHigherDatasetRawUse, attenuationFactorRaw);
+									yLowerDatasetRaw, xHigherDataset, yHigherDatasetRaw, attenuationFactorRaw);
 	
 							correctionRatioRawFourier = correctionRatiosRawFourier.getCorrection()[0];
 						}
@@ -565,40 +524,4 @@ public class FourierTransformCurveStitch {
 
 	}
 
-	private static Dataset usedatasetStochastic(Dataset candidate, int noPointsReq) {
-
-		boolean[] mask = new boolean[candidate.getSize()];
-
-		for (int u = 0; u < mask.length; u++) {
-			mask[u] = false;
-		}
-
-		Dataset yLowerDatasetUseMask = DatasetFactory.createFromObject(mask);
-
-		ArrayList<Double> usedPoints = new ArrayList<>();
-
-		for (int o = 0; o < noPointsReq; o++) {
-			yLowerDatasetUseMask.set(true, o);
-		}
-
-		int numberOfPointsUnused = candidate.getSize() - noPointsReq;
-
-		int skippedPoints = 0;
-
-		while (usedPoints.size() < noPointsReq) {
-			for (int i = 0; i < candidate.getSize(); i++) {
-				if (Math.random() < 0.5 && skippedPoints < numberOfPointsUnused) {
-					skippedPoints++;
-				} else {
-					usedPoints.add(candidate.getDouble(i));
-				}
-			}
-		}
-
-		Dataset output = DatasetFactory.createFromObject(usedPoints);
-
-		return output;
-
-	}
-
 }
@@ -0,0 +1,187 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.xpdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.Test;
+
+public class XPDFCalibrationTest {
+
+	private static final int SIZE = 200;
+	private static final double N_ATOMS = 2.5;
+
+	/**
+	 * Sample and containers of random traces and absorption maps, with the
+	 * reference corrected sample trace calculated by explicitly subtracting
+	 * each container's scattering from the components inside it
+	 */
+	private static class Components {
+		final XPDFCalibration calibration = new XPDFCalibration();
+		final List<Dataset> traces = new ArrayList<Dataset>();
+		final double[] expected = new double[SIZE];
+		final double[] expectedErrors = new double[SIZE];
+
+		Components(int nComponents, boolean withErrors, long seed) {
+			Random random = new Random(seed);
+
+			XPDFCoordinates coords = new XPDFCoordinates();
+			coords.setTwoTheta(DatasetFactory.createLinearSpace(DoubleDataset.class, 0.1, 1.2, SIZE));
+			calibration.coords = coords;
+			calibration.dataDimensions = 1;
+			calibration.nSampleIlluminatedAtoms = N_ATOMS;
+
+			double[][][] maps = new double[nComponents][nComponents][SIZE];
+			XPDFAbsorptionMaps absorptionMaps = new XPDFAbsorptionMaps();
+			for (int iScatterer = 0; iScatterer < nComponents; iScatterer++) {
+				for (int iAbsorber = 0; iAbsorber < nComponents; iAbsorber++) {
+					for (int i = 0; i < SIZE; i++) {
+						maps[iScatterer][iAbsorber][i] = 0.5 + 0.5 * random.nextDouble();
+					}
+					absorptionMaps.setAbsorptionMap(iScatterer, iAbsorber, DatasetFactory.createFromObject(maps[iScatterer][iAbsorber]));
+				}
+			}
+			calibration.absorptionMaps = absorptionMaps;
+
+			double[][] values = new double[nComponents][SIZE];
+			double[][] errors = new double[nComponents][SIZE];
+			for (int iComponent = 0; iComponent < nComponents; iComponent++) {
+				for (int i = 0; i < SIZE; i++) {
+					values[iComponent][i] = 100 * random.nextDouble();
+				}
+				Dataset trace = DatasetFactory.createFromObject(values[iComponent].clone());
+				// the first container has no errors, which are then taken as zero
+				if (withErrors && iComponent != 1) {
+					for (int i = 0; i < SIZE; i++) {
+						errors[iComponent][i] = Math.sqrt(values[iComponent][i]);
+					}
+					trace.setErrors(DatasetFactory.createFromObject(errors[iComponent].clone()));
+				}
+				traces.add(trace);
+			}
+
+			// Working inwards, subtract the scattering of each container,
+			// corrected for the absorption by the components from (but
+			// excluding) the scatterer to (and including) the innermost
+			// absorber, from each component inside it
+			for (int iScatterer = nComponents - 1; iScatterer > 0; iScatterer--) {
+				for (int iInnermostAbsorber = iScatterer - 1; iInnermostAbsorber >= 0; iInnermostAbsorber--) {
+					for (int i = 0; i < SIZE; i++) {
+						double subsetAbsorptionCorrection = 1;
+						for (int iAbsorber = iInnermostAbsorber; iAbsorber < iScatterer; iAbsorber++) {
+							subsetAbsorptionCorrection *= maps[iScatterer][iAbsorber][i];
+						}
+						values[iInnermostAbsorber][i] -= values[iScatterer][i] * subsetAbsorptionCorrection;
+						errors[iInnermostAbsorber][i] = Math.hypot(errors[iInnermostAbsorber][i], errors[iScatterer][i] * subsetAbsorptionCorrection);
+					}
+				}
+			}
+
+			// Sample self-absorption and absorption by the containers, the
+			// number of illuminated atoms and polarization
+			Dataset cosTwoTheta = coords.getCosTwoTheta();
+			Dataset sinTwoTheta = coords.getSinTwoTheta();
+			for (int i = 0; i < SIZE; i++) {
+				double absorptionCorrection = 1;
+				for (int iAbsorber = 0; iAbsorber < nComponents; iAbsorber++) {
+					absorptionCorrection *= maps[0][iAbsorber][i];
+				}
+				double cos = cosTwoTheta.getElementDoubleAbs(i);
+				double sin = sinTwoTheta.getElementDoubleAbs(i);
+				double polarization = 0.5 * (1 + cos * cos - sin * sin);
+				double scale = polarization / (absorptionCorrection * N_ATOMS);
+				expected[i] = values[0][i] * scale;
+				expectedErrors[i] = errors[0][i] * scale;
+			}
+		}
+	}
+
+	private static void checkCombineTraces(int nComponents, boolean withErrors) {
+		Components c = new Components(nComponents, withErrors, 3217 + nComponents);
+		c.calibration.calculateTraceWeights(nComponents);
+		Dataset absCor = c.calibration.combineTraces(c.traces, true);
+
+		assertEquals(SIZE, absCor.getSize());
+		for (int i = 0; i < SIZE; i++) {
+			assertEquals("value " + i + " of " + nComponents + " components", c.expected[i], absCor.getElementDoubleAbs(i), 1e-9 * Math.max(1, Math.abs(c.expected[i])));
+		}
+
+		if (!withErrors) {
+			assertNull(absCor.getErrors());
+			return;
+		}
+		Dataset errors = absCor.getErrors();
+		assertNotNull(errors);
+		for (int i = 0; i < SIZE; i++) {
+			assertEquals("error " + i + " of " + nComponents + " components", c.expectedErrors[i], errors.getElementDoubleAbs(i), 1e-9 * Math.max(1, c.expectedErrors[i]));
+		}
+	}
+
+	@Test
+	public void testCombineTraces() {
+		for (int nComponents = 1; nComponents <= 3; nComponents++) {
+			checkCombineTraces(nComponents, false);
+			checkCombineTraces(nComponents, true);
+		}
+	}
+
+	/**
+	 * @return evaluator of a smooth difference that changes sign at the root
+	 */
+	private static Function<Collection<Double>, Map<Double, Double>> createEvaluator(final double root) {
+		return scales -> {
+			Map<Double, Double> differences = new HashMap<Double, Double>();
+			for (double scale : scales) {
+				differences.put(scale, (root - scale) * (1 + scale / 2000));
+			}
+			return differences;
+		};
+	}
+
+	private static void checkFluorescenceScale(double root) {
+		XPDFCalibration calibration = new XPDFCalibration();
+		calibration.dataDimensions = 1;
+		// the search stops when successive estimates are closer than half a grid step
+		final double granularity = 5;
+
+		double serial = calibration.findFluorescenceScale(createEvaluator(root), 1, null);
+		assertEquals(root, serial, granularity);
+		for (int nThreads = 2; nThreads <= 5; nThreads++) {
+			double parallel = calibration.findFluorescenceScale(createEvaluator(root), nThreads, null);
+			assertEquals(root, parallel, granularity);
+			assertEquals("Root found with " + nThreads + " threads", serial, parallel, granularity);
+		}
+	}
+
+	@Test
+	public void testFluorescenceScaleSearch() {
+		checkFluorescenceScale(317.3);
+		checkFluorescenceScale(2.5);
+		checkFluorescenceScale(998);
+	}
+
+	@Test
+	public void testFluorescenceScaleSearchExpandsRange() {
+		checkFluorescenceScale(1520.7);
+	}
+}
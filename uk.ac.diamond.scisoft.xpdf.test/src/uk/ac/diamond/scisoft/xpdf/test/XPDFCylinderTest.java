@@ -1,5 +1,6 @@
 package uk.ac.diamond.scisoft.xpdf.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -236,6 +237,44 @@ public class XPDFCylinderTest {
 	// Tests using data from the autumn 2015 standards experiments
 	//
 	///////////////////////////////////////////////////////////////////////////
+	@Test
+	public void testAbsorptionCorrectionsFullResolution() {
+		XPDFComponentCylinder cap = new XPDFComponentCylinder();
+		cap.setDistances(0.15, 0.16);
+		cap.setStreamality(true, true);
+		XPDFComponentCylinder sample = new XPDFComponentCylinder();
+		sample.setDistances(0.0, 0.15);
+		sample.setStreamality(false, false);
+		sample.setGridSize(1024);
+
+		XPDFBeamData beamData = new XPDFBeamData();
+		beamData.setBeamEnergy(76.6);
+		beamData.setBeamHeight(0.07);
+		beamData.setBeamWidth(0.07);
+
+		final int nGamma = 40, nDelta = 120;
+		Dataset gamma = DatasetFactory.zeros(DoubleDataset.class, nGamma, nDelta);
+		Dataset delta = DatasetFactory.zeros(gamma);
+		for (int i = 0; i < nGamma; i++) {
+			for (int k = 0; k < nDelta; k++) {
+				gamma.set(Math.toRadians(-10 + 0.5*i), i, k);
+				delta.set(Math.toRadians(0.5*k), i, k);
+			}
+		}
+
+		// No attenuation gives no absorption
+		Dataset unabsorbed = sample.calculateAbsorptionCorrections(gamma, delta, cap, 0.0, beamData, true, true);
+		assertEquals(1.0, (double) unabsorbed.min(), 1e-12);
+		assertEquals(1.0, (double) unabsorbed.max(), 1e-12);
+
+		// Calculating every direction should agree with the interpolated map
+		Dataset interpolated = sample.calculateAbsorptionCorrections(gamma, delta, cap, 0.5, beamData, true, true);
+		sample.setAngularGridSize(Integer.MAX_VALUE);
+		Dataset full = sample.calculateAbsorptionCorrections(gamma, delta, cap, 0.5, beamData, true, true);
+		assertEquals(0, (double) Maths.abs(Maths.subtract(full, interpolated)).max(), 1e-3);
+		assertTrue("Absorption should reduce the scattering", (double) full.max() < 1.0);
+	}
+
 	@Test
 	@Ignore("The reason for the fluorescence test being so far from correct needs more analysis")
 	public void testFluorescence() throws DatasetException {
@@ -1,5 +1,6 @@
 package uk.ac.diamond.scisoft.xpdf.test;
 
+import uk.ac.diamond.scisoft.xpdf.XPDFComposition;
 import uk.ac.diamond.scisoft.xpdf.XPDFMassAttenuation;
 import junit.framework.TestCase;
 
@@ -28,4 +29,18 @@ public class XPDFMassAttenuationTest extends TestCase {
 	
 	}
 
+	public void testCompositionCache() {
+		XPDFComposition ceria = new XPDFComposition("CeO2");
+		double mu76 = ceria.getMassAttenuation(76.6);
+		double mu40 = ceria.getMassAttenuation(40.0);
+		assertEquals(mu76, ceria.getMassAttenuation(76.6), 0.0);
+		assertEquals(mu40, ceria.getMassAttenuation(40.0), 0.0);
+		assertEquals(XPDFMassAttenuation.get(76.6, 58), XPDFMassAttenuation.get(76.6, 58), 0.0);
+
+		// Changing the composition must not return the old attenuation
+		ceria.add(new XPDFComposition("SiO2"));
+		XPDFComposition mixture = new XPDFComposition("CeSiO4");
+		assertEquals(mixture.getMassAttenuation(76.6), ceria.getMassAttenuation(76.6), 1e-9);
+	}
+
 }
@@ -0,0 +1,58 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.xpdf.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.xpdf.XPDFBeamData;
+import uk.ac.diamond.scisoft.xpdf.XPDFComponentPlate;
+
+public class XPDFPlateTest {
+
+	@Test
+	public void testAbsorptionCorrections() {
+		final double thickness = 0.1, mu = 2.0;
+		XPDFComponentPlate plate = new XPDFComponentPlate();
+		plate.setDistances(0.0, thickness);
+		plate.setStreamality(false, true);
+
+		XPDFBeamData beamData = new XPDFBeamData();
+		beamData.setBeamEnergy(76.6);
+		beamData.setBeamHeight(0.07);
+		beamData.setBeamWidth(0.07);
+
+		Dataset gamma = DatasetFactory.zeros(DoubleDataset.class, 8, 16);
+		Dataset delta = DatasetFactory.zeros(gamma);
+		for (int i = 0; i < 8; i++) {
+			for (int k = 0; k < 16; k++) {
+				gamma.set(Math.toRadians(2*i), i, k);
+				delta.set(Math.toRadians(2*k), i, k);
+			}
+		}
+
+		// Path lengths through a plate do not depend on the position in it
+		Dataset absorption = plate.calculateAbsorptionCorrections(gamma, delta, plate, mu, beamData, true, true);
+		for (int i = 0; i < 8; i++) {
+			for (int k = 0; k < 16; k++) {
+				double expected = Math.exp(-mu*thickness*(1 + 1/(Math.cos(gamma.getDouble(i, k))*Math.cos(delta.getDouble(i, k)))));
+				assertEquals(expected, absorption.getDouble(i, k), 1e-12);
+			}
+		}
+
+		Dataset upstream = plate.calculateAbsorptionCorrections(gamma, delta, plate, mu, beamData, true, false);
+		assertEquals(Math.exp(-mu*thickness), (double) upstream.max(), 1e-12);
+		assertEquals(Math.exp(-mu*thickness), (double) upstream.min(), 1e-12);
+	}
+}
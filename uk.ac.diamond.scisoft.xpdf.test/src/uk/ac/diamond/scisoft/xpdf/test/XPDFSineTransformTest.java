@@ -0,0 +1,58 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.xpdf.test;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.xpdf.XPDFSineTransform;
+
+public class XPDFSineTransformTest {
+
+	private static void checkTransform(Dataset q, Dataset r, boolean fast) {
+		Random.seed(12357);
+		Dataset f = Random.rand(q.getShape());
+		XPDFSineTransform transform = new XPDFSineTransform(q, r);
+		Assert.assertEquals(fast, transform.isFast());
+
+		Dataset sine = transform.sine(f);
+		Dataset sineSquared = transform.sineSquared(f);
+		for (int i = 0; i < r.getSize(); i++) {
+			double s = 0;
+			double s2 = 0;
+			for (int j = 0; j < q.getSize(); j++) {
+				double sin = Math.sin(q.getDouble(j) * r.getDouble(i));
+				s += sin * f.getDouble(j);
+				s2 += sin * sin * f.getDouble(j);
+			}
+			Assert.assertEquals("Sine at " + i, s, sine.getDouble(i), 1e-9 * q.getSize());
+			Assert.assertEquals("Sine squared at " + i, s2, sineSquared.getDouble(i), 1e-9 * q.getSize());
+		}
+	}
+
+	@Test
+	public void testUniform() {
+		Dataset q = DatasetFactory.createRange(DoubleDataset.class, 0.5, 30, 0.01);
+		Dataset r = DatasetFactory.createRange(DoubleDataset.class, 0.005, 25, 0.01);
+		checkTransform(q, r, true);
+	}
+
+	@Test
+	public void testNonUniform() {
+		Dataset q = DatasetFactory.createRange(DoubleDataset.class, 0.5, 30, 0.05);
+		q.set(0.51, 0);
+		Dataset r = DatasetFactory.createRange(DoubleDataset.class, 0.005, 25, 0.05);
+		checkTransform(q, r, false);
+	}
+}
@@ -21,7 +21,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.IntStream;
 
 import org.apache.commons.lang.ArrayUtils;
@@ -32,6 +32,7 @@ import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperationBase;
 import org.eclipse.january.DatasetException;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
 import org.eclipse.january.dataset.DoubleDataset;
 import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.ILazyDataset;
@@ -71,6 +72,9 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 	// For container data: solid angle & transmission
 	Dataset solAngSample;
 	List<Dataset> transCorContainers;
+	// The weights of the transmission corrected traces, and of their
+	// variances, in the absorption corrected sample trace
+	double[][] traceWeights, varianceWeights;
 	
 	// Adjustable parameter for beam polarization
 	private double polarizationFraction = 1.0;
@@ -162,6 +166,8 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 		theCopy.cachedPolar = this.cachedPolar;
 		theCopy.solAngSample = this.solAngSample;
 		theCopy.transCorContainers = this.transCorContainers;
+		theCopy.traceWeights = this.traceWeights;
+		theCopy.varianceWeights = this.varianceWeights;
 		theCopy.cachePI = (this.cachePI != null) ? this.cachePI : null;
 		
 		// scaling factors
@@ -218,187 +224,137 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 	}
 	
 	/**
-	 * Iterates the calibration constant for five iterations.
+	 * Calculates the weights that combine the transmission corrected traces of
+	 * the components into the absorption corrected sample trace.
 	 * <p>
-	 * Perform the iterations to converge the calibration constant of the data.
-	 * The steps performed are:
-	 * <ul>
-	 * <li>divide by the old calibration constant
-	 * <li>apply the multiple scattering correction
-	 * <li>apply the calibration constant
-	 * <li>divide by the number of atoms contributing to the signal to produce the absorption corrected data
-	 * <li>calculate the ratio of the new to old calibration constants
-	 * </ul>
-	 * @return the absorption corrected data
+	 * Removing the radiation scattered by each container, dividing by the
+	 * absorption of the sample, the number of illuminated atoms and the
+	 * polarization are all linear in the traces, so the corrected sample trace
+	 * at each point is a weighted sum of the traces at that point. The weights
+	 * do not depend on the calibration constant or the fluorescence scale, so
+	 * they are calculated once and shared by all the calibrations of the
+	 * fluorescence scale. The squares of the absorption corrections give the
+	 * weights of the variances of the traces.
+	 * @param nComponents
+	 * 					number of components, the sample and its containers
 	 */
-	private Dataset iterate(List<Dataset> deTran, boolean propagateErrors) {
+	void calculateTraceWeights(int nComponents) {
+		final double[] polarization = toArray(getPolarizationCorrection());
+		final int size = polarization.length;
 		
-		// Divide by the calibration constant and subtract the multiple scattering correction
-		List<Dataset> calCon = new ArrayList<Dataset>();
-		double lastCalCon = calibrationConstants.getLast();
-		for (Dataset componentTrace : deTran) {
-//			Dataset calConData = Maths.divide(componentTrace, calibrationConstants.getLast());
-			Dataset calConData = DatasetFactory.createFromObject(IntStream.range(0, componentTrace.getSize()).parallel().mapToDouble(i-> componentTrace.getElementDoubleAbs(i) / lastCalCon).toArray(), componentTrace.getShape()); 
-		
-			// Error propagation
-			if (propagateErrors && componentTrace.getErrors() != null)
-				calConData.setErrors(Maths.divide(componentTrace.getErrors(), calibrationConstants.getLast()));
-			// Set the data
-			calCon.add(calConData);
+		// The objects are ordered outwards; 0 is the sample, nComponents-1 the
+		// outermost container. Each container scatterer is attenuated by all
+		// the components inside it, the sample by everything.
+		final double[][][] maps = new double[nComponents][][];
+		for (int iScatterer = 0; iScatterer < nComponents; iScatterer++) {
+			int nAbsorbers = (iScatterer == 0) ? nComponents : iScatterer;
+			maps[iScatterer] = new double[nAbsorbers][];
+			for (int iAbsorber = 0; iAbsorber < nAbsorbers; iAbsorber++)
+				maps[iScatterer][iAbsorber] = toArray(absorptionMaps.getAbsorptionMap(iScatterer, iAbsorber));
 		}
-
-		boolean doMultipleScattering = false;
-		Dataset absCor;
-		if (doMultipleScattering) {
-			// Mulcor should be a LinkedList, so that we can get the last element simply
-			List<Dataset> mulCor = new ArrayList<Dataset>();
-			if (multipleScatteringCorrection != null) {
-				for (Dataset componentTrace : calCon) {
-					Dataset mulCorData = Maths.subtract(componentTrace, multipleScatteringCorrection);
-					// Error propagation: no change if the multiple scattering correction is taken as exact
-					if (propagateErrors && componentTrace.getErrors() != null)
-						mulCorData.setErrors(componentTrace.getErrors());
-					mulCor.add(mulCorData);
-				}
-			} else {
-				for (Dataset componentTrace : calCon) {
-//					Dataset mulCorData = Maths.subtract(componentTrace, 0);
-					Dataset mulCorData = DatasetFactory.createFromObject(IntStream.range(0, componentTrace.getSize()).parallel().mapToDouble(i -> componentTrace.getElementDoubleAbs(i) - 0.0), componentTrace.getShape());
-					//Error propagation
-					if (propagateErrors && componentTrace.getErrors() != null)
-						mulCorData.setErrors(componentTrace.getErrors());
-					mulCor.add(mulCorData);
+		
+		final double[][] weights = new double[nComponents][size];
+		final double[][] variances = new double[nComponents][size];
+		final double nAtoms = nSampleIlluminatedAtoms;
+		IntStream.range(0, size).parallel().forEach(i -> {
+			// The radiation scattered by each container, corrected for the
+			// absorption by the components from (but excluding) the scatterer
+			// to (and including) each innermost absorber, is subtracted from
+			// the innermost absorber. Accumulate the resulting coefficient of
+			// each trace in the sample trace, working outwards.
+			weights[0][i] = 1;
+			variances[0][i] = 1;
+			for (int iScatterer = 1; iScatterer < nComponents; iScatterer++) {
+				double weight = 0, variance = 0, subsetAbsorptionCorrection = 1;
+				for (int iInnermostAbsorber = iScatterer - 1; iInnermostAbsorber >= 0; iInnermostAbsorber--) {
+					subsetAbsorptionCorrection *= maps[iScatterer][iInnermostAbsorber][i];
+					weight -= weights[iInnermostAbsorber][i] * subsetAbsorptionCorrection;
+					variance += variances[iInnermostAbsorber][i] * subsetAbsorptionCorrection * subsetAbsorptionCorrection;
 				}
+				weights[iScatterer][i] = weight;
+				variances[iScatterer][i] = variance;
 			}
-			absCor = removeAbsorption(mulCor);
-		} else {
-			absCor = removeAbsorption(calCon);
-		}
-
-		absCor.idivide(nSampleIlluminatedAtoms);
-		if (propagateErrors && absCor.getErrors() != null)
-			absCor.getErrors().idivide(nSampleIlluminatedAtoms);
-
-		Dataset absCorP = applyPolarizationCorrection(absCor);
-		
-		// Integrate
-		double numerator = qSquaredIntegrator.ThomsonIntegral(absCorP);
-		// Divide by denominator
-		double aMultiplier = numerator/selfScatteringDenominator;
-		// Make the new calibration constant
-		double updatedCalibration = aMultiplier * calibrationConstants.getLast();
-		// Add to the list
-		calibrationConstants.add(updatedCalibration);
-
-		return absCorP;
+			// sample self-absorption and absorption by all the containers
+			double absorptionCorrection = 1;
+			for (double[] map : maps[0])
+				absorptionCorrection *= map[i];
+			double scale = polarization[i] / (absorptionCorrection * nAtoms);
+			for (int iComponent = 0; iComponent < nComponents; iComponent++) {
+				weights[iComponent][i] *= scale;
+				variances[iComponent][i] *= scale * scale;
+			}
+		});
+		traceWeights = weights;
+		varianceWeights = variances;
 	}
 
 	/**
-	 * Eliminates the scattered radiation from all containers from the data.
-	 * <p>
-	 * Subtract the scattered radiation from each container from the multiple-
-	 * scattering corrected data.
-	 * @param mulCor
-	 * 				list of the radiation scattered from the full target and
-	 * 				each container, ordered innermost outwards, with the sample
-	 * 				as the first element. 
-	 * @return the absorption corrected sample data.
+	 * Combines the transmission corrected traces of the components into the
+	 * absorption corrected sample trace, for a calibration constant of one.
+	 * @param deTran
+	 * 				list of the transmission corrected traces of the sample and
+	 * 				each container, ordered innermost outwards.
+	 * @param propagateErrors
+	 * 						propagate errors, if they are found
+	 * @return the absorption, illuminated atom and polarization corrected
+	 * 			sample data.
 	 */
-	private Dataset removeAbsorption(List<Dataset> mulCor) {
-		// Use size and indexing, rather than any fancy-pants iterators or such
-		int nComponents = mulCor.size();
-		
-		// need to retain the original data for the next time around the loop,
-		// so copy to absorptionTemporary, an ArrayList.
-		List<Dataset> absorptionTemporary = new ArrayList<Dataset>();
-		for (Dataset data : mulCor) {
-			Dataset absTempData = data.copy(DoubleDataset.class);
-			if (data.getErrors() != null)
-				absTempData.setErrors(data.getErrors());
-			absorptionTemporary.add(absTempData);
-		}
-		
-		// The objects are ordered outwards; 0 is the sample, nComponents-1 the
-		// outermost container
-		// The scatterers loop over all containers, but not the sample
-		for (int iScatterer = nComponents-1; iScatterer > 0; iScatterer--){
-			// The innermost absorber here considered. Does not include the
-			// Scatterer, but does include the sample 
-			for (int iInnermostAbsorber = iScatterer - 1; iInnermostAbsorber >= 0; iInnermostAbsorber--) {
-				// A product of absorption maps from (but excluding) the
-				// scatterer, to (and including) the innermost absorber
-				// Set the initial term of the partial product to be the absorber
-				Dataset subsetAbsorptionCorrection = this.absorptionMaps.getAbsorptionMap(iScatterer, iInnermostAbsorber).clone();
-				for (int iAbsorber = iInnermostAbsorber+1; iAbsorber < iScatterer; iAbsorber++) {
-//					subsetAbsorptionCorrection = Maths.multiply(subsetAbsorptionCorrection, this.absorptionMaps.getAbsorptionMap(iScatterer, iAbsorber));
-					subsetAbsorptionCorrection.imultiply(this.absorptionMaps.getAbsorptionMap(iScatterer, iAbsorber));
-				}
-				// Subtract the scattered radiation, corrected for absorption, from the attenuator's radiation
-//				absorptionTemporary.get(iInnermostAbsorber).isubtract(
-////						Maths.divide(
-//						Maths.multiply(
-//								absorptionTemporary.get(iScatterer),
-////								subsetAbsorptionCorrection.reshape(subsetAbsorptionCorrection.getSize())));
-//								subsetAbsorptionCorrection.squeeze()));
-
-				Dataset innermostTemporary = absorptionTemporary.get(iInnermostAbsorber),
-						scattererTemporary = absorptionTemporary.get(iScatterer);
-				absorptionTemporary.set(iInnermostAbsorber, DatasetFactory.createFromObject(IntStream.range(0, innermostTemporary.getSize()).parallel().mapToDouble( i -> innermostTemporary.getElementDoubleAbs(i) - scattererTemporary.getElementDoubleAbs(i) * subsetAbsorptionCorrection.getElementDoubleAbs(i)).toArray(), innermostTemporary.getShape()));
-				
-				// Error propagation. If either is present, then set an error on the result. Non-present errors are taken as zero (exact).
-				if (absorptionTemporary.get(iInnermostAbsorber).getErrors() != null ||
-						absorptionTemporary.get(iScatterer).getErrors() != null) {
-					Dataset innerError = (absorptionTemporary.get(iInnermostAbsorber).getErrors() != null) ?
-							absorptionTemporary.get(iInnermostAbsorber).getErrors() :
-							DatasetFactory.zeros(absorptionTemporary.get(iInnermostAbsorber));
-					Dataset scatterError = (absorptionTemporary.get(iScatterer).getErrors() != null) ?
-//							Maths.divide(
-							Maths.multiply(
-									absorptionTemporary.get(iScatterer).getErrors(),
-									subsetAbsorptionCorrection.reshape(subsetAbsorptionCorrection.getSize())) :
-//									subsetAbsorptionCorrection.squeeze()) :
-									DatasetFactory.zeros(absorptionTemporary.get(iScatterer));
-					absorptionTemporary.get(iInnermostAbsorber).setErrors(Maths.sqrt(Maths.add(Maths.square(innerError), Maths.square(scatterError))));
-				}
-				
+	Dataset combineTraces(List<Dataset> deTran, boolean propagateErrors) {
+		final int nComponents = deTran.size();
+		final double[][] traces = new double[nComponents][];
+		final double[][] errors = new double[nComponents][];
+		boolean hasErrors = false;
+		for (int iComponent = 0; iComponent < nComponents; iComponent++) {
+			traces[iComponent] = toArray(deTran.get(iComponent));
+			// Non-present errors are taken as zero (exact)
+			if (propagateErrors && deTran.get(iComponent).getErrors() != null) {
+				errors[iComponent] = toArray(deTran.get(iComponent).getErrors());
+				hasErrors = true;
 			}
 		}
+		final double[][] weights = traceWeights;
+		final double[] absCorData = new double[traces[0].length];
+		IntStream.range(0, absCorData.length).parallel().forEach(i -> {
+			double sum = 0;
+			for (int iComponent = 0; iComponent < nComponents; iComponent++)
+				sum += weights[iComponent][i] * traces[iComponent][i];
+			absCorData[i] = sum;
+		});
+		Dataset absCor = DatasetFactory.createFromObject(absCorData, deTran.get(0).getShape());
 		
-		// start with sample self-absorption
-		Dataset absorptionCorrection = this.absorptionMaps.getAbsorptionMap(0, 0).clone();
-		for (int iAbsorber = 1; iAbsorber < nComponents; iAbsorber++)
-//			absorptionCorrection = Maths.multiply(absorptionCorrection, absorptionMaps.getAbsorptionMap(0, iAbsorber));
-			absorptionCorrection.imultiply(absorptionMaps.getAbsorptionMap(0, iAbsorber));
-		
-//		Dataset absCor = Maths.divide(absorptionTemporary.get(0), absorptionCorrection.reshape(absorptionCorrection.getSize()));
-		Dataset sampleTemporary = absorptionTemporary.get(0);
-//		Dataset absCor = Maths.divide(absorptionTemporary.get(0), absorptionCorrection.getSliceView().squeeze());
-		Dataset absCor = DatasetFactory.createFromObject(IntStream.range(0, sampleTemporary.getSize()).parallel().mapToDouble(i -> sampleTemporary.getElementDoubleAbs(i) / absorptionCorrection.getElementDoubleAbs(i)).toArray(), sampleTemporary.getShape());
 		// Error propagation
-		if (absorptionTemporary.get(0).getErrors() != null) {
-//			absCor.setError(Maths.divide(absorptionTemporary.get(0).getError(), absorptionCorrection.reshape(absorptionCorrection.getSize())));
-			absCor.setErrors(Maths.divide(absorptionTemporary.get(0).getErrors(), absorptionCorrection.getSliceView().squeeze()));
+		if (hasErrors) {
+			final double[][] variances = varianceWeights;
+			final double[] errorData = new double[absCorData.length];
+			IntStream.range(0, errorData.length).parallel().forEach(i -> {
+				double sum = 0;
+				for (int iComponent = 0; iComponent < nComponents; iComponent++)
+					if (errors[iComponent] != null)
+						sum += variances[iComponent][i] * errors[iComponent][i] * errors[iComponent][i];
+				errorData[i] = Math.sqrt(sum);
+			});
+			absCor.setErrors(DatasetFactory.createFromObject(errorData, absCor.getShape()));
 		}
-		
 		return absCor;
 	}
 
+	private static double[] toArray(Dataset data) {
+		return DatasetUtils.copy(DoubleDataset.class, data).getData();
+	}
+	
 	/**
-	 * Removes the effect of polarization on the data. 
-	 * @param absCor
-	 * 				The data uncorrected for the effects of polarization
-	 * @return the data corrected for the effects of polarization.
+	 * Gets the correction for the effect of polarization on the data. 
+	 * @return the factor by which to multiply the data to correct for the
+	 * 			effects of polarization.
 	 */
-	private Dataset applyPolarizationCorrection(Dataset absCor) {
-		final double sineFudge = 0.99;		
-//		final double polarizationFraction = 1.0;
+	private Dataset getPolarizationCorrection() {
 		Dataset polCor;
 
 		if (!cachedPolar.containsKey(coords)) {		
 			// The azimuthal dependence or the mean value thereof, f(φ)
 			Dataset azimuthalFactor;
 			
-			if (absCor.getShape().length == 1) {
+			if (dataDimensions == 1) {
 				// One dimensional: f(φ) = c/2 sin² 2θ
 				azimuthalFactor = Maths.multiply(polarizationFraction, Maths.square(coords.getSinTwoTheta()));
 			} else {
@@ -418,11 +374,7 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 		} else {
 			polCor = cachedPolar.get(coords);
 		}
-								
-//		Dataset absCorP = Maths.multiply(absCor, polCor);
-		Dataset absCorP = DatasetFactory.createFromObject(IntStream.range(0, absCor.getSize()).parallel().mapToDouble(i -> absCor.getElementDoubleAbs(i) * polCor.getElementDoubleAbs(i)).toArray(), absCor.getShape());
-		
-		return absCorP; 
+		return polCor; 
 	}
 
 	/**
@@ -456,10 +408,20 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 	/**
 	 * Performs the calibration iterations.
 	 * <p>
-	 * Performs the part of the calibration following the fluorescence scale determination. 
-//	 * @param nIterations
-	 * 					the number of iterations to make to calculate the
-	 * 					multiplicative calibration constant.
+	 * Performs the part of the calibration following the fluorescence scale
+	 * determination. The steps of each iteration are:
+	 * <ul>
+	 * <li>divide by the old calibration constant
+	 * <li>remove the scattering by the containers and the absorption
+	 * <li>divide by the number of atoms contributing to the signal to produce the absorption corrected data
+	 * <li>apply the polarization correction
+	 * <li>calculate the ratio of the new to old calibration constants
+	 * </ul>
+	 * All the steps before the last are linear in the data, so the corrected
+	 * trace is calculated once, and each iteration only rescales its integral.
+	 * @param nIterations
+	 * 					the maximum number of iterations to make to calculate
+	 * 					the multiplicative calibration constant.
 	 * @param propagateErrors
 	 * 						propagate errors, if they are found
 	 * @return the calibrated XPDF data
@@ -474,9 +436,13 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 			logger.debug("Utilising pre-calculated initial corrections");
 			deTran = utilizePrecalculatedCorrections(propagateErrors);
 		}
+		if (traceWeights == null)
+			calculateTraceWeights(deTran.size());
+
+		// The corrected data for a calibration constant of one, and its integral
+		Dataset absCor = combineTraces(deTran, propagateErrors);
+		double unitNumerator = qSquaredIntegrator.ThomsonIntegral(absCor);
 
-		
-		Dataset absCor = null;
 		// Initialize the list of calibration constants with the predefined initial value.
 		calibrationConstants = new LinkedList<Double>(Arrays.asList(new Double[] {calibrationConstant0}));
 		// Iterate until a hardcoded precision is achieved or the maximum number of iterations is reached
@@ -484,12 +450,22 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 		int count = 0;
 		double calConRatio;
 		do{
-			absCor = this.iterate(deTran, propagateErrors);
+			double lastCalCon = calibrationConstants.getLast();
+			// Integrate the data divided by the old calibration constant
+			double numerator = unitNumerator / lastCalCon;
+			// Divide by denominator
+			double aMultiplier = numerator/selfScatteringDenominator;
+			// Make the new calibration constant
+			calibrationConstants.add(aMultiplier * lastCalCon);
 			count++;
 			calConRatio = calibrationConstants.getLast()/calibrationConstants.get(calibrationConstants.size()-2); 
 		} while (Math.abs(calConRatio - 1) > calibrationPrecision && count < nIterations);
-//		for (int i = 0; i < nIterations; i++)
-//			absCor = this.iterate(fluorescenceCorrected, propagateErrors);
+
+		// The data is divided by the calibration constant it was integrated with
+		double calCon = calibrationConstants.get(calibrationConstants.size()-2);
+		absCor.idivide(calCon);
+		if (absCor.getErrors() != null)
+			absCor.getErrors().idivide(calCon);
 		return absCor;
 	}
 	
@@ -521,6 +497,9 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 		for (int iCont = 1; iCont < backgroundSubtracted.size(); iCont++) {
 			transCorContainers.add(copyingTransmissionCorrection(copyingSolidAngle(backgroundSubtracted.get(iCont), oneOverCosTwoThetaCubed), transmissionCorrection));
 		}
+		
+		// Absorption, illuminated atoms and polarization
+		calculateTraceWeights(backgroundSubtracted.size());
 	}
 	
 	private Dataset copyingSolidAngle(Dataset targetComponent, Dataset oneOverCosTwoThetaCubed) {
@@ -573,6 +552,8 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 	private void invalidateInitialCorrections() {
 		solAngSample = null;
 		transCorContainers.clear();
+		traceWeights = null;
+		varianceWeights = null;
 	}
 	
 	/**
@@ -652,18 +633,48 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 	/**
 	 * Calibrates the fluorescence.
 	 * <p>
-	 * This method loops over a range of different fluorescence multipliers.
+	 * This method searches a range of different fluorescence multipliers.
 	 * The fluorescence is multiplied by this value, and subtracted from the
 	 * normalized data. A smoothed version of the resulting calibrated data is
 	 * then compared to the theoretical self-scattering. The multiplier that
-	 * gives the smallest difference is used. 
+	 * gives zero difference is found by dividing the range at as many points
+	 * as there are threads, which reduces to bisection for a single thread.
+	 * If the difference does not change sign, the multiplier that gives the
+	 * smallest difference on a grid is used. 
 	 * @param nIterations
 	 * 					the number of iterations to use in the calibration.
+	 * @param nThreads
+	 * 				the number of fluorescence multipliers to evaluate in
+	 * 				parallel.
 	 */
 	private void calibrateFluorescence(int nIterations, int nThreads, IOperation<?,?> op) {
 		
 		if (this.sampleFluorescence == null) return;
 		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nThreads));
+		try {
+			calibrateFluorescence(executor, nIterations, Math.max(1, nThreads), op);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void calibrateFluorescence(final ExecutorService executor, final int nIterations, int nThreads, final IOperation<?,?> op) {
+		this.fluorescenceScale = findFluorescenceScale(
+				scales -> evaluateSeveralFluoroScales(executor, scales, nIterations, op), nThreads, op);
+	}
+
+	/**
+	 * Finds the fluorescence scale that gives zero difference.
+	 * @param evaluator
+	 * 					maps each of a collection of fluorescence scales to
+	 * 					the difference it gives, or to an empty map on failure.
+	 * @param nThreads
+	 * 				the number of fluorescence scales to evaluate together.
+	 * @return the fluorescence scale
+	 */
+	double findFluorescenceScale(Function<Collection<Double>, Map<Double, Double>> evaluator, int nThreads, IOperation<?,?> op) {
+		double scale = fluorescenceScale;
 		// Set the fluorescence scales for one and two dimensions
 		final double minScale, maxScale, nSteps;
 		if (this.dataDimensions == 1) {
@@ -680,12 +691,14 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 		boolean doGridded = false;
 		
 		if (!doGridded) {
-			// New bisection solver
-			ExecutorService annihilator = Executors.newSingleThreadExecutor();
+			// New multisection solver
 			double granularity = (maxScale - minScale) / nSteps / 2;
 			double xLow = minScale, xHigh = maxScale;
-			double fLow = evaluateSingleFluorescence(annihilator, xLow, nIterations, op),
-					fHigh = evaluateSingleFluorescence(annihilator, xHigh, nIterations, op);
+			Map<Double, Double> ends = evaluator.apply(
+					Arrays.asList(ArrayUtils.toObject(new double[] { xLow, xHigh })));
+			if (ends.size() < 2) throw new OperationException(op, "Fluoroscent scale calulation failed!");
+			double fLow = ends.get(xLow),
+					fHigh = ends.get(xHigh);
 			// If the selected range should not change sign, expand it until it does
 			int count = 0;
 			while (Math.signum(fHigh) == Math.signum(fLow) && count < MAX_ITERATIONS) {
@@ -706,9 +719,9 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 				}
 				
 				// Calculate the differences at the end points of the expanded range
-				Map<Double, Double> differences = evaluateSeveralFluoroScales(
-						Arrays.asList(ArrayUtils.toObject(new double[] { xLow, xHigh })), nIterations,
-						Math.min(nThreads, 2),op);
+				Map<Double, Double> differences = evaluator.apply(
+						Arrays.asList(ArrayUtils.toObject(new double[] { xLow, xHigh })));
+				if (differences.size() < 2) throw new OperationException(op, "Fluoroscent scale calulation failed!");
 				fLow = differences.get(xLow);
 				fHigh = differences.get(xHigh);
 				logger.debug("Bisection fluoro scales " + Double.toString(xLow) + " to " + Double.toString(xHigh));
@@ -721,7 +734,6 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 			}
 
 			if (!doGridded) {
-				boolean doQuadrisection = false;
 				double xLinear = xHigh, xLinearLast = xLow;
 				// Reduce the range, while maintaining the condition that fHigh and fLow have opposite signs
 				int counter = 0;
@@ -729,44 +741,26 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 
 					xLinearLast = xLinear;
 
-					double xMid, fMid;
-
-					if (doQuadrisection) {
-						// Parallel quadrisection
-						double xInterval = (xHigh - xLow) / 4;
-						double xQuarter = xLow + xInterval;
-						xMid = xQuarter + xInterval;
-						double x3Quarters = xHigh - xInterval;
-						// Calculate the difference values at the three quarter points
-						double[] xes = new double[] { xQuarter, xMid, x3Quarters };
-						Map<Double, Double> midScales = evaluateSeveralFluoroScales(
-								Arrays.asList(ArrayUtils.toObject(xes)), nIterations, Math.min(nThreads, 3),op);
-						fMid = midScales.get(xMid);
-
-						// Do the first bisection
+					// Calculate the difference values at equally spaced
+					// interior points, one for each thread
+					double xInterval = (xHigh - xLow) / (nThreads + 1);
+					List<Double> xes = new ArrayList<Double>(nThreads);
+					for (int i = 1; i <= nThreads; i++)
+						xes.add(xLow + i * xInterval);
+					Map<Double, Double> midScales = evaluator.apply(xes);
+					if (midScales.size() < xes.size()) throw new OperationException(op, "Fluoroscent scale calulation failed!");
+
+					// Keep the first interval over which the difference changes sign
+					for (double xMid : xes) {
+						double fMid = midScales.get(xMid);
 						if (Math.signum(fMid) == Math.signum(fLow)) {
 							xLow = xMid;
 							fLow = fMid;
-							xMid = x3Quarters;
 						} else {
 							xHigh = xMid;
 							fHigh = fMid;
-							xMid = xQuarter;
+							break;
 						}
-						fMid = midScales.get(xMid);
-					} else {
-						// Serial bisection
-						xMid = (xHigh + xLow) / 2;
-						fMid = evaluateSingleFluorescence(annihilator, xMid, nIterations,op);
-					}
-
-					// Do the bisection
-					if (Math.signum(fMid) == Math.signum(fLow)) {
-						xLow = xMid;
-						fLow = fMid;
-					} else {
-						xHigh = xMid;
-						fHigh = fMid;
 					}
 
 					// Calculate the linear interpolation of zero difference
@@ -782,13 +776,13 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 				
 				// Linear interpolation of x over this range
 				//		double xZero = xLow - (xHigh - xLow)/(fHigh - fLow) * fLow;
-				this.fluorescenceScale = xLinear;
+				scale = xLinear;
 			}
 		}
 		// Old gridded code
 		if (doGridded) {
 
-			Map<Double, Double> scaleToDifference = evaluateSeveralFluoroScales(Arrays.asList(ArrayUtils.toObject(DatasetFactory.createRange(DoubleDataset.class, minScale, maxScale, stepScale).getData())), nIterations, nThreads,op);
+			Map<Double, Double> scaleToDifference = evaluator.apply(Arrays.asList(ArrayUtils.toObject(DatasetFactory.createRange(DoubleDataset.class, minScale, maxScale, stepScale).getData())));
 			
 			double minimalScale = 0;
 			double minimalDifference = Double.POSITIVE_INFINITY; 
@@ -800,42 +794,23 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 					minimalScale = entry.getKey();
 				}
 			}
-			this.fluorescenceScale = minimalScale;
-			logger.debug("Gridded fluoro scale = " + this.fluorescenceScale);
+			scale = minimalScale;
+			logger.debug("Gridded fluoro scale = " + scale);
 		}
+		return scale;
 	}
 
-	// Bundle all the execution and waiting code and especially their try/catches into a function
-	private double evaluateSingleFluorescence(ExecutorService executor, double x, int nIterations, IOperation<?,?> op) {
-		Map<Double, Double> map = evaluateSeveralFluoroScales(Arrays.asList(new Double[] {x}), nIterations, 1, op);
-		if (map.isEmpty()) throw new OperationException(op, "Fluoroscent scale calulation failed!");
-		return map.values().toArray(new Double[1])[0];
-	}
-	
 	// Common code to evaluate several fluorescence scales at the same time
-	private Map<Double, Double> evaluateSeveralFluoroScales(Collection<Double> scales, int nIterations, int nThreads, IOperation<?,?> op) {
-		ExecutorService ravager = (scales.size() == 1) ? Executors.newSingleThreadExecutor() : Executors.newFixedThreadPool(nThreads);
-
-		AtomicInteger completionCounter = new AtomicInteger(0);
-		final int numberToCalculate = scales.size();
+	private Map<Double, Double> evaluateSeveralFluoroScales(ExecutorService executor, Collection<Double> scales, int nIterations, IOperation<?,?> op) {
 		// Set of all results
 		Map<Double, Future<Double>> futureMap = new HashMap<Double, Future<Double>>();
 		// Submit to the executor	
 		for (double scale : scales)
-			futureMap.put(scale, ravager.submit(new FluorescenceEvaluator(this, absorptionMaps, scale, calibrationConstant0, nIterations, completionCounter, op)));
+			futureMap.put(scale, executor.submit(new FluorescenceEvaluator(this, absorptionMaps, scale, calibrationConstant0, nIterations, op)));
 
 		Map<Double, Double> scaleToDifference = new HashMap<Double, Double>();
 
-		// Spin, checking if all the threads have completed
-		while (completionCounter.get() < numberToCalculate)
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException iE) {
-				; // Do nothing: go to check on the results again 
-			}
-
-		// Get all the results
-		
+		// Get all the results, waiting for each to complete
 		for (Map.Entry<Double, Future<Double>> scaleNFuture : futureMap.entrySet()) {
 		
 			try {
@@ -846,12 +821,16 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 				break;
 			} catch (InterruptedException iE) {
 				logger.error("Fluoro scale error", iE);
+				Thread.currentThread().interrupt();
 				scaleToDifference.clear();
 				break;
 			}
 		}
 		
-		ravager.shutdown();
+		// Do not leave any remaining evaluations running after a failure
+		if (scaleToDifference.isEmpty())
+			for (Future<Double> future : futureMap.values())
+				future.cancel(true);
 
 		return scaleToDifference;
 	}
@@ -913,26 +892,20 @@ public class XPDFCalibration extends XPDFCalibrationBase {
 		XPDFCalibration fluorCalibration;
 		int nIterations;
 		double scale;
-		AtomicInteger counter;
 		IOperation<?, ?> op;
 		
-		public FluorescenceEvaluator(XPDFCalibration source, XPDFAbsorptionMaps absorptionMaps, double scale, double calCon0, int nIterations, AtomicInteger counter, IOperation<?, ?> op) {
+		public FluorescenceEvaluator(XPDFCalibration source, XPDFAbsorptionMaps absorptionMaps, double scale, double calCon0, int nIterations, IOperation<?, ?> op) {
 			fluorCalibration = source.getShallowCopy();
 			fluorCalibration.setFixedFluorescence(scale);
 			this.scale = scale;
 			this.nIterations = nIterations;
-			this.counter = counter;
 			this.op = op;
 		}
 		
 		public Double call() {
-			try {
-				Dataset absCor = fluorCalibration.iterateCalibrate(nIterations, false, op);
-				double difference = fluorCalibration.integrateFluorescence(absCor);
-				return difference;
-			} finally {
-				counter.incrementAndGet();
-			}
+			Dataset absCor = fluorCalibration.iterateCalibrate(nIterations, false, op);
+			double difference = fluorCalibration.integrateFluorescence(absCor);
+			return difference;
 		}
 	}
 	
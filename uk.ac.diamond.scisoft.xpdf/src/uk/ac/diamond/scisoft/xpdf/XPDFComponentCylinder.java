@@ -10,13 +10,14 @@
 package uk.ac.diamond.scisoft.xpdf;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
 import org.eclipse.january.dataset.DoubleDataset;
 import org.eclipse.january.dataset.IndexIterator;
-import org.eclipse.january.dataset.Maths;
 
 /**
  * The class for cylindrical components of the experimental target. This class
@@ -137,27 +138,42 @@ public class XPDFComponentCylinder extends XPDFComponentGeometry {
 //	}
 	
 	
-	private Dataset getDownstreamPathLengthExplicit(Dataset xSet, Dataset ySet, Dataset zSet,
-			double gamma0, double delta0) {
-		
+	/**
+	 * Calculates the path lengths upstream of the given points into an array.
+	 */
+	@Override
+	public void getUpstreamPathLengths(double[] x, double[] y, double[] z, double[] lengths) {
+		for (int i = 0; i < lengths.length; i++)
+			lengths[i] = thicknessAtDistanceFromRadiusScalar(x[i], z[i]);
+	}
+
+	/**
+	 * Calculates the path lengths downstream of the given points into an array.
+	 */
+	@Override
+	public void getDownstreamPathLengths(double[] x, double[] y, double[] z, double gamma0, double delta0, double[] lengths) {
 		// Undo the roll of the capillary, and get the effective (γ,δ) angles
 		double sinGamma = Math.sin(gamma0)*Math.cos(eulerAngles[2]) - Math.cos(gamma0)*Math.sin(delta0)*Math.sin(eulerAngles[2]);
 		double tanDelta = Math.tan(delta0)*Math.cos(eulerAngles[2]) + Math.tan(gamma0)/Math.cos(delta0)*Math.sin(eulerAngles[2]);
 		
 		double cd = 1/Math.sqrt(1+square(tanDelta)), sd = tanDelta*cd;
-		double cgamma = Math.sqrt(1-square(sinGamma));
-		
-		DoubleDataset lambda = xSet.copy(DoubleDataset.class);
-		IndexIterator iter = xSet.getIterator();
+		double secGamma = 1/Math.sqrt(1-square(sinGamma));
 		
-		while(iter.hasNext()) {
-			double x = xSet.getElementDoubleAbs(iter.index);
-			double z = zSet.getElementDoubleAbs(iter.index);
-			double d = x*cd - z*-sd;
-			double w = x*sd + z*-cd;
-			lambda.setAbs(iter.index, thicknessAtDistanceFromRadiusScalar(d, w)/cgamma);
+		for (int i = 0; i < lengths.length; i++) {
+			double d = x[i]*cd + z[i]*sd;
+			double w = x[i]*sd - z[i]*cd;
+			lengths[i] = thicknessAtDistanceFromRadiusScalar(d, w)*secGamma;
 		}
-		return lambda;
+	}
+
+	private Dataset getDownstreamPathLengthExplicit(Dataset xSet, Dataset ySet, Dataset zSet,
+			double gamma0, double delta0) {
+		double[] lambda = new double[xSet.getSize()];
+		getDownstreamPathLengths(DatasetUtils.copy(DoubleDataset.class, xSet).getData(),
+				DatasetUtils.copy(DoubleDataset.class, ySet).getData(),
+				DatasetUtils.copy(DoubleDataset.class, zSet).getData(),
+				gamma0, delta0, lambda);
+		return DatasetFactory.createFromObject(lambda, xSet.getShape());
 	}
 
 		
@@ -194,7 +210,7 @@ public class XPDFComponentCylinder extends XPDFComponentGeometry {
 //		// Upsample the absorption back to the original resolution and return
 //		Dataset absorptionHigh = XPDFRegrid.two(absorption, nXHigh, nYHigh);
 
-		Dataset absorption2 = (new XPDFScaled2DCalculation(4096) {
+		Dataset absorption2 = (new XPDFScaled2DCalculation(getAngularGridSize(4096)) {
 			
 			@Override
 			protected Dataset calculate(Dataset gammaCalc, Dataset deltaCalc) {
@@ -210,60 +226,6 @@ public class XPDFComponentCylinder extends XPDFComponentGeometry {
 		return absorption2;//High;		
 		}
 
-	/**
-	 * Returns smaller grid axes, based on the lengths of the originals and the maximum grid size.
-	 * @param maxGrid
-	 * 				maximum number of grid points to use.
-	 * @param nXHigh
-	 * 				original length of the x axis (dimension 0)
-	 * @param nYHigh
-	 * 				original length of the y axis (dimension 1)
-	 * @param nXYLow
-	 * 				return the values of the axis lengths using a 2 element int
-	 * 				array, since Java has no pass by reference
-	 */
-	private void restrictGridSize(int maxGrid, int nXHigh, int nYHigh, int[] nXYLow) {
-		int nXLow, nYLow;
-		// Grid size for the low resolution calculations
-		if (nXHigh*nYHigh < maxGrid) {
-			nXLow = nXHigh;
-			nYLow = nYHigh;
-		} else {
-			// Sort the axes
-			int smallerDim, largerDim;
-			boolean isXSmaller = nXHigh < nYHigh;
-			if (isXSmaller) {
-				smallerDim = nXHigh;
-				largerDim = nYHigh;
-			} else {
-				smallerDim = nYHigh;
-				largerDim = nXHigh;
-			}
-
-			// Deal with one axis being rather short
-			if (smallerDim <= 2) {
-				largerDim = (largerDim*smallerDim > maxGrid) ? maxGrid/smallerDim : largerDim;
-			} else {
-				double scale = maxGrid/(1.0*smallerDim*largerDim);
-				smallerDim = (int) Math.ceil(Math.sqrt(scale) * smallerDim);
-				smallerDim = (smallerDim < 2) ? 2 : smallerDim;
-				largerDim = maxGrid/smallerDim;
-			}
-			
-			// Unsort the axes
-			if (isXSmaller) {
-				nXLow = smallerDim;
-				nYLow = largerDim;
-			} else {
-				nXLow = largerDim;
-				nYLow = smallerDim;
-			}
-		
-		}
-		nXYLow[0] = nXLow;
-		nXYLow[1] = nYLow;
-	}
-	
 	/**
 	 * For a circle, returns the chord distance from the -z boundary along the
 	 * line that passes p from the centre of the circle.
@@ -327,35 +289,21 @@ public class XPDFComponentCylinder extends XPDFComponentGeometry {
 
 	@Override
 	public Dataset calculateFluorescence(Dataset gamma, Dataset delta,
-			List<XPDFComponentGeometry> attenuators,
-			List<Double> attenuationsIn, List<Double> attenuationsOut,
-			XPDFBeamData beamData,
-			boolean doIncomingAbsorption, boolean doOutgoingAbsorption) {
-		// Grid size for the high resolution data
-		int nXHigh = delta.getShape()[0];
-		int nYHigh = delta.getShape()[1];
-
-		int[] nXYLow = new int[2];
-		
-//		restrictGridSize(4096, nXHigh, nYHigh, nXYLow);
-		restrictGridSize(512, nXHigh, nYHigh, nXYLow);
-		
-		int nXLow = nXYLow[0];
-		int nYLow = nXYLow[1];
-
-		// Down sampling of the angular coordinates for faster calculations
-		Dataset gammaDown = XPDFRegrid.two(gamma, nXLow, nYLow);
-		Dataset deltaDown = XPDFRegrid.two(delta, nXLow, nYLow);
-
-		Dataset fluorescence = calculateAbsorptionFluorescence(gammaDown, deltaDown,
+			final List<XPDFComponentGeometry> attenuators,
+			final List<Double> attenuationsIn, final List<Double> attenuationsOut,
+			final XPDFBeamData beamData,
+			final boolean doIncomingAbsorption, final boolean doOutgoingAbsorption) {
+		return (new XPDFScaled2DCalculation(getAngularGridSize(512)) {
+			
+			@Override
+			protected Dataset calculate(Dataset gammaCalc, Dataset deltaCalc) {
+				return calculateAbsorptionFluorescence(gammaCalc, deltaCalc,
 						attenuators,
 						attenuationsIn, attenuationsOut,
 						beamData,
 						doIncomingAbsorption, doOutgoingAbsorption, true);
-
-		// Upsample the fluorescence back to the original resolution and return
-		return XPDFRegrid.two(fluorescence, nXHigh, nYHigh);
-		
+			}
+		}).run(gamma, delta);
 	}
 	
 	private Dataset calculateAbsorptionFluorescence(Dataset gamma, Dataset delta,
@@ -399,136 +347,72 @@ public class XPDFComponentCylinder extends XPDFComponentGeometry {
 		
 		Dataset r1D = DatasetFactory.createRange(DoubleDataset.class, rInner+dR/2, rOuter-dR/2+dR/1e6, dR);
 		Dataset xi1D = DatasetFactory.createRange(DoubleDataset.class, xiMin+dXi/2, xiMax-dXi/2+dXi/1e6, dXi);
-		
-
-		// Expand the one dimensional coordinates to a two dimensional grid
-		// TODO: Is this the best way to expand a Dataset?
-		Dataset rCylinder = DatasetFactory.zeros(DoubleDataset.class, r1D.getSize(), xi1D.getSize());
-		Dataset xiCylinder = DatasetFactory.zeros(DoubleDataset.class, r1D.getSize(), xi1D.getSize());
-		for (int i = 0; i<rSteps; i++) {
-			for (int k = 0; k<xiSteps; k++) {
-				rCylinder.set(r1D.getDouble(i), i, k);
-				xiCylinder.set(xi1D.getDouble(k), i, k);
-			}
-		}
 
+		// Expand the one dimensional coordinates to a two dimensional grid of
+		// volume elements, indexed by i*nXi + k.
 		// From the later definitions of angles, with zero detector and
 		// capillary roll, x is vertical, y is horizontal, along the capillary
 		// axis, z is along the incident beam. Yes, this is confusing when
 		// compared to the lab frame
-		Dataset xPlate = Maths.multiply(rCylinder, Maths.sin(xiCylinder));
-		Dataset yPlate = DatasetFactory.zeros(xPlate);
-		Dataset zPlate = Maths.multiply(rCylinder, Maths.cos(xiCylinder));
-		
-		// Roll the coordinates
-		Dataset tempPlate = Maths.add(Maths.multiply(Math.cos(eulerAngles[2]), xPlate), Maths.multiply(Math.sin(eulerAngles[2]), yPlate));
-		yPlate = Maths.add(Maths.multiply(-Math.sin(eulerAngles[2]), xPlate), Maths.multiply(Math.cos(eulerAngles[2]), yPlate));
-		//zPlate = zPlate;
-		xPlate = tempPlate;
-				
-		// Create a mask of the illuminated atoms in the cylinder.
-		// TODO: There has to be a better way to make a mask Dataset
-//		Dataset illuminationPlateOld = DatasetFactory.ones(xPlate);
-//		for (int i=0; i<xPlate.getShape()[0]; i++){
-//			for (int k=0; k<xPlate.getShape()[1]; k++) {
-////				if (Math.abs(xPlate.getDouble(i, k)) > beamData.getBeamHeight()/2)
-//				// Elliptical beam shape 
-//				if (square(xPlate.getDouble(i, k)/(beamData.getBeamHeight()/2)) + 
-//						square(yPlate.getDouble(i, k)/(beamData.getBeamWidth()/2)) > 1)
-//				illuminationPlateOld.set(0.0, i, k);
-//			}
-//		}
+		double[] r1DData = DatasetUtils.copy(DoubleDataset.class, r1D).getData();
+		double[] xi1DData = DatasetUtils.copy(DoubleDataset.class, xi1D).getData();
+		int nR = r1DData.length, nXi = xi1DData.length;
+		double[] xPlate = new double[nR*nXi];
+		double[] yPlate = new double[nR*nXi];
+		double[] zPlate = new double[nR*nXi];
+		double[] volumeElement = new double[nR*nXi];
+		double[] illuminatedVolume = new double[nR*nXi];
 
-		Dataset illuminationPlate= DatasetFactory.ones(xPlate);
-		// Illuminate the volume if the beam passes through the element (will overestimate the illuminated volume)
-		IndexIterator iter = xPlate.getIterator();
+		// Roll the coordinates
+		double cosRoll = Math.cos(eulerAngles[2]), sinRoll = Math.sin(eulerAngles[2]);
 		double dR_2 = dR/2, h_2 = beamData.getBeamHeight()/2;
-		while(iter.hasNext()) {
-			double sinXi = Math.sin(xiCylinder.getElementDoubleAbs(iter.index)),
-					cosXi = Math.cos(xiCylinder.getElementDoubleAbs(iter.index));
-			double rInner = rCylinder.getElementDoubleAbs(iter.index) - dR_2,
-					rOuter = rCylinder.getElementDoubleAbs(iter.index) + dR_2;
-			double x0 = xPlate.getElementDoubleAbs(iter.index);
-			double x1 = x0 + dR_2*sinXi + dXi/2*rOuter*cosXi,
-					x2 = x0 - dR_2*sinXi + dXi/2*rInner*cosXi,
-					x3 = x0 - dR_2*sinXi - dXi/2*rInner*cosXi,
-					x4 = x0 + dR_2*sinXi - dXi/2*rOuter*cosXi;
-			
-			if ( ( (x1 > h_2) && (x2 > h_2) && (x3 > h_2) && (x4 > h_2) ) ||
-					( (x1 < -h_2) && (x2 < -h_2) && (x3 < -h_2) && (x4 < -h_2) ) )
-				illuminationPlate.setObjectAbs(iter.index, 0.0);
+		double totalVolume = 0, totalIlluminatedVolume = 0;
+		for (int i = 0; i < nR; i++) {
+			double r = r1DData[i];
+			// Corners of the volume element, for the illumination
+			double rIn = r - dR_2, rOut = r + dR_2;
+			for (int k = 0; k < nXi; k++) {
+				double sinXi = Math.sin(xi1DData[k]),
+						cosXi = Math.cos(xi1DData[k]);
+				double x0 = cosRoll*r*sinXi;
+				int index = i*nXi + k;
+				xPlate[index] = x0;
+				yPlate[index] = -sinRoll*r*sinXi;
+				zPlate[index] = r*cosXi;
+				
+				volumeElement[index] = dR*dXi*r;
+				totalVolume += volumeElement[index];
+				
+				// Illuminate the volume if the beam passes through the element (will overestimate the illuminated volume)
+				double x1 = x0 + dR_2*sinXi + dXi/2*rOut*cosXi,
+						x2 = x0 - dR_2*sinXi + dXi/2*rIn*cosXi,
+						x3 = x0 - dR_2*sinXi - dXi/2*rIn*cosXi,
+						x4 = x0 + dR_2*sinXi - dXi/2*rOut*cosXi;
+				if ( !( ( (x1 > h_2) && (x2 > h_2) && (x3 > h_2) && (x4 > h_2) ) ||
+						( (x1 < -h_2) && (x2 < -h_2) && (x3 < -h_2) && (x4 < -h_2) ) ) ) {
+					illuminatedVolume[index] = volumeElement[index];
+					totalIlluminatedVolume += volumeElement[index];
+				}
+			}
 		}
-		
-		
-		Dataset illuminatedVolume = Maths.multiply(illuminationPlate, Maths.multiply(dR*dXi, rCylinder));
-		// Loop over all detector angles
-		IndexIterator iterAngle = gamma.getIterator();
-		// total illuminated volume
-		double totalIlluminatedVolume = 0;
-		IndexIterator iterGrid = illuminatedVolume.getIterator();
-		while(iterGrid.hasNext())
-			totalIlluminatedVolume += illuminatedVolume.getElementDoubleAbs(iterGrid.index);
-
-//		System.err.println("New: "+ illuminatedVolume.sum() + ", old: "  + illuminatedVolumeOld.sum() );
-		
-		Dataset volumeElement = Maths.multiply(dR*dXi, rCylinder);
-		double totalVolume = ((Number) volumeElement.sum()).doubleValue();
 
 		double normalizationVolume = (illuminationNormalize) ? totalIlluminatedVolume : totalVolume;
 		
 		// For every direction, get the per-atom absorption of the radiation
 		// scattered by this object, as attenuated by all the attenuating
 		// objects.
-		DoubleDataset attenuation = gamma.copy(DoubleDataset.class);
-		
-		// The amount of absorption experienced by photons reaching the grid
-		// point from all considered attenuators
-		Dataset inboundAttenuation = DatasetFactory.ones(rCylinder);
-		
+		XPDFPathLengthIntegrator integrator = new XPDFPathLengthIntegrator(xPlate, yPlate, zPlate, illuminatedVolume);
+		List<XPDFComponentGeometry> none = Collections.emptyList();
+		List<Double> noAttenuation = Collections.emptyList();
 		// The upstream path length for each point is independent of scattering
 		// angle.
-		// Loop over all the attenuators in the List
-		for (int iAttenuator = 0; iAttenuator < attenuators.size(); iAttenuator++) {
-			Dataset upstreamPathLength;
-			if (doIncomingAbsorption) {
-				upstreamPathLength = attenuators.get(iAttenuator).getUpstreamPathLength(xPlate, yPlate, zPlate);
-			} else {
-				upstreamPathLength = DatasetFactory.zeros(xPlate);
-			}
-
-			double upstreamAttenuation = attenuationsIn.get(iAttenuator);
-
-			// Total inbound attenuation for all objects
-			inboundAttenuation.imultiply(Maths.exp(Maths.multiply(-upstreamAttenuation, upstreamPathLength)));
-		}
-		
-		while(iterAngle.hasNext()) {
-			//  Attenuation by all considered components, in the direction given by iterAngle at all grid points 
-			Dataset outboundAttenuation = DatasetFactory.ones(rCylinder);
-			for (int iAttenuator = 0; iAttenuator < attenuators.size(); iAttenuator++) {
-				// Attenuation by this component, in the given direction, at all grid points
-				Dataset downstreamPathLength;
-				if (doOutgoingAbsorption)
-					downstreamPathLength = attenuators.get(iAttenuator).getDownstreamPathLength(xPlate, yPlate, zPlate, gamma.getElementDoubleAbs(iterAngle.index), delta.getElementDoubleAbs(iterAngle.index));
-				else
-					downstreamPathLength = DatasetFactory.zeros(xPlate);
-
-				double downstreamAttenuation = attenuationsOut.get(iAttenuator);
-				outboundAttenuation.imultiply(Maths.exp(Maths.multiply(-downstreamAttenuation, downstreamPathLength)));
-			}
-
-			
-			double illuminatedScattering = (double) Maths.multiply(illuminatedVolume, Maths.multiply(inboundAttenuation, outboundAttenuation)).sum();
-//			iterGrid = outboundAttenuation.getIterator();
-//			double illuminatedScattering = 0.0;
-//			while (iterGrid.hasNext()) {
-//				illuminatedScattering += illuminatedVolume.getElementDoubleAbs(iterGrid.index) *
-//						inboundAttenuation.getElementDoubleAbs(iterGrid.index) * 
-//						outboundAttenuation.getElementDoubleAbs(iterGrid.index);
-//			}
-			attenuation.setAbs(iterAngle.index, illuminatedScattering/normalizationVolume);
-		}
-		return attenuation;		
+		if (doIncomingAbsorption)
+			integrator.setUpstream(attenuators, attenuationsIn);
+		if (doOutgoingAbsorption)
+			integrator.setDownstream(attenuators, attenuationsOut);
+		else
+			integrator.setDownstream(none, noAttenuation);
+		return integrator.integrate(gamma, delta, normalizationVolume);
 	}
 	
 	private double square(double x) {
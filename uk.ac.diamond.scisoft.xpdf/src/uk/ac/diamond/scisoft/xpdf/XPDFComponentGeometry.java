@@ -13,6 +13,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
 
 /**
  * The class for cylindrical components of the experimental target. This class
@@ -31,6 +32,8 @@ public abstract class XPDFComponentGeometry {
 	protected boolean isUpstream, isDownstream;
 	
 	protected int gridSize;
+	// Maximum number of directions calculated before interpolating, or 0 for the default
+	protected int angularGridSize;
 	
 	// Euler angles of the component in radians
 	protected double[] eulerAngles;
@@ -44,6 +47,7 @@ public abstract class XPDFComponentGeometry {
 		this.isUpstream = false;
 		this.isDownstream = false;
 		this.gridSize = 4096;
+		this.angularGridSize = 0;
 		this.eulerAngles = new double[] {0, 0, 0};
 	}
 
@@ -58,6 +62,7 @@ public abstract class XPDFComponentGeometry {
 		this.isUpstream = inGeom.isUpstream;
 		this.isDownstream = inGeom.isDownstream;
 		this.gridSize = inGeom.gridSize;
+		this.angularGridSize = inGeom.angularGridSize;
 		this.eulerAngles = Arrays.copyOf(inGeom.eulerAngles, 3);
 	}
 
@@ -130,6 +135,28 @@ public abstract class XPDFComponentGeometry {
 	public void setGridSize(int gridSize) {
 		this.gridSize = gridSize;
 	}
+
+	/**
+	 * Sets the maximum number of scattering directions for which the
+	 * absorption and fluorescence are calculated. Larger maps are calculated
+	 * on a coarser grid and interpolated.
+	 * @param angularGridSize
+	 * 				The maximum number of directions, {@link Integer#MAX_VALUE}
+	 * 				to calculate every direction, or 0 for the default.
+	 */
+	public void setAngularGridSize(int angularGridSize) {
+		this.angularGridSize = angularGridSize;
+	}
+
+	/**
+	 * Gets the maximum number of scattering directions to calculate.
+	 * @param defaultSize
+	 * 				the maximum number if none has been set.
+	 * @return the maximum number of directions.
+	 */
+	protected int getAngularGridSize(int defaultSize) {
+		return (angularGridSize > 0) ? angularGridSize : defaultSize;
+	}
 	
 	/**
 	 *  Sets the Euler angles in radians
@@ -232,6 +259,54 @@ public abstract class XPDFComponentGeometry {
 	 public abstract Dataset getDownstreamPathLength(Dataset x, Dataset y,
 	 Dataset z, double gamma, double delta);
 
+	/**
+	 * Calculates the path lengths upstream of the given points into an array.
+	 * <p>
+	 * As {@link #getUpstreamPathLength(Dataset, Dataset, Dataset)}, but
+	 * without creating any {@link Dataset}s. Subclasses should override this
+	 * with a direct calculation. It may be called from several threads at
+	 * once.
+	 * @param x
+	 * 			distances perpendicular to the beam.
+	 * @param y
+	 * 			distances perpendicular to the beam and to x.
+	 * @param z
+	 * 			distances along the beam.
+	 * @param lengths
+	 * 				array to receive the path length upstream of every point.
+	 */
+	public void getUpstreamPathLengths(double[] x, double[] y, double[] z, double[] lengths) {
+		Dataset l = getUpstreamPathLength(DatasetFactory.createFromObject(x), DatasetFactory.createFromObject(y), DatasetFactory.createFromObject(z));
+		for (int i = 0; i < lengths.length; i++)
+			lengths[i] = l.getElementDoubleAbs(i);
+	}
+
+	/**
+	 * Calculates the path lengths downstream of the given points, in the given direction, into an array.
+	 * <p>
+	 * As {@link #getDownstreamPathLength(Dataset, Dataset, Dataset, double, double)},
+	 * but without creating any {@link Dataset}s. Subclasses should override
+	 * this with a direct calculation. It may be called from several threads
+	 * at once.
+	 * @param x
+	 * 			distances perpendicular to the beam.
+	 * @param y
+	 * 			distances perpendicular to the beam and to x.
+	 * @param z
+	 * 			distances along the beam.
+	 * @param gamma
+	 * 			vertical scattering angle in radians.
+	 * @param delta
+	 * 			horizontal scattering angle in radians.
+	 * @param lengths
+	 * 				array to receive the path length downstream of every point.
+	 */
+	public void getDownstreamPathLengths(double[] x, double[] y, double[] z, double gamma, double delta, double[] lengths) {
+		Dataset l = getDownstreamPathLength(DatasetFactory.createFromObject(x), DatasetFactory.createFromObject(y), DatasetFactory.createFromObject(z), gamma, delta);
+		for (int i = 0; i < lengths.length; i++)
+			lengths[i] = l.getElementDoubleAbs(i);
+	}
+
 	 /**
 	  * Calculates the absorption correction map when attenuatorGeometry is attenuating.
 	  * <p>
@@ -270,6 +345,7 @@ public abstract class XPDFComponentGeometry {
 				isUpstream == inGeometry.isUpstream &&
 				isDownstream == inGeometry.isDownstream &&
 				gridSize == inGeometry.gridSize &&
+				angularGridSize == inGeometry.angularGridSize &&
 				getShape() == inGeometry.getShape();
 	}
 
@@ -9,6 +9,8 @@
 
 package uk.ac.diamond.scisoft.xpdf;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.january.dataset.Dataset;
@@ -106,6 +108,22 @@ public class XPDFComponentPlate extends XPDFComponentGeometry {
 		return DatasetFactory.zeros(x, DoubleDataset.class).fill(Math.abs(rInner - rOuter)/(Math.cos(gamma)*Math.cos(delta)));
 	}
 
+	/**
+	 * Calculates the path lengths upstream of the given points into an array.
+	 */
+	@Override
+	public void getUpstreamPathLengths(double[] x, double[] y, double[] z, double[] lengths) {
+		Arrays.fill(lengths, Math.abs(rInner - rOuter));
+	}
+
+	/**
+	 * Calculates the path lengths downstream of the given points into an array.
+	 */
+	@Override
+	public void getDownstreamPathLengths(double[] x, double[] y, double[] z, double gamma, double delta, double[] lengths) {
+		Arrays.fill(lengths, Math.abs(rInner - rOuter)/(Math.cos(gamma)*Math.cos(delta)));
+	}
+
 	/**
 	 * Calculates the absorption correction map when attenuatorGeometry is attenuating.
 	 */
@@ -146,62 +164,39 @@ public class XPDFComponentPlate extends XPDFComponentGeometry {
 			return DatasetFactory.zeros(gamma, DoubleDataset.class);
 		}
 		
-		// TODO: Is this the best way to expand a Dataset?
-		Dataset xPlate = DatasetFactory.zeros(DoubleDataset.class, x1D.getSize(), z1D.getSize());
-		Dataset zPlate = DatasetFactory.zeros(DoubleDataset.class, x1D.getSize(), z1D.getSize());
-		for (int i = 0; i<xSteps; i++) {
-			for (int k = 0; k<zSteps; k++) {
-				xPlate.set(x1D.getDouble(i), i, k);
-				zPlate.set(z1D.getDouble(k), i, k);
+		// Expand the one dimensional coordinates to a two dimensional grid of
+		// volume elements, indexed by i*nZ + k. Only the first xSteps×zSteps
+		// points of the grid are set, the rest remaining at the origin.
+		int nX = x1D.getSize(), nZ = z1D.getSize();
+		double[] xPlate = new double[nX*nZ];
+		double[] yPlate = new double[nX*nZ];
+		double[] zPlate = new double[nX*nZ];
+		for (int i = 0; i<Math.min(xSteps, nX); i++) {
+			for (int k = 0; k<Math.min(zSteps, nZ); k++) {
+				xPlate[i*nZ + k] = x1D.getDouble(i);
+				zPlate[i*nZ + k] = z1D.getDouble(k);
 			}
 		}
 		
-		// TODO: There has to be a better way to make a mask Dataset
-		Dataset illuminationPlate = DatasetFactory.ones(xPlate);
-		for (int i=0; i<xPlate.getShape()[0]; i++){
-			for (int k=0; k<zPlate.getShape()[1]; k++) {
-				if (Math.abs(xPlate.getDouble(i, k)) > beamData.getBeamHeight()/2)
-					illuminationPlate.set(0.0, i, k);
+		double[] illuminatedVolume = new double[nX*nZ];
+		double totalIlluminatedVolume = 0;
+		for (int index = 0; index < illuminatedVolume.length; index++) {
+			if (Math.abs(xPlate[index]) <= beamData.getBeamHeight()/2) {
+				illuminatedVolume[index] = dX*dZ;
+				totalIlluminatedVolume += dX*dZ;
 			}
 		}
 		
-		Dataset illuminatedVolume = Maths.multiply(illuminationPlate, dX*dZ);
-		
-		Dataset yPlate = Maths.multiply(xPlate, 0.0);
-		
-		Dataset upstreamPathLength, downstreamPathLength;
-		if (doUpstreamAbsorption) {
-			upstreamPathLength = attenuatorGeometry.getUpstreamPathLength(xPlate, yPlate, zPlate);
-		} else {
-			upstreamPathLength = DatasetFactory.zeros(xPlate);
-		}
-		
-		Dataset absorptionCorrection = gamma.copy(DoubleDataset.class);
-		// Loop over all detector angles
-		for (int i = 0; i<gamma.getShape()[0]; i++) {
-			for (int k = 0; k<gamma.getShape()[1]; k++) {
-				if (doDownstreamAbsorption)
-					downstreamPathLength = attenuatorGeometry.getDownstreamPathLength(xPlate, yPlate, zPlate, gamma.getDouble(i, k), delta.getDouble(i, k));
-				else
-					downstreamPathLength = DatasetFactory.zeros(xPlate);
-				
-				absorptionCorrection.set( ((Number)
-						Maths.multiply(
-								Maths.exp(
-										Maths.multiply(
-												-attenuationCoefficient, 
-												Maths.add(
-														upstreamPathLength,
-														downstreamPathLength
-														)
-												)
-										),
-										illuminatedVolume
-								).sum()).doubleValue() / ((Number) illuminatedVolume.sum()).doubleValue(), i, k);
-			}
-		}		
+		List<XPDFComponentGeometry> attenuators = Collections.singletonList(attenuatorGeometry);
+		List<Double> attenuations = Collections.singletonList(attenuationCoefficient);
+		XPDFPathLengthIntegrator integrator = new XPDFPathLengthIntegrator(xPlate, yPlate, zPlate, illuminatedVolume);
+		if (doUpstreamAbsorption)
+			integrator.setUpstream(attenuators, attenuations);
+		if (doDownstreamAbsorption)
+			integrator.setDownstream(attenuators, attenuations);
 		
-		return absorptionCorrection;
+		// Integrate over all detector angles
+		return integrator.integrate(gamma, delta, totalIlluminatedVolume);
 	}
 
 	@Override
@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
@@ -36,6 +37,9 @@ public class XPDFComposition {
 	 */
 	private Map<Integer, Double> atomCount;
 	private double electronOverlap;
+	// Mass attenuations at each energy calculated so far
+	private final Map<Double, Double> massAttenuations = new ConcurrentHashMap<Double, Double>();
+	private final Map<Double, Double> photoionizationAttenuations = new ConcurrentHashMap<Double, Double>();
 	
 	private static String normalNumbers = "0123456789.";
 	private static String subscriptNumbers = "₀₁₂₃₄₅₆₇₈₉.";
@@ -144,6 +148,9 @@ public class XPDFComposition {
 	 * @return the mass attenuation in cm²/g
 	 */
 	public double getMassAttenuation(double beamEnergy) {
+		Double cached = massAttenuations.get(beamEnergy);
+		if (cached != null)
+			return cached;
 
 		double massAttenuation = 0.0;		
 		double formulaMass = 0.0;
@@ -152,6 +159,7 @@ public class XPDFComposition {
 			formulaMass += Xraylib.AtomicWeight(stoichiometry.getKey())*stoichiometry.getValue();
 		}
 		massAttenuation /= formulaMass;
+		massAttenuations.put(beamEnergy, massAttenuation);
 		return massAttenuation;
 	}
 
@@ -305,6 +313,7 @@ public class XPDFComposition {
 		for (Map.Entry<Integer, Double> entry : atomCount.entrySet()) {
 			atomCount.put(entry.getKey(), entry.getValue()*weight);
 		}
+		clearAttenuations();
 	}
 
 	/**
@@ -319,6 +328,15 @@ public class XPDFComposition {
 			else
 				atomCount.put(entry.getKey(), entry.getValue());
 		}
+		clearAttenuations();
+	}
+
+	/**
+	 * Forgets the attenuations calculated for the previous composition.
+	 */
+	private void clearAttenuations() {
+		massAttenuations.clear();
+		photoionizationAttenuations.clear();
 	}
 	
 	@Override
@@ -371,6 +389,10 @@ public class XPDFComposition {
 	}
 	
 	public double getPhotoionizationAttenuation(double beamEnergy) {
+		Double cached = photoionizationAttenuations.get(beamEnergy);
+		if (cached != null)
+			return cached;
+
 		double massAttenuation = 0.0;		
 		double formulaMass = 0.0;
 		for (Map.Entry<Integer, Double> stoichiometry : atomCount.entrySet()) {
@@ -378,6 +400,7 @@ public class XPDFComposition {
 			formulaMass += Xraylib.AtomicWeight(stoichiometry.getKey())*stoichiometry.getValue();
 		}
 		massAttenuation /= formulaMass;
+		photoionizationAttenuations.put(beamEnergy, massAttenuation);
 		return massAttenuation;
 	}
 
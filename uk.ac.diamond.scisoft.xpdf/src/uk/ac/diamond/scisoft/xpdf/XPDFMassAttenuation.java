@@ -9,15 +9,32 @@
 
 package uk.ac.diamond.scisoft.xpdf;
 
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import com.github.tschoonj.xraylib.Xraylib;
 
 /**
  * Calculates the mass attenuation for fixed I15-1 beam energies.
+ * <p>
+ * The coefficients are remembered for each energy and element, since the
+ * same few energies are requested many times over.
  * @author Timothy Spain timothy.spain@diamond.ac.uk
  *
  */
 public final class XPDFMassAttenuation {
 
+	// Up to and including fermium
+	private static final int MAX_Z = 100;
+	// Forget all energies when there are more than this
+	private static final int MAX_ENERGIES = 1024;
+
+	// Maps from energy to coefficients indexed by atomic number, NaN where
+	// not yet calculated
+	private static final ConcurrentMap<Double, double[]> totals = new ConcurrentHashMap<Double, double[]>();
+	private static final ConcurrentMap<Double, double[]> photos = new ConcurrentHashMap<Double, double[]>();
+
 	/**
 	 * Private constructor
 	 */
@@ -35,7 +52,15 @@ public final class XPDFMassAttenuation {
 	public static double get(double energy, int z) {
 		
 		//return (new XCOMElement(z)).getAttenuation(energy*1e-3, "total");
-		return Xraylib.CS_Total(z, energy);
+		double[] coefficients = getCoefficients(totals, energy, z);
+		if (coefficients == null)
+			return Xraylib.CS_Total(z, energy);
+		double mu = coefficients[z];
+		if (Double.isNaN(mu)) {
+			mu = Xraylib.CS_Total(z, energy);
+			coefficients[z] = mu;
+		}
+		return mu;
 	}
 	
 	/**
@@ -47,6 +72,35 @@ public final class XPDFMassAttenuation {
 	 * @return the photoionization mass attenuation coefficient in cm²/g 
 	 */
 	public static double getPhoto(double energy, int z) {
-		return Xraylib.CS_Photo(z, energy);
+		double[] coefficients = getCoefficients(photos, energy, z);
+		if (coefficients == null)
+			return Xraylib.CS_Photo(z, energy);
+		double mu = coefficients[z];
+		if (Double.isNaN(mu)) {
+			mu = Xraylib.CS_Photo(z, energy);
+			coefficients[z] = mu;
+		}
+		return mu;
+	}
+
+	/**
+	 * Returns the remembered coefficients at an energy.
+	 * @return the coefficients indexed by atomic number, or null if z is out
+	 * 			of range.
+	 */
+	private static double[] getCoefficients(ConcurrentMap<Double, double[]> cache, double energy, int z) {
+		if (z < 0 || z > MAX_Z)
+			return null;
+		double[] coefficients = cache.get(energy);
+		if (coefficients == null) {
+			if (cache.size() >= MAX_ENERGIES)
+				cache.clear();
+			double[] c = new double[MAX_Z + 1];
+			Arrays.fill(c, Double.NaN);
+			coefficients = cache.putIfAbsent(energy, c);
+			if (coefficients == null)
+				coefficients = c;
+		}
+		return coefficients;
 	}
 }
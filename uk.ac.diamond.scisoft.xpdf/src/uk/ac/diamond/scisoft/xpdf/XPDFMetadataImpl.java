@@ -221,8 +221,9 @@ public class XPDFMetadataImpl implements XPDFMetadata {
 		// The intention is to be able to recall cached maps, if these are set 
 		// in the metadata. They are not, yet, so press on with the direct
 		// calculations. The map uses a pair of integers in a string as an
-		// index, based on the order in which they come in the list of components 
-		if (absorptionCorrectionMaps == null) {
+		// index, based on the order in which they come in the list of components.
+		// Recalculate if the forms have changed, e.g. the angular grid size.
+		if (absorptionCorrectionMaps == null || !absorptionCorrectionMaps.checkFormList(this.getFormList())) {
 		
 			absorptionCorrectionMaps = new XPDFAbsorptionMaps();
 
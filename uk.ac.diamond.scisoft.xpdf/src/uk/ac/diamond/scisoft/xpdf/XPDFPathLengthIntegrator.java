@@ -0,0 +1,153 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.xpdf;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+
+/**
+ * Integrates the attenuation of radiation scattered by the volume elements of
+ * a component, over the whole component, for many scattering directions.
+ * <p>
+ * The volume elements are given as primitive arrays of their coordinates and
+ * volumes. The attenuation of the incoming beam does not depend on the
+ * scattering direction, so it is folded into the volumes once. For each
+ * direction, the downstream path lengths through each attenuator are
+ * accumulated into a single exponent per element, and the attenuated volumes
+ * summed, without creating any intermediate {@link Dataset}s. Directions are
+ * integrated in parallel.
+ */
+class XPDFPathLengthIntegrator {
+
+	// Number of directions integrated by each parallel task
+	private static final int CHUNK = 64;
+
+	private final double[] x, y, z;
+	private final double[] weight;
+	private List<XPDFComponentGeometry> downstreamAttenuators;
+	private double[] downstreamAttenuations;
+
+	/**
+	 * Constructs the integrator over the volume elements with non-zero volume.
+	 * @param x
+	 * 			x coordinates of the volume elements
+	 * @param y
+	 * 			y coordinates of the volume elements
+	 * @param z
+	 * 			z coordinates of the volume elements
+	 * @param volume
+	 * 				volumes of the elements, zero where they do not scatter
+	 */
+	public XPDFPathLengthIntegrator(double[] x, double[] y, double[] z, double[] volume) {
+		int n = 0;
+		for (double v : volume)
+			if (v != 0.0)
+				n++;
+		this.x = new double[n];
+		this.y = new double[n];
+		this.z = new double[n];
+		this.weight = new double[n];
+		for (int i = 0, j = 0; i < volume.length; i++) {
+			if (volume[i] != 0.0) {
+				this.x[j] = x[i];
+				this.y[j] = y[i];
+				this.z[j] = z[i];
+				this.weight[j] = volume[i];
+				j++;
+			}
+		}
+	}
+
+	/**
+	 * Attenuates the incoming beam at each volume element.
+	 * @param attenuators
+	 * 					geometries of the attenuating components
+	 * @param attenuations
+	 * 					attenuation coefficients of the components at the beam
+	 * 					energy
+	 */
+	public void setUpstream(List<XPDFComponentGeometry> attenuators, List<Double> attenuations) {
+		double[] length = new double[weight.length];
+		double[] exponent = new double[weight.length];
+		for (int a = 0; a < attenuators.size(); a++) {
+			attenuators.get(a).getUpstreamPathLengths(x, y, z, length);
+			double mu = attenuations.get(a);
+			for (int i = 0; i < exponent.length; i++)
+				exponent[i] += mu * length[i];
+		}
+		for (int i = 0; i < weight.length; i++)
+			weight[i] *= Math.exp(-exponent[i]);
+	}
+
+	/**
+	 * Sets the components that attenuate the scattered radiation.
+	 * @param attenuators
+	 * 					geometries of the attenuating components
+	 * @param attenuations
+	 * 					attenuation coefficients of the components at the
+	 * 					energy of the scattered radiation
+	 */
+	public void setDownstream(List<XPDFComponentGeometry> attenuators, List<Double> attenuations) {
+		downstreamAttenuators = attenuators;
+		downstreamAttenuations = new double[attenuations.size()];
+		for (int a = 0; a < downstreamAttenuations.length; a++)
+			downstreamAttenuations[a] = attenuations.get(a);
+	}
+
+	/**
+	 * Integrates the attenuated volume in each direction.
+	 * @param gamma
+	 * 				vertical scattering angles in radians.
+	 * @param delta
+	 * 				horizontal scattering angles in radians.
+	 * @param normalization
+	 * 					volume by which to divide the integrated volumes
+	 * @return the attenuated volume fraction in each direction, with the
+	 * 		shape of gamma.
+	 */
+	public Dataset integrate(Dataset gamma, Dataset delta, final double normalization) {
+		final double[] gammaData = DatasetUtils.copy(DoubleDataset.class, gamma).getData();
+		final double[] deltaData = DatasetUtils.copy(DoubleDataset.class, delta).getData();
+		final double[] result = new double[gammaData.length];
+
+		if (downstreamAttenuators == null || downstreamAttenuators.isEmpty()) {
+			double sum = 0;
+			for (double w : weight)
+				sum += w;
+			Arrays.fill(result, sum / normalization);
+		} else {
+			final int nChunks = (result.length + CHUNK - 1) / CHUNK;
+			IntStream.range(0, nChunks).parallel().forEach(c -> {
+				double[] length = new double[weight.length];
+				double[] exponent = new double[weight.length];
+				for (int p = c * CHUNK, pEnd = Math.min(p + CHUNK, result.length); p < pEnd; p++) {
+					Arrays.fill(exponent, 0.0);
+					for (int a = 0; a < downstreamAttenuations.length; a++) {
+						downstreamAttenuators.get(a).getDownstreamPathLengths(x, y, z, gammaData[p], deltaData[p], length);
+						double mu = downstreamAttenuations[a];
+						for (int i = 0; i < exponent.length; i++)
+							exponent[i] += mu * length[i];
+					}
+					double sum = 0;
+					for (int i = 0; i < exponent.length; i++)
+						sum += weight[i] * Math.exp(-exponent[i]);
+					result[p] = sum / normalization;
+				}
+			});
+		}
+		return DatasetFactory.createFromObject(result, gamma.getShape());
+	}
+}
@@ -68,6 +68,10 @@ abstract public class XPDFScaled2DCalculation {
 		int nXLow = nXYLow[0];
 		int nYLow = nXYLow[1];
 
+		// No need to resample if the grid is small enough
+		if (nXLow == nXHigh && nYLow == nYHigh)
+			return calculate(gamma, delta);
+
 		// Down sampling of the angular coordinates for faster calculations
 		Dataset gammaDown = XPDFRegrid.two(gamma, nXLow, nYLow);
 		Dataset deltaDown = XPDFRegrid.two(delta, nXLow, nYLow);
@@ -107,6 +111,10 @@ abstract public class XPDFScaled2DCalculation {
 		int nXLow = nXYLow[0];
 		int nYLow = nXYLow[1];
 		
+		// No need to resample if the grid is small enough
+		if (nXLow == nXHigh && nYLow == nYHigh)
+			return calculateTwoTheta(twoTheta);
+		
 		// Down-sampling of the angular coordinate for faster calculations
 		Dataset twoThetaLow = XPDFRegrid.two(twoTheta, nXLow, nYLow);
 		
@@ -0,0 +1,259 @@
+/*-
+ * Copyright 2017 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.xpdf;
+
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+
+/**
+ * Sine transform between a q grid and an r grid.
+ * <p>
+ * Calculates the sums
+ * <pre>
+ * F(r<sub>i</sub>) = &Sigma;<sub>j</sub> sin(q<sub>j</sub> r<sub>i</sub>) f<sub>j</sub>
+ * </pre>
+ * and the equivalent sums over sin<sup>2</sup>(q<sub>j</sub> r<sub>i</sub>) that propagate variances
+ * through the transform. When both grids are uniform, the sums are evaluated with a chirp-z transform
+ * using FFTs of length the next power of two above N<sub>q</sub> + N<sub>r</sub>, which takes
+ * O((N<sub>q</sub> + N<sub>r</sub>) log(N<sub>q</sub> + N<sub>r</sub>)) operations. Otherwise they are
+ * summed directly in O(N<sub>q</sub> N<sub>r</sub>) operations.
+ * <p>
+ * An instance holds the precomputed transforms for its grids and can be reused for many functions
+ * on the same grids. It is not thread safe.
+ */
+public class XPDFSineTransform {
+
+	private static final double UNIFORM_TOLERANCE = 1e-6;
+
+	private final double[] q;
+	private final double[] r;
+	private final boolean uniform;
+	private ChirpZ single; // exponential sums at r
+	private ChirpZ twice; // exponential sums at 2r
+
+	/**
+	 * @param q
+	 * 			coordinates of the functions to transform
+	 * @param r
+	 * 			coordinates of the transformed functions
+	 */
+	public XPDFSineTransform(Dataset q, Dataset r) {
+		this.q = toArray(q);
+		this.r = toArray(r);
+		uniform = isUniform(this.q) && isUniform(this.r);
+	}
+
+	/**
+	 * @return true if the sums are evaluated with FFTs
+	 */
+	public boolean isFast() {
+		return uniform;
+	}
+
+	/**
+	 * @param f
+	 * 			function on the q grid
+	 * @return &Sigma;<sub>j</sub> sin(q<sub>j</sub> r<sub>i</sub>) f<sub>j</sub> on the r grid
+	 */
+	public Dataset sine(Dataset f) {
+		double[] fa = toArray(f);
+		checkSize(fa);
+		double[] out = new double[r.length];
+		if (uniform) {
+			if (single == null) {
+				single = new ChirpZ(q, r, 1);
+			}
+			single.imaginary(fa, out);
+		} else {
+			for (int i = 0; i < r.length; i++) {
+				double s = 0;
+				for (int j = 0; j < q.length; j++) {
+					s += Math.sin(q[j] * r[i]) * fa[j];
+				}
+				out[i] = s;
+			}
+		}
+		return DatasetFactory.createFromObject(out);
+	}
+
+	/**
+	 * Propagate variances through the transform
+	 * @param variance
+	 * 			independent variances of the function on the q grid, including the square of any factor
+	 * 			applied before the transform
+	 * @return &Sigma;<sub>j</sub> sin<sup>2</sup>(q<sub>j</sub> r<sub>i</sub>) v<sub>j</sub> on the r grid
+	 */
+	public Dataset sineSquared(Dataset variance) {
+		double[] va = toArray(variance);
+		checkSize(va);
+		double[] out = new double[r.length];
+		if (uniform) {
+			// sin^2(x) = (1 - cos(2x))/2
+			if (twice == null) {
+				twice = new ChirpZ(q, r, 2);
+			}
+			twice.real(va, out);
+			double sum = 0;
+			for (double v : va) {
+				sum += v;
+			}
+			for (int i = 0; i < r.length; i++) {
+				out[i] = 0.5 * (sum - out[i]);
+			}
+		} else {
+			for (int i = 0; i < r.length; i++) {
+				double s = 0;
+				for (int j = 0; j < q.length; j++) {
+					double sin = Math.sin(q[j] * r[i]);
+					s += sin * sin * va[j];
+				}
+				out[i] = s;
+			}
+		}
+		return DatasetFactory.createFromObject(out);
+	}
+
+	private void checkSize(double[] f) {
+		if (f.length != q.length) {
+			throw new IllegalArgumentException("Function must have same size as q");
+		}
+	}
+
+	private static double[] toArray(Dataset d) {
+		return DatasetUtils.copy(DoubleDataset.class, d).getData();
+	}
+
+	private static boolean isUniform(double[] x) {
+		int n = x.length;
+		if (n < 2) {
+			return false;
+		}
+		double step = (x[n - 1] - x[0]) / (n - 1);
+		if (step == 0) {
+			return false;
+		}
+		for (int i = 1; i < n - 1; i++) {
+			if (Math.abs(x[i] - x[0] - i * step) > UNIFORM_TOLERANCE * Math.abs(step)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Chirp-z evaluation of &Sigma;<sub>j</sub> f<sub>j</sub> exp(i s q<sub>j</sub> r<sub>k</sub>) for
+	 * uniform q and r. With q<sub>j</sub> = q<sub>0</sub> + j dq and r<sub>k</sub> = r<sub>0</sub> + k dr,
+	 * the sum is a discrete convolution with the chirp exp(-i &theta; m<sup>2</sup>/2) where
+	 * &theta; = s dq dr, since jk = (j<sup>2</sup> + k<sup>2</sup> - (k-j)<sup>2</sup>)/2.
+	 */
+	private static class ChirpZ {
+		private final int nq;
+		private final int nr;
+		private final int length;
+		private final double[][] inPhase; // exp(i s j dq r_0) c_j
+		private final double[][] outPhase; // exp(i s q_0 r_k) c_k
+		private final double[][] kernel; // transform of conj(c_m)
+		private final double[][] work;
+
+		ChirpZ(double[] q, double[] r, double scale) {
+			nq = q.length;
+			nr = r.length;
+			int n = nq + nr - 1;
+			int l = 1;
+			while (l < n) {
+				l <<= 1;
+			}
+			length = l;
+
+			double dq = (q[nq - 1] - q[0]) / (nq - 1);
+			double dr = (r[nr - 1] - r[0]) / (nr - 1);
+			double halfTheta = 0.5 * scale * dq * dr;
+			double q0 = q[0];
+			double r0 = scale * r[0];
+
+			inPhase = new double[2][nq];
+			for (int j = 0; j < nq; j++) {
+				double p = j * dq * r0 + chirp(halfTheta, j);
+				inPhase[0][j] = Math.cos(p);
+				inPhase[1][j] = Math.sin(p);
+			}
+			outPhase = new double[2][nr];
+			for (int k = 0; k < nr; k++) {
+				double p = q0 * (r0 + k * scale * dr) + chirp(halfTheta, k);
+				outPhase[0][k] = Math.cos(p);
+				outPhase[1][k] = Math.sin(p);
+			}
+
+			kernel = new double[2][length];
+			for (int m = 0; m < nr; m++) {
+				double p = chirp(halfTheta, m);
+				kernel[0][m] = Math.cos(p);
+				kernel[1][m] = -Math.sin(p);
+			}
+			for (int m = 1; m < nq; m++) {
+				double p = chirp(halfTheta, m);
+				kernel[0][length - m] = Math.cos(p);
+				kernel[1][length - m] = -Math.sin(p);
+			}
+			FastFourierTransformer.transformInPlace(kernel, DftNormalization.STANDARD, TransformType.FORWARD);
+			work = new double[2][length];
+		}
+
+		/**
+		 * @return phase &theta; m<sup>2</sup>/2 reduced to [0, 2&pi;) to keep precision for large m
+		 */
+		private static double chirp(double halfTheta, long m) {
+			double p = halfTheta * (m * m);
+			return p - 2 * Math.PI * Math.floor(p / (2 * Math.PI));
+		}
+
+		private void sum(double[] f) {
+			double[] re = work[0];
+			double[] im = work[1];
+			for (int j = 0; j < nq; j++) {
+				re[j] = f[j] * inPhase[0][j];
+				im[j] = f[j] * inPhase[1][j];
+			}
+			for (int j = nq; j < length; j++) {
+				re[j] = 0;
+				im[j] = 0;
+			}
+			FastFourierTransformer.transformInPlace(work, DftNormalization.STANDARD, TransformType.FORWARD);
+			double[] kr = kernel[0];
+			double[] ki = kernel[1];
+			for (int j = 0; j < length; j++) {
+				double a = re[j];
+				double b = im[j];
+				re[j] = a * kr[j] - b * ki[j];
+				im[j] = a * ki[j] + b * kr[j];
+			}
+			FastFourierTransformer.transformInPlace(work, DftNormalization.STANDARD, TransformType.INVERSE);
+		}
+
+		void real(double[] f, double[] out) {
+			sum(f);
+			for (int k = 0; k < nr; k++) {
+				out[k] = work[0][k] * outPhase[0][k] - work[1][k] * outPhase[1][k];
+			}
+		}
+
+		void imaginary(double[] f, double[] out) {
+			sum(f);
+			for (int k = 0; k < nr; k++) {
+				out[k] = work[0][k] * outPhase[1][k] + work[1][k] * outPhase[0][k];
+			}
+		}
+	}
+}
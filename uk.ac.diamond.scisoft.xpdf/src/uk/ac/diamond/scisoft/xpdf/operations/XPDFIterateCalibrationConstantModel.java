@@ -27,6 +27,8 @@ public class XPDFIterateCalibrationConstantModel extends AbstractOperationModel
 	private double fluorescenceScale = 0.0;
 	@OperationModelField(hint="Regenegerate the absorption maps", label="Regenerate absorption maps")
 	private boolean regenerateAbsorptionMaps = false;
+	@OperationModelField(hint="Calculate the absorption and fluorescence maps for every pixel rather than interpolating from a coarser grid", label = "Full resolution maps")
+	private boolean fullResolutionMaps = false;
 	@OperationModelField(hint="Number of parallel threads to use for the fluorescence calibration", label = "Parallel threads")
 	private int nThreads = 1;
 	@OperationModelField(hint="Polarization factor of the incident beam", label = "Polarization factor")
@@ -92,6 +94,13 @@ public class XPDFIterateCalibrationConstantModel extends AbstractOperationModel
 		firePropertyChange("regenerateAbsorptionMaps", this.regenerateAbsorptionMaps, this.regenerateAbsorptionMaps = regenerateAbsorptionMaps);
 	}
 
+	public boolean isFullResolutionMaps() {
+		return fullResolutionMaps;
+	}
+	public void setFullResolutionMaps(boolean fullResolutionMaps) {
+		firePropertyChange("fullResolutionMaps", this.fullResolutionMaps, this.fullResolutionMaps = fullResolutionMaps);
+	}
+
 	public int getNThreads() {
 		return nThreads;
 	}
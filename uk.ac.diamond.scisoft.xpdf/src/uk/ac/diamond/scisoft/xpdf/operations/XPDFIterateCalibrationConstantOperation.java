@@ -23,6 +23,7 @@ import uk.ac.diamond.scisoft.analysis.io.DiffractionMetadata;
 import uk.ac.diamond.scisoft.xpdf.XPDFAbsorptionMaps;
 import uk.ac.diamond.scisoft.xpdf.XPDFCalibration;
 import uk.ac.diamond.scisoft.xpdf.XPDFCalibrationBase;
+import uk.ac.diamond.scisoft.xpdf.XPDFComponentForm;
 import uk.ac.diamond.scisoft.xpdf.XPDFComposition;
 import uk.ac.diamond.scisoft.xpdf.XPDFCoordinates;
 import uk.ac.diamond.scisoft.xpdf.XPDFQSquaredIntegrator;
@@ -231,6 +232,13 @@ public class XPDFIterateCalibrationConstantOperation extends
 				throw new OperationException(this, "Could not define sample geometry: " + e.toString());
 			}
 
+			// Calculate the absorption and fluorescence maps at the full resolution of the data, if requested
+			int angularGridSize = model.isFullResolutionMaps() ? Integer.MAX_VALUE : 0;
+			for (XPDFComponentForm form : theXPDFMetadata.getFormList()) {
+				if (form.getGeom() != null)
+					form.getGeom().setAngularGridSize(angularGridSize);
+			}
+
 			theBase.setSampleIlluminatedAtoms(theXPDFMetadata.getSampleIlluminatedAtoms());
 
 			// Get 2θ, the axis variable
@@ -9,9 +9,6 @@
 
 package uk.ac.diamond.scisoft.xpdf.operations;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.eclipse.dawnsci.analysis.api.processing.Atomic;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
@@ -30,6 +27,7 @@ import org.eclipse.january.metadata.AxesMetadata;
 import org.eclipse.january.metadata.MetadataFactory;
 
 import uk.ac.diamond.scisoft.xpdf.XPDFCoordinates;
+import uk.ac.diamond.scisoft.xpdf.XPDFSineTransform;
 import uk.ac.diamond.scisoft.xpdf.metadata.XPDFMetadata;
 
 /**
@@ -92,45 +90,20 @@ public class XPDFLorchFTOperation extends
 		System.err.println("Lorch cutoff at q = " + theXPDFMetadata.getLorchCutOff());
 		
 		Dataset r = DatasetFactory.createRange(DoubleDataset.class, model.getrStep()/2, model.getrMax(), model.getrStep());
+		Dataset qCut = q.getSliceView(new int[]{0}, new int[]{iCutoff}, new int[]{1});
 		Dataset hofr = doLorchFT(DatasetUtils.convertToDataset(thSoq).getSliceView(new int[]{0}, new int[]{iCutoff}, new int[]{1}),
-					q.getSliceView(new int[]{0}, new int[]{iCutoff}, new int[]{1}), r, model.getLorchWidth(), numberDensity);
+					qCut, r, model.getLorchWidth(), numberDensity);
 		// Error propagation: through the Fourier transform
 		if (thSoq.getErrors() != null) {
-			// Prepare the Datasets to receive the transformed values. They all
-			// need to be held at the same time to allow for the (logical)
-			// transpose
-			List<Dataset> sigmaF = new ArrayList<Dataset>(q.getSize());
-			
-			for (int iq = 0; iq < q.getSize(); iq++) {
-				Dataset covarQ = DatasetFactory.zeros(DoubleDataset.class, 4);
-				// The vector to transform is zero, except at element iq it
-				// holds the uncertainty variance (error squared) of the data
-				// point at iq
-				IDataset sl = thSoq.getErrors().getSlice();
-				covarQ.set(Maths.square(sl.getDouble(iq)), 0);
-				Dataset qSlice = Maths.add(q.getDouble(iq), Maths.multiply(q.getDouble(3)-q.getDouble(2), DatasetFactory.createRange(DoubleDataset.class, 0, 4, 1))); 
-						
-				// Transform this vector exactly as the data
-				sigmaF.add(iq, doLorchFT(covarQ, qSlice, r, model.getLorchWidth(), numberDensity));
-			}
-
-			Dataset hofrError = hofr.copy(DoubleDataset.class);
-			for (int ir = 0; ir < r.getSize(); ir++) {
-				DoubleDataset covarQR = DatasetFactory.zeros(q, DoubleDataset.class);
-				// Create the vector to be transformed
-				for (int iq = 0; iq < q.getSize(); iq++) {
-					covarQR.setAbs(iq, sigmaF.get(iq).getDouble(ir));
-				}
-				// Transform the semi-transformed variance. Take the ir-th 
-				// element, and assign the square root to the ir-th element of
-				// the final error vector. 
-				
-				// Only a subset of r is needed
-				Dataset rSubset = r.getSlice(new int[] {ir}, new int[] {ir+1}, new int[] {1});
-				
-				hofrError.set(Maths.sqrt(doLorchFT(covarQR, q, rSubset, model.getLorchWidth(), numberDensity).getDouble(0)), ir);
-			}
-			hofr.setErrors(hofrError);
+			// The transform is linear, and the data points are independent,
+			// so the variance of each point of H(r) is the sum of the
+			// variances of the data weighted by the square of the kernel
+			Dataset sigma = DatasetUtils.convertToDataset(thSoq.getErrors());
+			Dataset weight = Maths.multiply(q, lorch(q, model.getLorchWidth()));
+			Dataset variance = Maths.square(Maths.multiply(weight, sigma));
+			Dataset hofrVariance = new XPDFSineTransform(q, r).sineSquared(variance);
+			hofrVariance.imultiply(Maths.square(transformScale(q, r, numberDensity)));
+			hofr.setErrors(Maths.sqrt(hofrVariance));
 		}
 		
 		Dataset gofr = Maths.divide(hofr, g0minus1);
@@ -180,11 +153,21 @@ public class XPDFLorchFTOperation extends
 		//	        output[i] = (np.sin(q*r[i])*qhq*Lorch).sum()
 		//	    output = output*(q[3]-q[2])*np.power(2.0*np.square(pi)*rho*r,-1)
 
-		// Calculate th_soq, if it does not exist
+		Dataset qhq = Maths.multiply(q, thSoq);
+		Dataset lorch = lorch(q, lorchWidth);
 		
+		// A Discrete Sine Transform
+		Dataset output = new XPDFSineTransform(q, r).sine(Maths.multiply(qhq, lorch));
+		output.imultiply(transformScale(q, r, numberDensity));
 		
-		Dataset output = DatasetFactory.zeros(r, DoubleDataset.class);
-		Dataset qhq = Maths.multiply(q, thSoq);
+	    return output;
+	}
+
+	/**
+	 * The Lorch modification function, 3(sin(qd) - qd cos(qd))/(qd)^3, or
+	 * zero where q is not positive.
+	 */
+	private static Dataset lorch(Dataset q, double lorchWidth) {
 		Dataset qd = Maths.multiply(q, lorchWidth);
 		Dataset lorch = 
 				Maths.multiply(
@@ -193,25 +176,18 @@ public class XPDFLorchFTOperation extends
 							Maths.sin(qd), 
 							Maths.multiply(qd, Maths.cos(qd))));
 		if (q.getDouble(0) <= 0.0) lorch.set(0.0, 0);
-		
-		// Something resembling a Discrete Sine Transform
-		for (int i = 0; i < output.getSize(); i++) {
-			output.set(
-					Maths.multiply(
-							Maths.multiply(
-									Maths.sin(
-											Maths.multiply(q, r.getDouble(i))), 
-									qhq),
-							lorch).sum(true),
-						i);
-		}
-		output.imultiply(Maths.divide(
+		return lorch;
+	}
+
+	/**
+	 * The factor applied to the sine transform to get H(r).
+	 */
+	private static Dataset transformScale(Dataset q, Dataset r, double numberDensity) {
+		return Maths.divide(
 				(q.getDouble(3) - q.getDouble(2)), 
 				Maths.multiply(
 						2 * Math.pow(Math.PI, 2) * numberDensity,
-						r)));
-		
-	    return output;
+						r));
 	}
 
 	